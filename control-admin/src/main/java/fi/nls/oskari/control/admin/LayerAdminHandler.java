@@ -1,12 +1,12 @@
 package fi.nls.oskari.control.admin;
 
 import fi.nls.oskari.annotation.OskariActionRoute;
-import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.control.ActionDeniedException;
 import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionParameters;
 import fi.nls.oskari.control.ActionParamsException;
 import fi.nls.oskari.control.layer.GetMapLayerGroupsHandler;
+import fi.nls.oskari.control.layer.ProxyTileCache;
 import fi.nls.oskari.domain.User;
 import fi.nls.oskari.domain.map.DataProvider;
 import fi.nls.oskari.domain.map.OskariLayer;
@@ -66,8 +66,10 @@ public class LayerAdminHandler extends AbstractLayerAdminHandler {
         super.init();
     }
 
-    private void flushLayerListCache() {
-        CacheManager.getCache(GetMapLayerGroupsHandler.CACHE_NAME).flush(true);
+    private void flushLayerListCache(OskariLayer layer) {
+        GetMapLayerGroupsHandler.flushLayer(layer);
+        // group links of the layer might have changed
+        GetMapLayerGroupsHandler.flushGroups();
     }
 
     private VectorStyleService getVectorStyleService() {
@@ -116,6 +118,7 @@ public class LayerAdminHandler extends AbstractLayerAdminHandler {
                 .withParam("name", ml.getName());
 
         if (isExisting) {
+            ProxyTileCache.getInstance().invalidateLayer(ml.getId());
             audit.updated(AuditLog.ResourceType.MAPLAYER);
         } else {
             audit.added(AuditLog.ResourceType.MAPLAYER);
@@ -126,7 +129,7 @@ public class LayerAdminHandler extends AbstractLayerAdminHandler {
             // NOTE! only tell if permissions failed, this probably needs some refactoring to be useful
             output.setWarn(KEY_PERMISSIONS_FAIL);
         }
-        flushLayerListCache();
+        flushLayerListCache(ml);
         writeResponse(params, output);
     }
 
@@ -136,10 +139,11 @@ public class LayerAdminHandler extends AbstractLayerAdminHandler {
         final OskariLayer ml = getMapLayer(params.getUser(), id);
         MapLayerAdminOutput output = getLayerForEdit(params.getUser(), ml);
         try {
-            cleanupLayerReferences(id);
+            List<OskariLayer> updatedReferences = cleanupLayerReferences(id);
             mapLayerService.delete(id);
 
             MapLayerPermissionsHelper.removePermissions(id);
+            ProxyTileCache.getInstance().invalidateLayer(id);
 
             AuditLog.user(params.getClientIp(), params.getUser())
                     .withParam("id", ml.getId())
@@ -149,14 +153,15 @@ public class LayerAdminHandler extends AbstractLayerAdminHandler {
                     .deleted(AuditLog.ResourceType.MAPLAYER);
 
             writeResponse(params, output);
-            flushLayerListCache();
+            flushLayerListCache(ml);
+            updatedReferences.forEach(GetMapLayerGroupsHandler::flushLayer);
         } catch (Exception e) {
             throw new ActionException("Couldn't delete map layer - id:" + id, e);
         }
     }
 
     public List<OskariLayer> cleanupLayerReferences(int layerId) throws ActionException {
-        Set<OskariLayer> layers = LayerAdminHelper.getTimeseriesReferencedLayers(layerId, mapLayerService.findAll());
+        Set<OskariLayer> layers = LayerAdminHelper.getTimeseriesReferencedLayers(layerId, mapLayerService.findAllWithoutCapabilities());
         for (OskariLayer layer : layers) {
             JSONObject options = layer.getOptions();
             options.remove("timeseries");
@@ -41,7 +41,7 @@ public class LayerAdminUsageCheckHandler extends RestActionHandler {
 
     private Set<Integer> getTimeseriesLayerIds(int layerId) throws ActionException {
         Set<Integer> timeseriesLayerIds = new HashSet<>();
-        Set<OskariLayer> layers = LayerAdminHelper.getTimeseriesReferencedLayers(layerId, mapLayerService.findAll());
+        Set<OskariLayer> layers = LayerAdminHelper.getTimeseriesReferencedLayers(layerId, mapLayerService.findAllWithoutCapabilities());
         for (OskariLayer layer : layers) {
             timeseriesLayerIds.add(layer.getId());
         }
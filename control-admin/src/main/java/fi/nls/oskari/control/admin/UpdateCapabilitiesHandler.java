@@ -6,6 +6,7 @@ import java.util.Set;
 import java.util.stream.Collectors;
 
 import fi.nls.oskari.control.*;
+import fi.nls.oskari.control.layer.ProxyTileCache;
 import fi.nls.oskari.util.PropertyUtil;
 import org.oskari.capabilities.CapabilitiesService;
 import org.oskari.capabilities.CapabilitiesUpdateResult;
@@ -86,6 +87,7 @@ public class UpdateCapabilitiesHandler extends RestActionHandler {
                 continue;
             }
             layerService.update(layer);
+            ProxyTileCache.getInstance().invalidateLayer(layer.getId());
             AuditLog.user(params.getClientIp(), params.getUser())
                     .withParam("id", layer.getId())
                     .withParam("name", layer.getName(PropertyUtil.getDefaultLanguage()))
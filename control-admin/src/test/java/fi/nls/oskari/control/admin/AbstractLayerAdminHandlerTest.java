@@ -32,6 +32,7 @@ public abstract class AbstractLayerAdminHandlerTest extends JSONActionRouteTest
         when(OskariComponentManager.getComponentOfType(PermissionService.class)).thenReturn(permissionService);
         when(OskariComponentManager.getComponentOfType(OskariLayerService.class)).thenReturn(mapLayerService);
         doReturn(getTestLayers()).when(mapLayerService).findAll();
+        doReturn(getTestLayers()).when(mapLayerService).findAllWithoutCapabilities();
         doNothing().when(mapLayerService).update(any());
         doReturn(new HashSet<String>()).when(permissionService).getAdditionalPermissions();
         doAnswer(invocation -> invocation.getArgument(0)).when(permissionService).getPermissionName(anyString(),anyString());
@@ -26,7 +26,6 @@ import fi.nls.oskari.map.layer.group.link.OskariLayerGroupLinkServiceMybatisImpl
 import fi.nls.oskari.util.JSONHelper;
 import fi.nls.oskari.util.PropertyUtil;
 import fi.nls.oskari.util.ResponseHelper;
-import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.control.layer.GetMapLayerGroupsHandler;
 
 /**
@@ -66,7 +65,7 @@ public class MapLayerGroupsHandler extends RestActionHandler {
 	}
 
 	private void flushLayerListCache() {
-        CacheManager.getCache(GetMapLayerGroupsHandler.CACHE_NAME).flush(true);
+        GetMapLayerGroupsHandler.flushGroups();
     }
 
 	/**
@@ -194,7 +193,10 @@ public class MapLayerGroupsHandler extends RestActionHandler {
 		List<String> layerNamesToBeDeleted;
 
 		if (deleteLayers) {
-			layers.forEach(layer -> mapLayerService.delete(layer.getId()));
+			layers.forEach(layer -> {
+				mapLayerService.delete(layer.getId());
+				GetMapLayerGroupsHandler.flushLayer(layer);
+			});
 			layerNamesToBeDeleted = layers.stream().map(OskariLayer::getName).collect(Collectors.toList());
 		} else {
 			linkService.deleteLinksByGroupId(maplayerGroup.getId());
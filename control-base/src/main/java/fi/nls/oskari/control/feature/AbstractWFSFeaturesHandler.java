@@ -11,6 +11,7 @@ import org.oskari.service.user.LayerAccessHandler;
 import org.oskari.service.user.UserLayerService;
 import org.oskari.service.util.ServiceFactory;
 import org.oskari.service.wfs.client.CachingOskariWFSClient;
+import org.oskari.service.wfs.client.OskariCachingSchemaLocator;
 import org.oskari.service.wfs.client.OskariFeatureClient;
 import org.oskari.service.wfs.client.OskariWFSClient;
 
@@ -50,6 +51,8 @@ public abstract class AbstractWFSFeaturesHandler extends ActionHandler {
 
         Map<String, LayerAccessHandler> handlerComponents = OskariComponentManager.getComponentsOfType(LayerAccessHandler.class);
         this.layerAccessHandlers = handlerComponents.values();
+        // resolve the schemas of WFS layers before the first GML requests arrive
+        OskariCachingSchemaLocator.prewarm(() -> ServiceFactory.getMapLayerService().findAllWithoutCapabilities());
     }
 
     protected OskariWFSClient createWFSClient() {
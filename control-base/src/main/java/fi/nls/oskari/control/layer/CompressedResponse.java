@@ -0,0 +1,138 @@
+package fi.nls.oskari.control.layer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import fi.nls.oskari.control.ActionParameters;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.IOHelper;
+
+/**
+ * Response body that is stored gzipped with an ETag calculated from the content.
+ * Used for large responses that are cached and returned as is to many users (like the layer listing)
+ * so the encoding and compression is done once when the response is created instead of on each request.
+ */
+public class CompressedResponse {
+
+    private static final Logger LOG = LogFactory.getLogger(CompressedResponse.class);
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_VARY = "Vary";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String contentType;
+    private final byte[] gzipped;
+    private final int length;
+    private final String etag;
+
+    private CompressedResponse(String contentType, byte[] gzipped, int length, String etag) {
+        this.contentType = contentType;
+        this.gzipped = gzipped;
+        this.length = length;
+        this.etag = etag;
+    }
+
+    public static CompressedResponse create(String contentType, String content) throws IOException {
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        return new CompressedResponse(contentType, IOHelper.gzip(bytes).toByteArray(), bytes.length, getETag(bytes));
+    }
+
+    public String getETag() {
+        return etag;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getCompressedLength() {
+        return gzipped.length;
+    }
+
+    public byte[] getBytes() throws IOException {
+        return IOHelper.ungzip(gzipped).toByteArray();
+    }
+
+    /**
+     * Writes 304 if the client already has the same content, the gzipped bytes if the client accepts gzip
+     * or uncompressed bytes otherwise.
+     */
+    public void write(ActionParameters params) {
+        final HttpServletRequest request = params.getRequest();
+        final HttpServletResponse response = params.getResponse();
+        response.setHeader(HEADER_ETAG, etag);
+        response.setHeader(HEADER_VARY, IOHelper.HEADER_ACCEPT_ENCODING);
+        if (GetLayerTileHandler.isNotModified(request, etag, -1)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        try {
+            final byte[] body;
+            if (acceptsGzip(request.getHeader(IOHelper.HEADER_ACCEPT_ENCODING))) {
+                response.setHeader(HEADER_CONTENT_ENCODING, ENCODING_GZIP);
+                body = gzipped;
+            } else {
+                body = getBytes();
+            }
+            response.setContentType(contentType);
+            response.setContentLength(body.length);
+            try (OutputStream out = response.getOutputStream()) {
+                out.write(body);
+            }
+        } catch (IOException e) {
+            LOG.info("Couldn't write answer:", e.getMessage());
+            LOG.debug(e);
+        }
+    }
+
+    protected static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String value : acceptEncoding.split(",")) {
+            final String[] parts = value.split(";");
+            final String coding = parts[0].trim().toLowerCase();
+            if (!coding.equals(ENCODING_GZIP) && !coding.equals("x-gzip") && !coding.equals("*")) {
+                continue;
+            }
+            boolean rejected = false;
+            for (int i = 1; i < parts.length; i++) {
+                final String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        rejected = Double.parseDouble(param.substring(2)) <= 0;
+                    } catch (NumberFormatException e) {
+                        rejected = true;
+                    }
+                }
+            }
+            if (!rejected) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getETag(byte[] bytes) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(bytes);
+            final StringBuilder etag = new StringBuilder(digest.length * 2 + 2).append('"');
+            for (byte b : digest) {
+                etag.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+            }
+            return etag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is required to be available in every JVM
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
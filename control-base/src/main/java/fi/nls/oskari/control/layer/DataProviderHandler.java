@@ -4,9 +4,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Collectors;
 
-
-import fi.nls.oskari.cache.CacheManager;
-
 import org.json.JSONObject;
 import org.oskari.log.AuditLog;
 import org.oskari.service.util.ServiceFactory;
@@ -125,12 +122,13 @@ public class DataProviderHandler extends RestActionHandler {
                 .withParam("name", provider.getName(PropertyUtil.getDefaultLanguage()))
                 .added(AuditLog.ResourceType.DATAPROVIDER);
 
-        flushLayerListCache();
+        GetMapLayerGroupsHandler.flushProviders();
         ResponseHelper.writeResponse(params, provider.getAsJSON());
     }
 
     private void flushLayerListCache() {
-        CacheManager.getCache(GetMapLayerGroupsHandler.CACHE_NAME).flush(true);
+        // provider names are included in the layer JSON and layers might have been removed
+        GetMapLayerGroupsHandler.flushAll();
     }
 
     @Override
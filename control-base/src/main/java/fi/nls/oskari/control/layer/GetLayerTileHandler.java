@@ -1,6 +1,8 @@
 package fi.nls.oskari.control.layer;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
 import com.codahale.metrics.Timer;
 import fi.nls.oskari.annotation.OskariActionRoute;
 import fi.nls.oskari.cache.Cache;
@@ -26,8 +28,14 @@ import org.oskari.permissions.PermissionService;
 import org.oskari.service.user.LayerAccessHandler;
 import org.oskari.service.util.ServiceFactory;
 
+import javax.imageio.ImageIO;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.awt.image.BufferedImage;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.util.*;
 
@@ -46,11 +54,31 @@ public class GetLayerTileHandler extends ActionHandler {
     private static final List<String> RESERVED_PARAMETERS = Arrays.asList(new String[]{KEY_ID, ActionControl.PARAM_ROUTE, LEGEND});
     private static final int TIMEOUT_CONNECTION = PropertyUtil.getOptional("GetLayerTile.timeout.connection", 1000);
     private static final int TIMEOUT_READ = PropertyUtil.getOptional("GetLayerTile.timeout.read", 5000);
+    // metatiles are larger images and take longer to render
+    private static final int TIMEOUT_READ_METATILE = PropertyUtil.getOptional("GetLayerTile.metatile.timeout.read", 20000);
     private static final boolean GATHER_METRICS = PropertyUtil.getOptional("GetLayerTile.metrics", true);
     private static final String METRICS_PREFIX = "Oskari.GetLayerTile";
+    // Max size of a proxied response, defaults to 10MB
+    private static final long MAX_RESPONSE_SIZE = PropertyUtil.getOptional("GetLayerTile.maxSize", 10 * 1024 * 1024);
+    private static final int BUFFER_SIZE = 16 * 1024;
+    // Transfer buffers are reused by the servlet threads instead of allocating one per tile
+    private static final ThreadLocal<byte[]> TRANSFER_BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String METRICS_CACHE_HIT = METRICS_PREFIX + ".cache.hit";
+    private static final String METRICS_CACHE_MISS = METRICS_PREFIX + ".cache.miss";
+    private static final String METRICS_CACHE_REVALIDATED = METRICS_PREFIX + ".cache.revalidated";
+    private static final String METRICS_CACHE_BYTES_SAVED = METRICS_PREFIX + ".cache.bytesSaved";
+    private static final String METRICS_CACHE_HIT_RATIO = METRICS_PREFIX + ".cache.hitRatio";
     private PermissionHelper permissionHelper;
     private Collection<LayerAccessHandler> layerAccessHandlers;
-    private Cache<String> cache_WMTS_URL;
+    private Cache<TileUrlTemplate> urlTemplates;
+    private ProxyTileCache tileCache;
+    private WMSMetaTiler metaTiler;
 
     // WMTS rest layers params
     private static final String KEY_STYLE = "STYLE";
@@ -58,6 +86,8 @@ public class GetLayerTileHandler extends ActionHandler {
     private static final String KEY_TILEMATRIX = "TILEMATRIX";
     private static final String KEY_TILEROW = "TILEROW";
     private static final String KEY_TILECOL = "TILECOL";
+    private static final List<String> WMTS_REST_PARAMS = Arrays.asList(KEY_STYLE, KEY_TILEMATRIXSET, KEY_TILEMATRIX, KEY_TILEROW, KEY_TILECOL);
+    private static final String PLACEHOLDER_LAYER = "layer";
 
     /**
      *  Init method
@@ -67,7 +97,22 @@ public class GetLayerTileHandler extends ActionHandler {
 
         Map<String, LayerAccessHandler> handlerComponents = OskariComponentManager.getComponentsOfType(LayerAccessHandler.class);
         this.layerAccessHandlers = handlerComponents.values();
-        cache_WMTS_URL = CacheManager.getCache(GetLayerTileHandler.class.getSimpleName() + "_WMTS_URL");
+        urlTemplates = CacheManager.getCache(GetLayerTileHandler.class.getSimpleName() + "_URL_TEMPLATE");
+        tileCache = ProxyTileCache.getInstance();
+        metaTiler = new WMSMetaTiler(tileCache);
+        if (GATHER_METRICS && tileCache.isEnabled()) {
+            final MetricRegistry metrics = ActionControl.getMetrics();
+            final Counter hits = metrics.counter(METRICS_CACHE_HIT);
+            final Counter misses = metrics.counter(METRICS_CACHE_MISS);
+            if (!metrics.getGauges().containsKey(METRICS_CACHE_HIT_RATIO)) {
+                metrics.register(METRICS_CACHE_HIT_RATIO, new RatioGauge() {
+                    @Override
+                    protected Ratio getRatio() {
+                        return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+                    }
+                });
+            }
+        }
     }
 
     /**
@@ -100,6 +145,26 @@ public class GetLayerTileHandler extends ActionHandler {
         }
 
         final MetricRegistry metrics = ActionControl.getMetrics();
+        layerAccessHandlers.forEach(handler -> handler.handle(layer, params.getUser()));
+
+        final boolean useCache = !doOutPut && tileCache.isEnabled(layer);
+        final ProxyTileCache.Entry cached = useCache ? tileCache.get(layer, url) : null;
+        if (cached != null && !cached.isExpired() && writeFromCache(params, cached, url)) {
+            if (GATHER_METRICS) {
+                metrics.counter(METRICS_CACHE_HIT).inc();
+            }
+            return;
+        }
+        if (useCache && GATHER_METRICS) {
+            metrics.counter(METRICS_CACHE_MISS).inc();
+        }
+        if (useCache && (cached == null || !cached.hasValidators())) {
+            final WMSMetaTiler.MetaTile metaTile = metaTiler.getMetaTile(layer, getUrlParams(params.getRequest()));
+            if (metaTile != null) {
+                writeMetaTile(params, layer, metaTile, url);
+                return;
+            }
+        }
 
         Timer.Context actionTimer = null;
         if (GATHER_METRICS) {
@@ -109,8 +174,6 @@ public class GetLayerTileHandler extends ActionHandler {
         // TODO: we should handle redirects here or in IOHelper or start using a lib that handles 301/302 properly
         HttpURLConnection con = getConnection(url, layer);
 
-        layerAccessHandlers.forEach(handler -> handler.handle(layer, params.getUser()));
-
         try {
             con.setRequestMethod(httpMethod);
             con.setDoOutput(doOutPut);
@@ -121,6 +184,14 @@ public class GetLayerTileHandler extends ActionHandler {
             con.setUseCaches(false);
             // tell the service who is making the requests
             IOHelper.addIdentifierHeaders(con);
+            if (cached != null && cached.hasValidators()) {
+                // revalidate the expired tile instead of downloading it again
+                setConditionalHeaders(con, cached.getETag(), cached.getLastModified());
+            } else if (!doOutPut) {
+                // let the service tell the client that its copy is still valid
+                setConditionalHeaders(con, params.getRequest().getHeader(HEADER_IF_NONE_MATCH),
+                        getDateHeader(params.getRequest(), HEADER_IF_MODIFIED_SINCE));
+            }
             con.connect();
 
             if (doOutPut) {
@@ -134,6 +205,21 @@ public class GetLayerTileHandler extends ActionHandler {
                 LOG.debug("URL reported 404:", url);
                 return;
             }
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                if (cached == null || !cached.hasValidators()) {
+                    // the clients copy is still valid
+                    writeNotModified(params.getResponse(), con.getHeaderField(HEADER_ETAG), con.getLastModified());
+                    return;
+                }
+                tileCache.refresh(cached, getMaxAge(con));
+                if (GATHER_METRICS) {
+                    metrics.counter(METRICS_CACHE_REVALIDATED).inc();
+                }
+                if (writeFromCache(params, cached, url)) {
+                    return;
+                }
+                throw new ActionParamsException("Cached tile was removed while revalidating");
+            }
             final String contentType = con.getContentType().toLowerCase();
             if(responseCode != HttpURLConnection.HTTP_OK || !isContentTypeOK(contentType)) {
                 LOG.warn("URL", url, "returned HTTP response code", responseCode,
@@ -143,13 +229,41 @@ public class GetLayerTileHandler extends ActionHandler {
                 throw new ActionParamsException("Problematic response from actual service");
             }
 
-            // read the image tile
-            final byte[] presponse = IOHelper.readBytes(con);
+            // stream the image tile to the client as is
+            final long contentLength = con.getContentLengthLong();
+            if (contentLength > MAX_RESPONSE_SIZE) {
+                LOG.warn("URL", url, "returned a response larger than allowed:", contentLength);
+                throw new ActionParamsException("Problematic response from actual service");
+            }
             final HttpServletResponse response = params.getResponse();
             response.setContentType(contentType);
-            response.getOutputStream().write(presponse, 0, presponse.length);
-            response.getOutputStream().flush();
-            response.getOutputStream().close();
+            if (contentLength >= 0) {
+                response.setContentLengthLong(contentLength);
+            }
+            final String contentEncoding = con.getContentEncoding();
+            if (contentEncoding != null) {
+                response.setHeader(HEADER_CONTENT_ENCODING, contentEncoding);
+            }
+            final String etag = con.getHeaderField(HEADER_ETAG);
+            final long lastModified = con.getLastModified();
+            setValidatorHeaders(response, etag, lastModified);
+            final long maxAge = useCache ? getMaxAge(con) : 0;
+            if (maxAge == 0) {
+                try (InputStream in = con.getInputStream();
+                     OutputStream out = response.getOutputStream()) {
+                    transfer(in, out, MAX_RESPONSE_SIZE);
+                }
+                return;
+            }
+            // write the tile to the cache while streaming it to the client
+            try (InputStream in = con.getInputStream();
+                 OutputStream out = response.getOutputStream();
+                 ProxyTileCache.PendingEntry pending = tileCache.begin(layer, url, contentType, contentEncoding, etag, lastModified, maxAge)) {
+                transfer(in, out, pending != null ? pending.getOutputStream() : null, MAX_RESPONSE_SIZE);
+                if (pending != null) {
+                    pending.commit();
+                }
+            }
         } catch(ActionException e) {
             // just throw it as is if we already handled it
             throw e;
@@ -166,6 +280,185 @@ public class GetLayerTileHandler extends ActionHandler {
         }
     }
 
+    /**
+     * Writes the tile from the proxy tile cache or 304 if the client has the same version
+     * @return false if the cached tile has been removed and needs to be requested from the service
+     */
+    private boolean writeFromCache(ActionParameters params, ProxyTileCache.Entry entry, String url)
+            throws ActionException {
+        final HttpServletResponse response = params.getResponse();
+        if (isNotModified(params.getRequest(), entry.getETag(), entry.getLastModified())) {
+            writeNotModified(response, entry.getETag(), entry.getLastModified());
+            return true;
+        }
+        try (InputStream in = entry.open()) {
+            if (in == null) {
+                return false;
+            }
+            response.setContentType(entry.getContentType());
+            if (entry.getContentEncoding() != null) {
+                response.setHeader(HEADER_CONTENT_ENCODING, entry.getContentEncoding());
+            }
+            setValidatorHeaders(response, entry.getETag(), entry.getLastModified());
+            final long bytes;
+            try (OutputStream out = response.getOutputStream()) {
+                bytes = transfer(in, out, MAX_RESPONSE_SIZE);
+            }
+            if (GATHER_METRICS) {
+                ActionControl.getMetrics().counter(METRICS_CACHE_BYTES_SAVED).inc(bytes);
+            }
+            return true;
+        } catch (IOException e) {
+            LOG.info("Url in proxy error was:", url);
+            throw new ActionParamsException("Couldn't write cached tile", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the tile from a metatile, the rest of the tiles in the metatile are written to the tile cache
+     */
+    private void writeMetaTile(ActionParameters params, OskariLayer layer, WMSMetaTiler.MetaTile metaTile, String url)
+            throws ActionException {
+        try {
+            final byte[] tile = metaTiler.getTile(layer, metaTile, metaTileUrl -> loadImage(metaTileUrl, layer));
+            final HttpServletResponse response = params.getResponse();
+            response.setContentType(metaTile.getContentType());
+            response.setContentLength(tile.length);
+            try (OutputStream out = response.getOutputStream()) {
+                out.write(tile);
+            }
+        } catch (IOException e) {
+            LOG.info("Url in proxy error was:", url);
+            throw new ActionParamsException("Couldn't proxy request to actual service", e.getMessage(), e);
+        }
+    }
+
+    private WMSMetaTiler.LoadedImage loadImage(String url, OskariLayer layer) throws IOException {
+        final HttpURLConnection con;
+        try {
+            con = getConnection(url, layer);
+        } catch (ActionException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        try {
+            con.setConnectTimeout(TIMEOUT_CONNECTION);
+            con.setReadTimeout(TIMEOUT_READ_METATILE);
+            con.setUseCaches(false);
+            IOHelper.addIdentifierHeaders(con);
+            final int responseCode = con.getResponseCode();
+            final String contentType = con.getContentType();
+            if (responseCode != HttpURLConnection.HTTP_OK || contentType == null
+                    || !contentType.toLowerCase().startsWith("image/")) {
+                throw new IOException("Problematic response for metatile - code: " + responseCode
+                        + ", content-type: " + contentType);
+            }
+            final BufferedImage image;
+            try (InputStream in = con.getInputStream()) {
+                image = ImageIO.read(in);
+            }
+            if (image == null) {
+                throw new IOException("Couldn't read metatile image");
+            }
+            return new WMSMetaTiler.LoadedImage(image, getMaxAge(con));
+        } finally {
+            con.disconnect();
+        }
+    }
+
+    private static long getMaxAge(HttpURLConnection con) {
+        return ProxyTileCache.parseMaxAge(con.getHeaderField(HEADER_CACHE_CONTROL), con.getExpiration(), con.getDate());
+    }
+
+    private static void setConditionalHeaders(HttpURLConnection con, String etag, long lastModified) {
+        if (etag != null) {
+            con.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+        }
+        if (lastModified > 0) {
+            con.setIfModifiedSince(lastModified);
+        }
+    }
+
+    private static void setValidatorHeaders(HttpServletResponse response, String etag, long lastModified) {
+        if (etag != null) {
+            response.setHeader(HEADER_ETAG, etag);
+        }
+        if (lastModified > 0) {
+            response.setDateHeader(HEADER_LAST_MODIFIED, lastModified);
+        }
+    }
+
+    private static void writeNotModified(HttpServletResponse response, String etag, long lastModified) {
+        response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        setValidatorHeaders(response, etag, lastModified);
+    }
+
+    /**
+     * Checks the conditional headers of the client against the validators of a tile.
+     * If-None-Match takes precedence over If-Modified-Since like in RFC 7232.
+     */
+    protected static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+        final String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            if (etag == null) {
+                return false;
+            }
+            final String tag = stripWeak(etag);
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.equals("*") || stripWeak(candidate).equals(tag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        final long ifModifiedSince = getDateHeader(request, HEADER_IF_MODIFIED_SINCE);
+        // http dates have a precision of one second
+        return lastModified > 0 && ifModifiedSince > 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private static String stripWeak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    private static long getDateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            // unparseable date -> ignore the header
+            return -1;
+        }
+    }
+
+    /**
+     * Copies the response body to the client using a reused buffer
+     * @throws EOFException if the body is larger than maxSize. The response is
+     * already committed at that point so the client gets a truncated response.
+     */
+    protected static long transfer(InputStream in, OutputStream out, long maxSize) throws IOException {
+        return transfer(in, out, null, maxSize);
+    }
+
+    /**
+     * Copies the response body to the client and to copy (if not null) using a reused buffer
+     */
+    protected static long transfer(InputStream in, OutputStream out, OutputStream copy, long maxSize) throws IOException {
+        final byte[] buffer = TRANSFER_BUFFER.get();
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            total += read;
+            if (total > maxSize) {
+                throw new EOFException("Size limit reached: " + maxSize);
+            }
+            out.write(buffer, 0, read);
+            if (copy != null) {
+                copy.write(buffer, 0, read);
+            }
+        }
+        out.flush();
+        return total;
+    }
+
     private boolean isContentTypeOK(String contentType) {
         return contentType.startsWith("image/")
                 || contentType.startsWith("application/octet-stream")
@@ -179,57 +472,67 @@ public class GetLayerTileHandler extends ActionHandler {
         final HttpServletRequest httpRequest = params.getRequest();
         if (OskariLayer.TYPE_WMTS.equalsIgnoreCase(layer.getType())) {
             // check for rest url
-            final String urlTemplate = getWMTSUrl(layer);
-            if (!urlTemplate.isEmpty()) {
+            final TileUrlTemplate template = getUrlTemplate(layer);
+            if (!template.isEmpty()) {
                 LOG.debug("REST WMTS layer proxy");
-                HashMap<String, String> capsParams = new HashMap<>();
-                Enumeration<String> paramNames = httpRequest.getParameterNames();
-                while (paramNames.hasMoreElements()) {
-                    String paramName = paramNames.nextElement();
-                    capsParams.put(paramName.toUpperCase(), params.getHttpParam(paramName));
+                final Map<String, String> paramNames = new HashMap<>();
+                Enumeration<String> names = httpRequest.getParameterNames();
+                while (names.hasMoreElements()) {
+                    String paramName = names.nextElement();
+                    paramNames.put(paramName.toUpperCase(), paramName);
                 }
-                return urlTemplate
-                        .replaceFirst("\\{layer\\}", layer.getName())
-                        .replaceFirst("\\{style\\}", capsParams.get(KEY_STYLE) != null ? capsParams.get(KEY_STYLE) : KEY_STYLE)
-                        .replaceFirst("\\{TileMatrixSet\\}", capsParams.get(KEY_TILEMATRIXSET) != null ? capsParams.get(KEY_TILEMATRIXSET) : KEY_TILEMATRIXSET)
-                        .replaceFirst("\\{TileMatrix\\}", capsParams.get(KEY_TILEMATRIX) != null ? capsParams.get(KEY_TILEMATRIX) : KEY_TILEMATRIX)
-                        .replaceFirst("\\{TileRow\\}", capsParams.get(KEY_TILEROW) != null ? capsParams.get(KEY_TILEROW) : KEY_TILEROW)
-                        .replaceFirst("\\{TileCol\\}", capsParams.get(KEY_TILECOL) != null ? capsParams.get(KEY_TILECOL) : KEY_TILECOL);
+                return template.build(placeholder -> {
+                    if (PLACEHOLDER_LAYER.equalsIgnoreCase(placeholder)) {
+                        return layer.getName();
+                    }
+                    final String key = placeholder.toUpperCase();
+                    if (!WMTS_REST_PARAMS.contains(key)) {
+                        return null;
+                    }
+                    final String paramName = paramNames.get(key);
+                    return paramName != null ? params.getHttpParam(paramName) : key;
+                });
             }
         } else if (OskariLayer.TYPE_VECTOR_TILE.equalsIgnoreCase(layer.getType())) {
             // TODO: Figure out CRS
-            int x = params.getRequiredParamInt(LayerJSONFormatterVectorTile.URL_PARAM_X);
-            int y = params.getRequiredParamInt(LayerJSONFormatterVectorTile.URL_PARAM_Y);
-            int z = params.getRequiredParamInt(LayerJSONFormatterVectorTile.URL_PARAM_Z);
-            return layer.getUrl()
-                    .replaceFirst("\\{x\\}", String.valueOf(x))
-                    .replaceFirst("\\{y\\}", String.valueOf(y))
-                    .replaceFirst("\\{z\\}", String.valueOf(z));
+            final String x = String.valueOf(params.getRequiredParamInt(LayerJSONFormatterVectorTile.URL_PARAM_X));
+            final String y = String.valueOf(params.getRequiredParamInt(LayerJSONFormatterVectorTile.URL_PARAM_Y));
+            final String z = String.valueOf(params.getRequiredParamInt(LayerJSONFormatterVectorTile.URL_PARAM_Z));
+            return getUrlTemplate(layer).build(placeholder -> {
+                switch (placeholder) {
+                    case LayerJSONFormatterVectorTile.URL_PARAM_X: return x;
+                    case LayerJSONFormatterVectorTile.URL_PARAM_Y: return y;
+                    case LayerJSONFormatterVectorTile.URL_PARAM_Z: return z;
+                    default: return null;
+                }
+            });
         }
 
         Map<String, String> urlParams = getUrlParams(httpRequest);
         return IOHelper.constructUrl(layer.getUrl(),urlParams);
     }
 
-    private String getWMTSUrl(OskariLayer layer) {
-        String cacheKey = "" + layer.getId();
-        String resourceUrl = cache_WMTS_URL.get(cacheKey);
-        if (resourceUrl != null) {
-            // empty means we parsed and there was no resource url
-            return resourceUrl;
-        }
-        LayerCapabilitiesWMTS caps = CapabilitiesService.fromJSON(layer.getCapabilities().toString(), OskariLayer.TYPE_WMTS);
-        ResourceUrl url = caps.getResourceUrl("tile");
-        String valueToCache = "";
-        if (url != null) {
-            valueToCache = url.getTemplate();
+    /**
+     * Returns the parsed tile url template of the layer. Templates are cached by layer id and
+     * the time the layer or its capabilities were updated so updating the layer invalidates the template.
+     * @return EMPTY if the layer doesn't have a template (WMTS without REST ResourceURL)
+     */
+    private TileUrlTemplate getUrlTemplate(OskariLayer layer) {
+        final String cacheKey = layer.getId() + "_" + ProxyTileCache.getLayerVersion(layer);
+        TileUrlTemplate template = urlTemplates.get(cacheKey);
+        if (template != null) {
+            return template;
         }
-        if (valueToCache == null) {
-            // just in case we have something wonky going on in the capabilities
-            valueToCache = "";
+        if (OskariLayer.TYPE_WMTS.equalsIgnoreCase(layer.getType())) {
+            LayerCapabilitiesWMTS caps = CapabilitiesService.fromJSON(layer.getCapabilities().toString(), OskariLayer.TYPE_WMTS);
+            ResourceUrl url = caps.getResourceUrl("tile");
+            // just in case we have something wonky going on in the capabilities -> EMPTY for null template
+            template = TileUrlTemplate.compile(url != null ? url.getTemplate() : null);
+        } else {
+            template = TileUrlTemplate.compile(layer.getUrl());
         }
-        cache_WMTS_URL.put(cacheKey, valueToCache);
-        return valueToCache;
+        urlTemplates.put(cacheKey, template);
+        return template;
     }
 
     private Map<String, String> getUrlParams(HttpServletRequest httpRequest) {
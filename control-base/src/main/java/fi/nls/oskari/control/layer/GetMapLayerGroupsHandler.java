@@ -19,27 +19,44 @@ import fi.nls.oskari.map.layer.formatters.LayerJSONFormatter;
 import fi.nls.oskari.service.OskariComponentManager;
 import fi.nls.oskari.util.ConversionHelper;
 import fi.nls.oskari.util.JSONHelper;
+import fi.nls.oskari.util.ResponseHelper;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import org.oskari.service.maplayer.OskariMapLayerGroupService;
 import fi.mml.map.mapwindow.util.OskariLayerWorker;
+import fi.mml.map.mapwindow.util.LayerFormattingPool;
 import fi.nls.oskari.annotation.OskariActionRoute;
 import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionHandler;
 import fi.nls.oskari.control.ActionParameters;
+import fi.nls.oskari.control.view.GetAppSetupHandler;
 import fi.nls.oskari.domain.User;
+import fi.nls.oskari.domain.map.DataProvider;
 import fi.nls.oskari.domain.map.MaplayerGroup;
 import fi.nls.oskari.domain.map.OskariLayer;
 import fi.nls.oskari.map.layer.group.link.OskariLayerGroupLink;
 import fi.nls.oskari.map.layer.group.link.OskariLayerGroupLinkService;
 import fi.nls.oskari.map.layer.group.link.OskariLayerGroupLinkServiceMybatisImpl;
 import fi.nls.oskari.util.EnvHelper;
+import org.oskari.permissions.PermissionService;
+import org.oskari.permissions.model.PermissionSet;
+import org.oskari.permissions.model.ResourceType;
 import org.oskari.service.util.ServiceFactory;
 
 /**
  * Get all map layer groups registered in Oskari database
+ *
+ * Responses for the whole listing are assembled from cached parts that can be invalidated separately:
+ * - JSON for each layer (without user specific permissions) by layer id, lang, crs, forceProxy and isSecure (see LayerJSONCache)
+ * - layers visible for each combination of roles with the user specific permissions JSON
+ * - groups and the layer links of groups
+ * - data providers
+ * Use the static flush*() methods to invalidate the parts affected by a change.
+ *
+ * The assembled responses are cached gzipped with an ETag so they can be written as is to clients accepting gzip
+ * and answered with 304 Not Modified when the client already has the same listing.
  */
 @OskariActionRoute("GetHierarchicalMapLayerGroups")
 public class GetMapLayerGroupsHandler extends ActionHandler {
@@ -59,12 +76,128 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
             OskariLayer.TYPE_ARCGIS93,
             OskariLayer.TYPE_VECTOR_TILE);
 
-    private static final Cache<String> cache = CacheManager.getCache(CACHE_NAME);
+    private static final String KEY_PERMISSIONS = "permissions";
+    private static final String CACHE_KEY_ALL = "all";
+    private static final LayerJSONFormatter FORMATTER = new LayerJSONFormatter();
+
+    // assembled responses, cheap to rebuild from the other caches so flushed on any change
+    private static final Cache<CompressedResponse> cache = CacheManager.getCache(CACHE_NAME);
+    private static final LayerJSONCache layerJSONCache = new LayerJSONCache(CACHE_NAME + "_layer");
+    private static final Cache<List<OskariLayer>> layersCache = CacheManager.getCache(CACHE_NAME + "_layers");
+    private static final Cache<RoleView> roleViewCache = CacheManager.getCache(CACHE_NAME + "_roles");
+    private static final Cache<GroupData> groupCache = CacheManager.getCache(CACHE_NAME + "_groups");
+    private static final Cache<List<DataProvider>> providerCache = CacheManager.getCache(CACHE_NAME + "_providers");
 
     private OskariLayerService layerService;
     private OskariMapLayerGroupService groupService;
     private OskariLayerGroupLinkService linkService;
     private DataProviderService dataProviderService;
+    private PermissionService permissionService;
+
+    /**
+     * Layers the users with a specific set of roles can see and their permissions as JSON
+     */
+    private static class RoleView {
+        private final List<OskariLayer> layers;
+        private final Map<Integer, String> permissions;
+
+        private RoleView(List<OskariLayer> layers, Map<Integer, String> permissions) {
+            this.layers = layers;
+            this.permissions = permissions;
+        }
+    }
+
+    /**
+     * Groups by parent id and layer links by group id. The lists are sorted when created and not modified after that.
+     */
+    private static class GroupData {
+        private final Map<Integer, List<MaplayerGroup>> groupsByParentId;
+        private final Map<Integer, List<OskariLayerGroupLink>> linksByGroupId;
+
+        private GroupData(Map<Integer, List<MaplayerGroup>> groupsByParentId, Map<Integer, List<OskariLayerGroupLink>> linksByGroupId) {
+            this.groupsByParentId = groupsByParentId;
+            this.linksByGroupId = linksByGroupId;
+        }
+    }
+
+    /**
+     * Call when a layer has been inserted, updated or removed
+     */
+    public static void flushLayer(OskariLayer layer) {
+        flushLayer(layer.getId(), layer.getParentId());
+    }
+
+    /**
+     * Call when a layer has been inserted, updated or removed
+     */
+    public static void flushLayer(int layerId) {
+        flushLayer(layerId, -1);
+    }
+
+    /**
+     * Call when a layer has been inserted, updated or removed
+     * @param parentId parent of the layer if it's a sublayer, the JSON of the parent includes its sublayers
+     */
+    public static void flushLayer(int layerId, int parentId) {
+        final Set<Integer> ids = new HashSet<>();
+        ids.add(layerId);
+        if (parentId > 0) {
+            ids.add(parentId);
+        }
+        List<OskariLayer> layers = layersCache.get(CACHE_KEY_ALL);
+        if (layers != null) {
+            // previous parent of a sublayer that was moved or removed
+            layers.stream()
+                    .filter(l -> l.getId() == layerId && l.getParentId() > 0)
+                    .forEach(l -> ids.add(l.getParentId()));
+        }
+        layerJSONCache.remove(ids);
+        layersCache.flush(true);
+        // layer might have been added/removed or it's visibility changed
+        roleViewCache.flush(true);
+        cache.flush(true);
+        // app setups of published maps include layer JSON
+        GetAppSetupHandler.flushSkeletons();
+    }
+
+    /**
+     * Call when permissions have been changed
+     */
+    public static void flushPermissions() {
+        roleViewCache.flush(true);
+        cache.flush(true);
+        GetAppSetupHandler.flushSkeletons();
+    }
+
+    /**
+     * Call when groups or links between layers and groups have been changed
+     */
+    public static void flushGroups() {
+        groupCache.flush(true);
+        cache.flush(true);
+    }
+
+    /**
+     * Call when data providers have been added
+     */
+    public static void flushProviders() {
+        providerCache.flush(true);
+        cache.flush(true);
+        GetAppSetupHandler.flushSkeletons();
+    }
+
+    /**
+     * Call when there are changes that might affect any part of the response (like data provider names in layer JSON)
+     */
+    public static void flushAll() {
+        layerJSONCache.flush();
+        layersCache.flush(true);
+        roleViewCache.flush(true);
+        groupCache.flush(true);
+        providerCache.flush(true);
+        cache.flush(true);
+        GetAppSetupHandler.flushSkeletons();
+    }
 
     public void setLayerService(OskariLayerService service) {
         this.layerService = service;
@@ -81,6 +214,10 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
         this.dataProviderService = service;
     }
 
+    public void setPermissionService(PermissionService service) {
+        this.permissionService = service;
+    }
+
     @Override
     public void init() {
         // setup services if they haven't been initialized
@@ -96,6 +233,9 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
         if (dataProviderService == null) {
             setDataProviderService(OskariComponentManager.getComponentOfType(DataProviderService.class));
         }
+        if (permissionService == null) {
+            setPermissionService(OskariComponentManager.getComponentOfType(PermissionService.class));
+        }
     }
 
     @Override
@@ -105,21 +245,13 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
         final String crs = params.getHttpParam(PARAM_SRS);
         final String requestedIds = params.getHttpParam(PARAM_ID);
         final boolean forceProxy = params.getHttpParam(PARAM_FORCE_PROXY, false);
-        String response = null;
-        String cacheKey = getCacheKey(user, lang, crs, forceProxy);
         if (requestedIds == null) {
             // only use cache when the whole listing is requested
             // Note! Cache needs to be flushed externally on other routes when permissions/layers are changed
-            response = cache.get(cacheKey);
-        }
-        if (response == null) {
-            // NOTE, isSecure doesn't change in instances without restarting it so it's safe to skip on the cache key
-            response = getList(user, lang, crs, requestedIds, forceProxy, EnvHelper.isSecure(params));
-            if (requestedIds == null) {
-                // only use cache when the whole listing is requested
-                cache.put(cacheKey, response);
-            }
+            getCompressedList(user, lang, crs, forceProxy, EnvHelper.isSecure(params)).write(params);
+            return;
         }
+        final String response = getList(user, lang, crs, requestedIds, forceProxy, EnvHelper.isSecure(params));
         try {
             params.getResponse().setCharacterEncoding("UTF-8");
             params.getResponse().setContentType("application/json;charset=UTF-8");
@@ -130,14 +262,27 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
         }
     }
 
+    private CompressedResponse getCompressedList(User user, String lang, String crs, boolean forceProxy, boolean isSecure) throws ActionException {
+        // NOTE, isSecure doesn't change in instances without restarting it so it's safe to skip on the cache key
+        final String cacheKey = getCacheKey(user, lang, crs, forceProxy);
+        CompressedResponse response = cache.get(cacheKey);
+        if (response != null) {
+            return response;
+        }
+        try {
+            response = CompressedResponse.create(ResponseHelper.CONTENT_TYPE_JSON_UTF8,
+                    getCachedList(user, lang, crs, forceProxy, isSecure));
+        } catch (IOException e) {
+            throw new ActionException("Failed to compress layer listing", e);
+        }
+        LOG.debug("Layer listing compressed from", response.getLength(), "to", response.getCompressedLength(), "bytes");
+        cache.put(cacheKey, response);
+        return response;
+    }
+
     public String getList(User user, String lang, String crs, String requestedIds, boolean forceProxy, boolean isSecure) throws ActionException {
         final boolean isPublished = false;
-
-        Map<Integer, List<MaplayerGroup>> groupsByParentId = groupService.findAll().stream()
-                .collect(Collectors.groupingBy(MaplayerGroup::getParentId));
-
-        Map<Integer, List<OskariLayerGroupLink>> linksByGroupId = linkService.findAll().stream()
-                .collect(Collectors.groupingBy(OskariLayerGroupLink::getGroupId));
+        final GroupData groupData = getGroupData();
 
         // Get all layers instead of using OskariLayerWorker.getLayersForUser() so we don't check permissions twice
         List<OskariLayer> layers = getLayers(requestedIds);
@@ -152,7 +297,7 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
         try {
             // getListOfMapLayers checks permissions
             JSONObject response = OskariLayerWorker.getListOfMapLayers(layers, user, lang, crs, isPublished, isSecure);
-            response.put(KEY_GROUPS, getGroupJSON(groupsByParentId, linksByGroupId, sortedLayerIds, -1, lang));
+            response.put(KEY_GROUPS, getGroupJSON(groupData, sortedLayerIds, -1, lang));
             response.put(KEY_PROVIDERS, getProvidersJSON(lang, getProviderIds(response, user)));
             return response.toString();
         } catch (JSONException e) {
@@ -160,6 +305,160 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
         }
     }
 
+    /**
+     * Assembles the whole listing from cached parts
+     */
+    protected String getCachedList(User user, String lang, String crs, boolean forceProxy, boolean isSecure) throws ActionException {
+        final RoleView view = getRoleView(user);
+        final Map<Integer, String> layerJSON = getLayerJSON(view.layers, lang, crs, forceProxy, isSecure);
+
+        final StringBuilder layers = new StringBuilder();
+        final List<Integer> returnedIds = new ArrayList<>(layerJSON.size());
+        final Set<Integer> providerIds = new HashSet<>();
+        for (OskariLayer layer : view.layers) {
+            final String json = layerJSON.get(layer.getId());
+            if (json == null || json.isEmpty()) {
+                continue;
+            }
+            if (layers.length() > 0) {
+                layers.append(',');
+            }
+            // append permissions to the cached layer JSON
+            layers.append(json, 0, json.lastIndexOf('}'))
+                    .append(",\"").append(KEY_PERMISSIONS).append("\":")
+                    .append(view.permissions.get(layer.getId()))
+                    .append('}');
+            returnedIds.add(layer.getId());
+            providerIds.add(layer.getGroup() != null ? layer.getGroup().getId() : -1);
+        }
+        LOG.debug("Returning", returnedIds.size(), "/", view.layers.size(), "layers");
+
+        final int[] sortedLayerIds = returnedIds.stream().mapToInt(Integer::intValue).toArray();
+        Arrays.sort(sortedLayerIds);
+        try {
+            final StringBuilder response = new StringBuilder(layers.length() + 1024)
+                    .append("{\"").append(OskariLayerWorker.KEY_LAYERS).append("\":[")
+                    .append(layers)
+                    .append(']');
+            final JSONArray groups = getGroupJSON(getGroupData(), sortedLayerIds, -1, lang);
+            if (groups != null) {
+                response.append(",\"").append(KEY_GROUPS).append("\":").append(groups.toString());
+            }
+            final Set<Integer> usedProviders = user != null && user.isAdmin() ? null : providerIds;
+            response.append(",\"").append(KEY_PROVIDERS).append("\":")
+                    .append(getProvidersJSON(lang, usedProviders).toString())
+                    .append('}');
+            return response.toString();
+        } catch (JSONException e) {
+            throw new ActionException("Failed to add groups", e);
+        }
+    }
+
+    private List<OskariLayer> getAllLayers() {
+        List<OskariLayer> layers = layersCache.get(CACHE_KEY_ALL);
+        if (layers == null) {
+            // NOTE! layers in the cache are shared between requests and must not be modified
+            layers = Collections.unmodifiableList(layerService.findAll());
+            layersCache.put(CACHE_KEY_ALL, layers);
+        }
+        return layers;
+    }
+
+    private RoleView getRoleView(User user) {
+        final String rolesKey = getUserRolesKey(user);
+        RoleView view = roleViewCache.get(rolesKey);
+        if (view != null) {
+            return view;
+        }
+        final PermissionSet permissionSet = new PermissionSet(permissionService.findResourcesByUser(user, ResourceType.maplayer));
+        final List<OskariLayer> visible = OskariLayerWorker.filterLayersWithResources(getAllLayers(), permissionSet, user, false);
+        final Map<Integer, String> permissions = new HashMap<>();
+        for (OskariLayer layer : visible) {
+            permissions.put(layer.getId(), OskariLayerWorker.getPermissions(
+                    user, OskariLayerWorker.getPermissionKey(layer), permissionSet).toString());
+        }
+        view = new RoleView(visible, permissions);
+        roleViewCache.put(rolesKey, view);
+        return view;
+    }
+
+    /**
+     * Returns JSON for the layers without permissions. Empty string if the layer shouldn't be listed.
+     */
+    private Map<Integer, String> getLayerJSON(List<OskariLayer> layers, String lang, String crs, boolean forceProxy, boolean isSecure) {
+        final String variant = lang + "_" + crs + "_" + forceProxy + "_" + isSecure;
+        final Map<Integer, String> result = new HashMap<>();
+        final List<OskariLayer> missing = new ArrayList<>();
+        for (OskariLayer layer : layers) {
+            final String json = layerJSONCache.get(variant, layer.getId());
+            if (json == null) {
+                missing.add(layer);
+            } else {
+                result.put(layer.getId(), json);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+        long start = System.currentTimeMillis();
+        List<OskariLayer> toFormat = missing;
+        if (forceProxy) {
+            // cached layers are shared -> modify fresh copies instead
+            toFormat = layerService.findByIdList(missing.stream().map(OskariLayer::getId).collect(Collectors.toList()));
+            toFormat.stream()
+                    .filter(layer -> PROXY_LYR_TYPES.contains(layer.getType()))
+                    .forEach(layer -> layer.addAttribute("forceProxy", true));
+        }
+        final List<String> formatted = LayerFormattingPool.format(toFormat, layer -> {
+            final JSONObject json = FORMATTER.getJSON(layer, lang, isSecure, crs);
+            if (json == null) {
+                return "";
+            }
+            // FIXME: formats isn't used by the frontend, see OskariLayerWorker
+            json.remove("formats");
+            return json.toString();
+        });
+        for (int i = 0; i < toFormat.size(); i++) {
+            final String value = formatted.get(i);
+            if (value == null) {
+                // formatting failed, already logged
+                continue;
+            }
+            final int id = toFormat.get(i).getId();
+            layerJSONCache.put(variant, id, value);
+            result.put(id, value);
+        }
+        LOG.debug("Created JSON for", toFormat.size(), "layers in", System.currentTimeMillis() - start, "ms");
+        return result;
+    }
+
+    private GroupData getGroupData() {
+        GroupData data = groupCache.get(CACHE_KEY_ALL);
+        if (data != null) {
+            return data;
+        }
+        Map<Integer, List<MaplayerGroup>> groupsByParentId = groupService.findAll().stream()
+                .collect(Collectors.groupingBy(MaplayerGroup::getParentId));
+        groupsByParentId.values().forEach(groups -> groups.sort(Comparator.comparing(MaplayerGroup::getOrderNumber)));
+
+        Map<Integer, List<OskariLayerGroupLink>> linksByGroupId = linkService.findAll().stream()
+                .collect(Collectors.groupingBy(OskariLayerGroupLink::getGroupId));
+        linksByGroupId.values().forEach(links -> links.sort(Comparator.comparingInt(OskariLayerGroupLink::getOrderNumber)));
+
+        data = new GroupData(groupsByParentId, linksByGroupId);
+        groupCache.put(CACHE_KEY_ALL, data);
+        return data;
+    }
+
+    private List<DataProvider> getProviders() {
+        List<DataProvider> providers = providerCache.get(CACHE_KEY_ALL);
+        if (providers == null) {
+            providers = Collections.unmodifiableList(dataProviderService.findAll());
+            providerCache.put(CACHE_KEY_ALL, providers);
+        }
+        return providers;
+    }
+
     private List<OskariLayer> getLayers(String requestedLayers) {
         if (requestedLayers == null || requestedLayers.isEmpty()) {
             // nothing requested/default -> return all
@@ -179,33 +478,31 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
     /**
      * Get groups recursively
      */
-    private JSONArray getGroupJSON(final Map<Integer, List<MaplayerGroup>> groupsByParentId,
-            final Map<Integer, List<OskariLayerGroupLink>> linksByGroupId,
+    private JSONArray getGroupJSON(final GroupData groupData,
             final int[] sortedLayerIds,
             final int parentGroupId,
             final String language) throws JSONException {
-        List<MaplayerGroup> groups = groupsByParentId.get(parentGroupId);
+        // groups and links are sorted by order number in getGroupData()
+        List<MaplayerGroup> groups = groupData.groupsByParentId.get(parentGroupId);
         if (groups == null || groups.isEmpty()) {
             return null;
         }
 
         JSONArray json = new JSONArray();
-        groups.sort(Comparator.comparing(MaplayerGroup::getOrderNumber));
         for (MaplayerGroup group : groups) {
             int groupId = group.getId();
             JSONObject groupAsJson = group.getAsJSON(language);
 
-            JSONArray subGroups = getGroupJSON(groupsByParentId, linksByGroupId, sortedLayerIds, groupId, language);
+            JSONArray subGroups = getGroupJSON(groupData, sortedLayerIds, groupId, language);
             if (subGroups != null) {
                 groupAsJson.put(KEY_GROUPS, subGroups);
             }
 
-            List<OskariLayerGroupLink> groupLinks = linksByGroupId.get(groupId);
+            List<OskariLayerGroupLink> groupLinks = groupData.linksByGroupId.get(groupId);
             if (groupLinks != null && !groupLinks.isEmpty()) {
 
                 List<OskariLayerGroupLink> groupLayers = groupLinks.stream()
                         .filter(l -> contains(sortedLayerIds, l.getLayerId()))
-                        .sorted(Comparator.comparingInt(OskariLayerGroupLink::getOrderNumber))
                         .collect(Collectors.toList());
                 if (!groupLayers.isEmpty()) {
                     groupAsJson.put(KEY_LAYERS, getLayersJSON(groupLayers));
@@ -243,7 +540,7 @@ public class GetMapLayerGroupsHandler extends ActionHandler {
      */
     private JSONObject getProvidersJSON(String language, Set<Integer> usedProviders) {
         JSONObject result = new JSONObject();
-        dataProviderService.findAll().stream()
+        getProviders()
                 .forEach(provider -> {
                     int id = provider.getId();
                     if (usedProviders != null && !usedProviders.contains(id)) {
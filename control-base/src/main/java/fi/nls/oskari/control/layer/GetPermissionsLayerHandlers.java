@@ -96,7 +96,7 @@ public class GetPermissionsLayerHandlers extends ActionHandler {
         final JSONObject root = new JSONObject();
         JSONHelper.putValue(root, "names", permissionNames);
 
-        final List<OskariLayer> layers = mapLayerService.findAll();
+        final List<OskariLayer> layers = mapLayerService.findAllWithoutCapabilities();
         Collections.sort(layers);
 
         List<Resource> resources = permissionsService.findResourcesByType(ResourceType.maplayer);
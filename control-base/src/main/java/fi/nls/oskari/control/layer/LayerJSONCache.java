@@ -0,0 +1,114 @@
+package fi.nls.oskari.control.layer;
+
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import org.oskari.cluster.ClusterManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * JSON for layers (without user specific permissions) used by GetMapLayerGroupsHandler.
+ * The JSON is stored per variant (combination of lang, crs, forceProxy and isSecure) so the amount of cached
+ * values doesn't grow with the amount of layers. Removing a layer removes it from all the variants cached on
+ * each node with a single cluster message, including variants that were only requested on other nodes.
+ */
+class LayerJSONCache {
+
+    private static final Logger LOG = LogFactory.getLogger(LayerJSONCache.class);
+    private static final String CLUSTER_CMD_REMOVE_PREFIX = "REM: ";
+    private static final String CLUSTER_MSG_SEPARATOR = ",";
+
+    private final Cache<Map<Integer, String>> cache;
+    private final String clusterChannel;
+
+    LayerJSONCache(String name) {
+        cache = CacheManager.getCache(name);
+        // Cache uses its name as channel for its own messages
+        clusterChannel = name + ".layers";
+        if (ClusterManager.isClustered()) {
+            ClusterManager
+                    .getClientFor("cache")
+                    .addListener(clusterChannel, (msg) -> handleClusterMsg(msg));
+        }
+    }
+
+    /**
+     * @return null if the JSON for the layer isn't cached
+     */
+    String get(String variant, int layerId) {
+        final Map<Integer, String> layers = cache.get(variant);
+        return layers == null ? null : layers.get(layerId);
+    }
+
+    void put(String variant, int layerId, String json) {
+        Map<Integer, String> layers = cache.get(variant);
+        if (layers == null) {
+            synchronized (cache) {
+                layers = cache.get(variant);
+                if (layers == null) {
+                    layers = new ConcurrentHashMap<>();
+                    cache.put(variant, layers);
+                }
+            }
+        }
+        layers.put(layerId, json);
+    }
+
+    /**
+     * Removes the layers from all variants on this node and other nodes in the cluster
+     */
+    void remove(Collection<Integer> layerIds) {
+        if (layerIds.isEmpty()) {
+            return;
+        }
+        removeSilent(layerIds);
+        if (ClusterManager.isClustered()) {
+            final String ids = layerIds.stream()
+                    .map(String::valueOf)
+                    .collect(Collectors.joining(CLUSTER_MSG_SEPARATOR));
+            ClusterManager
+                    .getClientFor("cache")
+                    .sendMessage(clusterChannel, CLUSTER_CMD_REMOVE_PREFIX + ids);
+        }
+    }
+
+    void flush() {
+        cache.flush(true);
+    }
+
+    private void removeSilent(Collection<Integer> layerIds) {
+        for (String variant : new ArrayList<>(cache.getKeys())) {
+            final Map<Integer, String> layers = cache.get(variant);
+            if (layers != null) {
+                layers.keySet().removeAll(layerIds);
+            }
+        }
+        LOG.debug("Removed cached JSON for layers:", layerIds);
+    }
+
+    protected void handleClusterMsg(String data) {
+        if (data == null || !data.startsWith(CLUSTER_CMD_REMOVE_PREFIX)) {
+            LOG.warn("Received unrecognized cluster msg:", data);
+            return;
+        }
+        final List<Integer> ids = new ArrayList<>();
+        try {
+            Arrays.stream(data.substring(CLUSTER_CMD_REMOVE_PREFIX.length()).split(CLUSTER_MSG_SEPARATOR))
+                    .map(String::trim)
+                    .map(Integer::valueOf)
+                    .forEach(ids::add);
+        } catch (NumberFormatException e) {
+            LOG.warn("Received invalid layer id in cluster msg:", data);
+            return;
+        }
+        removeSilent(ids);
+    }
+}
@@ -2,7 +2,6 @@ package fi.nls.oskari.control.layer;
 
 import org.oskari.permissions.PermissionService;
 import org.oskari.permissions.model.PermissionType;
-import org.oskari.permissions.model.Resource;
 
 import fi.nls.oskari.control.ActionDeniedException;
 import fi.nls.oskari.control.ActionException;
@@ -14,8 +13,6 @@ import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.map.layer.OskariLayerService;
 import org.oskari.permissions.model.ResourceType;
 
-import java.util.Optional;
-
 /**
  * Created by SMAKINEN on 27.8.2015.
  */
@@ -54,11 +51,9 @@ public class PermissionHelper {
             return layer;
         }
 
-        // Check permissions
-        final Resource resource = getResource(layer);
-        final boolean hasPermission =
-                resource.hasPermission(user, PermissionType.VIEW_LAYER) ||
-                        resource.hasPermission(user, PermissionType.VIEW_PUBLISHED);
+        // Check permissions, uses the permission index instead of loading the resource
+        final boolean hasPermission = permissionsService.hasAnyPermission(user, ResourceType.maplayer,
+                Integer.toString(layer.getId()), PermissionType.VIEW_LAYER, PermissionType.VIEW_PUBLISHED);
 
         if (!hasPermission) {
             throw new ActionDeniedException("User doesn't have permissions for requested layer");
@@ -74,14 +69,4 @@ public class PermissionHelper {
     private OskariLayer getLayer(final int id) {
         return layerService.find(id);
     }
-
-    private Resource getResource(final OskariLayer layer) {
-        String mapping = Integer.toString(layer.getId());
-        Optional<Resource> resource = permissionsService.findResource(ResourceType.maplayer, mapping);
-        if (!resource.isPresent()) {
-            LOG.warn("Permissions not found for layer:", layer.getId());
-            return null;
-        }
-        return resource.get();
-    }
 }
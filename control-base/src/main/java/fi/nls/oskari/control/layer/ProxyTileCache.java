@@ -0,0 +1,627 @@
+package fi.nls.oskari.control.layer;
+
+import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.util.PropertyUtil;
+import org.oskari.cluster.ClusterManager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Disk-backed cache for tiles proxied by GetLayerTileHandler. Tiles are written on disk and
+ * an in-memory index keeps track of them in least recently used order. The index is bounded by
+ * the total size of the cached tiles instead of the number of tiles.
+ *
+ * Caching is enabled per layer with the layer option "proxyTileCache": true and tiles are kept
+ * for the time the service allows them to be cached (Cache-Control max-age/Expires) clamped
+ * between the configured min/max age. Expired tiles are kept and revalidated with conditional
+ * requests if the service gave an ETag or Last-Modified for them. Tiles cached for a previous
+ * version of the layer (layer updated or capabilities updated) are not served.
+ *
+ * Tiles of secured layers are cached as well so the directory must only be accessible by the user running
+ * Oskari. It's created with owner-only permissions and caching is disabled if an existing directory
+ * is accessible by other users.
+ *
+ * Configure with:
+ * - GetLayerTile.cache.dir (caching is disabled if not configured)
+ * - GetLayerTile.cache.maxSizeMB (defaults to 256)
+ * - GetLayerTile.cache.minAgeSec (defaults to one minute)
+ * - GetLayerTile.cache.maxAgeSec (defaults to one day)
+ */
+public class ProxyTileCache {
+
+    private static final Logger LOG = LogFactory.getLogger(ProxyTileCache.class);
+
+    public static final String LAYER_OPTION = "proxyTileCache";
+
+    protected static final String PROPERTY_DIR = "GetLayerTile.cache.dir";
+    protected static final String PROPERTY_MAX_SIZE_MB = "GetLayerTile.cache.maxSizeMB";
+    protected static final String PROPERTY_MIN_AGE = "GetLayerTile.cache.minAgeSec";
+    protected static final String PROPERTY_MAX_AGE = "GetLayerTile.cache.maxAgeSec";
+
+    private static final String CLUSTER_CHANNEL = "ProxyTileCache";
+    private static final String CLUSTER_CMD_REMOVE_LAYER_PREFIX = "REM: ";
+    private static final String SUFFIX_TILE = ".tile";
+    private static final String PARAM_BBOX = "bbox";
+    private static final int FORMAT_VERSION = 2;
+    // expires is written right after the format version so it can be updated in place
+    private static final int EXPIRES_OFFSET = 4;
+
+    private static ProxyTileCache instance;
+
+    private final Path dir;
+    private final long maxBytes;
+    private final long minAgeMs;
+    private final long maxAgeMs;
+    // access ordered -> iteration starts from the least recently used tile
+    private final LinkedHashMap<String, Entry> index = new LinkedHashMap<>(256, 0.75f, true);
+    private long totalBytes;
+
+    public static synchronized ProxyTileCache getInstance() {
+        if (instance == null) {
+            instance = new ProxyTileCache(getDefaultDir(),
+                    PropertyUtil.getOptional(PROPERTY_MAX_SIZE_MB, 256) * 1024L * 1024L,
+                    TimeUnit.SECONDS.toMillis(PropertyUtil.getOptional(PROPERTY_MIN_AGE, 60)),
+                    TimeUnit.SECONDS.toMillis(PropertyUtil.getOptional(PROPERTY_MAX_AGE, 24 * 60 * 60)));
+            if (ClusterManager.isClustered()) {
+                ClusterManager
+                        .getClientFor("cache")
+                        .addListener(CLUSTER_CHANNEL, (msg) -> instance.handleClusterMsg(msg));
+            }
+        }
+        return instance;
+    }
+
+    public ProxyTileCache(Path dir, long maxBytes, long minAgeMs, long maxAgeMs) {
+        this.dir = dir != null && IOHelper.isPrivateDirectory(dir) ? dir : null;
+        this.maxBytes = maxBytes;
+        this.minAgeMs = minAgeMs;
+        this.maxAgeMs = Math.max(minAgeMs, maxAgeMs);
+        if (dir != null && this.dir == null) {
+            LOG.warn("Not caching tiles, directory can't be used:", dir);
+        }
+        if (this.dir != null) {
+            try {
+                loadIndex();
+            } catch (IOException e) {
+                LOG.warn(e, "Unable to initialize tile cache directory:", dir);
+            }
+        }
+    }
+
+    private static Path getDefaultDir() {
+        String dir = PropertyUtil.get(PROPERTY_DIR, "").trim();
+        return dir.isEmpty() ? null : Paths.get(dir);
+    }
+
+    public boolean isEnabled() {
+        return dir != null && maxBytes > 0;
+    }
+
+    public boolean isEnabled(OskariLayer layer) {
+        return isEnabled() && layer.getOptions().optBoolean(LAYER_OPTION, false);
+    }
+
+    public long getSize() {
+        synchronized (index) {
+            return totalBytes;
+        }
+    }
+
+    public int getTileCount() {
+        synchronized (index) {
+            return index.size();
+        }
+    }
+
+    /**
+     * Returns the cached tile for the url. The tile might be expired, check with Entry.isExpired().
+     * @return null if the tile isn't cached or it was cached for an older version of the layer
+     */
+    public Entry get(OskariLayer layer, String url) {
+        String key = getKey(layer.getId(), url);
+        Entry entry;
+        synchronized (index) {
+            entry = index.get(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+        if (entry.layerVersion != getLayerVersion(layer)) {
+            remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Marks an expired tile fresh again after the service responded that it hasn't been modified
+     */
+    public void refresh(Entry entry, long ttlMs) {
+        entry.expires = System.currentTimeMillis() + clampAge(ttlMs);
+        try (RandomAccessFile file = new RandomAccessFile(getFile(entry.key).toFile(), "rw")) {
+            file.seek(EXPIRES_OFFSET);
+            file.writeLong(entry.expires);
+        } catch (IOException e) {
+            LOG.debug("Unable to update expiration for cached tile:", entry.key);
+        }
+    }
+
+    /**
+     * Starts writing a tile in the cache. The tile becomes visible to readers once it's committed.
+     * @return null if the tile can't be cached
+     */
+    public PendingEntry begin(OskariLayer layer, String url, String contentType, String contentEncoding,
+                              String etag, long lastModified, long ttlMs) {
+        if (!isEnabled()) {
+            return null;
+        }
+        try {
+            Path tmp = Files.createTempFile(dir, "tile", ".tmp");
+            Entry entry = new Entry(getKey(layer.getId(), url), layer.getId(), getLayerVersion(layer),
+                    System.currentTimeMillis() + clampAge(ttlMs), contentType, contentEncoding, etag, lastModified);
+            return new PendingEntry(entry, tmp);
+        } catch (IOException e) {
+            LOG.warn(e, "Unable to create temp file for tile");
+            return null;
+        }
+    }
+
+    /**
+     * Removes all the cached tiles for a layer on this node and other nodes in the cluster
+     */
+    public void invalidateLayer(int layerId) {
+        invalidateLayerSilent(layerId);
+        if (ClusterManager.isClustered()) {
+            ClusterManager
+                    .getClientFor("cache")
+                    .sendMessage(CLUSTER_CHANNEL, CLUSTER_CMD_REMOVE_LAYER_PREFIX + layerId);
+        }
+    }
+
+    protected void invalidateLayerSilent(int layerId) {
+        List<Entry> removed = new ArrayList<>();
+        synchronized (index) {
+            Iterator<Entry> it = index.values().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next();
+                if (entry.layerId == layerId) {
+                    it.remove();
+                    totalBytes -= entry.size;
+                    removed.add(entry);
+                }
+            }
+        }
+        removed.forEach(this::deleteFile);
+        LOG.debug("Removed", removed.size(), "cached tiles for layer:", layerId);
+    }
+
+    private void handleClusterMsg(String data) {
+        if (data != null && data.startsWith(CLUSTER_CMD_REMOVE_LAYER_PREFIX)) {
+            try {
+                invalidateLayerSilent(Integer.parseInt(data.substring(CLUSTER_CMD_REMOVE_LAYER_PREFIX.length())));
+            } catch (NumberFormatException e) {
+                LOG.warn("Received invalid layer id in cluster msg:", data);
+            }
+            return;
+        }
+        LOG.warn("Received unrecognized cluster msg:", data);
+    }
+
+    /**
+     * Clamps the max age given by the service between the configured min/max age
+     * @param ttlMs negative if the service didn't specify a max age
+     */
+    protected long clampAge(long ttlMs) {
+        return Math.min(maxAgeMs, Math.max(minAgeMs, ttlMs));
+    }
+
+    /**
+     * Parses the time the response can be cached in ms
+     * @param cacheControl value of Cache-Control header or null
+     * @param expires value of Expires header as epoch millis or 0 if not available
+     * @param date value of Date header as epoch millis or 0 if not available
+     * @return -1 if the service didn't say, 0 if the response may not be stored in a shared cache
+     */
+    protected static long parseMaxAge(String cacheControl, long expires, long date) {
+        if (cacheControl != null) {
+            long maxAge = -1;
+            long sharedMaxAge = -1;
+            for (String directive : cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-store") || directive.equals("private")) {
+                    return 0;
+                }
+                if (directive.startsWith("max-age=")) {
+                    maxAge = parseSeconds(directive.substring("max-age=".length()));
+                } else if (directive.startsWith("s-maxage=")) {
+                    sharedMaxAge = parseSeconds(directive.substring("s-maxage=".length()));
+                }
+            }
+            if (sharedMaxAge >= 0) {
+                return TimeUnit.SECONDS.toMillis(sharedMaxAge);
+            }
+            if (maxAge >= 0) {
+                return TimeUnit.SECONDS.toMillis(maxAge);
+            }
+        }
+        if (expires > 0) {
+            long now = date > 0 ? date : System.currentTimeMillis();
+            return Math.max(0, expires - now);
+        }
+        return -1;
+    }
+
+    private static long parseSeconds(String value) {
+        try {
+            return Long.parseLong(value.replace("\"", "").trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Normalizes the url so the same tile is cached once regardless of parameter order,
+     * case of parameter names or the number format of BBOX
+     */
+    protected static String normalizeUrl(String url) {
+        int queryStart = url.indexOf('?');
+        if (queryStart == -1) {
+            return url;
+        }
+        Map<String, String> sorted = new TreeMap<>();
+        for (String param : url.substring(queryStart + 1).split("&")) {
+            if (param.isEmpty()) {
+                continue;
+            }
+            int eq = param.indexOf('=');
+            String name = eq == -1 ? param : param.substring(0, eq);
+            String value = eq == -1 ? "" : param.substring(eq + 1);
+            name = decode(name).toLowerCase(Locale.ROOT);
+            value = decode(value);
+            sorted.put(name, PARAM_BBOX.equals(name) ? normalizeBBOX(value) : value);
+        }
+        StringBuilder normalized = new StringBuilder(url.length()).append(url, 0, queryStart + 1);
+        sorted.forEach((name, value) -> normalized.append(name).append('=').append(value).append('&'));
+        normalized.setLength(normalized.length() - 1);
+        return normalized.toString();
+    }
+
+    /**
+     * Formats the coordinates of a BBOX with at most 6 decimals and without trailing zeros
+     */
+    public static String normalizeBBOX(String bbox) {
+        String[] coords = bbox.split(",");
+        StringBuilder normalized = new StringBuilder(bbox.length());
+        for (String coord : coords) {
+            if (normalized.length() > 0) {
+                normalized.append(',');
+            }
+            try {
+                normalized.append(formatCoordinate(Double.parseDouble(coord.trim())));
+            } catch (NumberFormatException e) {
+                return bbox;
+            }
+        }
+        return normalized.toString();
+    }
+
+    public static String formatCoordinate(double value) {
+        BigDecimal rounded = BigDecimal.valueOf(value).setScale(6, RoundingMode.HALF_UP).stripTrailingZeros();
+        return rounded.signum() == 0 ? "0" : rounded.toPlainString();
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+        } catch (Exception e) {
+            return value;
+        }
+    }
+
+    private static String getKey(int layerId, String url) {
+        return layerId + ":" + normalizeUrl(url);
+    }
+
+    /**
+     * @return value that changes when the layer or its capabilities are updated
+     */
+    static long getLayerVersion(OskariLayer layer) {
+        long version = 17;
+        if (layer.getUpdated() != null) {
+            version = 31 * version + layer.getUpdated().getTime();
+        }
+        if (layer.getCapabilitiesLastUpdated() != null) {
+            version = 31 * version + layer.getCapabilitiesLastUpdated().getTime();
+        }
+        return version;
+    }
+
+    private void add(Entry entry, Path tmp) throws IOException {
+        Files.move(tmp, getFile(entry.key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (index) {
+            Entry existing = index.put(entry.key, entry);
+            if (existing != null) {
+                totalBytes -= existing.size;
+            }
+            totalBytes += entry.size;
+            Iterator<Entry> it = index.values().iterator();
+            while (totalBytes > maxBytes && it.hasNext()) {
+                Entry eldest = it.next();
+                it.remove();
+                totalBytes -= eldest.size;
+                evicted.add(eldest);
+            }
+        }
+        evicted.forEach(this::deleteFile);
+    }
+
+    private void remove(String key) {
+        Entry entry;
+        synchronized (index) {
+            entry = index.remove(key);
+            if (entry != null) {
+                totalBytes -= entry.size;
+            }
+        }
+        if (entry != null) {
+            deleteFile(entry);
+        }
+    }
+
+    private void deleteFile(Entry entry) {
+        synchronized (index) {
+            if (index.containsKey(entry.key)) {
+                // the same tile was cached again in the meantime
+                return;
+            }
+        }
+        try {
+            Files.deleteIfExists(getFile(entry.key));
+        } catch (IOException e) {
+            LOG.debug("Unable to remove cached tile:", entry.key);
+        }
+    }
+
+    private Path getFile(String key) {
+        return dir.resolve(getId(key) + SUFFIX_TILE);
+    }
+
+    /**
+     * Rebuilds the index from the tiles written on disk before a restart.
+     * Least recently written tiles are added first so they are evicted first.
+     */
+    private void loadIndex() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(dir)) {
+            list.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX_TILE)) {
+                    files.add(file);
+                } else if (name.endsWith(".tmp")) {
+                    // leftovers from writes that didn't finish
+                    file.toFile().delete();
+                }
+            });
+        }
+        files.sort(Comparator.comparingLong(file -> file.toFile().lastModified()));
+        for (Path file : files) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                Entry entry = readHeader(in);
+                entry.size = Files.size(file);
+                synchronized (index) {
+                    index.put(entry.key, entry);
+                    totalBytes += entry.size;
+                }
+            } catch (IOException e) {
+                LOG.debug("Removing unreadable cached tile:", file);
+                Files.deleteIfExists(file);
+            }
+        }
+        LOG.info("Loaded", index.size(), "cached tiles from:", dir);
+    }
+
+    private Entry readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != FORMAT_VERSION) {
+            throw new IOException("Unknown format");
+        }
+        long expires = in.readLong();
+        String key = in.readUTF();
+        int layerId = in.readInt();
+        long layerVersion = in.readLong();
+        String contentType = in.readUTF();
+        String contentEncoding = in.readUTF();
+        String etag = in.readUTF();
+        long lastModified = in.readLong();
+        return new Entry(key, layerId, layerVersion, expires,
+                contentType.isEmpty() ? null : contentType,
+                contentEncoding.isEmpty() ? null : contentEncoding,
+                etag.isEmpty() ? null : etag,
+                lastModified);
+    }
+
+    private static String getId(String key) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is always available
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Cached tile. The file on disk starts with a header describing the tile followed by the tile as is.
+     */
+    public class Entry {
+        private final String key;
+        private final int layerId;
+        private final long layerVersion;
+        private final String contentType;
+        private final String contentEncoding;
+        private final String etag;
+        private final long lastModified;
+        private volatile long expires;
+        private long size;
+
+        private Entry(String key, int layerId, long layerVersion, long expires,
+                      String contentType, String contentEncoding, String etag, long lastModified) {
+            this.key = key;
+            this.layerId = layerId;
+            this.layerVersion = layerVersion;
+            this.expires = expires;
+            this.contentType = contentType;
+            this.contentEncoding = contentEncoding;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getContentEncoding() {
+            return contentEncoding;
+        }
+
+        public long getExpires() {
+            return expires;
+        }
+
+        public boolean isExpired() {
+            return expires < System.currentTimeMillis();
+        }
+
+        public String getETag() {
+            return etag;
+        }
+
+        /**
+         * @return epoch millis or 0 if the service didn't give Last-Modified
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return true if the tile can be revalidated with a conditional request
+         */
+        public boolean hasValidators() {
+            return etag != null || lastModified > 0;
+        }
+
+        /**
+         * Opens the tile for reading, the stream is positioned after the header.
+         * @return null if the tile was removed from disk
+         */
+        public InputStream open() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(getFile(key))));
+                readHeader(in);
+                return in;
+            } catch (IOException e) {
+                remove(key);
+                return null;
+            }
+        }
+
+        private void writeHeader(DataOutputStream out) throws IOException {
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(expires);
+            out.writeUTF(key);
+            out.writeInt(layerId);
+            out.writeLong(layerVersion);
+            out.writeUTF(contentType == null ? "" : contentType);
+            out.writeUTF(contentEncoding == null ? "" : contentEncoding);
+            out.writeUTF(etag == null ? "" : etag);
+            out.writeLong(lastModified);
+        }
+    }
+
+    /**
+     * Tile being written in the cache
+     */
+    public class PendingEntry implements AutoCloseable {
+        private final Entry entry;
+        private final Path tmp;
+        private final DataOutputStream out;
+        private boolean committed;
+
+        private PendingEntry(Entry entry, Path tmp) throws IOException {
+            this.entry = entry;
+            this.tmp = tmp;
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)));
+            entry.writeHeader(out);
+        }
+
+        public OutputStream getOutputStream() {
+            return out;
+        }
+
+        /**
+         * Makes the tile available for readers
+         */
+        public void commit() {
+            try {
+                out.close();
+                entry.size = Files.size(tmp);
+                add(entry, tmp);
+                committed = true;
+            } catch (IOException e) {
+                LOG.warn(e, "Unable to cache tile:", entry.key);
+            }
+        }
+
+        /**
+         * Discards the tile unless it was committed
+         */
+        @Override
+        public void close() {
+            if (committed) {
+                return;
+            }
+            try {
+                out.close();
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                LOG.debug("Unable to remove temp file:", tmp);
+            }
+        }
+    }
+
+}
@@ -1,7 +1,6 @@
 package fi.nls.oskari.control.layer;
 
 import fi.nls.oskari.annotation.OskariActionRoute;
-import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionParameters;
 import fi.nls.oskari.control.ActionParamsException;
@@ -99,7 +98,7 @@ public class SaveLayerPermissionHandler extends RestActionHandler {
     }
 
     private void flushLayerListCache() {
-        CacheManager.getCache(GetMapLayerGroupsHandler.CACHE_NAME).flush(true);
+        GetMapLayerGroupsHandler.flushPermissions();
     }
 }
 
@@ -0,0 +1,83 @@
+package fi.nls.oskari.control.layer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * URL template with {placeholder} segments, for example WMTS REST ResourceURL or vector tile url.
+ * The template is parsed once into literal and placeholder segments so building an url for a tile
+ * is a single pass over the segments.
+ */
+public class TileUrlTemplate {
+
+    public static final TileUrlTemplate EMPTY = new TileUrlTemplate(new String[] { "" }, new String[0], 0);
+
+    // literals[i] is followed by placeholders[i], the last literal ends the template
+    private final String[] literals;
+    private final String[] placeholders;
+    private final int literalLength;
+
+    private TileUrlTemplate(String[] literals, String[] placeholders, int literalLength) {
+        this.literals = literals;
+        this.placeholders = placeholders;
+        this.literalLength = literalLength;
+    }
+
+    public static TileUrlTemplate compile(String template) {
+        if (template == null || template.isEmpty()) {
+            return EMPTY;
+        }
+        List<String> literals = new ArrayList<>();
+        List<String> placeholders = new ArrayList<>();
+        int literalLength = 0;
+        int start = 0;
+        while (true) {
+            int open = template.indexOf('{', start);
+            int close = open == -1 ? -1 : template.indexOf('}', open + 1);
+            if (close == -1) {
+                break;
+            }
+            String literal = template.substring(start, open);
+            literals.add(literal);
+            literalLength += literal.length();
+            placeholders.add(template.substring(open + 1, close));
+            start = close + 1;
+        }
+        String literal = template.substring(start);
+        literals.add(literal);
+        literalLength += literal.length();
+        return new TileUrlTemplate(literals.toArray(new String[0]), placeholders.toArray(new String[0]), literalLength);
+    }
+
+    public boolean isEmpty() {
+        return placeholders.length == 0 && literals[0].isEmpty();
+    }
+
+    public List<String> getPlaceholders() {
+        List<String> list = new ArrayList<>(placeholders.length);
+        for (String placeholder : placeholders) {
+            list.add(placeholder);
+        }
+        return list;
+    }
+
+    /**
+     * @param values returns the value for a placeholder or null to keep the placeholder as is
+     */
+    public String build(Function<String, String> values) {
+        StringBuilder url = new StringBuilder(literalLength + placeholders.length * 16);
+        for (int i = 0; i < placeholders.length; i++) {
+            url.append(literals[i]);
+            String value = values.apply(placeholders[i]);
+            if (value == null) {
+                url.append('{').append(placeholders[i]).append('}');
+            } else {
+                url.append(value);
+            }
+        }
+        url.append(literals[placeholders.length]);
+        return url.toString();
+    }
+
+}
@@ -0,0 +1,364 @@
+package fi.nls.oskari.control.layer;
+
+import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.util.PropertyUtil;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Serves proxied WMS GetMap tiles by requesting a block of tiles (metatile) from the service
+ * with a single larger GetMap. The metatile is sliced into tiles that are written to the
+ * proxy tile cache so the neighbouring tiles are served from the cache. Concurrent requests
+ * for tiles of the same metatile wait for the first request instead of requesting it again.
+ *
+ * Metatiling is enabled per layer with the layer option "metatile": [number of tiles per side], for example 4.
+ * The gutter (extra pixels requested around the metatile to avoid clipped labels and symbols)
+ * is configured with GetLayerTile.metatile.gutter (defaults to 32).
+ *
+ * Only PNG and JPEG tiles are supported. WMS 1.3.0 requests in EPSG:4326 are not metatiled
+ * as their BBOX axis order doesn't match the image axes. Layers are not metatiled when the tile cache
+ * is disabled or while the service responds that its images can't be cached (no-store, private or max-age=0)
+ * since every neighbouring tile would then request the whole metatile again.
+ */
+public class WMSMetaTiler {
+
+    private static final Logger LOG = LogFactory.getLogger(WMSMetaTiler.class);
+
+    public static final String LAYER_OPTION = "metatile";
+
+    private static final int GUTTER = PropertyUtil.getOptional("GetLayerTile.metatile.gutter", 32);
+    // don't request images larger than this from the service
+    private static final int MAX_IMAGE_SIZE = 4096;
+    private static final long WAIT_TIMEOUT_MS = 30_000L;
+    // time to serve single tiles before trying to metatile a layer with uncacheable responses again
+    private static final long UNCACHEABLE_RECHECK_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final String PARAM_REQUEST = "REQUEST";
+    private static final String PARAM_BBOX = "BBOX";
+    private static final String PARAM_WIDTH = "WIDTH";
+    private static final String PARAM_HEIGHT = "HEIGHT";
+    private static final String PARAM_FORMAT = "FORMAT";
+    private static final String PARAM_VERSION = "VERSION";
+    private static final String PARAM_CRS = "CRS";
+
+    private final ProxyTileCache cache;
+    private final int gutter;
+    private final ConcurrentMap<String, CompletableFuture<Map<Integer, byte[]>>> inProgress = new ConcurrentHashMap<>();
+    // layer id -> time until which the layer is not metatiled
+    private final ConcurrentMap<Integer, Long> uncacheable = new ConcurrentHashMap<>();
+
+    public WMSMetaTiler(ProxyTileCache cache) {
+        this(cache, GUTTER);
+    }
+
+    public WMSMetaTiler(ProxyTileCache cache, int gutter) {
+        this.cache = cache;
+        this.gutter = gutter;
+    }
+
+    /**
+     * Loads the metatile image from the service
+     */
+    @FunctionalInterface
+    public interface ImageLoader {
+        LoadedImage load(String url) throws IOException;
+    }
+
+    public static class LoadedImage {
+        private final BufferedImage image;
+        private final long maxAge;
+
+        /**
+         * @param maxAge time the image can be cached in ms, negative if the service didn't say
+         */
+        public LoadedImage(BufferedImage image, long maxAge) {
+            this.image = image;
+            this.maxAge = maxAge;
+        }
+    }
+
+    /**
+     * Tile requested by the client and the metatile it belongs to
+     */
+    public static class MetaTile {
+        private final String key;
+        private final Map<String, String> params;
+        private final String bboxParam;
+        private final String format;
+        private final String contentType;
+        private final int size;
+        private final int tileWidth;
+        private final int tileHeight;
+        // bottom left corner of the metatile and size of a tile in map units
+        private final double minX;
+        private final double minY;
+        private final double resX;
+        private final double resY;
+        // index of the requested tile in the metatile
+        private final int index;
+
+        private MetaTile(int layerId, Map<String, String> params, String bboxParam, String format, String contentType, int size,
+                         int tileWidth, int tileHeight, double minX, double minY, double resX, double resY, int index) {
+            this.params = params;
+            this.bboxParam = bboxParam;
+            this.format = format;
+            this.contentType = contentType;
+            this.size = size;
+            this.tileWidth = tileWidth;
+            this.tileHeight = tileHeight;
+            this.minX = minX;
+            this.minY = minY;
+            this.resX = resX;
+            this.resY = resY;
+            this.index = index;
+            Map<String, String> sorted = new TreeMap<>();
+            params.forEach((name, value) -> {
+                if (!name.equals(bboxParam)) {
+                    sorted.put(name.toUpperCase(Locale.ROOT), value);
+                }
+            });
+            // layers with the same params can still point to different services or use different credentials
+            this.key = layerId + "|" + sorted + "|" + ProxyTileCache.formatCoordinate(minX) + "," + ProxyTileCache.formatCoordinate(minY) + "|" + size;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+    }
+
+    public static int getMetaTileSize(OskariLayer layer) {
+        return layer.getOptions().optInt(LAYER_OPTION, 1);
+    }
+
+    /**
+     * Resolves the metatile for a tile request
+     * @param params GetMap parameters of the tile request
+     * @return null if the request can't be metatiled
+     */
+    public MetaTile getMetaTile(OskariLayer layer, Map<String, String> params) {
+        final int size = getMetaTileSize(layer);
+        if (size < 2 || !OskariLayer.TYPE_WMS.equalsIgnoreCase(layer.getType())) {
+            return null;
+        }
+        if (cache == null || !cache.isEnabled() || !isCacheable(layer)) {
+            return null;
+        }
+        Map<String, String> upperCased = new HashMap<>();
+        String bboxParam = null;
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            String name = param.getKey().toUpperCase(Locale.ROOT);
+            upperCased.put(name, param.getValue());
+            if (PARAM_BBOX.equals(name)) {
+                bboxParam = param.getKey();
+            }
+        }
+        if (bboxParam == null || !"GetMap".equalsIgnoreCase(upperCased.get(PARAM_REQUEST))) {
+            return null;
+        }
+        if ("1.3.0".equals(upperCased.get(PARAM_VERSION)) && "EPSG:4326".equalsIgnoreCase(upperCased.get(PARAM_CRS))) {
+            return null;
+        }
+        final String contentType = upperCased.getOrDefault(PARAM_FORMAT, "").toLowerCase(Locale.ROOT);
+        final String format;
+        if (contentType.equals("image/png")) {
+            format = "png";
+        } else if (contentType.equals("image/jpeg")) {
+            format = "jpeg";
+        } else {
+            return null;
+        }
+        try {
+            final int tileWidth = Integer.parseInt(upperCased.get(PARAM_WIDTH));
+            final int tileHeight = Integer.parseInt(upperCased.get(PARAM_HEIGHT));
+            if (tileWidth <= 0 || tileHeight <= 0
+                    || size * tileWidth + 2 * gutter > MAX_IMAGE_SIZE
+                    || size * tileHeight + 2 * gutter > MAX_IMAGE_SIZE) {
+                return null;
+            }
+            final String[] bbox = params.get(bboxParam).split(",");
+            if (bbox.length != 4) {
+                return null;
+            }
+            final double minX = Double.parseDouble(bbox[0]);
+            final double minY = Double.parseDouble(bbox[1]);
+            final double resX = Double.parseDouble(bbox[2]) - minX;
+            final double resY = Double.parseDouble(bbox[3]) - minY;
+            if (resX <= 0 || resY <= 0) {
+                return null;
+            }
+            // position of the tile in the grid, the grid origin doesn't need to be known
+            // as long as the tiles are aligned to the same grid
+            final long col = Math.round(minX / resX);
+            final long row = Math.round(minY / resY);
+            final int i = (int) Math.floorMod(col, (long) size);
+            final int j = (int) Math.floorMod(row, (long) size);
+            return new MetaTile(layer.getId(), params, bboxParam, format, contentType, size, tileWidth, tileHeight,
+                    minX - i * resX, minY - j * resY, resX, resY, j * size + i);
+        } catch (NumberFormatException | NullPointerException e) {
+            return null;
+        }
+    }
+
+    private boolean isCacheable(OskariLayer layer) {
+        final Long until = uncacheable.get(layer.getId());
+        if (until == null) {
+            return true;
+        }
+        if (System.currentTimeMillis() > until) {
+            uncacheable.remove(layer.getId(), until);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the requested tile. The metatile is requested from the service unless another
+     * request is already loading it. All the tiles of the metatile are written to the cache.
+     */
+    public byte[] getTile(OskariLayer layer, MetaTile metaTile, ImageLoader loader) throws IOException {
+        CompletableFuture<Map<Integer, byte[]>> future = new CompletableFuture<>();
+        CompletableFuture<Map<Integer, byte[]>> existing = inProgress.putIfAbsent(metaTile.key, future);
+        if (existing != null) {
+            return waitFor(existing).get(metaTile.index);
+        }
+        try {
+            Map<Integer, byte[]> tiles = loadMetaTile(layer, metaTile, loader);
+            future.complete(tiles);
+            return tiles.get(metaTile.index);
+        } catch (IOException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inProgress.remove(metaTile.key, future);
+        }
+    }
+
+    private static Map<Integer, byte[]> waitFor(CompletableFuture<Map<Integer, byte[]>> future) throws IOException {
+        try {
+            return future.get(WAIT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for metatile");
+        } catch (ExecutionException e) {
+            throw new IOException("Loading metatile failed", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out while waiting for metatile");
+        }
+    }
+
+    private Map<Integer, byte[]> loadMetaTile(OskariLayer layer, MetaTile metaTile, ImageLoader loader) throws IOException {
+        final int size = metaTile.size;
+        final double gutterX = gutter * metaTile.resX / metaTile.tileWidth;
+        final double gutterY = gutter * metaTile.resY / metaTile.tileHeight;
+        final Map<String, String> params = new HashMap<>(metaTile.params);
+        params.put(metaTile.bboxParam, toBBOX(
+                metaTile.minX - gutterX,
+                metaTile.minY - gutterY,
+                metaTile.minX + size * metaTile.resX + gutterX,
+                metaTile.minY + size * metaTile.resY + gutterY));
+        setParam(params, PARAM_WIDTH, Integer.toString(size * metaTile.tileWidth + 2 * gutter));
+        setParam(params, PARAM_HEIGHT, Integer.toString(size * metaTile.tileHeight + 2 * gutter));
+
+        final String url = IOHelper.constructUrl(layer.getUrl(), params);
+        LOG.debug("Requesting metatile:", url);
+        final LoadedImage loaded = loader.load(url);
+        if (loaded.maxAge == 0) {
+            LOG.info("Service doesn't allow caching tiles, requesting single tiles for layer:", layer.getId());
+            uncacheable.put(layer.getId(), System.currentTimeMillis() + UNCACHEABLE_RECHECK_MS);
+        }
+        final BufferedImage image = loaded.image;
+        if (image.getWidth() != size * metaTile.tileWidth + 2 * gutter
+                || image.getHeight() != size * metaTile.tileHeight + 2 * gutter) {
+            throw new IOException("Unexpected metatile size: " + image.getWidth() + "x" + image.getHeight());
+        }
+
+        final Map<Integer, byte[]> tiles = new HashMap<>();
+        for (int j = 0; j < size; j++) {
+            for (int i = 0; i < size; i++) {
+                // image rows go from top to bottom while j goes from bottom to top
+                BufferedImage tile = image.getSubimage(
+                        gutter + i * metaTile.tileWidth,
+                        gutter + (size - 1 - j) * metaTile.tileHeight,
+                        metaTile.tileWidth, metaTile.tileHeight);
+                byte[] encoded = encode(tile, metaTile.format);
+                tiles.put(j * size + i, encoded);
+                Map<String, String> tileParams = new HashMap<>(metaTile.params);
+                tileParams.put(metaTile.bboxParam, toBBOX(
+                        metaTile.minX + i * metaTile.resX,
+                        metaTile.minY + j * metaTile.resY,
+                        metaTile.minX + (i + 1) * metaTile.resX,
+                        metaTile.minY + (j + 1) * metaTile.resY));
+                write(layer, IOHelper.constructUrl(layer.getUrl(), tileParams), metaTile.contentType, encoded, loaded.maxAge);
+            }
+        }
+        return tiles;
+    }
+
+    private void write(OskariLayer layer, String url, String contentType, byte[] tile, long maxAge) {
+        if (cache == null || maxAge == 0) {
+            return;
+        }
+        try (ProxyTileCache.PendingEntry pending = cache.begin(layer, url, contentType, null, null, 0, maxAge)) {
+            if (pending == null) {
+                return;
+            }
+            OutputStream out = pending.getOutputStream();
+            out.write(tile);
+            pending.commit();
+        } catch (IOException e) {
+            LOG.debug("Unable to cache tile from metatile:", url);
+        }
+    }
+
+    private static byte[] encode(BufferedImage tile, String format) throws IOException {
+        if ("jpeg".equals(format) && tile.getColorModel().hasAlpha()) {
+            // JPEG writer doesn't support alpha channel
+            BufferedImage rgb = new BufferedImage(tile.getWidth(), tile.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = rgb.createGraphics();
+            g.drawImage(tile, 0, 0, null);
+            g.dispose();
+            tile = rgb;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (!ImageIO.write(tile, format, out)) {
+            throw new IOException("No writer for format: " + format);
+        }
+        return out.toByteArray();
+    }
+
+    private static void setParam(Map<String, String> params, String upperCaseName, String value) {
+        for (String name : params.keySet()) {
+            if (upperCaseName.equals(name.toUpperCase(Locale.ROOT))) {
+                params.put(name, value);
+                return;
+            }
+        }
+        params.put(upperCaseName, value);
+    }
+
+    private static String toBBOX(double minX, double minY, double maxX, double maxY) {
+        return ProxyTileCache.formatCoordinate(minX) + ','
+                + ProxyTileCache.formatCoordinate(minY) + ','
+                + ProxyTileCache.formatCoordinate(maxX) + ','
+                + ProxyTileCache.formatCoordinate(maxY);
+    }
+
+}
@@ -1,6 +1,8 @@
 package fi.nls.oskari.control.view;
 
 import fi.nls.oskari.annotation.OskariActionRoute;
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.control.*;
 import fi.nls.oskari.control.view.modifier.bundle.BundleHandler;
 import fi.nls.oskari.control.view.modifier.param.ParamControl;
@@ -24,6 +26,7 @@ import org.json.JSONObject;
 
 import java.net.URLDecoder;
 import java.util.*;
+import java.util.function.Predicate;
 
 @OskariActionRoute("GetAppSetup")
 public class GetAppSetupHandler extends ActionHandler {
@@ -46,6 +49,14 @@ public class GetAppSetupHandler extends ActionHandler {
 
     public static final String COOKIE_SAVED_STATE = "oskaristate";
 
+    // Setup after running modifiers with scope VIEW/USER for guest users on published views
+    private static final boolean SKELETON_CACHE_ENABLED = PropertyUtil.getOptional("actionhandler.GetAppSetup.cache", true);
+    private static final Cache<String> SKELETON_CACHE = CacheManager.getCache(GetAppSetupHandler.class.getName());
+    static {
+        // layer changes flush the cache but user content like myplaces layers can change without notice
+        SKELETON_CACHE.setExpiration(PropertyUtil.getOptional("actionhandler.GetAppSetup.cache.minutes", 5) * 60L * 1000L);
+    }
+
     // for adding extra bundle(s) for users with specific roles
     private Map<String, List<Bundle>> bundlesForRole = new HashMap<String, List<Bundle>>();
 
@@ -119,6 +130,12 @@ public class GetAppSetupHandler extends ActionHandler {
         }
     }
 
+    @Override
+    public void teardown() {
+        // writes pending view usage counts
+        viewService.teardown();
+    }
+
     public void handleAction(final ActionParameters params) throws ActionException {
         // oldId => support for migrated published maps
         final long oldId = params.getHttpParam(PARAM_OLD_ID, -1);
@@ -182,9 +199,18 @@ public class GetAppSetupHandler extends ActionHandler {
         // Update view for latest usage timestamp and opened count number
         updateUsageData(view);
 
-        // JSON presentation of view
-        final JSONObject configuration = getConfiguration(view);
-        final JSONArray startupSequence = getStartupSequence(view);
+        // JSON presentation of view. Use the shared part from cache when possible.
+        final String skeletonKey = getSkeletonKey(params, view, oldId);
+        final JSONObject skeleton = getSkeleton(skeletonKey);
+        final JSONObject configuration;
+        final JSONArray startupSequence;
+        if (skeleton != null) {
+            configuration = skeleton.optJSONObject(KEY_CONFIGURATION);
+            startupSequence = skeleton.optJSONArray(KEY_STARTUP);
+        } else {
+            configuration = getConfiguration(view);
+            startupSequence = getStartupSequence(view);
+        }
 
         // modify the loaded view before serving it if there are any control
         // parameters
@@ -243,17 +269,15 @@ public class GetAppSetupHandler extends ActionHandler {
         modifierParams.setLocationModified(locationModified > 0);
         // TODO: if we have modified location more than once, user gave
         // conflicting params, maybe notify about it?
-        for (int i = 0; i < startupSequence.length(); i++) {
-            final JSONObject bundle = (JSONObject) startupSequence.opt(i);
-            final String bundleid = bundle.optString("bundlename");
-            if (bundleHandlers.containsKey(bundleid)) {
-                log.debug("Modifying bundle", bundleid);
-                try {
-                    bundleHandlers.get(bundleid).modifyBundle(modifierParams);
-                } catch (ModifierException e) {
-                    log.error(e, "Unable to modify bundle:", bundle);
-                }
+        if (skeletonKey == null) {
+            modifyBundles(modifierParams, handler -> true);
+        } else {
+            if (skeleton == null) {
+                // shared modifiers are run once and the result is cached for the next requests
+                modifyBundles(modifierParams, handler -> handler.getScope() != ViewModifier.Scope.REQUEST);
+                cacheSkeleton(skeletonKey, configuration, startupSequence);
             }
+            modifyBundles(modifierParams, handler -> handler.getScope() == ViewModifier.Scope.REQUEST);
         }
 
         // write response
@@ -268,6 +292,71 @@ public class GetAppSetupHandler extends ActionHandler {
         }
     }
 
+    private void modifyBundles(final ModifierParams modifierParams, final Predicate<BundleHandler> filter) {
+        final JSONArray startupSequence = modifierParams.getStartupSequence();
+        for (int i = 0; i < startupSequence.length(); i++) {
+            final JSONObject bundle = (JSONObject) startupSequence.opt(i);
+            final String bundleid = bundle.optString("bundlename");
+            final BundleHandler handler = bundleHandlers.get(bundleid);
+            if (handler != null && filter.test(handler)) {
+                log.debug("Modifying bundle", bundleid);
+                try {
+                    handler.modifyBundle(modifierParams);
+                } catch (ModifierException e) {
+                    log.error(e, "Unable to modify bundle:", bundle);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a key for caching the result of shared view modifiers or null if the request can't use the cache.
+     * Only guests loading published views without parameters are served from the cache: for them the result
+     * of modifiers with scope VIEW or USER is the same for every request with the same language and urls.
+     * The key includes a hash of the bundle config and state so changes to the view change the key.
+     */
+    protected String getSkeletonKey(final ActionParameters params, final View view, final long oldId) {
+        if (!SKELETON_CACHE_ENABLED || oldId != -1 || !params.getUser().isGuest()
+                || !ViewTypes.PUBLISHED.equals(view.getType())) {
+            return null;
+        }
+        for (String paramKey : paramHandlers) {
+            if (params.getHttpParam(paramKey) != null) {
+                return null;
+            }
+        }
+        int hash = Objects.hash(view.getPubDomain(), view.getLang());
+        for (Bundle bundle : view.getBundles()) {
+            hash = 31 * hash + Objects.hash(bundle.getName(), bundle.getConfig(), bundle.getState());
+        }
+        return view.getId() + "_" + params.getLocale().getLanguage() + "_" + EnvHelper.isSecure(params)
+                + "_" + EnvHelper.getAPIurl(params) + "_" + Integer.toHexString(hash);
+    }
+
+    private JSONObject getSkeleton(final String key) {
+        if (key == null) {
+            return null;
+        }
+        final String cached = SKELETON_CACHE.get(key);
+        return cached == null ? null : JSONHelper.createJSONObject(cached);
+    }
+
+    private void cacheSkeleton(final String key, final JSONObject configuration, final JSONArray startupSequence) {
+        final JSONObject skeleton = new JSONObject();
+        JSONHelper.putValue(skeleton, KEY_CONFIGURATION, configuration);
+        JSONHelper.putValue(skeleton, KEY_STARTUP, startupSequence);
+        // cached as string so modifications to the response don't affect the cached value
+        SKELETON_CACHE.put(key, skeleton.toString());
+    }
+
+    /**
+     * Flushes the cached app setups. Called when layers or permissions change since the cached
+     * setups include layer JSON.
+     */
+    public static void flushSkeletons() {
+        SKELETON_CACHE.flush(true);
+    }
+
     /**
      * Check whether cookie srs matches the view's native srs
      * @return
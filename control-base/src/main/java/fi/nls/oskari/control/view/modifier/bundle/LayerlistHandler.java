@@ -13,6 +13,11 @@ public class LayerlistHandler extends BundleHandler {
     private static final String LAYER_GROUP_TOGGLE_LIMIT = "layerGroupToggleLimit";
     private static final String BACKEND_STATUS_AVAILABLE = "backendStatusAvailable";
 
+    @Override
+    public Scope getScope() {
+        return Scope.VIEW;
+    }
+
     public boolean modifyBundle(final ModifierParams params) throws ModifierException {
         final JSONObject config = getBundleConfig(params.getConfig());
         int toggleLimit = PropertyUtil.getOptional("layerlist.groupToggleLimit", 0);
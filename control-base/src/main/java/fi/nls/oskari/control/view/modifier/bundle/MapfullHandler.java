@@ -112,6 +112,11 @@ public class MapfullHandler extends BundleHandler {
         pluginHandlers.put(pluginId, handler);
     }
 
+    @Override
+    public Scope getScope() {
+        return Scope.USER;
+    }
+
     public boolean modifyBundle(final ModifierParams params) throws ModifierException {
         final JSONObject mapfullConfig = getBundleConfig(params.getConfig());
         final JSONObject mapfullState = getBundleState(params.getConfig());
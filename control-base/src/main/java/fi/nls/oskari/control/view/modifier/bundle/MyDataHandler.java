@@ -10,6 +10,11 @@ import org.json.JSONObject;
 @OskariViewModifier("mydata")
 public class MyDataHandler extends BundleHandler {
 
+    @Override
+    public Scope getScope() {
+        return Scope.VIEW;
+    }
+
     public boolean modifyBundle(final ModifierParams params) throws ModifierException {
         final JSONObject config = getBundleConfig(params.getConfig());
 
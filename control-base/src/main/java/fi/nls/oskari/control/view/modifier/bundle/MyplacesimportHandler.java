@@ -13,6 +13,11 @@ import org.json.JSONObject;
 public class MyplacesimportHandler extends BundleHandler {
     private static final Logger log = LogFactory.getLogger(MyplacesimportHandler.class);
 
+    @Override
+    public Scope getScope() {
+        return Scope.VIEW;
+    }
+
     public boolean modifyBundle(final ModifierParams params) throws ModifierException {
         final JSONObject config = getBundleConfig(params.getConfig());
         JSONHelper.putValue(config, "maxFileSizeMb", PropertyUtil.get("userlayer.max.filesize.mb"));
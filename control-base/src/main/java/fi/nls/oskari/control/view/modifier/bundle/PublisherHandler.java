@@ -44,6 +44,11 @@ public class PublisherHandler extends BundleHandler {
     }
 
 
+    @Override
+    public Scope getScope() {
+        return Scope.VIEW;
+    }
+
     public boolean modifyBundle(final ModifierParams params) throws ModifierException {
         final JSONObject config = getBundleConfig(params.getConfig());
 
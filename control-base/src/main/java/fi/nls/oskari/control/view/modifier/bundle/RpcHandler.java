@@ -14,6 +14,11 @@ public class RpcHandler extends BundleHandler {
 
     private static final String KEY_DOMAIN = "domain";
 
+    @Override
+    public Scope getScope() {
+        return Scope.VIEW;
+    }
+
     @Override
     public boolean modifyBundle(ModifierParams params) throws ModifierException {
         // Add published map's domain to rpc config
@@ -22,6 +22,11 @@ public class SearchHandler extends BundleHandler {
         autocomplete = searchService.isAvailableAutocompleteChannels();
     }
 
+    @Override
+    public Scope getScope() {
+        return Scope.VIEW;
+    }
+
     /**
      * Updates the query URL from the myplaces2 configuration
      * @param params
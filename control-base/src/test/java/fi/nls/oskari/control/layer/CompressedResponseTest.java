@@ -0,0 +1,111 @@
+package fi.nls.oskari.control.layer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+import fi.nls.oskari.control.ActionParameters;
+import fi.nls.oskari.util.IOHelper;
+
+public class CompressedResponseTest {
+
+    private static final String JSON = "{\"layers\":[{\"id\":1,\"name\":\"Taustakartta\"}]}";
+
+    @Test
+    public void testContent() throws Exception {
+        CompressedResponse response = CompressedResponse.create("application/json", JSON);
+        assertArrayEquals(JSON.getBytes(StandardCharsets.UTF_8), response.getBytes());
+        assertEquals(JSON.length(), response.getLength());
+        assertEquals(response.getETag(), CompressedResponse.create("application/json", JSON).getETag());
+        assertNotEquals(response.getETag(), CompressedResponse.create("application/json", "{}").getETag());
+    }
+
+    @Test
+    public void testGzippedBytesAreWritten() throws Exception {
+        CompressedResponse response = CompressedResponse.create("application/json", JSON);
+        ActionParameters params = getParams(null, "gzip, deflate, br");
+        ByteArrayOutputStream body = getBody(params);
+        response.write(params);
+        verify(params.getResponse()).setHeader("Content-Encoding", "gzip");
+        verify(params.getResponse()).setHeader("ETag", response.getETag());
+        assertArrayEquals(JSON.getBytes(StandardCharsets.UTF_8), IOHelper.ungzip(body.toByteArray()).toByteArray());
+    }
+
+    @Test
+    public void testUncompressedBytesAreWritten() throws Exception {
+        CompressedResponse response = CompressedResponse.create("application/json", JSON);
+        ActionParameters params = getParams(null, null);
+        ByteArrayOutputStream body = getBody(params);
+        response.write(params);
+        verify(params.getResponse(), never()).setHeader("Content-Encoding", "gzip");
+        assertEquals(JSON, new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testNotModified() throws Exception {
+        CompressedResponse response = CompressedResponse.create("application/json", JSON);
+        ActionParameters params = getParams(response.getETag(), "gzip");
+        ByteArrayOutputStream body = getBody(params);
+        response.write(params);
+        verify(params.getResponse()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertEquals(0, body.size());
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(CompressedResponse.acceptsGzip("gzip"));
+        assertTrue(CompressedResponse.acceptsGzip("deflate, GZIP;q=0.5"));
+        assertTrue(CompressedResponse.acceptsGzip("*"));
+        assertFalse(CompressedResponse.acceptsGzip(null));
+        assertFalse(CompressedResponse.acceptsGzip("identity"));
+        assertFalse(CompressedResponse.acceptsGzip("gzip;q=0"));
+    }
+
+    private ActionParameters getParams(String ifNoneMatch, String acceptEncoding) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("If-None-Match")).thenReturn(ifNoneMatch);
+        when(request.getHeader("Accept-Encoding")).thenReturn(acceptEncoding);
+        when(request.getDateHeader("If-Modified-Since")).thenReturn(-1L);
+        ActionParameters params = new ActionParameters();
+        params.setRequest(request);
+        params.setResponse(mock(HttpServletResponse.class));
+        return params;
+    }
+
+    private ByteArrayOutputStream getBody(ActionParameters params) throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        when(params.getResponse().getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+        });
+        return body;
+    }
+
+}
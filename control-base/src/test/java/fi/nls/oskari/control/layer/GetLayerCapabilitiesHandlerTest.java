@@ -15,7 +15,6 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.oskari.permissions.PermissionService;
-import org.oskari.permissions.PermissionServiceMybatisImpl;
 import org.oskari.permissions.model.*;
 import org.powermock.modules.junit4.PowerMockRunner;
 
@@ -29,6 +28,7 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.CALLS_REAL_METHODS;
 
 @RunWith(PowerMockRunner.class)
 public class GetLayerCapabilitiesHandlerTest extends JSONActionRouteTest {
@@ -99,7 +99,8 @@ public class GetLayerCapabilitiesHandlerTest extends JSONActionRouteTest {
     }
     private PermissionService getPermissionsService() {
 
-        PermissionService service = mock(PermissionServiceMybatisImpl.class);
+        // use the generic permission check of PermissionService with the mocked resource
+        PermissionService service = mock(PermissionService.class, CALLS_REAL_METHODS);
 
         Resource res = new Resource();
         Permission p = new Permission();
@@ -0,0 +1,57 @@
+package fi.nls.oskari.control.layer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+public class GetLayerTileHandlerTest {
+
+    @Test
+    public void testTransfer() throws Exception {
+        byte[] body = new byte[100_000];
+        for (int i = 0; i < body.length; i++) {
+            body[i] = (byte) i;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long copied = GetLayerTileHandler.transfer(new ByteArrayInputStream(body), out, body.length);
+        assertEquals(body.length, copied);
+        assertArrayEquals(body, out.toByteArray());
+    }
+
+    @Test(expected = EOFException.class)
+    public void testTransferSizeLimit() throws Exception {
+        byte[] body = new byte[100_000];
+        GetLayerTileHandler.transfer(new ByteArrayInputStream(body), new ByteArrayOutputStream(), body.length - 1);
+    }
+
+    @Test
+    public void testIsNotModifiedWithETag() {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getHeader("If-None-Match")).thenReturn("\"a\", W/\"b\"");
+        when(request.getDateHeader("If-Modified-Since")).thenReturn(-1L);
+        assertTrue(GetLayerTileHandler.isNotModified(request, "\"b\"", 0));
+        assertFalse(GetLayerTileHandler.isNotModified(request, "\"c\"", 0));
+        assertFalse(GetLayerTileHandler.isNotModified(request, null, 1000L));
+    }
+
+    @Test
+    public void testIsNotModifiedWithDate() {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getDateHeader("If-Modified-Since")).thenReturn(10_000L);
+        assertTrue(GetLayerTileHandler.isNotModified(request, null, 10_500L));
+        assertFalse(GetLayerTileHandler.isNotModified(request, null, 11_000L));
+        assertFalse(GetLayerTileHandler.isNotModified(request, null, 0));
+    }
+
+}
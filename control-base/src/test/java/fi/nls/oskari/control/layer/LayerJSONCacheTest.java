@@ -0,0 +1,47 @@
+package fi.nls.oskari.control.layer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class LayerJSONCacheTest {
+
+    @Test
+    public void testRemoveFromAllVariants() {
+        LayerJSONCache cache = new LayerJSONCache(getClass().getName() + ".remove");
+        cache.put("fi_EPSG:3067_false_false", 1, "{\"id\":1}");
+        cache.put("en_EPSG:3857_true_false", 1, "{\"id\":1}");
+        cache.put("fi_EPSG:3067_false_false", 2, "{\"id\":2}");
+        cache.put("fi_EPSG:3067_false_false", 3, "");
+
+        cache.remove(Collections.singletonList(1));
+        assertNull(cache.get("fi_EPSG:3067_false_false", 1));
+        assertNull(cache.get("en_EPSG:3857_true_false", 1));
+        assertEquals("{\"id\":2}", cache.get("fi_EPSG:3067_false_false", 2));
+        assertEquals("Layers that are not listed are cached as empty", "", cache.get("fi_EPSG:3067_false_false", 3));
+
+        cache.flush();
+        assertNull(cache.get("fi_EPSG:3067_false_false", 2));
+    }
+
+    @Test
+    public void testClusterMessage() {
+        LayerJSONCache cache = new LayerJSONCache(getClass().getName() + ".cluster");
+        for (int id : Arrays.asList(1, 2, 3)) {
+            cache.put("fi_EPSG:3067_false_false", id, "{}");
+        }
+        // sublayer 3 of parent 1 was updated on another node
+        cache.handleClusterMsg("REM: 3,1");
+        assertNull(cache.get("fi_EPSG:3067_false_false", 1));
+        assertEquals("{}", cache.get("fi_EPSG:3067_false_false", 2));
+        assertNull(cache.get("fi_EPSG:3067_false_false", 3));
+
+        cache.handleClusterMsg("REM: x");
+        cache.handleClusterMsg(null);
+        assertEquals("{}", cache.get("fi_EPSG:3067_false_false", 2));
+    }
+}
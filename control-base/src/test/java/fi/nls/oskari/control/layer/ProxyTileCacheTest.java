@@ -0,0 +1,147 @@
+package fi.nls.oskari.control.layer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.util.IOHelper;
+
+public class ProxyTileCacheTest {
+
+    private static final long MINUTE = 60_000L;
+    private static final long HOUR = 60 * MINUTE;
+
+    private Path dir;
+    private OskariLayer layer;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("tiles");
+        layer = new OskariLayer();
+        layer.setId(1);
+        layer.setUpdated(new Date(1000L));
+    }
+
+    @Test
+    public void testTileIsCachedWithNormalizedUrl() throws Exception {
+        ProxyTileCache cache = new ProxyTileCache(dir, 1024, MINUTE, HOUR);
+        byte[] tile = put(cache, layer, "http://localhost/wms?LAYERS=a&BBOX=1,2,3,4", 100);
+        assertArrayEquals(tile, read(cache.get(layer, "http://localhost/wms?bbox=1%2C2%2C3%2C4&layers=a")));
+        // new instance == restart
+        cache = new ProxyTileCache(dir, 1024, MINUTE, HOUR);
+        assertEquals(1, cache.getTileCount());
+        assertArrayEquals(tile, read(cache.get(layer, "http://localhost/wms?LAYERS=a&BBOX=1,2,3,4")));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedTileIsEvicted() throws Exception {
+        ProxyTileCache cache = new ProxyTileCache(dir, 2048, MINUTE, HOUR);
+        put(cache, layer, "http://localhost/1", 500);
+        put(cache, layer, "http://localhost/2", 500);
+        put(cache, layer, "http://localhost/3", 500);
+        // use the first one so the second one is the least recently used
+        assertNotNull(cache.get(layer, "http://localhost/1"));
+        put(cache, layer, "http://localhost/4", 500);
+        assertNotNull(cache.get(layer, "http://localhost/1"));
+        assertNull(cache.get(layer, "http://localhost/2"));
+        assertEquals(3, cache.getTileCount());
+        assertEquals(3, Files.list(dir).count());
+    }
+
+    @Test
+    public void testLayerUpdateInvalidatesTiles() throws Exception {
+        ProxyTileCache cache = new ProxyTileCache(dir, 2048, MINUTE, HOUR);
+        put(cache, layer, "http://localhost/1", 100);
+        OskariLayer updated = new OskariLayer();
+        updated.setId(layer.getId());
+        updated.setUpdated(new Date(2000L));
+        assertNull(cache.get(updated, "http://localhost/1"));
+        assertEquals(0, cache.getTileCount());
+
+        put(cache, layer, "http://localhost/1", 100);
+        cache.invalidateLayer(layer.getId());
+        assertNull(cache.get(layer, "http://localhost/1"));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testExpiredTileIsRefreshed() throws Exception {
+        ProxyTileCache cache = new ProxyTileCache(dir, 2048, -1, HOUR);
+        byte[] tile = put(cache, layer, "http://localhost/1", 100);
+        ProxyTileCache.Entry entry = cache.get(layer, "http://localhost/1");
+        Thread.sleep(5);
+        assertTrue(entry.isExpired());
+        assertTrue(entry.hasValidators());
+        assertEquals("\"etag\"", entry.getETag());
+
+        cache.refresh(entry, HOUR);
+        assertFalse(entry.isExpired());
+        // the new expiration is persisted
+        cache = new ProxyTileCache(dir, 2048, -1, HOUR);
+        ProxyTileCache.Entry loaded = cache.get(layer, "http://localhost/1");
+        assertEquals(entry.getExpires(), loaded.getExpires());
+        assertArrayEquals(tile, read(loaded));
+    }
+
+    @Test
+    public void testMaxAge() {
+        assertEquals(60_000L, ProxyTileCache.parseMaxAge("public, max-age=60", 0, 0));
+        assertEquals(30_000L, ProxyTileCache.parseMaxAge("max-age=60, s-maxage=30", 0, 0));
+        assertEquals(0, ProxyTileCache.parseMaxAge("no-store", 0, 0));
+        assertEquals(0, ProxyTileCache.parseMaxAge("private, max-age=60", 0, 0));
+        assertEquals(5000L, ProxyTileCache.parseMaxAge(null, 10_000L, 5_000L));
+        assertEquals(-1, ProxyTileCache.parseMaxAge(null, 0, 0));
+
+        ProxyTileCache cache = new ProxyTileCache(null, 0, MINUTE, HOUR);
+        assertEquals(MINUTE, cache.clampAge(-1));
+        assertEquals(MINUTE, cache.clampAge(1000L));
+        assertEquals(2 * MINUTE, cache.clampAge(2 * MINUTE));
+        assertEquals(HOUR, cache.clampAge(2 * HOUR));
+    }
+
+    @Test
+    public void testSharedDirectoryIsNotUsed() throws Exception {
+        assertTrue(new ProxyTileCache(dir, 1024, MINUTE, HOUR).isEnabled());
+        assumeTrue(dir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwxrwxrwx"));
+        assertFalse(new ProxyTileCache(dir, 1024, MINUTE, HOUR).isEnabled());
+    }
+
+    private byte[] put(ProxyTileCache cache, OskariLayer layer, String url, int size) throws Exception {
+        byte[] tile = new byte[size];
+        for (int i = 0; i < size; i++) {
+            tile[i] = (byte) (i + url.length());
+        }
+        try (ProxyTileCache.PendingEntry pending = cache.begin(layer, url, "image/png", null, "\"etag\"", 0, -1)) {
+            pending.getOutputStream().write(tile);
+            pending.commit();
+        }
+        return tile;
+    }
+
+    private byte[] read(ProxyTileCache.Entry entry) throws Exception {
+        assertNotNull(entry);
+        assertEquals("image/png", entry.getContentType());
+        try (InputStream in = entry.open()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            IOHelper.copy(in, out);
+            return out.toByteArray();
+        }
+    }
+
+}
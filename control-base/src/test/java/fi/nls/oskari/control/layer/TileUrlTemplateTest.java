@@ -0,0 +1,60 @@
+package fi.nls.oskari.control.layer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class TileUrlTemplateTest {
+
+    private static final String WMTS_REST = "https://example.com/wmts/1.0.0/{layer}/{style}/{TileMatrixSet}/{TileMatrix}/{TileRow}/{TileCol}.png";
+
+    @Test
+    public void testWMTSRest() {
+        TileUrlTemplate template = TileUrlTemplate.compile(WMTS_REST);
+        assertEquals(Arrays.asList("layer", "style", "TileMatrixSet", "TileMatrix", "TileRow", "TileCol"), template.getPlaceholders());
+
+        Map<String, String> values = new HashMap<>();
+        values.put("layer", "taustakartta");
+        values.put("style", "default");
+        values.put("TileMatrixSet", "ETRS-TM35FIN");
+        values.put("TileMatrix", "5");
+        values.put("TileRow", "10");
+        values.put("TileCol", "12");
+        String expected = WMTS_REST
+                .replaceFirst("\\{layer\\}", "taustakartta")
+                .replaceFirst("\\{style\\}", "default")
+                .replaceFirst("\\{TileMatrixSet\\}", "ETRS-TM35FIN")
+                .replaceFirst("\\{TileMatrix\\}", "5")
+                .replaceFirst("\\{TileRow\\}", "10")
+                .replaceFirst("\\{TileCol\\}", "12");
+        assertEquals(expected, template.build(values::get));
+    }
+
+    @Test
+    public void testUnknownPlaceholdersAreKept() {
+        TileUrlTemplate template = TileUrlTemplate.compile("https://example.com/tiles/{z}/{x}/{y}.pbf?time={Time}");
+        Map<String, String> values = new HashMap<>();
+        values.put("z", "1");
+        values.put("x", "2");
+        values.put("y", "3");
+        assertEquals("https://example.com/tiles/1/2/3.pbf?time={Time}", template.build(values::get));
+    }
+
+    @Test
+    public void testWithoutPlaceholders() {
+        String wms = "https://example.com/wms?SERVICE=WMS&";
+        TileUrlTemplate template = TileUrlTemplate.compile(wms);
+        assertTrue(template.getPlaceholders().isEmpty());
+        assertEquals(wms, template.build(name -> "x"));
+        // unclosed placeholder is a literal
+        assertEquals("https://example.com/{x", TileUrlTemplate.compile("https://example.com/{x").build(name -> "1"));
+        assertTrue(TileUrlTemplate.compile(null).isEmpty());
+        assertTrue(TileUrlTemplate.compile("").isEmpty());
+    }
+
+}
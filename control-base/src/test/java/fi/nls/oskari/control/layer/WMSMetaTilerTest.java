@@ -0,0 +1,224 @@
+package fi.nls.oskari.control.layer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.util.IOHelper;
+
+public class WMSMetaTilerTest {
+
+    private static final int TILE = 256;
+    private static final int GUTTER = 16;
+
+    private OskariLayer layer;
+    private ProxyTileCache cache;
+    private WMSMetaTiler tiler;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        layer = new OskariLayer();
+        layer.setId(1);
+        layer.setType(OskariLayer.TYPE_WMS);
+        layer.setUrl("http://localhost/wms");
+        layer.setOptions(new JSONObject().put(WMSMetaTiler.LAYER_OPTION, 2));
+        cache = new ProxyTileCache(Files.createTempDirectory("tiles"), 10 * 1024 * 1024, 60_000L, 60_000L);
+        tiler = new WMSMetaTiler(cache, GUTTER);
+    }
+
+    @Test
+    public void testUnsupportedRequests() {
+        assertNull(tiler.getMetaTile(layer, getParams(0, 0, "image/gif")));
+        Map<String, String> params = getParams(0, 0, "image/png");
+        params.put("REQUEST", "GetLegendGraphic");
+        assertNull(tiler.getMetaTile(layer, params));
+        layer.setOptions(new JSONObject());
+        assertNull(tiler.getMetaTile(layer, getParams(0, 0, "image/png")));
+    }
+
+    @Test
+    public void testTilesAreSlicedAndCached() throws Exception {
+        // top right tile of the metatile
+        WMSMetaTiler.MetaTile metaTile = tiler.getMetaTile(layer, getParams(1, 1, "image/png"));
+        assertNotNull(metaTile);
+        byte[] tile = tiler.getTile(layer, metaTile, this::load);
+        assertEquals(colorOf(1, 1), getCenterColor(tile));
+        assertEquals(1, loads.get());
+
+        // neighbouring tiles are in the cache
+        for (int col = 0; col < 2; col++) {
+            for (int row = 0; row < 2; row++) {
+                String url = IOHelper.constructUrl(layer.getUrl(), getParams(col, row, "image/png"));
+                ProxyTileCache.Entry entry = cache.get(layer, url);
+                assertNotNull(entry);
+                try (InputStream in = entry.open()) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    IOHelper.copy(in, out);
+                    assertEquals(colorOf(col, row), getCenterColor(out.toByteArray()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsAreCoalesced() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        WMSMetaTiler.ImageLoader slowLoader = url -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            return load(url);
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            results.add(executor.submit(() -> tiler.getTile(layer, tiler.getMetaTile(layer, getParams(0, 0, "image/png")), slowLoader)));
+            started.await(5, TimeUnit.SECONDS);
+            for (int i = 1; i < 4; i++) {
+                final int col = i % 2;
+                final int row = i / 2;
+                results.add(executor.submit(() -> tiler.getTile(layer, tiler.getMetaTile(layer, getParams(col, row, "image/png")), slowLoader)));
+            }
+            // give the other requests time to find the metatile in progress
+            Thread.sleep(100);
+            release.countDown();
+            for (int i = 0; i < 4; i++) {
+                assertEquals(colorOf(i % 2, i / 2), getCenterColor(results.get(i).get(5, TimeUnit.SECONDS)));
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLayersWithSameParamsAreNotCoalesced() throws Exception {
+        OskariLayer other = new OskariLayer();
+        other.setId(2);
+        other.setType(OskariLayer.TYPE_WMS);
+        other.setUrl("http://otherhost/wms");
+        other.setOptions(layer.getOptions());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> urls = new CopyOnWriteArrayList<>();
+        WMSMetaTiler.ImageLoader slowLoader = url -> {
+            urls.add(url);
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+            return load(url);
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<byte[]> first = executor.submit(() -> tiler.getTile(layer, tiler.getMetaTile(layer, getParams(0, 0, "image/png")), slowLoader));
+            started.await(5, TimeUnit.SECONDS);
+            Future<byte[]> second = executor.submit(() -> tiler.getTile(other, tiler.getMetaTile(other, getParams(0, 0, "image/png")), slowLoader));
+            Thread.sleep(100);
+            release.countDown();
+            first.get(5, TimeUnit.SECONDS);
+            second.get(5, TimeUnit.SECONDS);
+            assertEquals("Metatile is requested separately for each layer", 2, loads.get());
+            assertTrue(urls.stream().anyMatch(url -> url.startsWith("http://otherhost/wms")));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testUncacheableLayerIsNotMetatiled() throws Exception {
+        WMSMetaTiler.MetaTile metaTile = tiler.getMetaTile(layer, getParams(0, 0, "image/png"));
+        byte[] tile = tiler.getTile(layer, metaTile, url -> load(url, 0));
+        assertEquals(colorOf(0, 0), getCenterColor(tile));
+        String neighbour = IOHelper.constructUrl(layer.getUrl(), getParams(1, 0, "image/png"));
+        assertNull("Tiles are not cached", cache.get(layer, neighbour));
+        assertNull("Requests for neighbouring tiles go to the service as is",
+                tiler.getMetaTile(layer, getParams(1, 0, "image/png")));
+
+        assertNull("Not metatiled without a cache",
+                new WMSMetaTiler(new ProxyTileCache(null, 0, 0, 0), GUTTER).getMetaTile(layer, getParams(0, 0, "image/png")));
+    }
+
+    /**
+     * Params for a 256px tile with 1 map unit per pixel. The grid origin is not at 0,0.
+     */
+    private Map<String, String> getParams(int col, int row, String format) {
+        Map<String, String> params = new HashMap<>();
+        double minX = 100 + col * TILE;
+        double minY = 50 + row * TILE;
+        params.put("SERVICE", "WMS");
+        params.put("REQUEST", "GetMap");
+        params.put("LAYERS", "test");
+        params.put("FORMAT", format);
+        params.put("WIDTH", "" + TILE);
+        params.put("HEIGHT", "" + TILE);
+        params.put("BBOX", minX + "," + minY + "," + (minX + TILE) + "," + (minY + TILE));
+        return params;
+    }
+
+    /**
+     * Fake WMS that paints each tile of the requested 2x2 metatile with its own color
+     */
+    private WMSMetaTiler.LoadedImage load(String url) {
+        return load(url, -1);
+    }
+
+    private WMSMetaTiler.LoadedImage load(String url, long maxAge) {
+        loads.incrementAndGet();
+        int size = 2 * TILE + 2 * GUTTER;
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        for (int col = 0; col < 2; col++) {
+            for (int row = 0; row < 2; row++) {
+                g.setColor(new Color(colorOf(col, row)));
+                g.fillRect(GUTTER + col * TILE, GUTTER + (1 - row) * TILE, TILE, TILE);
+            }
+        }
+        g.dispose();
+        return new WMSMetaTiler.LoadedImage(image, maxAge);
+    }
+
+    private static int colorOf(int col, int row) {
+        return new Color(col * 200, row * 200, 100).getRGB();
+    }
+
+    private static int getCenterColor(byte[] png) throws Exception {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+        assertEquals(TILE, image.getWidth());
+        assertEquals(TILE, image.getHeight());
+        return image.getRGB(TILE / 2, TILE / 2);
+    }
+
+}
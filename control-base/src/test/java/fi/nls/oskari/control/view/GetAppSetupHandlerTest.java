@@ -214,6 +214,28 @@ public class GetAppSetupHandlerTest extends JSONActionRouteTest {
         verify(viewService, never()).getViewWithConf(anyLong());
         verify(viewService, times(1)).getViewWithConfByOldId(123);
     }
+    @Test
+    public void testSkeletonKey() throws Exception {
+        final View view = ViewTestHelper.createMockView("framework.mapfull");
+        view.setType(ViewTypes.PUBLISHED);
+        final ActionParameters params = createActionParams(new HashMap<>());
+        final String key = handler.getSkeletonKey(params, view, -1);
+        assertNotNull("Published view loaded by guest without params should be cacheable", key);
+        assertEquals(key, handler.getSkeletonKey(createActionParams(new HashMap<>()), view, -1));
+        assertNull("Migrated published views are not cached", handler.getSkeletonKey(params, view, 123));
+        assertNull("Logged in users are not cached", handler.getSkeletonKey(createActionParams(new HashMap<>(), getLoggedInUser()), view, -1));
+
+        Map<String, String> parameters = new HashMap<>();
+        parameters.put(new CoordinateParamHandler().getName(), "123_456");
+        assertNull("Requests with modifier params are not cached", handler.getSkeletonKey(createActionParams(parameters), view, -1));
+
+        view.getBundleByName(ViewModifier.BUNDLE_MAPFULL).setState("{\"zoom\":5}");
+        assertNotEquals("Changes to view should change the key", key, handler.getSkeletonKey(params, view, -1));
+
+        view.setType(ViewTypes.USER);
+        assertNull("Only published views are cached", handler.getSkeletonKey(params, view, -1));
+    }
+
     /* *********************************************
      * Service mocks
      * ********************************************
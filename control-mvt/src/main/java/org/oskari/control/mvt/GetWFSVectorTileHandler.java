@@ -12,7 +12,6 @@ import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.geometry.jts.ReferencedEnvelope;
-import org.geotools.referencing.CRS;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.feature.type.GeometryType;
@@ -21,6 +20,7 @@ import org.oskari.service.mvt.SimpleFeaturesMVTEncoder;
 import org.oskari.service.mvt.TileCoord;
 import org.oskari.service.mvt.WFSTileGrid;
 import org.oskari.service.user.UserLayerService;
+import org.oskari.service.wfs3.CRSRegistry;
 
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.Geometry;
@@ -57,12 +57,7 @@ public class GetWFSVectorTileHandler extends AbstractWFSFeaturesHandler {
 
     private static final int DEFAULT_CACHE_ZOOM_LEVEL = 8;
     private static final int MIN_ZOOM_OVER_CACHE_ZOOM = 1;
-    private static final Map<String, WFSTileGrid> KNOWN_TILE_GRIDS;
-    static {
-        KNOWN_TILE_GRIDS = new HashMap<>();
-        KNOWN_TILE_GRIDS.put("EPSG:3067", new WFSTileGrid(new double[] { -548576, 6291456, -548576 + (8192*256), 6291456 + (8192*256) }, 15));
-        KNOWN_TILE_GRIDS.put("EPSG:3857", new WFSTileGrid(new double[] { -20037508.3427892, -20037508.3427892, 20037508.3427892, 20037508.3427892 }, 18));
-    }
+    private static final Map<String, WFSTileGrid> KNOWN_TILE_GRIDS = WFSTileGrid.getKnownTileGrids();
 
     private static final int TILE_EXTENT = 4096;
     private static final int TILE_BUFFER = 256;
@@ -113,7 +108,7 @@ public class GetWFSVectorTileHandler extends AbstractWFSFeaturesHandler {
 
         final CoordinateReferenceSystem crs;
         try {
-            crs = CRS.decode(srs, true);
+            crs = CRSRegistry.decode(srs, true);
         } catch (Exception e) {
             throw new ActionParamsException("Invalid srs!");
         }
@@ -2,6 +2,7 @@ package fi.nls.oskari.control.statistics;
 
 import fi.nls.oskari.annotation.OskariActionRoute;
 import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.control.statistics.util.StatisticsCache;
 import fi.nls.oskari.control.ActionException;
 import fi.nls.oskari.control.ActionHandler;
 import fi.nls.oskari.control.ActionParameters;
@@ -86,7 +87,7 @@ public class GetIndicatorDataHandler extends ActionHandler {
             JSONObject response = toJSON(values);
 
             if (plugin.canCache()) {
-                JedisManager.setex(cacheKey, JedisManager.EXPIRY_TIME_DAY, response.toString());
+                StatisticsCache.setex(cacheKey, JedisManager.EXPIRY_TIME_DAY, response.toString());
             }
 
             return response;
@@ -100,7 +101,7 @@ public class GetIndicatorDataHandler extends ActionHandler {
     }
 
     private JSONObject getFromCache(String cacheKey) {
-        String cachedData = JedisManager.get(cacheKey);
+        String cachedData = StatisticsCache.get(cacheKey);
         return JSONHelper.createJSONObject(cachedData);
     }
 
@@ -2,6 +2,7 @@ package fi.nls.oskari.control.statistics;
 
 import fi.nls.oskari.annotation.OskariActionRoute;
 import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.control.statistics.util.StatisticsCache;
 import fi.nls.oskari.control.*;
 import fi.nls.oskari.control.statistics.data.*;
 import fi.nls.oskari.control.statistics.plugins.*;
@@ -49,7 +50,7 @@ public class GetIndicatorMetadataHandler extends ActionHandler {
         }
         String cacheKey = StatisticsHelper.getIndicatorMetadataCacheKey(pluginId, indicatorId);
         if (plugin.canCache()) {
-            final String cachedData = JedisManager.get(cacheKey);
+            final String cachedData = StatisticsCache.get(cacheKey);
             if (cachedData != null && !cachedData.isEmpty()) {
                 try {
                     return new JSONObject(cachedData);
@@ -61,7 +62,7 @@ public class GetIndicatorMetadataHandler extends ActionHandler {
         try {
             JSONObject indicatorMetadata = StatisticsHelper.toJSON(indicator);
             if (plugin.canCache() && indicatorMetadata != null) {
-                JedisManager.setex(cacheKey, JedisManager.EXPIRY_TIME_DAY, indicatorMetadata.toString());
+                StatisticsCache.setex(cacheKey, JedisManager.EXPIRY_TIME_DAY, indicatorMetadata.toString());
             }
             return indicatorMetadata;
         } catch (JSONException e) {
@@ -2,11 +2,13 @@ package fi.nls.oskari.control.statistics;
 
 import fi.nls.oskari.annotation.OskariActionRoute;
 import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.control.statistics.util.StatisticsCache;
 import fi.nls.oskari.control.*;
 import fi.nls.oskari.control.statistics.db.RegionSet;
 import fi.nls.oskari.service.OskariComponentManager;
 import fi.nls.oskari.service.ServiceException;
 import fi.nls.oskari.service.ServiceRuntimeException;
+import fi.nls.oskari.util.ConversionHelper;
 import fi.nls.oskari.util.JSONHelper;
 import fi.nls.oskari.util.ResponseHelper;
 import org.json.JSONArray;
@@ -15,12 +17,21 @@ import org.json.JSONObject;
 import org.opengis.geometry.MismatchedDimensionException;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.operation.TransformException;
+import org.oskari.service.mvt.WFSTileGrid;
+import org.oskari.service.mvt.WFSTileGridProperties;
 
 import java.io.IOException;
 import java.util.List;
 
 /**
  * Returns the region information.
+ * Optional parameters:
+ * - resolution: map resolution (units per pixel) the regions are shown in. Geometries are simplified
+ *   so they are accurate at the resolution. The resolution is limited to the zoom levels of the tile grid
+ *   for the srs (same as for GetWFSVectorTile). Full geometries are returned if not given or if there is
+ *   no tile grid for the srs.
+ * - format: "topojson" to get the geometries as TopoJSON in "topology" instead of GeoJSON for each region.
+ *   Requires resolution.
  * Sample response:
  * {
      "regions" : [{
@@ -38,8 +49,13 @@ public class GetRegionsHandler extends ActionHandler {
 
     private static final String CACHE_KEY_PREFIX = "oskari:stats:regionset:";
     private static final String KEY_REGIONS = "regions";
+    private static final String KEY_TOPOLOGY = "topology";
+    private static final String PARAM_RESOLUTION = "resolution";
+    private static final String PARAM_FORMAT = "format";
+    private static final String FORMAT_TOPOJSON = "topojson";
 
     private RegionSetService service;
+    private WFSTileGridProperties tileGridProperties;
 
     public void setRegionsetService(final RegionSetService service) {
         this.service = service;
@@ -50,32 +66,71 @@ public class GetRegionsHandler extends ActionHandler {
         if(service == null) {
             setRegionsetService(OskariComponentManager.getComponentOfType(RegionSetService.class));
         }
+        tileGridProperties = new WFSTileGridProperties();
     }
 
     public void handleAction(ActionParameters ap) throws ActionException {
         final int layerId = ap.getRequiredParamInt("regionset");
         final String srs = ap.getRequiredParam(ActionConstants.PARAM_SRS);
-        JSONObject response = getRegionInfoJSON(layerId, srs);
+        final double resolution = ConversionHelper.getDouble(ap.getHttpParam(PARAM_RESOLUTION), -1);
+        final double tolerance = getTolerance(resolution, getTileGrid(srs));
+        final boolean topojson = FORMAT_TOPOJSON.equalsIgnoreCase(ap.getHttpParam(PARAM_FORMAT, ""));
+        if (topojson && tolerance <= 0) {
+            throw new ActionParamsException("Parameter " + PARAM_RESOLUTION + " and a tile grid for the srs are required for " + FORMAT_TOPOJSON);
+        }
+        JSONObject response = getRegionInfoJSON(layerId, srs, tolerance, topojson);
         ResponseHelper.writeResponse(ap, response);
     }
 
+    private WFSTileGrid getTileGrid(String srs) {
+        final WFSTileGrid gridFromProps = tileGridProperties.getTileGrid(srs);
+        return gridFromProps != null ? gridFromProps : WFSTileGrid.getKnownTileGrids().get(srs);
+    }
+
+    /**
+     * Clamps the resolution to the zoom levels of the tile grid so only a limited amount of
+     * simplified versions of a regionset can be requested and cached.
+     * @return 0 for full geometries if there is no resolution or tile grid
+     */
+    protected static double getTolerance(double resolution, WFSTileGrid grid) {
+        if (grid == null || !(resolution > 0)) {
+            return 0;
+        }
+        final double min = grid.getResolutionForZ(grid.getMaxZoom());
+        final double max = grid.getResolutionForZ(0);
+        return RegionTopology.getTolerance(Math.max(min, Math.min(resolution, max)));
+    }
+
     /**
      * @param layerId For example: 9
      * @return For example: [{"name": "Alajärvi"}]
      * @throws ActionException
      */
     public JSONObject getRegionInfoJSON(long layerId, final String srs) throws ActionException {
+        return getRegionInfoJSON(layerId, srs, 0, false);
+    }
+
+    /**
+     * @param tolerance simplification tolerance in map units, 0 for full geometries
+     * @param topojson true to return geometries as TopoJSON
+     */
+    public JSONObject getRegionInfoJSON(long layerId, final String srs, double tolerance, boolean topojson) throws ActionException {
         final RegionSet regionset = service.getRegionSet(layerId);
 
         if (regionset == null) {
             throw new ActionParamsException("Regionset not found");
         }
-        return requestRegionInfoJSON(layerId, regionset, srs);
+        return requestRegionInfoJSON(layerId, regionset, srs, tolerance, topojson);
     }
 
     public JSONObject requestRegionInfoJSON(long id, RegionSet regionset, final String srs) throws ActionException {
-        final String cacheKey = CACHE_KEY_PREFIX + id + ":" + srs;
-        final String cachedData = JedisManager.get(cacheKey);
+        return requestRegionInfoJSON(id, regionset, srs, 0, false);
+    }
+
+    public JSONObject requestRegionInfoJSON(long id, RegionSet regionset, final String srs,
+                                            double tolerance, boolean topojson) throws ActionException {
+        final String cacheKey = getCacheKey(id, srs, tolerance, topojson);
+        final String cachedData = StatisticsCache.get(cacheKey);
         if (cachedData != null && !cachedData.isEmpty()) {
             try {
                 return new JSONObject(cachedData);
@@ -89,6 +144,13 @@ public class GetRegionsHandler extends ActionHandler {
 
         try {
             final List<Region> result = RegionSetHelper.getRegions(regionset, srs);
+            if (topojson) {
+                JSONHelper.putValue(response, KEY_TOPOLOGY, RegionSetHelper.toTopoJSON(result, tolerance));
+                // geometries are in the topology
+                result.forEach(region -> region.setGeojson(null));
+            } else if (tolerance > 0) {
+                RegionSetHelper.simplify(result, tolerance);
+            }
             for (Region region : result) {
                 regions.put(region.toJSON());
             }
@@ -102,10 +164,23 @@ public class GetRegionsHandler extends ActionHandler {
             throw new ActionException("Failed to create transformation", e);
         } catch (TransformException e) {
             throw new ActionException("Failed to perform transformation", e);
+        } catch (JSONException e) {
+            throw new ActionException("Failed to write simplified geometries", e);
         }
 
-        JedisManager.setex(cacheKey, JedisManager.EXPIRY_TIME_DAY, response.toString());
+        StatisticsCache.setex(cacheKey, JedisManager.EXPIRY_TIME_DAY, response.toString());
         return response;
     }
 
+    protected static String getCacheKey(long id, String srs, double tolerance, boolean topojson) {
+        final StringBuilder key = new StringBuilder(CACHE_KEY_PREFIX).append(id).append(':').append(srs);
+        if (tolerance > 0) {
+            key.append(':').append(tolerance);
+        }
+        if (topojson) {
+            key.append(':').append(FORMAT_TOPOJSON);
+        }
+        return key.toString();
+    }
+
 }
@@ -0,0 +1,222 @@
+package fi.nls.oskari.control.statistics;
+
+import fi.nls.oskari.annotation.OskariActionRoute;
+import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.cache.ComputeOnceCache;
+import fi.nls.oskari.control.*;
+import fi.nls.oskari.control.statistics.db.RegionSet;
+import fi.nls.oskari.service.OskariComponentManager;
+import fi.nls.oskari.service.ServiceRuntimeException;
+import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.util.PropertyUtil;
+import fi.nls.oskari.util.ResponseHelper;
+import org.locationtech.jts.geom.Envelope;
+import org.oskari.service.mvt.SimpleFeaturesMVTEncoder;
+import org.oskari.service.mvt.TileCoord;
+import org.oskari.service.mvt.WFSTileGrid;
+import org.oskari.service.mvt.WFSTileGridProperties;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Returns the regions of a regionset as Mapbox vector tiles so large regionsets (like postal codes or grids)
+ * can be drawn progressively instead of loading all the geometries with GetRegions.
+ * Features have the region id and name as attributes ("id" and "name"), the indicator values are joined
+ * by the client using the region id.
+ *
+ * Parameters: regionset, srs, z, x, y. Tile grids are the same as for GetWFSVectorTile.
+ * The regionset features are loaded once per srs and kept in memory with a spatial index.
+ * Cache keys include the time the regionset was last updated so modifying the regionset
+ * replaces the cached features and tiles on all nodes.
+ * Cached tiles are bounded by size with statistics.regions.tiles.cache.maxSizeMB=64
+ * (tiles larger than a quarter of this are not cached).
+ */
+@OskariActionRoute("GetRegionsVectorTile")
+public class GetRegionsVectorTileHandler extends ActionHandler {
+
+    protected static final String MVT_CONTENT_TYPE = "application/vnd.mapbox-vector-tile";
+    private static final String PARAM_REGIONSET = "regionset";
+    private static final String PARAM_Z = "z";
+    private static final String PARAM_X = "x";
+    private static final String PARAM_Y = "y";
+    private static final String MVT_LAYER = "regions";
+
+    private static final int TILE_EXTENT = 4096;
+    private static final int TILE_BUFFER = 256;
+
+    // regionsets change rarely, but keep the amount of regionsets in memory limited as they can be large
+    private static final int FEATURE_CACHE_LIMIT = 16;
+    private static final int TILE_CACHE_LIMIT = 4096;
+    // low zoom tiles of large regionsets can be hundreds of kB each
+    private static final long TILE_CACHE_MAX_BYTES = PropertyUtil.getOptional("statistics.regions.tiles.cache.maxSizeMB", 64) * 1024L * 1024L;
+    private static final long CACHE_EXPIRATION = TimeUnit.HOURS.toMillis(12);
+    private static final long BROWSER_CACHE_SECONDS = TimeUnit.HOURS.toSeconds(1);
+
+    private RegionSetService service;
+    private ComputeOnceCache<RegionFeatureIndex> featureCache;
+    private ComputeOnceCache<byte[]> tileCache;
+    private WFSTileGridProperties tileGridProperties;
+
+    public void setRegionsetService(final RegionSetService service) {
+        this.service = service;
+    }
+
+    @Override
+    public void init() {
+        if (service == null) {
+            setRegionsetService(OskariComponentManager.getComponentOfType(RegionSetService.class));
+        }
+        featureCache = CacheManager.getCache(getClass().getName() + ".features",
+                () -> new ComputeOnceCache<>(FEATURE_CACHE_LIMIT, CACHE_EXPIRATION));
+        tileCache = CacheManager.getCache(getClass().getName(),
+                () -> new TileCache(TILE_CACHE_LIMIT, CACHE_EXPIRATION, TILE_CACHE_MAX_BYTES));
+        tileGridProperties = new WFSTileGridProperties();
+    }
+
+    @Override
+    public void handleAction(ActionParameters params) throws ActionException {
+        final long regionsetId = params.getRequiredParamLong(PARAM_REGIONSET);
+        final String srs = params.getRequiredParam(ActionConstants.PARAM_SRS).toUpperCase();
+        final int z = params.getRequiredParamInt(PARAM_Z);
+        final int x = params.getRequiredParamInt(PARAM_X);
+        final int y = params.getRequiredParamInt(PARAM_Y);
+
+        final WFSTileGrid grid = getTileGrid(srs);
+        validateTile(grid, z, x, y);
+        final RegionSet regionset = service.getRegionSet(regionsetId);
+        if (regionset == null) {
+            throw new ActionParamsException("Regionset not found");
+        }
+
+        final byte[] resp;
+        try {
+            final String featureCacheKey = getFeatureCacheKey(regionset, srs);
+            final RegionFeatureIndex index = featureCache.get(featureCacheKey,
+                    __ -> createIndex(regionset, srs));
+            resp = tileCache.get(getCacheKey(featureCacheKey, z, x, y),
+                    __ -> createTile(index, grid, new TileCoord(z, x, y)));
+        } catch (Exception e) {
+            throw new ActionCommonException(e.getMessage(), e);
+        }
+        params.getResponse().addHeader("Access-Control-Allow-Origin", "*");
+        params.getResponse().addHeader("Content-Encoding", "gzip");
+        params.getResponse().addHeader("Cache-Control", "max-age=" + BROWSER_CACHE_SECONDS);
+        ResponseHelper.writeResponse(params, 200, MVT_CONTENT_TYPE, resp);
+    }
+
+    private WFSTileGrid getTileGrid(String srs) {
+        final WFSTileGrid gridFromProps = tileGridProperties.getTileGrid(srs);
+        return gridFromProps != null ? gridFromProps : WFSTileGrid.getKnownTileGrids().get(srs);
+    }
+
+    protected static void validateTile(WFSTileGrid grid, int z, int x, int y) throws ActionParamsException {
+        if (grid == null) {
+            throw new ActionParamsException("Unknown srs");
+        }
+        if (z < 0 || z > grid.getMaxZoom()) {
+            throw new ActionParamsException("z must be between 0 and " + grid.getMaxZoom());
+        }
+        final int matrixWidthHeight = WFSTileGrid.getMatrixSize(z);
+        if (x < 0 || x >= matrixWidthHeight || y < 0 || y >= matrixWidthHeight) {
+            throw new ActionParamsException("x and y must be between 0 and " + (matrixWidthHeight - 1) + " (z = " + z + ")");
+        }
+    }
+
+    /**
+     * Cache bounded by the size of the cached tiles. The oldest tiles are dropped before the size
+     * or count limit is reached so Cache doesn't log overflow warnings for each put.
+     */
+    static class TileCache extends ComputeOnceCache<byte[]> {
+        private final long maxBytes;
+        // sizes of cached tiles, oldest first
+        private final Map<String, Integer> sizes = new LinkedHashMap<>();
+        private long bytes = 0;
+
+        TileCache(int limit, long expiration, long maxBytes) {
+            super(limit, expiration);
+            this.maxBytes = maxBytes;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public synchronized boolean put(final String name, final byte[] tile) {
+            if (tile == null) {
+                return super.put(name, null);
+            }
+            // drop any previous value so the size is tracked for the new one
+            removeSilent(name);
+            if (tile.length > maxBytes / 4) {
+                return false;
+            }
+            while (!sizes.isEmpty() && (bytes + tile.length > maxBytes || getSize() >= getLimit())) {
+                removeSilent(sizes.keySet().iterator().next());
+            }
+            final boolean overflowing = super.put(name, tile);
+            sizes.put(name, tile.length);
+            bytes += tile.length;
+            return overflowing;
+        }
+
+        @Override
+        protected synchronized byte[] removeSilent(final String name) {
+            final byte[] value = super.removeSilent(name);
+            final Integer size = sizes.remove(name);
+            if (size != null) {
+                bytes -= size;
+            }
+            return value;
+        }
+
+        @Override
+        protected boolean flushSilent(final boolean force) {
+            final boolean flushed = super.flushSilent(force);
+            if (flushed) {
+                synchronized (this) {
+                    sizes.clear();
+                    bytes = 0;
+                }
+            }
+            return flushed;
+        }
+    }
+
+    protected static String getFeatureCacheKey(RegionSet regionset, String srs) {
+        final long version = regionset.getUpdated() == null ? 0 : regionset.getUpdated().getTime();
+        return regionset.getId() + "_" + version + "_" + srs;
+    }
+
+    protected static String getCacheKey(String featureCacheKey, int z, int x, int y) {
+        return featureCacheKey + "_" + z + "_" + x + "_" + y;
+    }
+
+    private static RegionFeatureIndex createIndex(RegionSet regionset, String srs) {
+        try {
+            return new RegionFeatureIndex(RegionSetHelper.getRegions(regionset, srs));
+        } catch (Exception e) {
+            throw new ServiceRuntimeException("Couldn't load regionset " + regionset.getId(), e);
+        }
+    }
+
+    /**
+     * @return an MVT tile as a GZipped byte array
+     */
+    protected static byte[] createTile(RegionFeatureIndex index, WFSTileGrid grid, TileCoord tile) {
+        final double[] bbox = grid.getTileExtent(tile);
+        final Envelope envelope = new Envelope(bbox[0], bbox[2], bbox[1], bbox[3]);
+        // include features in the buffer area so shapes crossing tile edges are drawn without gaps
+        envelope.expandBy((bbox[2] - bbox[0]) * TILE_BUFFER / TILE_EXTENT);
+        final byte[] encoded = SimpleFeaturesMVTEncoder.encodeToByteArray(index.getFeatures(envelope),
+                MVT_LAYER, bbox, TILE_EXTENT, TILE_BUFFER);
+        try {
+            return IOHelper.gzip(encoded).toByteArray();
+        } catch (IOException e) {
+            throw new ServiceRuntimeException("Unexpected IOException occured");
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package fi.nls.oskari.control.statistics;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.DefaultFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import java.util.List;
+
+/**
+ * Features of a regionset (in one projection) with a spatial index for picking the regions for a tile.
+ * Features only have the region id and name as attributes, indicator values are joined by the client.
+ */
+public class RegionFeatureIndex {
+
+    protected static final String ATTR_GEOMETRY = "geom";
+    protected static final String ATTR_ID = "id";
+    protected static final String ATTR_NAME = "name";
+    private static final SimpleFeatureType SCHEMA;
+    static {
+        SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+        builder.setName("regions");
+        builder.add(ATTR_GEOMETRY, Geometry.class);
+        builder.add(ATTR_ID, String.class);
+        builder.add(ATTR_NAME, String.class);
+        SCHEMA = builder.buildFeatureType();
+    }
+
+    private final STRtree index = new STRtree();
+    private final int size;
+
+    public RegionFeatureIndex(List<Region> regions) {
+        final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(SCHEMA);
+        int count = 0;
+        for (Region region : regions) {
+            final Geometry geometry = region.getGeometry();
+            if (geometry == null || geometry.isEmpty()) {
+                continue;
+            }
+            builder.set(ATTR_GEOMETRY, geometry);
+            builder.set(ATTR_ID, region.getCode());
+            builder.set(ATTR_NAME, region.getName());
+            index.insert(geometry.getEnvelopeInternal(), builder.buildFeature(region.getCode()));
+            count++;
+        }
+        index.build();
+        size = count;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return regions with bounding box intersecting the envelope
+     */
+    @SuppressWarnings("unchecked")
+    public SimpleFeatureCollection getFeatures(Envelope envelope) {
+        final DefaultFeatureCollection fc = new DefaultFeatureCollection(null, SCHEMA);
+        for (SimpleFeature feature : (List<SimpleFeature>) index.query(envelope)) {
+            fc.add(feature);
+        }
+        return fc;
+    }
+}
@@ -6,9 +6,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
-import fi.nls.oskari.cache.JedisManager;
 import fi.nls.oskari.control.statistics.data.*;
 import fi.nls.oskari.control.statistics.util.CacheKeys;
+import fi.nls.oskari.control.statistics.util.StatisticsCache;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -60,7 +60,7 @@ public class StatisticsHelper {
 
     public static void flushDataFromCache(long pluginId, String indicatorId, long layerId, JSONObject selectorJSON) {
         String cacheKey = getIndicatorDataCacheKey(pluginId, indicatorId, layerId, selectorJSON);
-        JedisManager.del(cacheKey);
+        StatisticsCache.del(cacheKey);
     }
 
     public static StatisticalIndicatorDataModel getIndicatorDataModel(JSONObject selectorJSON) {
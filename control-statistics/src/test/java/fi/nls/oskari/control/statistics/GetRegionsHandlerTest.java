@@ -0,0 +1,20 @@
+package fi.nls.oskari.control.statistics;
+
+import org.junit.Test;
+import org.oskari.service.mvt.WFSTileGrid;
+
+import static org.junit.Assert.assertEquals;
+
+public class GetRegionsHandlerTest {
+
+    private static final WFSTileGrid GRID = WFSTileGrid.getKnownTileGrids().get("EPSG:3067");
+
+    @Test
+    public void testToleranceIsClamped() {
+        assertEquals(256, GetRegionsHandler.getTolerance(300, GRID), 0);
+        assertEquals("Limited to zoom level 0", 8192, GetRegionsHandler.getTolerance(1e12, GRID), 0);
+        assertEquals("Limited to max zoom level", 0.25, GetRegionsHandler.getTolerance(1e-12, GRID), 0);
+        assertEquals(0, GetRegionsHandler.getTolerance(-1, GRID), 0);
+        assertEquals("Full geometries without a tile grid", 0, GetRegionsHandler.getTolerance(300, null), 0);
+    }
+}
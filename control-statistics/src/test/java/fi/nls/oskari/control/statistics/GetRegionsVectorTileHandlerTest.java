@@ -0,0 +1,150 @@
+package fi.nls.oskari.control.statistics;
+
+import fi.nls.oskari.control.ActionParamsException;
+import fi.nls.oskari.control.statistics.db.RegionSet;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.opengis.feature.simple.SimpleFeature;
+import org.oskari.service.mvt.SimpleFeaturesMVTEncoder;
+import org.oskari.service.mvt.TileCoord;
+import org.oskari.service.mvt.WFSTileGrid;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class GetRegionsVectorTileHandlerTest {
+
+    private static final WFSTileGrid GRID = WFSTileGrid.getKnownTileGrids().get("EPSG:3067");
+
+    @Test
+    public void testGetFeatures() {
+        RegionFeatureIndex index = new RegionFeatureIndex(createRegions());
+        assertEquals(3, index.size());
+        Set<String> ids = getIds(index.getFeatures(new Envelope(380000, 390000, 6670000, 6680000)));
+        assertEquals(new TreeSet<>(Arrays.asList("091", "049")), ids);
+        SimpleFeature feature = index.getFeatures(new Envelope(0, 1, 7000000, 7000001)).features().next();
+        assertEquals("564", feature.getAttribute(RegionFeatureIndex.ATTR_ID));
+        assertEquals("Oulu", feature.getAttribute(RegionFeatureIndex.ATTR_NAME));
+    }
+
+    @Test
+    public void testTileContent() {
+        RegionFeatureIndex index = new RegionFeatureIndex(createRegions());
+        // z=4 tile with Helsinki
+        TileCoord tile = new TileCoord(4, 7, 13);
+        double[] bbox = GRID.getTileExtent(tile);
+        assertTrue(new Envelope(bbox[0], bbox[2], bbox[1], bbox[3]).contains(390000, 6680000));
+
+        SimpleFeatureCollection fc = index.getFeatures(new Envelope(bbox[0], bbox[2], bbox[1], bbox[3]));
+        List<Geometry> geoms = SimpleFeaturesMVTEncoder.asMVTGeoms(fc, bbox, 4096, 256);
+        Set<String> ids = new TreeSet<>();
+        for (Geometry geom : geoms) {
+            ids.add((String) ((SimpleFeature) geom.getUserData()).getAttribute(RegionFeatureIndex.ATTR_ID));
+        }
+        assertEquals(new TreeSet<>(Arrays.asList("091", "049")), ids);
+
+        byte[] encoded = GetRegionsVectorTileHandler.createTile(index, GRID, tile);
+        assertTrue(encoded.length > 0);
+    }
+
+    @Test
+    public void testTileCacheIsBoundedBySize() {
+        GetRegionsVectorTileHandler.TileCache cache = new GetRegionsVectorTileHandler.TileCache(100, 60_000L, 400);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(100, cache.get("tile" + i, __ -> new byte[100]).length);
+        }
+        assertEquals("Oldest tiles are dropped when the size limit is reached", 4, cache.getSize());
+        assertEquals(400, cache.getBytes());
+        assertNull(cache.get("tile0"));
+        assertNotNull(cache.get("tile4"));
+
+        assertEquals(101, cache.get("large", __ -> new byte[101]).length);
+        assertNull("Tiles larger than a quarter of the limit aren't cached", cache.get("large"));
+        cache.flush(true);
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testValidateTile() throws Exception {
+        GetRegionsVectorTileHandler.validateTile(GRID, 0, 0, 0);
+        GetRegionsVectorTileHandler.validateTile(GRID, 3, 7, 7);
+        assertInvalid(null, 0, 0, 0);
+        assertInvalid(GRID, -1, 0, 0);
+        assertInvalid(GRID, GRID.getMaxZoom() + 1, 0, 0);
+        assertInvalid(GRID, 3, 8, 0);
+        assertInvalid(GRID, 3, 0, -1);
+    }
+
+    @Test
+    public void testCacheKey() {
+        RegionSet regionset = new RegionSet();
+        regionset.setId(1850);
+        String featureKey = GetRegionsVectorTileHandler.getFeatureCacheKey(regionset, "EPSG:3067");
+        assertEquals("1850_0_EPSG:3067_4_7_12", GetRegionsVectorTileHandler.getCacheKey(featureKey, 4, 7, 12));
+
+        regionset.setUpdated(new Date(1000));
+        assertEquals("Updating the regionset changes the keys", "1850_1000_EPSG:3067",
+                GetRegionsVectorTileHandler.getFeatureCacheKey(regionset, "EPSG:3067"));
+    }
+
+    @Test
+    public void testTileIncludesBuffer() {
+        TileCoord tile = new TileCoord(4, 5, 10);
+        double[] bbox = GRID.getTileExtent(tile);
+        // region ends ~4km left of the tile, buffer is 256/4096 of the 131km tile
+        Region nearEdge = createRegion("001", "Near edge", bbox[0] - 7000, 7000000, bbox[0] - 4000, 7010000);
+        byte[] encoded = GetRegionsVectorTileHandler.createTile(
+                new RegionFeatureIndex(Arrays.asList(nearEdge)), GRID, tile);
+        byte[] empty = GetRegionsVectorTileHandler.createTile(
+                new RegionFeatureIndex(new ArrayList<>()), GRID, tile);
+        assertTrue("Regions in the buffer area are included", encoded.length > empty.length);
+    }
+
+    private static void assertInvalid(WFSTileGrid grid, int z, int x, int y) {
+        try {
+            GetRegionsVectorTileHandler.validateTile(grid, z, x, y);
+            fail("Expected tile to be invalid: " + z + "/" + x + "/" + y);
+        } catch (ActionParamsException expected) {
+            // expected
+        }
+    }
+
+    private static Set<String> getIds(SimpleFeatureCollection fc) {
+        Set<String> ids = new TreeSet<>();
+        try (SimpleFeatureIterator it = fc.features()) {
+            while (it.hasNext()) {
+                ids.add((String) it.next().getAttribute(RegionFeatureIndex.ATTR_ID));
+            }
+        }
+        return ids;
+    }
+
+    private static List<Region> createRegions() {
+        List<Region> regions = new ArrayList<>();
+        regions.add(createRegion("091", "Helsinki", 380000, 6670000, 400000, 6690000));
+        regions.add(createRegion("049", "Espoo", 360000, 6670000, 380000, 6690000));
+        regions.add(createRegion("564", "Oulu", -10000, 6990000, 10000, 7010000));
+        regions.add(new Region("000", "No geometry"));
+        return regions;
+    }
+
+    private static Region createRegion(String id, String name, double minX, double minY, double maxX, double maxY) {
+        GeometryFactory gf = new GeometryFactory();
+        Region region = new Region(id, name);
+        region.setGeometry(gf.createPolygon(new Coordinate[] {
+                new Coordinate(minX, minY), new Coordinate(maxX, minY), new Coordinate(maxX, maxY),
+                new Coordinate(minX, maxY), new Coordinate(minX, minY) }));
+        return region;
+    }
+}
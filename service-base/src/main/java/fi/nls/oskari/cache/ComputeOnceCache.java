@@ -43,8 +43,8 @@ public class ComputeOnceCache<T> extends Cache<T> {
 
         if (b.get()) {
             // I was the one to do the computation
-            // Add the value to the actual cache
-            super.put(key, value);
+            // Add the value to the actual cache (through put() so subclasses can bound the cache)
+            put(key, value);
             // And remove the value from the computation map
             tmp.remove(key);
             // Do this after and not within the computeIfAbsent() call since
@@ -6,6 +6,7 @@ import fi.nls.oskari.util.PropertyUtil;
 import org.json.JSONObject;
 
 import java.util.*;
+import java.util.function.Supplier;
 
 public class OskariLayer extends JSONLocalizedNameAndTitle implements Comparable<OskariLayer> {
 
@@ -51,10 +52,11 @@ public class OskariLayer extends JSONLocalizedNameAndTitle implements Comparable
 
     private String metadataId;
 
-    private JSONObject params = new JSONObject();
-    private JSONObject options = new JSONObject();
-    private JSONObject attributes = new JSONObject();
-    private JSONObject capabilities = new JSONObject();
+    // JSON columns are kept as strings when read from the database and parsed on first access
+    private final LazyJSON params = new LazyJSON();
+    private final LazyJSON options = new LazyJSON();
+    private final LazyJSON attributes = new LazyJSON();
+    private final LazyJSON capabilities = new LazyJSON();
 
     private boolean realtime = false;
     private int refreshRate;
@@ -227,6 +229,7 @@ public class OskariLayer extends JSONLocalizedNameAndTitle implements Comparable
 
     @Deprecated
 	public String getLegendImage() {
+        JSONObject options = getOptions();
         if (!options.has("legends")) {
             return "";
         }
@@ -234,6 +237,7 @@ public class OskariLayer extends JSONLocalizedNameAndTitle implements Comparable
 	}
     @Deprecated
 	public void setLegendImage(String legendImage) {
+        JSONObject options = getOptions();
         JSONObject legends;
         if (!options.has("legends")) {
             legends = new JSONObject();
@@ -337,19 +341,33 @@ public class OskariLayer extends JSONLocalizedNameAndTitle implements Comparable
     }
 
     public JSONObject getParams() {
-        return params;
+        return params.get();
     }
 
     public void setParams(JSONObject params) {
-        this.params = params;
+        this.params.set(params);
+    }
+
+    /**
+     * Sets params as a JSON string that is parsed when getParams() is called the first time
+     */
+    public void setParamsJSON(String json) {
+        this.params.setSource(() -> json);
     }
 
     public JSONObject getOptions() {
-        return options;
+        return options.get();
     }
 
     public void setOptions(JSONObject options) {
-        this.options = options;
+        this.options.set(options);
+    }
+
+    /**
+     * Sets options as a JSON string that is parsed when getOptions() is called the first time
+     */
+    public void setOptionsJSON(String json) {
+        this.options.setSource(() -> json);
     }
 
     public void addAttribute(String key, Object value) {
@@ -362,19 +380,42 @@ public class OskariLayer extends JSONLocalizedNameAndTitle implements Comparable
     }
 
     public JSONObject getAttributes() {
-        return attributes;
+        return attributes.get();
     }
 
     public void setAttributes(JSONObject attributes) {
-        this.attributes = attributes;
+        this.attributes.set(attributes);
+    }
+
+    /**
+     * Sets attributes as a JSON string that is parsed when getAttributes() is called the first time
+     */
+    public void setAttributesJSON(String json) {
+        this.attributes.setSource(() -> json);
     }
 
     public JSONObject getCapabilities() {
-        return capabilities;
+        return capabilities.get();
     }
 
     public void setCapabilities(JSONObject capabilities) {
-        this.capabilities = capabilities;
+        this.capabilities.set(capabilities);
+    }
+
+    /**
+     * Sets capabilities as a JSON string that is parsed when getCapabilities() is called the first time
+     */
+    public void setCapabilitiesJSON(String json) {
+        this.capabilities.setSource(() -> json);
+    }
+
+    /**
+     * Capabilities JSON is loaded with the given function when getCapabilities() is called the first time.
+     * Used when layers are listed without the (possibly large) capabilities. Exceptions thrown by the function
+     * are passed to the caller and loading is tried again on the next call.
+     */
+    public void setCapabilitiesSource(Supplier<String> source) {
+        this.capabilities.setSource(source);
     }
 
     public String getGfiType() {
@@ -481,4 +522,39 @@ public class OskariLayer extends JSONLocalizedNameAndTitle implements Comparable
         this.capabilitiesUpdateRateSec = capabilitiesUpdateRateSec;
     }
 
+
+    /**
+     * JSONObject that is parsed from a String source on first access. Layers are shared between
+     * threads through caches so parsing is synchronized and done only once.
+     */
+    private static final class LazyJSON {
+        private volatile boolean parsed = true;
+        private JSONObject value = new JSONObject();
+        private Supplier<String> source;
+
+        JSONObject get() {
+            if (!parsed) {
+                synchronized (this) {
+                    if (!parsed) {
+                        value = JSONHelper.createJSONObject(source.get());
+                        source = null;
+                        parsed = true;
+                    }
+                }
+            }
+            return value;
+        }
+
+        synchronized void set(JSONObject json) {
+            value = json;
+            source = null;
+            parsed = true;
+        }
+
+        synchronized void setSource(Supplier<String> json) {
+            value = null;
+            source = json;
+            parsed = false;
+        }
+    }
 }
@@ -10,6 +10,10 @@ import java.io.*;
 import java.net.*;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.SecureRandom;
 import java.security.cert.X509Certificate;
 import java.util.*;
@@ -823,6 +827,48 @@ public class IOHelper {
         } catch (Exception ignored) { }
     }
 
+    /**
+     * Creates the directory with owner-only permissions if it doesn't exist. Used for directories where
+     * responses of secured services are stored on disk.
+     * @return false if the directory couldn't be created or if it's owned or accessible by other users
+     */
+    public static boolean isPrivateDirectory(final Path dir) {
+        final Set<PosixFilePermission> ownerOnly = PosixFilePermissions.fromString("rwx------");
+        final boolean posix = dir.getFileSystem().supportedFileAttributeViews().contains("posix");
+        try {
+            if (!Files.exists(dir)) {
+                if (dir.getParent() != null) {
+                    Files.createDirectories(dir.getParent());
+                }
+                if (posix) {
+                    Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(ownerOnly));
+                } else {
+                    Files.createDirectory(dir);
+                }
+            }
+            if (!Files.isDirectory(dir)) {
+                log.warn("Not a directory: " + dir);
+                return false;
+            }
+            if (!posix) {
+                return true;
+            }
+            final String owner = Files.getOwner(dir).getName();
+            if (!owner.equals(System.getProperty("user.name"))) {
+                log.warn("Directory " + dir + " is owned by " + owner);
+                return false;
+            }
+            if (!ownerOnly.containsAll(Files.getPosixFilePermissions(dir))) {
+                log.warn("Directory " + dir + " is accessible by other users");
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn("Unable to use directory: " + dir, e);
+            return false;
+        }
+    }
+
     /**
      * Handles HTTP error logging for HTTP request methods
      *
@@ -0,0 +1,12 @@
+package fi.nls.oskari.util;
+
+/**
+ * Metrics from all modules are gathered to the same shared registry (see SharedMetricRegistries)
+ * so they are available with the action metrics.
+ */
+public class MetricsHelper {
+
+    public static final String REGISTRY_NAME = "oskari";
+
+    private MetricsHelper() {}
+}
@@ -1,14 +1,19 @@
 package fi.nls.oskari.domain.map.wms;
 
 import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.service.ServiceRuntimeException;
 import fi.nls.oskari.util.PropertyUtil;
 import org.junit.After;
 import org.junit.Test;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 /**
  * @author SMAKINEN
@@ -84,4 +89,46 @@ public class OskariLayerTest {
         assertEquals("Secure url should be '" + proxyUrl + "' if url is '" + url + "'", proxyUrl, layer.getUrl(true));
 
     }
+
+    @Test
+    public void testJSONIsParsedOnFirstAccess() {
+        OskariLayer layer = new OskariLayer();
+        assertEquals(0, layer.getOptions().length());
+
+        layer.setOptionsJSON("{\"singleTile\":true}");
+        assertEquals(true, layer.getOptions().optBoolean("singleTile"));
+        assertSame("Parsed JSON should be reused", layer.getOptions(), layer.getOptions());
+
+        layer.setParamsJSON(null);
+        assertNull("Null column should result in null like before", layer.getParams());
+
+        AtomicInteger loads = new AtomicInteger();
+        layer.setCapabilitiesSource(() -> {
+            loads.incrementAndGet();
+            return "{\"geom\":\"POINT(1 2)\"}";
+        });
+        assertEquals(0, loads.get());
+        assertEquals("POINT(1 2)", layer.getGeometry());
+        assertEquals("POINT(1 2)", layer.getCapabilities().optString("geom"));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testFailedCapabilitiesLoadIsRetried() {
+        OskariLayer layer = new OskariLayer();
+        AtomicInteger loads = new AtomicInteger();
+        layer.setCapabilitiesSource(() -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new ServiceRuntimeException("Database not available");
+            }
+            return "{\"geom\":\"POINT(1 2)\"}";
+        });
+        try {
+            layer.getCapabilities();
+            fail("Failed load shouldn't result in empty capabilities");
+        } catch (ServiceRuntimeException expected) {
+        }
+        assertEquals("POINT(1 2)", layer.getCapabilities().optString("geom"));
+        assertEquals(2, loads.get());
+    }
 }
@@ -7,6 +7,9 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -14,6 +17,7 @@ import java.util.Map;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * Created with IntelliJ IDEA.
@@ -149,4 +153,17 @@ public class IOHelperTest {
             throw e;
         }
     }
+
+    @Test
+    public void testIsPrivateDirectory() throws Exception {
+        Path parent = Files.createTempDirectory("private");
+        Path dir = parent.resolve("a").resolve("b");
+        assertTrue(IOHelper.isPrivateDirectory(dir));
+        assertTrue("Existing private directory can be used", IOHelper.isPrivateDirectory(dir));
+        assertFalse("Files are not directories", IOHelper.isPrivateDirectory(Files.createTempFile(parent, "file", ".tmp")));
+        assumeTrue(dir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(dir));
+        Files.setPosixFilePermissions(dir, PosixFilePermissions.fromString("rwxr-xr-x"));
+        assertFalse("Readable by others", IOHelper.isPrivateDirectory(dir));
+    }
 }
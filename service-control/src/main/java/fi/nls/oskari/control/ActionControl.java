@@ -2,9 +2,11 @@ package fi.nls.oskari.control;
 
 import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
 import com.codahale.metrics.Timer;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.MetricsHelper;
 import fi.nls.oskari.util.PropertyUtil;
 
 import java.util.*;
@@ -31,7 +33,8 @@ public class ActionControl {
 
     private static final boolean GATHER_METRICS = PropertyUtil.getOptional("actioncontrol.metrics", true);
 
-    private static final MetricRegistry METRIC_REGISTRY = new MetricRegistry();
+    // shared so services without access to ActionControl can register metrics (like search channel timings)
+    private static final MetricRegistry METRIC_REGISTRY = SharedMetricRegistries.getOrCreate(MetricsHelper.REGISTRY_NAME);
 
     public static MetricRegistry getMetrics() {
         return METRIC_REGISTRY;
@@ -54,10 +54,29 @@ public abstract class ViewModifier {
     public static final String KEY_ZOOM = "zoom";
     public static final String KEY_SELECTEDLAYERS = "selectedLayers";
 
+    /**
+     * What the result of a modifier depends on:
+     * VIEW - only the view and server configuration,
+     * USER - the view and the user (permissions, language),
+     * REQUEST - anything in the request (parameters, session, referer etc).
+     */
+    public enum Scope {
+        VIEW, USER, REQUEST
+    }
+
     public void init() {
 
     }
 
+    /**
+     * Modifiers with scope VIEW or USER can be run once and the result shared between requests
+     * with the same view, language and user roles. Defaults to REQUEST so the modifier is run for each request.
+     * @return what the result of the modifier depends on
+     */
+    public Scope getScope() {
+        return Scope.REQUEST;
+    }
+
     public void teardown() {
 
     }
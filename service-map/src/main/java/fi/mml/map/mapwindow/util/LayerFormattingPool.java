@@ -0,0 +1,72 @@
+package fi.mml.map.mapwindow.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+
+/**
+ * Formats layer lists (for example to JSON) using a bounded pool shared by all requests.
+ * Configure the amount of threads with "layer.json.threads" (defaults to number of processors, max 4).
+ */
+public class LayerFormattingPool {
+
+    private static final Logger LOG = LogFactory.getLogger(LayerFormattingPool.class);
+    // lists shorter than this are formatted on the calling thread
+    protected static final int PARALLEL_THRESHOLD = 200;
+    private static final int MIN_CHUNK_SIZE = 50;
+    private static final ForkJoinPool POOL = new ForkJoinPool(PropertyUtil.getOptional("layer.json.threads",
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()))));
+
+    private LayerFormattingPool() {}
+
+    /**
+     * Formats the layers with the given function. Large lists are split into chunks that are formatted
+     * in parallel. The result has the same order as the layers and contains null for layers that couldn't
+     * be formatted (the function returned null or threw an exception). The function needs to be thread-safe.
+     */
+    public static <T> List<T> format(List<OskariLayer> layers, Function<OskariLayer, T> formatter) {
+        final int count = layers.size();
+        if (count < PARALLEL_THRESHOLD || POOL.getParallelism() < 2) {
+            return formatChunk(layers, formatter);
+        }
+        final int chunkSize = Math.max(MIN_CHUNK_SIZE, count / (POOL.getParallelism() * 4) + 1);
+        final List<Callable<List<T>>> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i += chunkSize) {
+            final List<OskariLayer> chunk = layers.subList(i, Math.min(count, i + chunkSize));
+            tasks.add(() -> formatChunk(chunk, formatter));
+        }
+        final List<T> result = new ArrayList<>(count);
+        try {
+            for (Future<List<T>> future : POOL.invokeAll(tasks)) {
+                result.addAll(future.get());
+            }
+        } catch (Exception e) {
+            // formatChunk() catches formatting errors so this shouldn't happen, fall back to sequential
+            LOG.warn(e, "Formatting layers in parallel failed");
+            return formatChunk(layers, formatter);
+        }
+        return result;
+    }
+
+    private static <T> List<T> formatChunk(List<OskariLayer> layers, Function<OskariLayer, T> formatter) {
+        final List<T> result = new ArrayList<>(layers.size());
+        for (OskariLayer layer : layers) {
+            T value = null;
+            try {
+                value = formatter.apply(layer);
+            } catch (Exception ex) {
+                LOG.error(ex);
+            }
+            result.add(value);
+        }
+        return result;
+    }
+}
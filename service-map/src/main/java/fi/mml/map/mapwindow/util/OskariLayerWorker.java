@@ -115,22 +115,22 @@ public class OskariLayerWorker {
         final List<OskariLayer> filtered = filterLayersWithResources(layers, permissionSet, user, isPublished);
         final JSONArray layersList = new JSONArray();
         long start = System.currentTimeMillis();
-        for (OskariLayer layer : filtered) {
-            try {
-                final JSONObject layerJson = FORMATTER.getJSON(layer, lang, isSecure, crs);
-                if (layerJson == null) {
-                    continue;
-                }
-                // FIXME: formats isn't used by the frontend, but some capabilities parsing uses the layer JSON stuff
-                //  so forcing removal for it here until we can refactor it's usage from internal server code
-                layerJson.remove("formats");
-                final String permissionKey = getPermissionKey(layer);
-                JSONObject permissions = getPermissions(user, permissionKey, permissionSet);
-                JSONHelper.putValue(layerJson, "permissions", permissions);
-
+        final List<JSONObject> formatted = LayerFormattingPool.format(filtered, layer -> {
+            final JSONObject layerJson = FORMATTER.getJSON(layer, lang, isSecure, crs);
+            if (layerJson == null) {
+                return null;
+            }
+            // FIXME: formats isn't used by the frontend, but some capabilities parsing uses the layer JSON stuff
+            //  so forcing removal for it here until we can refactor it's usage from internal server code
+            layerJson.remove("formats");
+            final String permissionKey = getPermissionKey(layer);
+            JSONObject permissions = getPermissions(user, permissionKey, permissionSet);
+            JSONHelper.putValue(layerJson, "permissions", permissions);
+            return layerJson;
+        });
+        for (JSONObject layerJson : formatted) {
+            if (layerJson != null) {
                 layersList.put(layerJson);
-            } catch(Exception ex) {
-                LOG.error(ex);
             }
         }
         LOG.debug("Created JSON in", System.currentTimeMillis() - start, "ms");
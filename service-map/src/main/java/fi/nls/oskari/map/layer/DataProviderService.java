@@ -5,6 +5,9 @@ import fi.nls.oskari.domain.map.DataProvider;
 import fi.nls.oskari.service.OskariComponent;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Created with IntelliJ IDEA.
@@ -18,6 +21,15 @@ public abstract class DataProviderService extends OskariComponent {
     public abstract DataProvider findByName(final String name);
     public abstract DataProvider find(int id);
     public abstract List<DataProvider> findAll();
+
+    /**
+     * Returns all data providers by id. Implementations may return a shared snapshot so the map must not be modified.
+     * Used when mapping a large number of layers so providers can be joined in memory.
+     */
+    public Map<Integer, DataProvider> findAllById() {
+        return findAll().stream()
+                .collect(Collectors.toMap(DataProvider::getId, Function.identity(), (a, b) -> a));
+    }
     public abstract void delete(int id);
     public abstract void update(DataProvider dataProvider);
     public abstract int insert(DataProvider dataProvider);
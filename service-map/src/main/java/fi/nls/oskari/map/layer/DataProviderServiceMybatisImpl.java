@@ -11,19 +11,38 @@ import org.apache.ibatis.session.Configuration;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.oskari.cluster.ClusterManager;
 
 import javax.sql.DataSource;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Oskari
 public class DataProviderServiceMybatisImpl extends DataProviderService {
 
     private static final Logger log = LogFactory.getLogger(DataProviderServiceMybatisImpl.class);
-    // FIXME: use some caching lib for this, and clear cache on update/delete etc
-    final private static Map<Integer, DataProvider> ID_CACHE = new HashMap<Integer, DataProvider>();
+    private static final String CLUSTER_CHANNEL = "DataProviderService";
+    private static final String CLUSTER_CMD_FLUSH = "FLUSH";
+
+    // immutable id -> provider snapshot shared by all instances, replaced with a new one after changes
+    private static volatile Map<Integer, DataProvider> snapshot;
+    // incremented on flush so a snapshot loaded concurrently with a change isn't stored
+    private static final AtomicLong snapshotVersion = new AtomicLong();
+    static {
+        if (ClusterManager.isClustered()) {
+            ClusterManager
+                    .getClientFor("cache")
+                    .addListener(CLUSTER_CHANNEL, (msg) -> {
+                        if (CLUSTER_CMD_FLUSH.equals(msg)) {
+                            flushSnapshot();
+                        }
+                    });
+        }
+    }
 
     private SqlSessionFactory factory = null;
 
@@ -65,7 +84,7 @@ public class DataProviderServiceMybatisImpl extends DataProviderService {
         if(id == -1) {
             return null;
         }
-        DataProvider group = ID_CACHE.get(id);
+        DataProvider group = findAllById().get(id);
         if(group != null) {
             return group;
         }
@@ -74,9 +93,9 @@ public class DataProviderServiceMybatisImpl extends DataProviderService {
             final DataProviderMapper mapper = session.getMapper(DataProviderMapper.class);
             group = mapper.find(id);
             if(group != null) {
-                ID_CACHE.put(group.getId(), group);
+                // not in the snapshot -> it's outdated
+                flushSnapshot();
             }
-            return mapper.find(id);
         } catch (Exception e) {
             log.warn("Unable to find data provider with id :" + id);
         } finally {
@@ -85,6 +104,50 @@ public class DataProviderServiceMybatisImpl extends DataProviderService {
         return group;
     }
 
+    /**
+     * Returns an immutable snapshot of all data providers. The snapshot is loaded with a single query
+     * and replaced when providers are inserted, updated or deleted on any node of the cluster.
+     */
+    @Override
+    public Map<Integer, DataProvider> findAllById() {
+        Map<Integer, DataProvider> providers = snapshot;
+        if (providers == null) {
+            providers = loadSnapshot(findAll());
+        }
+        return providers;
+    }
+
+    private static Map<Integer, DataProvider> loadSnapshot(List<DataProvider> list) {
+        final long version = snapshotVersion.get();
+        final Map<Integer, DataProvider> providers = new HashMap<>(list.size() * 2);
+        for(DataProvider group : list) {
+            providers.put(group.getId(), group);
+        }
+        final Map<Integer, DataProvider> result = Collections.unmodifiableMap(providers);
+        synchronized (snapshotVersion) {
+            if (version == snapshotVersion.get()) {
+                snapshot = result;
+            }
+        }
+        return result;
+    }
+
+    private static void flushSnapshot() {
+        synchronized (snapshotVersion) {
+            snapshotVersion.incrementAndGet();
+            snapshot = null;
+        }
+    }
+
+    private static void notifyChange() {
+        flushSnapshot();
+        if (ClusterManager.isClustered()) {
+            ClusterManager
+                    .getClientFor("cache")
+                    .sendMessage(CLUSTER_CHANNEL, CLUSTER_CMD_FLUSH);
+        }
+    }
+
     /**
      * Returns first group (searched in arbitratry order) that has any part
      * of the group name in any language(!) matching the given name-parameter.
@@ -111,9 +174,6 @@ public class DataProviderServiceMybatisImpl extends DataProviderService {
         try {
             final DataProviderMapper mapper = session.getMapper(DataProviderMapper.class);
             groups = mapper.findAll();
-            for(DataProvider group : groups) {
-                ID_CACHE.put(group.getId(), group);
-            }
         } catch (Exception e) {
             log.warn("Unable to find data providers");
         } finally {
@@ -127,9 +187,9 @@ public class DataProviderServiceMybatisImpl extends DataProviderService {
         final SqlSession session = factory.openSession();
         try {
             final DataProviderMapper mapper = session.getMapper(DataProviderMapper.class);
-            ID_CACHE.remove(id);
             mapper.delete(id);
             session.commit();
+            notifyChange();
         } catch (Exception e) {
             log.warn("Unable to delete data provider with id: " + id);
         } finally {
@@ -144,7 +204,7 @@ public class DataProviderServiceMybatisImpl extends DataProviderService {
             final DataProviderMapper mapper = session.getMapper(DataProviderMapper.class);
             mapper.update(group.getLocale(), group.getId());
             session.commit();
-            ID_CACHE.put(group.getId(), group);
+            notifyChange();
         } catch (Exception e) {
             log.warn("Unable to update data provider with id: " + group.getId());
         } finally {
@@ -159,6 +219,7 @@ public class DataProviderServiceMybatisImpl extends DataProviderService {
             final DataProviderMapper mapper = session.getMapper(DataProviderMapper.class);
             mapper.insert(dataProvider);
             session.commit();
+            notifyChange();
         } catch (Exception e) {
             log.warn("Unable to insert data provider");
         } finally {
@@ -16,6 +16,9 @@ public interface OskariLayerMapper {
     List<Map<String,Object>> findByUuid(String uuid);
     List<Map<String,Object>> findByParentId(int parentId);
     List<Map<String,Object>> findAll();
+    List<Map<String,Object>> findAllWithoutCapabilities();
+    @Select ("select capabilities from oskari_maplayer where id = #{id}")
+    String findCapabilities(@Param("id") final int id);
     List<Map<String,Object>> findAllWithPositiveUpdateRateSec();
     @Select ("select id, name from oskari_maplayer where type = #{type} and url like #{url} ||'%'")
     List<Map<String,Object>> findIdAndNameByUrl(@Param("url") final String url, @Param("type") final String type);
@@ -11,6 +11,14 @@ public abstract class OskariLayerService extends OskariComponent {
     public abstract OskariLayer find(int id);
     public abstract List<OskariLayer> findByIdList(final List<Integer> idList);
     public abstract List<OskariLayer> findAll();
+
+    /**
+     * Lists all layers without reading the capabilities from the database. Capabilities are loaded
+     * separately for each layer if getCapabilities() is called so use this only when capabilities are not needed.
+     */
+    public List<OskariLayer> findAllWithoutCapabilities() {
+        return findAll();
+    }
     public abstract List<OskariLayer> findByUrlAndName(final String url, final String name);
     public abstract List<OskariLayer> findByMetadataId(String uuid);
     public abstract List<OskariLayer> findAllWithPositiveUpdateRateSec();
@@ -28,6 +28,7 @@ import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.map.layer.group.link.OskariLayerGroupLink;
 import fi.nls.oskari.map.layer.group.link.OskariLayerGroupLinkService;
+import fi.nls.oskari.service.ServiceRuntimeException;
 import fi.nls.oskari.util.JSONHelper;
 
 @Oskari("OskariLayerService")
@@ -61,7 +62,11 @@ public class OskariLayerServiceMybatisImpl extends OskariLayerService {
         return new SqlSessionFactoryBuilder().build(configuration);
     }
 
-    private OskariLayer mapData(Map<String, Object> data) {
+    /**
+     * @param capabilitiesSelected false if the query didn't select the capabilities column. A missing key can't be
+     *                             used for detecting this since columns with NULL values are left out of the map.
+     */
+    private OskariLayer mapData(Map<String, Object> data, Map<Integer, DataProvider> providers, boolean capabilitiesSelected) {
         if(data == null) {
             return null;
         }
@@ -93,10 +98,17 @@ public class OskariLayerServiceMybatisImpl extends OskariLayerService {
         result.setMetadataId((String) data.get("metadataid"));
 
         // map implementation parameters
-        result.setParams(JSONHelper.createJSONObject((String) data.get("params")));
-        result.setOptions(JSONHelper.createJSONObject((String) data.get("options")));
-        result.setAttributes(JSONHelper.createJSONObject((String) data.get("attributes")));
-        result.setCapabilities(JSONHelper.createJSONObject((String) data.get("capabilities")));
+        // JSON is parsed when the layer is used, capabilities especially can be large and aren't always needed
+        result.setParamsJSON((String) data.get("params"));
+        result.setOptionsJSON((String) data.get("options"));
+        result.setAttributesJSON((String) data.get("attributes"));
+        if (capabilitiesSelected) {
+            result.setCapabilitiesJSON((String) data.get("capabilities"));
+        } else {
+            // capabilities column wasn't selected, load if the capabilities are needed
+            final int id = result.getId();
+            result.setCapabilitiesSource(() -> findCapabilities(id));
+        }
 
         // gfi configurations
         result.setGfiType((String) data.get("gfi_type"));
@@ -130,9 +142,11 @@ public class OskariLayerServiceMybatisImpl extends OskariLayerService {
             if(dataProviderId != null) {
                 result.setDataproviderId((Integer)dataProviderId);
                 try {
-                    // populate layer group
-                    // first run (~700 layers) with this lasts ~1800ms, second run ~300ms (cached)
-                    final DataProvider dataProvider = dataProviderService.find(result.getDataproviderId());
+                    // populate layer group from the snapshot loaded once for all rows
+                    DataProvider dataProvider = providers.get(result.getDataproviderId());
+                    if (dataProvider == null) {
+                        dataProvider = dataProviderService.find(result.getDataproviderId());
+                    }
                     result.addDataprovider(dataProvider);
                 } catch (Exception ex) {
                     LOG.error("Couldn't get organisation for layer", result.getId());
@@ -146,10 +160,15 @@ public class OskariLayerServiceMybatisImpl extends OskariLayerService {
     }
 
     private List<OskariLayer> mapDataList(final List<Map<String,Object>> list) {
+        return mapDataList(list, true);
+    }
+
+    private List<OskariLayer> mapDataList(final List<Map<String,Object>> list, boolean capabilitiesSelected) {
         final List<OskariLayer> layers = new ArrayList<OskariLayer>();
         final Map<Integer, OskariLayer> collections = new HashMap<Integer, OskariLayer>(20);
+        final Map<Integer, DataProvider> providers = list.isEmpty() ? Collections.emptyMap() : dataProviderService.findAllById();
         for(Map<String, Object> map : list) {
-            final OskariLayer layer = mapData(map);
+            final OskariLayer layer = mapData(map, providers, capabilitiesSelected);
             if(layer != null) {
                 // collect parents so we can map sublayers more easily
                 if(layer.isCollection()) {
@@ -305,6 +324,36 @@ public class OskariLayerServiceMybatisImpl extends OskariLayerService {
         return Collections.emptyList();
     }
 
+    @Override
+    public List<OskariLayer> findAllWithoutCapabilities() {
+        long start = System.currentTimeMillis();
+        try (SqlSession session = factory.openSession()) {
+            final OskariLayerMapper mapper = session.getMapper(OskariLayerMapper.class);
+            List<Map<String,Object>> result = mapper.findAllWithoutCapabilities();
+            LOG.debug("Find all layers without capabilities:", System.currentTimeMillis() - start, "ms");
+            start = System.currentTimeMillis();
+            final List<OskariLayer> layers = mapDataList(result, false);
+            LOG.debug("Parsing all layers without capabilities:", System.currentTimeMillis() - start, "ms");
+            return layers;
+        } catch (Exception e) {
+            LOG.warn(e, "Exception while getting oskari layers without capabilities");
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Throws instead of returning null on errors. Empty capabilities on a layer that is saved
+     * afterwards would replace the capabilities in the database.
+     */
+    private String findCapabilities(int id) {
+        LOG.debug("Find capabilities for layer:", id);
+        try (SqlSession session = factory.openSession()) {
+            return session.getMapper(OskariLayerMapper.class).findCapabilities(id);
+        } catch (Exception e) {
+            throw new ServiceRuntimeException("Exception while getting capabilities for layer: " + id, e);
+        }
+    }
+
     @Override
     public List<OskariLayer> findAllWithPositiveUpdateRateSec() {
         long t0 = System.currentTimeMillis();
@@ -17,6 +17,7 @@ import org.oskari.capabilities.ogc.LayerCapabilitiesOGC;
 import org.oskari.utils.common.Sets;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static fi.nls.oskari.service.capabilities.CapabilitiesConstants.*;
 
@@ -52,8 +53,8 @@ public class LayerJSONFormatter {
             "text/xml", "application/json" };
 
     private static final Logger LOG = LogFactory.getLogger(LayerJSONFormatter.class);
-    // map different layer types for JSON formatting
-    private static Map<String, LayerJSONFormatter> typeMapping = new HashMap<String, LayerJSONFormatter>();
+    // map different layer types for JSON formatting. Formatters are used from multiple threads and must not have state.
+    private static Map<String, LayerJSONFormatter> typeMapping = new ConcurrentHashMap<String, LayerJSONFormatter>();
     static {
         typeMapping.put(OskariLayer.TYPE_WMS, new LayerJSONFormatterWMS());
         typeMapping.put(OskariLayer.TYPE_WFS, new LayerJSONFormatterWFS());
@@ -39,7 +39,8 @@ public interface AppSetupMapper {
     @Update("UPDATE oskari_appsetup SET is_default = FALSE, updated = NOW() WHERE creator = #{userId} AND is_default = TRUE AND type = 'USER'")
     void resetUsersDefaultViews(long userId);
     void update(View view);
-    void updateUsage(View view);
+    @Update("UPDATE oskari_appsetup SET used = NOW(), usagecount = usagecount + #{count} WHERE id = #{id}")
+    void addUsage(@Param("id") long id, @Param("count") long count);
     void addBundle(Bundle bundle);
     int updateBundleSettingsInView(final Map<String, Object> params);
 
@@ -48,4 +49,7 @@ public interface AppSetupMapper {
 
     @Select("SELECT MAX(id) FROM oskari_appsetup WHERE is_default = TRUE AND type = 'USER' AND creator = #{userId}")
     Long geDefaultViewIdByUserId(long userId);
+
+    @Select("SELECT uuid FROM oskari_appsetup WHERE id = #{id}")
+    String getUuid(long id);
 }
@@ -1,6 +1,8 @@
 package fi.nls.oskari.map.view;
 
 import fi.nls.oskari.annotation.Oskari;
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.db.DatasourceHelper;
 import fi.nls.oskari.domain.Role;
 import fi.nls.oskari.domain.User;
@@ -12,14 +14,22 @@ import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.mybatis.MyBatisHelper;
 import fi.nls.oskari.service.ServiceException;
 import fi.nls.oskari.util.ConversionHelper;
+import fi.nls.oskari.util.JSONHelper;
 import fi.nls.oskari.util.PropertyUtil;
 import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ExecutorType;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
 import org.apache.ibatis.session.SqlSessionFactoryBuilder;
 
 import javax.sql.DataSource;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 @Oskari
 public class AppSetupServiceMybatisImpl extends ViewService {
@@ -28,6 +38,14 @@ public class AppSetupServiceMybatisImpl extends ViewService {
 
     private static final String PROP_VIEW_DEFAULT = "view.default";
     private static final String PROP_VIEW_DEFAULT_ROLES = "view.default.roles";
+    private static final String CACHE_PREFIX_ID = "id_";
+    private static final String CACHE_PREFIX_UUID = "uuid_";
+    // how often view usage counts are written to the database
+    private static final String PROP_USAGE_FLUSH_INTERVAL = "view.usage.flush.seconds";
+
+    // views with bundles as loaded from the db, shared by all instances of the service.
+    // Cached views are never returned as is: callers get a copy they can modify freely.
+    private static final Cache<View> VIEW_CACHE = CacheManager.getCache(AppSetupServiceMybatisImpl.class.getName());
 
     private final Map<String, Long> roleToDefaultViewId;
     private final String[] defaultViewRoles;
@@ -35,6 +53,22 @@ public class AppSetupServiceMybatisImpl extends ViewService {
 
     private SqlSessionFactory factory = null;
 
+    // view id -> usage count since startup, written to db periodically by usageFlusher
+    private final Map<Long, UsageCounter> usage = new ConcurrentHashMap<>();
+    // requests only check the flag, the flusher is started once on first usage
+    private final AtomicBoolean usageFlusherStarted = new AtomicBoolean(false);
+    // guarded by this
+    private ScheduledExecutorService usageFlusher;
+    private boolean tornDown = false;
+    // flushes are serialized with their own lock so they don't block starting or stopping the flusher
+    private final Object usageLock = new Object();
+
+    private static class UsageCounter {
+        private final LongAdder count = new LongAdder();
+        // only accessed in flushUsage()
+        private long flushed = 0;
+    }
+
     public AppSetupServiceMybatisImpl() {
         this(null);
     }
@@ -147,9 +181,13 @@ public class AppSetupServiceMybatisImpl extends ViewService {
         if (viewId < 1) {
             return null;
         }
+        final View cached = VIEW_CACHE.get(CACHE_PREFIX_ID + viewId);
+        if (cached != null) {
+            return copy(cached);
+        }
         try (final SqlSession session = factory.openSession()) {
             final AppSetupMapper mapper = session.getMapper(AppSetupMapper.class);
-            return mapper.getViewWithConfByViewId(viewId);
+            return cacheView(mapper.getViewWithConfByViewId(viewId));
         } catch (Exception e) {
             LOG.warn(e, "Exception while getting view with conf by view id: " + viewId);
         }
@@ -161,13 +199,17 @@ public class AppSetupServiceMybatisImpl extends ViewService {
             return null;
         }
 
+        final View cached = VIEW_CACHE.get(CACHE_PREFIX_UUID + uuId);
+        if (cached != null) {
+            return copy(cached);
+        }
         try (final SqlSession session = factory.openSession()) {
             final AppSetupMapper mapper = session.getMapper(AppSetupMapper.class);
             View view = mapper.getViewWithConfByUuId(uuId);
             if (view != null) {
                 view.setBundles(mapper.getBundlesByViewId(view.getId()));
             }
-            return view;
+            return cacheView(view);
         } catch (Exception e) {
             LOG.warn(e, "Exception while getting view with config by uuid: " + uuId);
         }
@@ -239,6 +281,7 @@ public class AppSetupServiceMybatisImpl extends ViewService {
             final AppSetupMapper mapper = session.getMapper(AppSetupMapper.class);
             mapper.updateAccessFlag(view);
             session.commit();
+            flushView(view.getId(), getUuid(view, mapper));
         } catch (Exception e) {
             LOG.warn(e, "Exception while updating access flag");
         }
@@ -254,6 +297,7 @@ public class AppSetupServiceMybatisImpl extends ViewService {
             mapper.deleteBundleByView(id);
             mapper.deleteView(id);
             session.commit();
+            flushView(id, view.getUuid());
         } catch (Exception e) {
             throw new DeleteViewException("Error deleting a view with id:" + id, e);
         }
@@ -266,6 +310,7 @@ public class AppSetupServiceMybatisImpl extends ViewService {
             final AppSetupMapper mapper = session.getMapper(AppSetupMapper.class);
             mapper.deleteViewByUser(userId);
             session.commit();
+            VIEW_CACHE.flush(true);
         } catch (Exception e) {
             throw new DeleteViewException("Error deleting a view with user id:" + userId, e);
         }
@@ -278,6 +323,7 @@ public class AppSetupServiceMybatisImpl extends ViewService {
             final AppSetupMapper mapper = session.getMapper(AppSetupMapper.class);
             mapper.resetUsersDefaultViews(userId);
             session.commit();
+            VIEW_CACHE.flush(true);
         } catch (Exception e) {
             LOG.warn(e, "Exception while resetting users default views");
         }
@@ -290,23 +336,88 @@ public class AppSetupServiceMybatisImpl extends ViewService {
             final AppSetupMapper mapper = session.getMapper(AppSetupMapper.class);
             mapper.update(view);
             session.commit();
+            flushView(view.getId(), getUuid(view, mapper));
         } catch (Exception e) {
             LOG.warn(e, "Exception while updating view");
         }
     }
 
+    /**
+     * Usage is counted in memory and written to the database periodically (property "view.usage.flush.seconds",
+     * defaults to 60) in a single batch so loading a view doesn't need to wait for a write.
+     * Pending counts are written on teardown().
+     */
     public void updateViewUsage(View view) {
-        LOG.debug("Update view usage");
+        if (view == null || view.getId() < 1) {
+            return;
+        }
+        usage.computeIfAbsent(view.getId(), id -> new UsageCounter()).count.increment();
+        if (!usageFlusherStarted.get() && usageFlusherStarted.compareAndSet(false, true)) {
+            startUsageFlusher();
+        }
+    }
 
-        try (final SqlSession session = factory.openSession()) {
+    private synchronized void startUsageFlusher() {
+        if (tornDown) {
+            // don't leave a thread running after the service has been shut down
+            LOG.debug("Service has been torn down, view usage is no longer written");
+            return;
+        }
+        final long interval = Math.max(1, PropertyUtil.getOptional(PROP_USAGE_FLUSH_INTERVAL, 60));
+        usageFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ViewUsageFlusher");
+            t.setDaemon(true);
+            return t;
+        });
+        usageFlusher.scheduleWithFixedDelay(this::flushUsage, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes usage counted since the previous flush. Counters are never reset so increments
+     * made during the flush are written on the next one. Failed writes are retried on the next flush.
+     */
+    protected void flushUsage() {
+        synchronized (usageLock) {
+            flushPendingUsage();
+        }
+    }
+
+    private void flushPendingUsage() {
+        final Map<Long, Long> pending = new HashMap<>();
+        for (Map.Entry<Long, UsageCounter> entry : usage.entrySet()) {
+            final UsageCounter counter = entry.getValue();
+            final long total = counter.count.sum();
+            if (total > counter.flushed) {
+                pending.put(entry.getKey(), total);
+            }
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        try (final SqlSession session = factory.openSession(ExecutorType.BATCH)) {
             final AppSetupMapper mapper = session.getMapper(AppSetupMapper.class);
-            mapper.updateUsage(view);
+            for (Map.Entry<Long, Long> entry : pending.entrySet()) {
+                mapper.addUsage(entry.getKey(), entry.getValue() - usage.get(entry.getKey()).flushed);
+            }
             session.commit();
+            pending.forEach((id, total) -> usage.get(id).flushed = total);
+            LOG.debug("Updated usage for", pending.size(), "views");
         } catch (Exception e) {
             LOG.warn(e, "Exception while updating view usage");
         }
     }
 
+    @Override
+    public void teardown() {
+        synchronized (this) {
+            tornDown = true;
+            if (usageFlusher != null) {
+                usageFlusher.shutdown();
+            }
+        }
+        flushUsage();
+    }
+
     public void updatePublishedView(final View view) throws ViewException {
         LOG.debug("Update published view");
         long id = view.getId();
@@ -320,6 +431,7 @@ public class AppSetupServiceMybatisImpl extends ViewService {
                 mapper.addBundle(bundle);
             }
             session.commit();
+            flushView(id, getUuid(view, mapper));
         } catch (Exception e) {
             throw new ViewException("Error updating a view with id:" + id, e);
         }
@@ -344,6 +456,7 @@ public class AppSetupServiceMybatisImpl extends ViewService {
                 throw new ViewException("Failed to update - bundle not found in view?");
             }
             session.commit();
+            flushView(viewId, mapper.getUuid(viewId));
         } catch (Exception e) {
             throw new ViewException("Failed to update", e);
         }
@@ -353,6 +466,75 @@ public class AppSetupServiceMybatisImpl extends ViewService {
         return defaultViewId;
     }
 
+    /**
+     * Caches the view by id and uuid and returns a copy of it
+     */
+    private View cacheView(final View view) {
+        if (view == null) {
+            return null;
+        }
+        final View cached = copy(view);
+        VIEW_CACHE.put(CACHE_PREFIX_ID + cached.getId(), cached);
+        if (cached.getUuid() != null) {
+            VIEW_CACHE.put(CACHE_PREFIX_UUID + cached.getUuid(), cached);
+        }
+        return view;
+    }
+
+    /**
+     * Removes the view from cache by id and uuid (in all cluster nodes). The uuid is given explicitly since
+     * the view might only be cached by uuid on this node while other nodes have it cached by id.
+     */
+    private void flushView(final long id, final String uuid) {
+        VIEW_CACHE.remove(CACHE_PREFIX_ID + id);
+        if (uuid != null) {
+            VIEW_CACHE.remove(CACHE_PREFIX_UUID + uuid);
+        }
+    }
+
+    /**
+     * Views modified by the frontend don't always have the uuid so it's read from the database when missing
+     */
+    private String getUuid(final View view, final AppSetupMapper mapper) {
+        if (view.getUuid() != null) {
+            return view.getUuid();
+        }
+        return mapper.getUuid(view.getId());
+    }
+
+    /**
+     * Bundle config and state are kept as strings so copying the view only copies references to them.
+     * Parsed JSON is created for each copy when it's first accessed.
+     */
+    protected static View copy(final View view) {
+        final View copy = new View();
+        copy.setId(view.getId());
+        copy.setOldId(view.getOldId());
+        copy.setUuid(view.getUuid());
+        copy.setOnlyForUuId(view.isOnlyForUuId());
+        copy.setName(view.getName());
+        copy.setDescription(view.getDescription());
+        copy.setType(view.getType());
+        copy.setApplication(view.getApplication());
+        copy.setPage(view.getPage());
+        copy.setCreator(view.getCreator());
+        copy.setIsPublic(view.isPublic());
+        copy.setIsDefault(view.isDefault());
+        copy.setPubDomain(view.getPubDomain());
+        copy.setLang(view.getLang());
+        copy.setMetadata(JSONHelper.createJSONObject(view.getMetadataAsString()));
+        copy.setCreated(view.getCreated());
+        copy.setUpdated(view.getUpdated());
+        final List<Bundle> bundles = new ArrayList<>(view.getBundles().size());
+        for (Bundle bundle : view.getBundles()) {
+            final Bundle b = bundle.clone();
+            b.setViewId(bundle.getViewId());
+            bundles.add(b);
+        }
+        copy.setBundles(bundles);
+        return copy;
+    }
+
     /**
      * Returns default view id for the user, based on user roles. Configured by properties:
      *
@@ -0,0 +1,73 @@
+package fi.mml.map.mapwindow.util;
+
+import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.map.layer.formatters.LayerJSONFormatter;
+import org.json.JSONObject;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LayerFormattingPoolTest {
+
+    private static final int CATALOG_SIZE = 5000;
+
+    @Test
+    public void formatLayersKeepsOrder() throws Exception {
+        List<OskariLayer> layers = createCatalog(CATALOG_SIZE);
+        List<String> result = LayerFormattingPool.format(layers, layer -> {
+            if (layer.getId() % 1000 == 0) {
+                throw new IllegalStateException("Failing layer " + layer.getId());
+            }
+            return layer.getId() % 500 == 0 ? null : layer.getName();
+        });
+        assertEquals(CATALOG_SIZE, result.size());
+        for (int i = 0; i < CATALOG_SIZE; i++) {
+            if (i % 500 == 0) {
+                assertNull("Failed or skipped layer should be null", result.get(i));
+            } else {
+                assertEquals(layers.get(i).getName(), result.get(i));
+            }
+        }
+    }
+
+    /**
+     * Rough benchmark for formatting a synthetic catalog of 5000 WMS layers
+     */
+    @Ignore
+    @Test
+    public void benchmark() throws Exception {
+        List<OskariLayer> layers = createCatalog(CATALOG_SIZE);
+        LayerJSONFormatter formatter = new LayerJSONFormatter();
+        for (int round = 0; round < 5; round++) {
+            long start = System.currentTimeMillis();
+            for (OskariLayer layer : layers) {
+                formatter.getJSON(layer, "en", false, "EPSG:3067");
+            }
+            long sequential = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            LayerFormattingPool.format(layers, layer -> formatter.getJSON(layer, "en", false, "EPSG:3067"));
+            long parallel = System.currentTimeMillis() - start;
+            System.out.println("Sequential: " + sequential + "ms, parallel: " + parallel + "ms");
+        }
+    }
+
+    private static List<OskariLayer> createCatalog(int size) throws Exception {
+        List<OskariLayer> layers = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            OskariLayer layer = new OskariLayer();
+            layer.setId(i);
+            layer.setType(OskariLayer.TYPE_WMS);
+            layer.setName("layer_" + i);
+            layer.setUrl("https://example.com/wms");
+            layer.setLocale(new JSONObject("{\"en\":{\"name\":\"Layer " + i + "\"}}"));
+            layer.setCapabilities(new JSONObject("{\"styles\":[{\"name\":\"default\",\"title\":\"Default\"}],\"srs\":[\"EPSG:3067\"]}"));
+            layers.add(layer);
+        }
+        return layers;
+    }
+}
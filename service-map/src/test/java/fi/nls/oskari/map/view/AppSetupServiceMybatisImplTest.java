@@ -2,6 +2,8 @@ package fi.nls.oskari.map.view;
 
 import fi.nls.oskari.domain.GuestUser;
 import fi.nls.oskari.domain.User;
+import fi.nls.oskari.domain.map.view.Bundle;
+import fi.nls.oskari.domain.map.view.View;
 import fi.nls.oskari.service.DummyUserService;
 import fi.nls.oskari.util.PropertyUtil;
 import fi.nls.test.util.TestHelper;
@@ -10,8 +12,13 @@ import org.junit.Before;
 import org.junit.Test;
 
 import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
 
 public class AppSetupServiceMybatisImplTest {
 
@@ -51,6 +58,66 @@ public class AppSetupServiceMybatisImplTest {
 
     }
 
+    @Test
+    public void testCachedViewIsCopied() throws Exception {
+        final View view = new View();
+        view.setId(10);
+        view.setUuid("0123456789abcdef");
+        view.setType("PUBLISHED");
+        view.getMetadata().put("style", "dark");
+        final Bundle mapfull = new Bundle("mapfull");
+        mapfull.setViewId(10);
+        mapfull.setConfig("{\"layers\":[]}");
+        mapfull.setState("{\"zoom\":1}");
+        view.addBundle(mapfull);
+
+        final View copy = AppSetupServiceMybatisImpl.copy(view);
+        assertNotSame(view.getBundleByName("mapfull"), copy.getBundleByName("mapfull"));
+        assertEquals(view.getUuid(), copy.getUuid());
+        assertEquals(10, copy.getBundleByName("mapfull").getViewId());
+
+        // modifying the copy shouldn't modify the original
+        copy.getBundleByName("mapfull").getStateJSON().put("zoom", 5);
+        copy.getMetadata().put("style", "light");
+        assertEquals("{\"zoom\":5}", copy.getBundleByName("mapfull").getState());
+        assertEquals("{\"zoom\":1}", view.getBundleByName("mapfull").getState());
+        assertEquals("dark", view.getMetadata().getString("style"));
+    }
+
+    @Test
+    public void testUsageIsWrittenInBatches() throws Exception {
+        DataSource ds = TestHelper.createMemDBforUnitTest(Arrays.asList(
+                "DROP TABLE IF EXISTS oskari_appsetup",
+                "CREATE TABLE oskari_appsetup (id BIGINT PRIMARY KEY, usagecount BIGINT DEFAULT 0, used TIMESTAMP)",
+                "INSERT INTO oskari_appsetup (id) VALUES (1), (2)"));
+        AppSetupServiceMybatisImpl service = new AppSetupServiceMybatisImpl(ds);
+        View view = new View();
+        view.setId(1);
+        for (int i = 0; i < 3; i++) {
+            service.updateViewUsage(view);
+        }
+        assertEquals("Usage is not written before flush", 0, getUsageCount(ds, 1));
+        service.flushUsage();
+        assertEquals(3, getUsageCount(ds, 1));
+        assertEquals(0, getUsageCount(ds, 2));
+
+        service.updateViewUsage(view);
+        service.teardown();
+        assertEquals("Pending usage is written on teardown", 4, getUsageCount(ds, 1));
+        try (Connection c = ds.getConnection(); Statement st = c.createStatement()) {
+            st.execute("DROP TABLE oskari_appsetup");
+        }
+    }
+
+    private long getUsageCount(DataSource ds, long id) throws Exception {
+        try (Connection c = ds.getConnection();
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT usagecount FROM oskari_appsetup WHERE id = " + id)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
     @After
     public void tearDown() {
         PropertyUtil.clearProperties();
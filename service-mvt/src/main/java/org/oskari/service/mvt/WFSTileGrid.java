@@ -1,8 +1,19 @@
 package org.oskari.service.mvt;
 
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
 public class WFSTileGrid {
 
     public static final int TILE_SIZE = 256;
+    private static final Map<String, WFSTileGrid> KNOWN_TILE_GRIDS;
+    static {
+        Map<String, WFSTileGrid> grids = new HashMap<>();
+        grids.put("EPSG:3067", new WFSTileGrid(new double[] { -548576, 6291456, -548576 + (8192*256), 6291456 + (8192*256) }, 15));
+        grids.put("EPSG:3857", new WFSTileGrid(new double[] { -20037508.3427892, -20037508.3427892, 20037508.3427892, 20037508.3427892 }, 18));
+        KNOWN_TILE_GRIDS = Collections.unmodifiableMap(grids);
+    }
     private final double originX;
     private final double originY;
     private final double[] origin;
@@ -27,6 +38,13 @@ public class WFSTileGrid {
         }
     }
 
+    /**
+     * Built-in tile grids by upper case srs name. Additional grids can be configured, see WFSTileGridProperties.
+     */
+    public static Map<String, WFSTileGrid> getKnownTileGrids() {
+        return KNOWN_TILE_GRIDS;
+    }
+
     public double[] getOrigin() {
         return origin;
     }
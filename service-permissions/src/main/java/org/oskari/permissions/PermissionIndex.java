@@ -0,0 +1,177 @@
+package org.oskari.permissions;
+
+import fi.nls.oskari.domain.Role;
+import fi.nls.oskari.domain.User;
+import org.oskari.permissions.model.Permission;
+import org.oskari.permissions.model.PermissionExternalType;
+import org.oskari.permissions.model.Resource;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of resources and their permissions by resource type.
+ * Roles having a permission are stored as bitsets so checking the permissions of a user
+ * is an intersection of the users roles and the roles of the permission.
+ *
+ * Each resource type is loaded as a whole when it's first used. Changes to single resources
+ * replace the indexed resource so the whole type doesn't need to be reloaded.
+ */
+class PermissionIndex {
+
+    // role ids -> bit index, role ids can be anything so they are mapped to a dense range
+    private final Map<Long, Integer> roleBits = new ConcurrentHashMap<>();
+    // resource type -> mapping -> indexed resource. Maps are replaced instead of modified.
+    private final Map<String, Map<String, IndexedResource>> resourcesByType = new ConcurrentHashMap<>();
+
+    static class IndexedResource {
+        private final Resource resource;
+        private final BitSet anyRole = new BitSet();
+        private final Set<Long> anyUser = new HashSet<>();
+        private final Map<String, BitSet> rolesByPermission = new HashMap<>();
+        private final Map<String, Set<Long>> usersByPermission = new HashMap<>();
+
+        private IndexedResource(Resource resource) {
+            this.resource = resource;
+        }
+
+        Resource getResource() {
+            return resource;
+        }
+    }
+
+    boolean isLoaded(String type) {
+        return resourcesByType.containsKey(type);
+    }
+
+    /**
+     * Replaces all indexed resources of the type
+     */
+    synchronized void load(String type, List<Resource> resources) {
+        final Map<String, IndexedResource> indexed = new LinkedHashMap<>(resources.size() * 2);
+        for (Resource resource : resources) {
+            indexed.put(resource.getMapping(), index(resource));
+        }
+        resourcesByType.put(type, Collections.unmodifiableMap(indexed));
+    }
+
+    /**
+     * Adds or replaces a resource. Ignored if the type hasn't been loaded yet since it will be loaded as a whole.
+     */
+    synchronized void update(Resource resource) {
+        final Map<String, IndexedResource> current = resourcesByType.get(resource.getType());
+        if (current == null) {
+            return;
+        }
+        final Map<String, IndexedResource> indexed = new LinkedHashMap<>(current);
+        indexed.put(resource.getMapping(), index(resource));
+        resourcesByType.put(resource.getType(), Collections.unmodifiableMap(indexed));
+    }
+
+    synchronized void remove(String type, String mapping) {
+        final Map<String, IndexedResource> current = resourcesByType.get(type);
+        if (current == null || !current.containsKey(mapping)) {
+            return;
+        }
+        final Map<String, IndexedResource> indexed = new LinkedHashMap<>(current);
+        indexed.remove(mapping);
+        resourcesByType.put(type, Collections.unmodifiableMap(indexed));
+    }
+
+    synchronized void clear() {
+        resourcesByType.clear();
+    }
+
+    IndexedResource get(String type, String mapping) {
+        return resourcesByType.getOrDefault(type, Collections.emptyMap()).get(mapping);
+    }
+
+    Collection<IndexedResource> getResources(String type) {
+        return resourcesByType.getOrDefault(type, Collections.emptyMap()).values();
+    }
+
+    /**
+     * Roles of the user as bits. Roles that don't have any permissions are not included.
+     */
+    BitSet getRoles(User user) {
+        final BitSet roles = new BitSet();
+        for (Role role : user.getRoles()) {
+            final Integer bit = roleBits.get(role.getId());
+            if (bit != null) {
+                roles.set(bit);
+            }
+        }
+        return roles;
+    }
+
+    boolean hasAnyPermission(IndexedResource resource, User user, BitSet userRoles) {
+        if (resource.anyRole.intersects(userRoles)) {
+            return true;
+        }
+        // user id based permissions are only valid for non-guests
+        return !user.isGuest() && resource.anyUser.contains(user.getId());
+    }
+
+    boolean hasPermission(IndexedResource resource, User user, BitSet userRoles, String permissionType) {
+        final BitSet roles = resource.rolesByPermission.get(permissionType);
+        if (roles != null && roles.intersects(userRoles)) {
+            return true;
+        }
+        if (user.isGuest()) {
+            return false;
+        }
+        final Set<Long> users = resource.usersByPermission.get(permissionType);
+        return users != null && users.contains(user.getId());
+    }
+
+    /**
+     * Mappings of resources of the type the user has the permission for
+     */
+    Set<String> getMappings(String type, User user, String permissionType) {
+        final BitSet userRoles = getRoles(user);
+        final Set<String> mappings = new HashSet<>();
+        for (IndexedResource resource : getResources(type)) {
+            if (hasPermission(resource, user, userRoles, permissionType)) {
+                mappings.add(resource.resource.getMapping());
+            }
+        }
+        return mappings;
+    }
+
+    List<Resource> getResources(String type, User user) {
+        final BitSet userRoles = getRoles(user);
+        final List<Resource> list = new ArrayList<>();
+        for (IndexedResource resource : getResources(type)) {
+            if (hasAnyPermission(resource, user, userRoles)) {
+                list.add(resource.resource);
+            }
+        }
+        return list;
+    }
+
+    private IndexedResource index(Resource resource) {
+        final IndexedResource indexed = new IndexedResource(resource);
+        for (Permission permission : resource.getPermissions()) {
+            if (permission.getExternalType() == PermissionExternalType.ROLE) {
+                final int bit = roleBits.computeIfAbsent((long) permission.getExternalId(), id -> roleBits.size());
+                indexed.anyRole.set(bit);
+                indexed.rolesByPermission.computeIfAbsent(permission.getType(), t -> new BitSet()).set(bit);
+            } else if (permission.getExternalType() == PermissionExternalType.USER) {
+                final long userId = permission.getExternalId();
+                indexed.anyUser.add(userId);
+                indexed.usersByPermission.computeIfAbsent(permission.getType(), t -> new HashSet<>()).add(userId);
+            }
+        }
+        return indexed;
+    }
+
+}
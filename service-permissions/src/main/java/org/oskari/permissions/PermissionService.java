@@ -65,6 +65,22 @@ public abstract class PermissionService extends OskariComponent {
     public abstract List<Resource> findResourcesByUser(User user, ResourceType type);
     public abstract List<Resource> findResourcesByType(ResourceType type);
 
+    /**
+     * Checks if user has any of the given permissions for a resource. Returns false if the resource isn't found.
+     */
+    public boolean hasAnyPermission(User user, ResourceType type, String mapping, PermissionType... permissionTypes) {
+        Optional<Resource> resource = findResource(type, mapping);
+        if (!resource.isPresent()) {
+            return false;
+        }
+        for (PermissionType permissionType : permissionTypes) {
+            if (resource.get().hasPermission(user, permissionType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
 
     public abstract Set<String>
         getResourcesWithGrantedPermissions(String resourceType, User user, String permissionsType);
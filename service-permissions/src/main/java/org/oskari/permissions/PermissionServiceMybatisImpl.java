@@ -4,30 +4,41 @@ import fi.nls.oskari.annotation.Oskari;
 import fi.nls.oskari.cache.Cache;
 import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.db.DatasourceHelper;
-import fi.nls.oskari.domain.Role;
 import fi.nls.oskari.domain.User;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.mybatis.MyBatisHelper;
 import org.apache.ibatis.session.SqlSession;
 import org.apache.ibatis.session.SqlSessionFactory;
+import org.oskari.cluster.ClusterManager;
 import org.oskari.permissions.model.Permission;
-import org.oskari.permissions.model.PermissionExternalType;
+import org.oskari.permissions.model.PermissionType;
 import org.oskari.permissions.model.Resource;
 import org.oskari.permissions.model.ResourceType;
 
 import javax.sql.DataSource;
-import java.util.Collections;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Oskari
 public class PermissionServiceMybatisImpl extends PermissionService {
 
     private static final Class<ResourceMapper> MAPPER = ResourceMapper.class;
     private static final Logger LOG = LogFactory.getLogger(PermissionServiceMybatisImpl.class);
+    private static final String CLUSTER_CHANNEL = "PermissionService";
+    private static final String CLUSTER_CMD_CHANGED_PREFIX = "CHG: ";
+    private static final char CLUSTER_MSG_SEPARATOR = '|';
+
+    // shared by all instances so a write through any instance is seen by the others
+    private static final PermissionIndex index = new PermissionIndex();
+    private static final AtomicBoolean clusterListenerAdded = new AtomicBoolean();
+    // type -> mappings changed while the type is being loaded to the index, re-read after the load
+    private static final Map<String, Set<String>> changedWhileLoading = new ConcurrentHashMap<>();
 
     private final SqlSessionFactory factory;
     private final Cache<Resource> cache;
@@ -45,33 +56,112 @@ public class PermissionServiceMybatisImpl extends PermissionService {
             factory = MyBatisHelper.initMyBatis(ds, MAPPER);
         }
         cache = CacheManager.getCache(PermissionServiceMybatisImpl.class.getName());
+        if (ClusterManager.isClustered() && clusterListenerAdded.compareAndSet(false, true)) {
+            // one listener is enough as the index is shared
+            ClusterManager
+                    .getClientFor("cache")
+                    .addListener(CLUSTER_CHANNEL, (msg) -> handleClusterMsg(msg));
+        }
     }
 
+    /**
+     * Resources are returned from an in-memory index. The returned resources are shared and must not be modified.
+     */
     public List<Resource> findResourcesByUser(User user, ResourceType type) {
-        // TODO: add userId and user.getRoles() to query and remove filtering on code
-        List<Resource> all = findResourcesByType(type);
-        return all.stream()
-                .filter(resource -> hasUserAnyPermission(user, resource))
-                .collect(Collectors.toList());
+        return getIndex(type.name()).getResources(type.name(), user);
     }
 
-    private boolean hasUserAnyPermission(User user, Resource resource) {
-        return resource.getPermissions().stream()
-                .anyMatch(p -> hasUserPermission(user, p));
+    @Override
+    public boolean hasAnyPermission(User user, ResourceType type, String mapping, PermissionType... permissionTypes) {
+        if (user == null) {
+            return false;
+        }
+        final PermissionIndex.IndexedResource resource = getIndex(type.name()).get(type.name(), mapping);
+        if (resource == null) {
+            return false;
+        }
+        final BitSet userRoles = index.getRoles(user);
+        for (PermissionType permissionType : permissionTypes) {
+            if (index.hasPermission(resource, user, userRoles, permissionType.name())) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private boolean hasUserPermission(User user, Permission permission) {
-        boolean userHasRoleWithId = permission.getExternalType() == PermissionExternalType.ROLE
-                && user.hasRoleWithId(permission.getExternalId());
+    private PermissionIndex getIndex(String type) {
+        if (!index.isLoaded(type)) {
+            synchronized (index) {
+                if (!index.isLoaded(type)) {
+                    long start = System.currentTimeMillis();
+                    final Set<String> changed = ConcurrentHashMap.newKeySet();
+                    changedWhileLoading.put(type, changed);
+                    try {
+                        index.load(type, findResourcesByType(type));
+                    } finally {
+                        changedWhileLoading.remove(type);
+                    }
+                    // the loaded snapshot might not include changes committed while it was read
+                    for (String mapping : changed) {
+                        refreshIndex(type, mapping);
+                    }
+                    LOG.debug("Indexed permissions for", type, "in", System.currentTimeMillis() - start, "ms");
+                }
+            }
+        }
+        return index;
+    }
 
-        if (userHasRoleWithId) {
-            return true;
-        } else if(user.isGuest()) {
-            return false;
+    /**
+     * Reads the resource from the database to the index shared by all instances on this node
+     * and tells other nodes to do the same
+     */
+    private void resourceChanged(String type, String mapping) {
+        refreshIndex(type, mapping);
+        if (ClusterManager.isClustered()) {
+            ClusterManager
+                    .getClientFor("cache")
+                    .sendMessage(CLUSTER_CHANNEL, CLUSTER_CMD_CHANGED_PREFIX + type + CLUSTER_MSG_SEPARATOR + mapping);
+        }
+    }
+
+    private void refreshIndex(String type, String mapping) {
+        if (!index.isLoaded(type)) {
+            // loaded as a whole when needed. If a load is in progress the mapping is re-read after it.
+            final Set<String> pending = changedWhileLoading.get(type);
+            if (pending != null) {
+                pending.add(mapping);
+            }
+            // the load might have completed before the mapping was added
+            if (!index.isLoaded(type)) {
+                return;
+            }
+        }
+        Resource resource;
+        try (SqlSession session = factory.openSession()) {
+            resource = session.getMapper(MAPPER).findByTypeAndMapping(type, mapping);
+        }
+        if (resource == null) {
+            index.remove(type, mapping);
+        } else {
+            index.update(resource);
         }
+    }
 
-        return permission.getExternalType() == PermissionExternalType.USER
-                && user.getId() == permission.getExternalId();
+    private void handleClusterMsg(String data) {
+        if (data == null || !data.startsWith(CLUSTER_CMD_CHANGED_PREFIX)) {
+            LOG.warn("Received unrecognized cluster msg:", data);
+            return;
+        }
+        final String msg = data.substring(CLUSTER_CMD_CHANGED_PREFIX.length());
+        final int separator = msg.indexOf(CLUSTER_MSG_SEPARATOR);
+        if (separator == -1) {
+            LOG.warn("Received unrecognized cluster msg:", data);
+            return;
+        }
+        final String type = msg.substring(0, separator);
+        final String mapping = msg.substring(separator + 1);
+        refreshIndex(type, mapping);
     }
 
     /**
@@ -80,8 +170,12 @@ public class PermissionServiceMybatisImpl extends PermissionService {
      * @return
      */
     public List<Resource> findResourcesByType(ResourceType type) {
+        return findResourcesByType(type.name());
+    }
+
+    protected List<Resource> findResourcesByType(String type) {
         try (SqlSession session = factory.openSession()) {
-            return session.getMapper(MAPPER).findByType(type.name());
+            return session.getMapper(MAPPER).findByType(type);
         }
     }
 
@@ -121,6 +215,7 @@ public class PermissionServiceMybatisImpl extends PermissionService {
         if (exists(resource)) {
             setPermissions(resource.getId(), resource.getPermissions());
             cache.remove(getCacheKey(resource));
+            resourceChanged(resource.getType(), resource.getMapping());
         } else {
             insertResource(resource);
         }
@@ -141,44 +236,7 @@ public class PermissionServiceMybatisImpl extends PermissionService {
     }
 
     public Set<String> getResourcesWithGrantedPermissions(String resourceType, User user, String permissionsType) {
-
-        // user role based permissions
-        final Set<Long> roleIds = user.getRoles().stream()
-                .map(Role::getId)
-                .collect(Collectors.toSet());
-
-        final Set<String> rolePermissions =
-                getResourcesWithGrantedPermissions(
-                        resourceType, roleIds, PermissionExternalType.ROLE, permissionsType);
-
-        if (!user.isGuest()) {
-            // user id based permissions are only valid for non-guests
-            Set<String> userPermissions =
-                    getResourcesWithGrantedPermissions(
-                            resourceType, Collections.singleton(user.getId()), PermissionExternalType.USER, permissionsType);
-            rolePermissions.addAll(userPermissions);
-        }
-        return rolePermissions;
-    }
-
-    private Set<String> getResourcesWithGrantedPermissions(
-            String resourceType,
-            Set<Long> externalId,
-            PermissionExternalType externalIdType,
-            String permissionsType) {
-
-        if (externalId == null || externalId.isEmpty()) {
-            return Collections.emptySet();
-        }
-
-        try (SqlSession session = factory.openSession(false)) {
-            ResourceMapper mapper = session.getMapper(MAPPER);
-            String commaseparatedIds = externalId.stream()
-                    .map(num -> Long.toString(num))
-                    .collect(Collectors.joining(","));
-            return mapper.findMappingsForPermission(
-                    resourceType, externalIdType, permissionsType, commaseparatedIds);
-        }
+        return getIndex(resourceType).getMappings(resourceType, user, permissionsType);
     }
 
     @Override
@@ -192,6 +250,7 @@ public class PermissionServiceMybatisImpl extends PermissionService {
             session.commit();
         }
         cache.put(getCacheKey(resource), resource);
+        resourceChanged(resource.getType(), resource.getMapping());
     }
 
     private void setPermissions(int resourceId, List<Permission> permissions) {
@@ -214,6 +273,7 @@ public class PermissionServiceMybatisImpl extends PermissionService {
             session.commit();
         }
         cache.remove(getCacheKey(resource));
+        resourceChanged(resource.getType(), resource.getMapping());
     }
 
     private String getCacheKey(Resource resource) {
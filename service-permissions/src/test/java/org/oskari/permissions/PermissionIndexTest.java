@@ -0,0 +1,155 @@
+package org.oskari.permissions;
+
+import fi.nls.oskari.domain.GuestUser;
+import fi.nls.oskari.domain.Role;
+import fi.nls.oskari.domain.User;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.oskari.permissions.model.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PermissionIndexTest {
+
+    private static final String TYPE = ResourceType.maplayer.name();
+    private PermissionIndex index;
+
+    @Before
+    public void setup() {
+        index = new PermissionIndex();
+        List<Resource> resources = new ArrayList<>();
+        resources.add(createResource("1", PermissionExternalType.ROLE, 10, PermissionType.VIEW_LAYER));
+        resources.add(createResource("2", PermissionExternalType.ROLE, 20, PermissionType.VIEW_PUBLISHED));
+        resources.add(createResource("3", PermissionExternalType.USER, 5, PermissionType.VIEW_LAYER));
+        index.load(TYPE, resources);
+    }
+
+    @Test
+    public void testResourcesByUser() {
+        assertEquals(Arrays.asList("1"), getMappings(index.getResources(TYPE, createUser(1, 10))));
+        assertEquals(Arrays.asList("1", "2"), getMappings(index.getResources(TYPE, createUser(1, 10, 20))));
+        assertEquals(Arrays.asList("1", "3"), getMappings(index.getResources(TYPE, createUser(5, 10))));
+        assertTrue(index.getResources(TYPE, createUser(1, 30)).isEmpty());
+
+        GuestUser guest = new GuestUser();
+        guest.addRole(createRole(20));
+        assertEquals(Arrays.asList("2"), getMappings(index.getResources(TYPE, guest)));
+    }
+
+    @Test
+    public void testPermissionTypes() {
+        User user = createUser(5, 10, 20);
+        assertEquals(new HashSet<>(Arrays.asList("1", "3")), index.getMappings(TYPE, user, PermissionType.VIEW_LAYER.name()));
+        assertEquals(new HashSet<>(Arrays.asList("2")), index.getMappings(TYPE, user, PermissionType.VIEW_PUBLISHED.name()));
+
+        BitSet roles = index.getRoles(user);
+        assertTrue(index.hasPermission(index.get(TYPE, "1"), user, roles, PermissionType.VIEW_LAYER.name()));
+        assertFalse(index.hasPermission(index.get(TYPE, "1"), user, roles, PermissionType.VIEW_PUBLISHED.name()));
+    }
+
+    @Test
+    public void testUpdates() {
+        User user = createUser(1, 30);
+        assertTrue(index.getResources(TYPE, user).isEmpty());
+
+        index.update(createResource("2", PermissionExternalType.ROLE, 30, PermissionType.VIEW_LAYER));
+        index.update(createResource("4", PermissionExternalType.ROLE, 30, PermissionType.VIEW_LAYER));
+        assertEquals(Arrays.asList("2", "4"), getMappings(index.getResources(TYPE, user)));
+        // previous permissions of the updated resource are removed
+        assertEquals(Arrays.asList("1"), getMappings(index.getResources(TYPE, createUser(1, 10, 20))));
+
+        index.remove(TYPE, "4");
+        assertEquals(Arrays.asList("2"), getMappings(index.getResources(TYPE, user)));
+
+        // types that haven't been loaded are not indexed one resource at a time
+        Resource myplaces = createResource("x", PermissionExternalType.ROLE, 10, PermissionType.VIEW_LAYER);
+        myplaces.setType(ResourceType.myplaces);
+        index.update(myplaces);
+        assertFalse(index.isLoaded(ResourceType.myplaces.name()));
+    }
+
+    /**
+     * Rough benchmark for checking permissions of a large catalog: 10000 layers and 200 roles.
+     */
+    @Ignore
+    @Test
+    public void benchmark() {
+        final int layers = 10000;
+        final int roles = 200;
+        Random random = new Random(1);
+        List<Resource> resources = new ArrayList<>(layers);
+        for (int i = 0; i < layers; i++) {
+            Resource resource = new OskariLayerResource(i);
+            for (int p = 0; p < 10; p++) {
+                Permission permission = new Permission();
+                permission.setExternalType(PermissionExternalType.ROLE);
+                permission.setExternalId(random.nextInt(roles));
+                permission.setType(p % 2 == 0 ? PermissionType.VIEW_LAYER : PermissionType.VIEW_PUBLISHED);
+                resource.addPermission(permission);
+            }
+            resources.add(resource);
+        }
+        long start = System.currentTimeMillis();
+        index.load(TYPE, resources);
+        System.out.println("Indexing: " + (System.currentTimeMillis() - start) + "ms");
+
+        User user = createUser(1, 3, 50, 150);
+        int rounds = 1000;
+        start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < rounds; i++) {
+            found += index.getResources(TYPE, user).size();
+        }
+        System.out.println("Index: " + (System.nanoTime() - start) / rounds / 1000 + "us per user, found " + found / rounds);
+
+        start = System.nanoTime();
+        found = 0;
+        for (int i = 0; i < rounds; i++) {
+            found += (int) resources.stream()
+                    .filter(r -> r.getPermissions().stream().anyMatch(p -> user.hasRoleWithId(p.getExternalId())))
+                    .count();
+        }
+        System.out.println("Filtering: " + (System.nanoTime() - start) / rounds / 1000 + "us per user, found " + found / rounds);
+    }
+
+    private static List<String> getMappings(List<Resource> resources) {
+        List<String> mappings = new ArrayList<>();
+        resources.forEach(r -> mappings.add(r.getMapping()));
+        return mappings;
+    }
+
+    private static Resource createResource(String mapping, PermissionExternalType externalType, int externalId, PermissionType type) {
+        Resource resource = new Resource();
+        resource.setType(ResourceType.maplayer);
+        resource.setMapping(mapping);
+        Permission permission = new Permission();
+        permission.setExternalType(externalType);
+        permission.setExternalId(externalId);
+        permission.setType(type);
+        resource.addPermission(permission);
+        return resource;
+    }
+
+    private static User createUser(long id, long... roleIds) {
+        User user = new User();
+        user.setId(id);
+        for (long roleId : roleIds) {
+            user.addRole(createRole(roleId));
+        }
+        return user;
+    }
+
+    private static Role createRole(long id) {
+        Role role = new Role();
+        role.setId(id);
+        return role;
+    }
+}
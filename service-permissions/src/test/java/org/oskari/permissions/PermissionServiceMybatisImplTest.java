@@ -1,5 +1,6 @@
 package org.oskari.permissions;
 
+import fi.nls.oskari.domain.User;
 import fi.nls.test.util.ResourceHelper;
 import fi.nls.test.util.TestHelper;
 import org.junit.Before;
@@ -11,6 +12,7 @@ import javax.sql.DataSource;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -18,6 +20,7 @@ import static org.junit.Assert.*;
 
 public class PermissionServiceMybatisImplTest {
 
+    private static DataSource dataSource;
     private static PermissionServiceMybatisImpl permissionService;
     private static int DUMMY_ID = -1;
 
@@ -28,8 +31,8 @@ public class PermissionServiceMybatisImplTest {
     @BeforeClass
     public static void init() throws SQLException, IOException, URISyntaxException {
         List<String> sqls = ResourceHelper.readSqlStatements(PermissionServiceMybatisImplTest.class, "/schema.sql");
-        DataSource ds = TestHelper.createMemDBforUnitTest(sqls);
-        permissionService = new PermissionServiceMybatisImpl(ds);
+        dataSource = TestHelper.createMemDBforUnitTest(sqls);
+        permissionService = new PermissionServiceMybatisImpl(dataSource);
     }
 
     @Before
@@ -82,6 +85,62 @@ public class PermissionServiceMybatisImplTest {
         // TODO: Verify that the oskari_resource_permission rows are also deleted
     }
 
+    @Test
+    public void testWriteVisibleToOtherInstances() {
+        PermissionServiceMybatisImpl other = new PermissionServiceMybatisImpl(dataSource);
+        User user = new User();
+        user.setId(1);
+        user.addRole(200, "Admin");
+        Resource resource = new OskariLayerResource(12345);
+        // index is loaded by the other instance before the write
+        assertFalse(other.hasAnyPermission(user, ResourceType.maplayer, resource.getMapping(), PermissionType.VIEW_LAYER));
+        assertTrue(other.getResourcesWithGrantedPermissions(ResourceType.maplayer.name(), user, PermissionType.VIEW_LAYER.name()).isEmpty());
+
+        Permission permission = new Permission();
+        permission.setExternalId(200);
+        permission.setExternalType(PermissionExternalType.ROLE);
+        permission.setType(PermissionType.VIEW_LAYER);
+        resource.addPermission(permission);
+        permissionService.saveResource(resource);
+        assertTrue(other.hasAnyPermission(user, ResourceType.maplayer, resource.getMapping(), PermissionType.VIEW_LAYER));
+        assertTrue(other.getResourcesWithGrantedPermissions(ResourceType.maplayer.name(), user, PermissionType.VIEW_LAYER.name())
+                .contains(resource.getMapping()));
+
+        // revoke
+        resource.setPermissions(new ArrayList<>());
+        permissionService.saveResource(resource);
+        assertFalse(other.hasAnyPermission(user, ResourceType.maplayer, resource.getMapping(), PermissionType.VIEW_LAYER));
+
+        permissionService.deleteResource(resource);
+        assertFalse(other.hasAnyPermission(user, ResourceType.maplayer, resource.getMapping(), PermissionType.VIEW_LAYER));
+    }
+
+    @Test
+    public void testWriteDuringIndexLoadIsNotLost() {
+        Resource resource = new Resource();
+        resource.setType(ResourceType.analysislayer);
+        resource.setMapping("written-during-load");
+        Permission permission = new Permission();
+        permission.setExternalId(200);
+        permission.setExternalType(PermissionExternalType.ROLE);
+        permission.setType(PermissionType.VIEW_LAYER);
+        resource.addPermission(permission);
+        PermissionServiceMybatisImpl loading = new PermissionServiceMybatisImpl(dataSource) {
+            @Override
+            protected List<Resource> findResourcesByType(String type) {
+                List<Resource> snapshot = super.findResourcesByType(type);
+                // committed after the resources were read but before the index is loaded
+                permissionService.saveResource(resource);
+                return snapshot;
+            }
+        };
+        User user = new User();
+        user.setId(1);
+        user.addRole(200, "Admin");
+        assertTrue(loading.hasAnyPermission(user, ResourceType.analysislayer, resource.getMapping(), PermissionType.VIEW_LAYER));
+        permissionService.deleteResource(resource);
+    }
+
     private Permission findPermissionWithId(List<Permission> permissions, int id) {
         return permissions.stream()
                 .filter(p -> p.getId() == id)
@@ -121,7 +121,7 @@ public class What3WordsSearchChannel extends SearchChannel {
             final String lang = getLang(searchCriteria.getLocale());
             params.put("lang", lang);
             final String url = IOHelper.constructUrl(serviceURL, params);
-            String data = IOHelper.getURL(url);
+            String data = IOHelper.readString(getConnection(url));
             LOG.debug("Result: " + data);
             SearchResultItem item = parseResult(JSONHelper.createJSONObject(data), srs);
             // set language of result based on what was asked
@@ -159,7 +159,7 @@ public class What3WordsSearchChannel extends SearchChannel {
             params.put("lang", lang);
             final String url = IOHelper.constructUrl(reverseServiceURL, params);
 
-            String data = IOHelper.getURL(url);
+            String data = IOHelper.readString(getConnection(url));
             LOG.debug("Result: " + data);
             SearchResultItem item = parseResult(JSONHelper.createJSONObject(data), sc.getSRS());
             // set language of result based on what was asked
@@ -17,10 +17,15 @@ public class WFSChannelProvider extends ChannelProvider {
     public Set<SearchChannel> getChannels() {
         WFSSearchChannelsService channelService = OskariComponentManager.getComponentOfType(WFSSearchChannelsService.class);
         Set<SearchChannel> list = new HashSet<>();
+        boolean indexed = false;
         for(WFSSearchChannelsConfiguration config : channelService.findChannels()) {
             WFSSearchChannel channel = new WFSSearchChannel(config);
             channel.init();
             list.add(channel);
+            indexed = indexed || channel.isLocallyIndexed();
+        }
+        if (indexed) {
+            WFSSearchIndexJob.buildOnStartup();
         }
         return list;
     }
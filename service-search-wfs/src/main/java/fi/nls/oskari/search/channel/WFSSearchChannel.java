@@ -1,14 +1,20 @@
 package fi.nls.oskari.search.channel;
 
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.util.*;
+import java.util.stream.Collectors;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import fi.nls.oskari.cache.Cache;
 import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.domain.SelectItem;
 import fi.nls.oskari.domain.User;
 import fi.nls.oskari.map.geometry.WKTHelper;
 import fi.nls.oskari.service.OskariComponentManager;
+import fi.nls.oskari.service.ServiceException;
 import fi.nls.oskari.util.JSONHelper;
 import org.geotools.geojson.geom.GeometryJSON;
 import org.json.JSONArray;
@@ -20,6 +26,7 @@ import org.oskari.permissions.model.ResourceType;
 
 import fi.nls.oskari.wfs.WFSSearchChannelsConfiguration;
 
+import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.MultiLineString;
 import org.locationtech.jts.geom.MultiPoint;
@@ -34,7 +41,7 @@ import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.IOHelper;
 import fi.nls.oskari.util.PropertyUtil;
 
-public class WFSSearchChannel extends SearchChannel {
+public class WFSSearchChannel extends SearchChannel implements SearchAutocomplete {
 
     private Logger log = LogFactory.getLogger(this.getClass());
     public static final String ID_PREFIX = "WFSSEARCH_CHANNEL_";
@@ -48,6 +55,9 @@ public class WFSSearchChannel extends SearchChannel {
     public static final String GT_GEOM_MULTIPOLYGON = "MULTIPOLYGON";
 
     static final String CONFIG_REGION_PROPERTY = "region-property";
+    static final String CONFIG_LOCAL_INDEX = "localIndex";
+    private static final int AUTOCOMPLETE_MAX = PropertyUtil.getOptional("search.channel.WFSSEARCH_CHANNEL.autocomplete.max", 10);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
 
 	private WFSSearchChannelsConfiguration config;
     private PermissionService permissionsService;
@@ -127,6 +137,34 @@ public class WFSSearchChannel extends SearchChannel {
         return config.getConfig().optString(CONFIG_REGION_PROPERTY, null);
     }
 
+    /**
+     * From database oskari_wfs_search_channels-table config-column:
+     * {
+     *     "localIndex": true,
+     *     ...
+     * }
+     * When true the searchable values are indexed locally by WFSSearchIndexJob.
+     */
+    public boolean isLocallyIndexed() {
+        return config.getConfig().optBoolean(CONFIG_LOCAL_INDEX, false);
+    }
+
+    /**
+     * Suggestions are only available from the local index
+     */
+    @Override
+    public boolean isAutocompleteAvailable() {
+        return isLocallyIndexed();
+    }
+
+    /**
+     * The index matches the search string like the filter of the default handler. Custom handlers can
+     * create other kinds of filters so channels using them are always searched from the service.
+     */
+    private boolean isSearchedFromIndex() {
+        return isLocallyIndexed() && getHandler().getClass() == WFSChannelHandler.class;
+    }
+
     public String getId() {
         return ID_PREFIX + config.getId();
     }
@@ -165,8 +203,21 @@ public class WFSSearchChannel extends SearchChannel {
         }
         String searchStr = searchCriteria.getSearchString();
         log.debug("[WFSSEARCH] Search string: " + searchStr);
-        int maxFeatures = getMaxResults(searchCriteria.getMaxResults());
+        Map<String, String> urlParams = getParams(getMaxResults(searchCriteria.getMaxResults()));
+        urlParams.put("Filter", getHandler().createFilter(searchCriteria, config));
+        return getFeatures(urlParams);
+    }
+
+    /**
+     * Features with given ids (like the ones selected from the local index)
+     */
+    private JSONObject getFeaturesById(List<String> ids) throws Exception {
+        Map<String, String> urlParams = getParams(ids.size());
+        urlParams.put(config.getVersion().startsWith("1.") ? "featureID" : "resourceId", String.join(",", ids));
+        return getFeatures(urlParams);
+    }
 
+    private Map<String, String> getParams(int maxFeatures) {
         Map<String, String> urlParams = new HashMap<>();
         urlParams.put("service", "WFS");
         urlParams.put("request", "GetFeature");
@@ -183,8 +234,10 @@ public class WFSSearchChannel extends SearchChannel {
                 urlParams.put("count", Integer.toString(maxFeatures));
             }
         }
-        urlParams.put("Filter", getHandler().createFilter(searchCriteria, config));
+        return urlParams;
+    }
 
+    private JSONObject getFeatures(Map<String, String> urlParams) throws Exception {
         HttpURLConnection connection = getConnection(IOHelper.constructUrl(config.getUrl(), urlParams));
         if(config.requiresAuth()) {
             IOHelper.setupBasicAuth(connection, config.getUsername(), config.getPassword());
@@ -210,6 +263,10 @@ public class WFSSearchChannel extends SearchChannel {
         log.debug("[WFSSEARCH] doSearch queryStr: " + queryStr);     
                 
         try {
+            final WFSSearchIndex index = isSearchedFromIndex() ? WFSSearchIndex.get(config.getId()) : null;
+            if (index != null && searchFromIndex(index, searchCriteria, searchResultList)) {
+                return searchResultList;
+            }
             final JSONObject resp = getData(searchCriteria);
             if(resp == null) {
                 log.info("No response from WFS channel with id", config.getId());
@@ -225,6 +282,117 @@ public class WFSSearchChannel extends SearchChannel {
         return searchResultList;
     }
     
+    /**
+     * Matches from the local index with exact matches first. The geometries are fetched only for the matched features.
+     * Returns false if nothing matched so the service is searched normally (the index might not have features
+     * added after it was built).
+     */
+    private boolean searchFromIndex(WFSSearchIndex index, SearchCriteria sc, ChannelSearchResult result) {
+        final List<WFSSearchIndex.Entry> entries = index.search(sc.getSearchString(), getMaxResults(sc.getMaxResults()));
+        if (entries.isEmpty()) {
+            return false;
+        }
+        final List<String> ids = entries.stream()
+                .map(WFSSearchIndex.Entry::getId)
+                .filter(id -> !id.isEmpty())
+                .collect(Collectors.toList());
+        if (ids.size() == entries.size()) {
+            try {
+                final JSONObject resp = getFeaturesById(ids);
+                if (resp != null) {
+                    ChannelSearchResult fetched = new ChannelSearchResult();
+                    parseResponse(sc, resp, fetched);
+                    fetched.getSearchResultItems().forEach(result::addItem);
+                    return true;
+                }
+            } catch (Exception e) {
+                log.warn(e, "[WFSSEARCH] Couldn't get geometries for indexed features - Using locations from index");
+            }
+        }
+        final String type = config.getName(sc.getLocale());
+        for (WFSSearchIndex.Entry entry : entries) {
+            SearchResultItem item = new SearchResultItem();
+            setupDefaults(item);
+            item.setTitle(entry.getTitle());
+            item.setResourceId(entry.getId());
+            if (!Double.isNaN(entry.getLon())) {
+                item.setLon(entry.getLon());
+                item.setLat(entry.getLat());
+            }
+            if (entry.getRegion() != null) {
+                item.setRegion(entry.getRegion());
+            }
+            item.setType(type);
+            result.addItem(item);
+        }
+        return true;
+    }
+
+    /**
+     * Suggestions from the local index. Empty if the channel isn't indexed.
+     */
+    public List<String> doSearchAutocomplete(String searchString) {
+        final WFSSearchIndex index = WFSSearchIndex.get(config.getId());
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        return index.suggest(searchString, AUTOCOMPLETE_MAX);
+    }
+
+    /**
+     * Reads all features of the channel and indexes the titles with a point for the location of each feature.
+     * The response is parsed one feature at a time so the whole layer isn't kept in memory as JSON.
+     */
+    public WFSSearchIndex buildIndex() throws Exception {
+        Map<String, String> urlParams = getParams(-1);
+        HttpURLConnection connection = getConnection(IOHelper.constructUrl(config.getUrl(), urlParams));
+        // reading the whole layer takes longer than the search timeout set by getConnection()
+        connection.setReadTimeout(IOHelper.getReadTimeoutMs());
+        if(config.requiresAuth()) {
+            IOHelper.setupBasicAuth(connection, config.getUsername(), config.getPassword());
+        }
+        if(connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            throw new ServiceException("Error response " + connection.getResponseCode() + " from WFS channel id: " + config.getId());
+        }
+        try (InputStream in = connection.getInputStream()) {
+            return buildIndex(in);
+        }
+    }
+
+    protected WFSSearchIndex buildIndex(InputStream in) throws Exception {
+        WFSSearchIndex.Builder builder = WFSSearchIndex.builder();
+        GeometryJSON geom = new GeometryJSON(3);
+        try (JsonParser parser = MAPPER.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new ServiceException("Response from WFS channel id: " + config.getId() + " isn't a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String field = parser.getCurrentName();
+                if (parser.nextToken() != JsonToken.START_ARRAY || !"features".equals(field)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    final JSONObject feature = new JSONObject(MAPPER.readTree(parser).toString());
+                    addToIndex(builder, feature, geom);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    private void addToIndex(WFSSearchIndex.Builder builder, JSONObject feature, GeometryJSON geom) throws Exception {
+        double lon = Double.NaN;
+        double lat = Double.NaN;
+        JSONObject geometry = feature.optJSONObject("geometry");
+        if (geometry != null) {
+            Geometry g = geom.read(geometry.toString());
+            lon = g.getCentroid().getX();
+            lat = g.getCentroid().getY();
+        }
+        builder.add(getTitle(feature), feature.optString("id", null), getRegion(feature), lon, lat);
+    }
+
     protected void parseResponse(SearchCriteria sc, JSONObject resp, ChannelSearchResult result)
             throws Exception {
         String type = config.getName(sc.getLocale());
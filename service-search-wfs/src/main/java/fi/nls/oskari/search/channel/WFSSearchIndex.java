@@ -0,0 +1,369 @@
+package fi.nls.oskari.search.channel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable in-memory index of the searchable values (titles) of a WFS search channel.
+ * Answers prefix (autocomplete) and exact lookups without requests to the WFS service.
+ *
+ * Titles are sorted by their lower case UTF-8 bytes so all titles with a given prefix are in a continuous
+ * range found with binary search (same lookups a trie provides). Values are packed into a few large
+ * arrays instead of objects per feature to keep the memory footprint small for large gazetteers.
+ * Geometries are not indexed, only a point for the location of each feature. The geometry is fetched
+ * from the service with the feature id when needed.
+ *
+ * Indexes are built by WFSSearchIndexJob and registered by the channel config id.
+ */
+public class WFSSearchIndex {
+
+    private static final Map<Integer, WFSSearchIndex> INDEXES = new ConcurrentHashMap<>();
+
+    private final PackedStrings keys;
+    private final PackedStrings titles;
+    private final PackedStrings ids;
+    private final PackedStrings regions;
+    private final double[] lons;
+    private final double[] lats;
+    private final long created = System.currentTimeMillis();
+
+    /**
+     * Feature from the index
+     */
+    public static class Entry {
+        private final String title;
+        private final String id;
+        private final String region;
+        private final double lon;
+        private final double lat;
+
+        Entry(String title, String id, String region, double lon, double lat) {
+            this.title = title;
+            this.id = id;
+            this.region = region;
+            this.lon = lon;
+            this.lat = lat;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getRegion() {
+            return region;
+        }
+
+        public double getLon() {
+            return lon;
+        }
+
+        public double getLat() {
+            return lat;
+        }
+    }
+
+    public static WFSSearchIndex get(int channelId) {
+        return INDEXES.get(channelId);
+    }
+
+    public static void register(int channelId, WFSSearchIndex index) {
+        INDEXES.put(channelId, index);
+    }
+
+    public static void remove(int channelId) {
+        INDEXES.remove(channelId);
+    }
+
+    public static Set<Integer> getIndexedChannels() {
+        return INDEXES.keySet();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private WFSSearchIndex(PackedStrings keys, PackedStrings titles, PackedStrings ids, PackedStrings regions,
+                           double[] lons, double[] lats) {
+        this.keys = keys;
+        this.titles = titles;
+        this.ids = ids;
+        this.regions = regions;
+        this.lons = lons;
+        this.lats = lats;
+    }
+
+    public int size() {
+        return lons.length;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Approximate size of the index in bytes
+     */
+    public long getMemoryUsage() {
+        return keys.getMemoryUsage() + titles.getMemoryUsage() + ids.getMemoryUsage() + regions.getMemoryUsage()
+                + 16L * lons.length;
+    }
+
+    /**
+     * Distinct titles starting with the search string (case-insensitive) in alphabetical order
+     */
+    public List<String> suggest(String searchString, int limit) {
+        final byte[] prefix = normalize(searchString);
+        final Set<String> suggestions = new LinkedHashSet<>();
+        for (int i = keys.lowerBound(prefix); i < size() && suggestions.size() < limit && keys.startsWith(i, prefix); i++) {
+            suggestions.add(titles.get(i));
+        }
+        return new ArrayList<>(suggestions);
+    }
+
+    /**
+     * Features with title starting with the search string (case-insensitive)
+     */
+    public List<Entry> findByPrefix(String searchString, int limit) {
+        final byte[] prefix = normalize(searchString);
+        final List<Entry> list = new ArrayList<>();
+        for (int i = keys.lowerBound(prefix); i < size() && list.size() < limit && keys.startsWith(i, prefix); i++) {
+            list.add(getEntry(i));
+        }
+        return list;
+    }
+
+    /**
+     * Features with title matching the search string (case-insensitive)
+     */
+    public List<Entry> find(String searchString, int limit) {
+        final byte[] key = normalize(searchString);
+        final List<Entry> list = new ArrayList<>();
+        for (int i = keys.lowerBound(key); i < size() && list.size() < limit && keys.matches(i, key); i++) {
+            list.add(getEntry(i));
+        }
+        return list;
+    }
+
+    /**
+     * Features with title containing the search string (case-insensitive) like the filter the channel
+     * sends to the service. Exact matches are listed first, then titles starting with the search string
+     * and then the rest of the matches. Exact and prefix matches are found with binary search, the rest
+     * by scanning the index.
+     */
+    public List<Entry> search(String searchString, int limit) {
+        final byte[] value = normalize(searchString);
+        final List<Entry> list = new ArrayList<>();
+        if (value.length == 0) {
+            return list;
+        }
+        // exact matches are sorted before other keys starting with the value
+        final int start = keys.lowerBound(value);
+        int end = start;
+        while (end < size() && keys.startsWith(end, value)) {
+            end++;
+        }
+        for (int i = start; i < end && list.size() < limit; i++) {
+            list.add(getEntry(i));
+        }
+        for (int i = 0; i < size() && list.size() < limit; i++) {
+            if ((i < start || i >= end) && keys.contains(i, value)) {
+                list.add(getEntry(i));
+            }
+        }
+        return list;
+    }
+
+    private Entry getEntry(int i) {
+        final String region = regions.get(i);
+        return new Entry(titles.get(i), ids.get(i), region.isEmpty() ? null : region, lons[i], lats[i]);
+    }
+
+    private static byte[] normalize(String value) {
+        if (value == null) {
+            return new byte[0];
+        }
+        return value.trim().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+    }
+
+    public static class Builder {
+        private final List<byte[]> keys = new ArrayList<>();
+        private final List<String> titles = new ArrayList<>();
+        private final List<String> ids = new ArrayList<>();
+        private final List<String> regions = new ArrayList<>();
+        private double[] lons = new double[1024];
+        private double[] lats = new double[1024];
+
+        public Builder add(String title, String id, String region, double lon, double lat) {
+            if (title == null || title.trim().isEmpty()) {
+                return this;
+            }
+            final int i = keys.size();
+            if (i == lons.length) {
+                lons = Arrays.copyOf(lons, i * 2);
+                lats = Arrays.copyOf(lats, i * 2);
+            }
+            keys.add(normalize(title));
+            titles.add(title);
+            ids.add(id == null ? "" : id);
+            regions.add(region == null ? "" : region);
+            lons[i] = lon;
+            lats[i] = lat;
+            return this;
+        }
+
+        public WFSSearchIndex build() {
+            final int size = keys.size();
+            final Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> compare(keys.get(a), keys.get(b)));
+
+            final PackedStrings.Writer keyWriter = new PackedStrings.Writer(size);
+            final PackedStrings.Writer titleWriter = new PackedStrings.Writer(size);
+            final PackedStrings.Writer idWriter = new PackedStrings.Writer(size);
+            final PackedStrings.Writer regionWriter = new PackedStrings.Writer(size);
+            final double[] sortedLons = new double[size];
+            final double[] sortedLats = new double[size];
+            for (int i = 0; i < size; i++) {
+                final int index = order[i];
+                keyWriter.add(keys.get(index));
+                titleWriter.add(titles.get(index).getBytes(StandardCharsets.UTF_8));
+                idWriter.add(ids.get(index).getBytes(StandardCharsets.UTF_8));
+                regionWriter.add(regions.get(index).getBytes(StandardCharsets.UTF_8));
+                sortedLons[i] = lons[index];
+                sortedLats[i] = lats[index];
+            }
+            return new WFSSearchIndex(keyWriter.build(), titleWriter.build(), idWriter.build(), regionWriter.build(),
+                    sortedLons, sortedLats);
+        }
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        final int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            final int diff = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * UTF-8 encoded strings in one byte array with offsets
+     */
+    private static class PackedStrings {
+        private final byte[] data;
+        private final int[] offsets;
+
+        private PackedStrings(byte[] data, int[] offsets) {
+            this.data = data;
+            this.offsets = offsets;
+        }
+
+        String get(int i) {
+            return new String(data, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+        }
+
+        long getMemoryUsage() {
+            return data.length + 4L * offsets.length;
+        }
+
+        /**
+         * First index having a value that is equal or greater than the value
+         */
+        int lowerBound(byte[] value) {
+            int low = 0;
+            int high = offsets.length - 1;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if (compareTo(mid, value) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        boolean startsWith(int i, byte[] prefix) {
+            final int start = offsets[i];
+            if (offsets[i + 1] - start < prefix.length) {
+                return false;
+            }
+            for (int j = 0; j < prefix.length; j++) {
+                if (data[start + j] != prefix[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean contains(int i, byte[] value) {
+            final int last = offsets[i + 1] - value.length;
+            for (int start = offsets[i]; start <= last; start++) {
+                int j = 0;
+                while (j < value.length && data[start + j] == value[j]) {
+                    j++;
+                }
+                if (j == value.length) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean matches(int i, byte[] value) {
+            return offsets[i + 1] - offsets[i] == value.length && startsWith(i, value);
+        }
+
+        private int compareTo(int i, byte[] value) {
+            final int start = offsets[i];
+            final int length = offsets[i + 1] - start;
+            final int min = Math.min(length, value.length);
+            for (int j = 0; j < min; j++) {
+                final int diff = (data[start + j] & 0xFF) - (value[j] & 0xFF);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return length - value.length;
+        }
+
+        static class Writer {
+            private byte[] data = new byte[4096];
+            private final int[] offsets;
+            private int count = 0;
+
+            Writer(int size) {
+                offsets = new int[size + 1];
+            }
+
+            void add(byte[] value) {
+                final int start = offsets[count];
+                if (start + value.length > data.length) {
+                    data = Arrays.copyOf(data, Math.max(data.length * 2, start + value.length));
+                }
+                System.arraycopy(value, 0, data, start, value.length);
+                count++;
+                offsets[count] = start + value.length;
+            }
+
+            PackedStrings build() {
+                return new PackedStrings(Arrays.copyOf(data, offsets[count]), offsets);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package fi.nls.oskari.search.channel;
+
+import fi.nls.oskari.annotation.Oskari;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.service.OskariComponentManager;
+import fi.nls.oskari.wfs.WFSSearchChannelsConfiguration;
+import fi.nls.oskari.wfs.WFSSearchChannelsService;
+import fi.nls.oskari.worker.ScheduledJob;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Builds and refreshes the local indexes for WFS search channels that have "localIndex": true in their config.
+ * The indexes are first built in the background when the search channels are loaded on startup
+ * (see WFSChannelProvider). Refresh them with property:
+ *  oskari.scheduler.job.WFSSearchIndexJob.cronLine=0 0 3 * * ?
+ * Until the index has been built the channels search the service directly.
+ */
+@Oskari("WFSSearchIndexJob")
+public class WFSSearchIndexJob extends ScheduledJob {
+
+    private static final Logger LOG = LogFactory.getLogger(WFSSearchIndexJob.class);
+    private static final AtomicBoolean STARTUP_BUILD_STARTED = new AtomicBoolean(false);
+
+    /**
+     * Builds the indexes once in a background thread so startup isn't delayed by reading the layers
+     */
+    static void buildOnStartup() {
+        if (!STARTUP_BUILD_STARTED.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(() -> new WFSSearchIndexJob().execute(Collections.emptyMap()), "WFSSearchIndexBuilder");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void execute(Map<String, Object> params) {
+        WFSSearchChannelsService channelService = OskariComponentManager.getComponentOfType(WFSSearchChannelsService.class);
+        Set<Integer> indexed = new HashSet<>();
+        for (WFSSearchChannelsConfiguration config : channelService.findChannels()) {
+            WFSSearchChannel channel = new WFSSearchChannel(config);
+            if (!channel.isLocallyIndexed()) {
+                continue;
+            }
+            channel.init();
+            indexed.add(config.getId());
+            long start = System.currentTimeMillis();
+            try {
+                WFSSearchIndex index = channel.buildIndex();
+                WFSSearchIndex.register(config.getId(), index);
+                LOG.info("Indexed", index.size(), "features for search channel", channel.getId(), "in",
+                        System.currentTimeMillis() - start, "ms. Index size ~", index.getMemoryUsage() / 1024, "kB");
+            } catch (Exception e) {
+                // keep the previous index if there is one
+                LOG.warn(e, "Couldn't index search channel", channel.getId());
+            }
+        }
+        // remove indexes of channels that have been removed or are no longer indexed
+        WFSSearchIndex.getIndexedChannels().retainAll(indexed);
+    }
+}
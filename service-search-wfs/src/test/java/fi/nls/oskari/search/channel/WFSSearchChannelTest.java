@@ -1,9 +1,15 @@
 package fi.nls.oskari.search.channel;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import fi.nls.oskari.service.OskariComponentManager;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONArray;
 import org.json.JSONObject;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -98,4 +104,37 @@ public class WFSSearchChannelTest {
         assertEquals("My Default Region", item.getRegion());
     }
 
+    @Test
+    public void indexIsBuiltFromFeatures() throws Exception {
+        WFSSearchChannelsConfiguration cfg = new WFSSearchChannelsConfiguration();
+        cfg.setId(1234);
+        cfg.setConfig(JSONHelper.createJSONObject(WFSSearchChannel.CONFIG_REGION_PROPERTY, "region"));
+        cfg.setParamsForSearch(new JSONArray().put("name"));
+        WFSSearchChannel ch = new WFSSearchChannel(cfg);
+        assertFalse("Autocomplete requires localIndex", ch.isAutocompleteAvailable());
+        assertTrue("Channel isn't indexed without index", ch.doSearchAutocomplete("Dinagat").isEmpty());
+        cfg.getConfig().put(WFSSearchChannel.CONFIG_LOCAL_INDEX, true);
+        assertTrue(ch.isAutocompleteAvailable());
+
+        JSONObject feature = new JSONObject(dinagatIslands.toString());
+        feature.put("id", "islands.1");
+        JSONObject resp = new JSONObject();
+        resp.put("type", "FeatureCollection");
+        resp.put("crs", JSONHelper.createJSONObject("type", "name"));
+        resp.put("features", new JSONArray().put(feature).put(pointFeature));
+        resp.put("totalFeatures", 2);
+        WFSSearchIndex index = ch.buildIndex(new ByteArrayInputStream(resp.toString().getBytes(StandardCharsets.UTF_8)));
+        WFSSearchIndex.register(cfg.getId(), index);
+        try {
+            assertEquals(1, index.size());
+            WFSSearchIndex.Entry entry = index.find("dinagat islands", 10).get(0);
+            assertEquals("islands.1", entry.getId());
+            assertEquals("Caraga", entry.getRegion());
+            assertEquals(125.6, entry.getLon(), 0.0001);
+            assertEquals("Dinagat Islands", ch.doSearchAutocomplete("dina").get(0));
+        } finally {
+            WFSSearchIndex.remove(cfg.getId());
+        }
+    }
+
 }
@@ -0,0 +1,117 @@
+package fi.nls.oskari.search.channel;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WFSSearchIndexTest {
+
+    private WFSSearchIndex createIndex() {
+        return WFSSearchIndex.builder()
+                .add("Helsinki", "kunta.91", "Uusimaa", 25.0, 60.2)
+                .add("Hanko", "kunta.78", "Uusimaa", 23.0, 59.8)
+                .add("Hämeenlinna", "kunta.109", "Kanta-Häme", 24.5, 61.0)
+                .add("Helsingin pitäjä", "kylä.1", null, 25.0, 60.3)
+                .add("helsinki", "kylä.2", null, 25.1, 60.1)
+                .add("Espoo", "kunta.49", "Uusimaa", 24.7, 60.2)
+                .add("", "empty", null, 0, 0)
+                .build();
+    }
+
+    @Test
+    public void testSuggest() {
+        WFSSearchIndex index = createIndex();
+        assertEquals("Empty titles are skipped", 6, index.size());
+        assertEquals(Arrays.asList("Helsingin pitäjä", "Helsinki", "helsinki"), index.suggest("hel", 10));
+        assertEquals(Arrays.asList("Helsingin pitäjä"), index.suggest(" HELSING", 10));
+        assertEquals(Arrays.asList("Hämeenlinna"), index.suggest("hä", 10));
+        assertEquals(Arrays.asList("Hanko", "Helsingin pitäjä"), index.suggest("h", 2));
+        assertEquals(Collections.emptyList(), index.suggest("x", 10));
+        assertEquals(Collections.emptyList(), index.suggest("espoon", 10));
+    }
+
+    @Test
+    public void testFind() {
+        WFSSearchIndex index = createIndex();
+        List<WFSSearchIndex.Entry> helsinki = index.find("Helsinki", 10);
+        assertEquals(2, helsinki.size());
+        assertEquals("kunta.91", helsinki.get(0).getId());
+        assertEquals("Uusimaa", helsinki.get(0).getRegion());
+        assertEquals(60.2, helsinki.get(0).getLat(), 0.0001);
+        assertNull(helsinki.get(1).getRegion());
+        assertTrue(index.find("Helsink", 10).isEmpty());
+        assertEquals(3, index.findByPrefix("Helsin", 10).size());
+        assertTrue(WFSSearchIndex.builder().build().find("Helsinki", 10).isEmpty());
+    }
+
+    @Test
+    public void testSearch() {
+        WFSSearchIndex index = createIndex();
+        List<WFSSearchIndex.Entry> result = index.search("helsin", 10);
+        assertEquals("Prefix matches are in index order", 3, result.size());
+        assertEquals("Helsingin pitäjä", result.get(0).getTitle());
+
+        result = index.search("LINNA", 10);
+        assertEquals(1, result.size());
+        assertEquals("kunta.109", result.get(0).getId());
+
+        WFSSearchIndex withExact = WFSSearchIndex.builder()
+                .add("Vantaa", "1", null, 0, 0)
+                .add("Vantaanjoki", "2", null, 0, 0)
+                .add("Lähi-Vantaa", "3", null, 0, 0)
+                .add("Espoo", "4", null, 0, 0)
+                .build();
+        List<String> ids = new ArrayList<>();
+        withExact.search("vantaa", 10).forEach(e -> ids.add(e.getId()));
+        assertEquals("Exact match first, then prefix and substring matches", Arrays.asList("1", "2", "3"), ids);
+        assertEquals(1, withExact.search("vantaa", 1).size());
+        assertTrue(withExact.search(" ", 10).isEmpty());
+        assertTrue(withExact.search("tampere", 10).isEmpty());
+    }
+
+    /**
+     * Rough figures for a gazetteer of 1M names: build time, memory and lookup latency.
+     */
+    @Ignore
+    @Test
+    public void benchmark() {
+        final int count = 1000000;
+        Random random = new Random(1);
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder name = new StringBuilder();
+            int length = 5 + random.nextInt(15);
+            for (int j = 0; j < length; j++) {
+                name.append((char) ('a' + random.nextInt(26)));
+            }
+            names[i] = name.toString();
+        }
+        long start = System.currentTimeMillis();
+        WFSSearchIndex.Builder builder = WFSSearchIndex.builder();
+        for (int i = 0; i < count; i++) {
+            builder.add(names[i], "feature." + i, "region" + (i % 300), 25, 60);
+        }
+        WFSSearchIndex index = builder.build();
+        System.out.println("Build: " + (System.currentTimeMillis() - start) + "ms, index ~" + index.getMemoryUsage() / 1024 / 1024 + "MB");
+
+        int rounds = 100000;
+        int found = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            found += index.suggest(names[i].substring(0, 3), 10).size();
+        }
+        System.out.println("Suggest: " + (System.nanoTime() - start) / rounds / 1000.0 + "us per query, found " + found / rounds);
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            found += index.find(names[i], 10).size();
+        }
+        System.out.println("Find: " + (System.nanoTime() - start) / rounds / 1000.0 + "us per query");
+    }
+}
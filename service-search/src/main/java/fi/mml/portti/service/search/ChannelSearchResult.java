@@ -19,6 +19,7 @@ public class ChannelSearchResult  implements Serializable {
 	private boolean available;
 	private boolean truncated;
 	private boolean queryFailed;
+	private boolean timedOut;
 
 	private List<SearchResultItem> searchResultItems = new ArrayList<>();
 	private String searchMethod;
@@ -35,6 +36,17 @@ public class ChannelSearchResult  implements Serializable {
 		this.queryFailed = queryFailed;
 	}
 
+	/**
+	 * True if the channel didn't respond before its deadline. Query is also marked as failed.
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+
+	public void setTimedOut(boolean timedOut) {
+		this.timedOut = timedOut;
+	}
+
 	public String getChannelId() {
 		return channelId;
 	}
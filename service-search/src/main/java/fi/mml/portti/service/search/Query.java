@@ -2,7 +2,6 @@ package fi.mml.portti.service.search;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -41,25 +40,18 @@ public class Query implements Serializable {
 		return new ChannelSearchResult();
 	}
 
+	/**
+	 * Returns the best results from all channels in ranking order.
+	 * Only the requested amount of results are kept while merging so results from channels
+	 * returning lots of hits are not all sorted.
+	 */
 	public List<SearchResultItem> getSortedResults(int count) {
-
-		List<SearchResultItem> items = new ArrayList<>();
+		SearchResultSink sink = new SearchResultSink(count);
 		for(String channelId : getSearchCriteria().getChannels()) {
-			//log.debug("channelId = " + channelId);
 			ChannelSearchResult result = findResult(channelId);
-			items.addAll(result.getItemsWithTitleAndLocation());
-		}
-
-		Collections.sort(items);
-		return getFirstItems(items, count);
-	}
-
-
-	private static List getFirstItems(List items, int count) {
-		if(count <= items.size()) {
-			return items.subList(0, count);
+			sink.offerAll(result.getItemsWithTitleAndLocation());
 		}
-		return items;
+		return new ArrayList<>(sink.getResults());
 	}
 
 }
@@ -0,0 +1,96 @@
+package fi.mml.portti.service.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the best results offered to it up to a limit. Used for merging the results of
+ * multiple channels without sorting all the results when only the first ones are returned.
+ * Channels still return their full results (capped by maxFeatures) as those are cached and
+ * returned per channel, the sink only bounds the merge.
+ *
+ * Results are ordered like SearchResultItem.compareTo() and results comparing as equal
+ * are kept in the order they were offered so the merged ranking is deterministic and the same
+ * as sorting all results and taking the first ones.
+ */
+public class SearchResultSink {
+
+    private final int limit;
+    private final Comparator<Ranked> order;
+    // worst result on top so it can be replaced by a better one
+    private final PriorityQueue<Ranked> heap;
+    private long sequence = 0;
+    private int offered = 0;
+
+    private static class Ranked {
+        private final SearchResultItem item;
+        private final long sequence;
+
+        Ranked(SearchResultItem item, long sequence) {
+            this.item = item;
+            this.sequence = sequence;
+        }
+    }
+
+    public SearchResultSink(int limit) {
+        this(limit, Comparator.naturalOrder());
+    }
+
+    public SearchResultSink(int limit, Comparator<SearchResultItem> comparator) {
+        this.limit = Math.max(0, limit);
+        this.order = Comparator.<Ranked, SearchResultItem>comparing(r -> r.item, comparator)
+                .thenComparingLong(r -> r.sequence);
+        this.heap = new PriorityQueue<>(Math.max(1, this.limit), order.reversed());
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return amount of results offered to the sink
+     */
+    public synchronized int getOfferedCount() {
+        return offered;
+    }
+
+    /**
+     * @return true if the result is kept (it's better than the worst kept result or the limit hasn't been reached)
+     */
+    public synchronized boolean offer(SearchResultItem item) {
+        offered++;
+        final Ranked ranked = new Ranked(item, sequence++);
+        if (heap.size() < limit) {
+            heap.add(ranked);
+            return true;
+        }
+        if (limit == 0 || order.compare(ranked, heap.peek()) >= 0) {
+            return false;
+        }
+        heap.poll();
+        heap.add(ranked);
+        return true;
+    }
+
+    public synchronized void offerAll(List<SearchResultItem> items) {
+        for (SearchResultItem item : items) {
+            offer(item);
+        }
+    }
+
+    /**
+     * @return kept results in ranking order
+     */
+    public synchronized List<SearchResultItem> getResults() {
+        final List<Ranked> sorted = new ArrayList<>(heap);
+        sorted.sort(order);
+        final List<SearchResultItem> results = new ArrayList<>(sorted.size());
+        for (Ranked ranked : sorted) {
+            results.add(ranked.item);
+        }
+        return Collections.unmodifiableList(results);
+    }
+}
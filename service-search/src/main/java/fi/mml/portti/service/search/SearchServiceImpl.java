@@ -1,12 +1,19 @@
 package fi.mml.portti.service.search;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
 import fi.nls.oskari.annotation.Oskari;
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.cache.ComputeOnceCache;
 import fi.nls.oskari.domain.User;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.search.channel.*;
 import fi.nls.oskari.service.OskariComponentManager;
 import fi.nls.oskari.util.JSONHelper;
+import fi.nls.oskari.util.MetricsHelper;
 import fi.nls.oskari.util.PropertyUtil;
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -14,6 +21,13 @@ import org.json.JSONObject;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 @Oskari
 public class SearchServiceImpl extends SearchService implements SearchChannelChangeListener {
@@ -24,6 +38,22 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
     /** Available channels */
     private volatile Map<String, SearchableChannel> availableChannels = null;
 
+    // channels are queried concurrently with a bounded amount of threads shared by all searches
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+            PropertyUtil.getOptional("search.threads", 16), r -> {
+                Thread t = new Thread(r, "SearchChannel");
+                t.setDaemon(true);
+                return t;
+            });
+    private static final boolean GATHER_METRICS = PropertyUtil.getOptional("search.metrics", true);
+    // same registry as ActionControl so metrics are available with other action metrics
+    private static final MetricRegistry METRICS = SharedMetricRegistries.getOrCreate(MetricsHelper.REGISTRY_NAME);
+    private static final String METRICS_PREFIX = "search.channel.";
+    // results are cached per channel so each channel can have its own ttl: search.channel.[id].cache.ttl or search.cache.ttl in seconds
+    private static final int DEFAULT_CACHE_TTL = 60;
+    private static final int CACHE_LIMIT = 1000;
+    private static final String CACHE_PREFIX = "search.results.";
+
     /**
      * Inits channels
      */
@@ -158,13 +188,13 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
         final Query query = new Query();
         query.setSearchCriteria(searchCriteria);
 
+        final User user = searchCriteria.getUser();
+        final List<SearchableChannel> channels = new ArrayList<>();
         for (String channelId : searchCriteria.getChannels()) {
             if (!availableChannels.containsKey(channelId)) {
                 continue;
             }
-            long timeStart = System.currentTimeMillis();
             SearchableChannel channel = availableChannels.get(channelId);
-            User user = searchCriteria.getUser();
             if(!channel.hasPermission(user)) {
                 // Skipping
                 LOG.debug("Skipping ", channel.getId(), "- User doesn't have permission to access");
@@ -181,18 +211,24 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
                 LOG.debug(e, "Skipping ", channel.getId(), "- criteria not valid");
                 continue;
             }
-            ChannelSearchResult result = handleChannelSearch(searchCriteria, channel);
-            int numResults = -1;
-            if(result != null) {
-                LOG.debug("Result", result);
-                result.setChannelId(channel.getId());
-                query.addChannelSearchResult(result);
-                numResults = result.getNumberOfResults();
-            }
-            long timeEnd = System.currentTimeMillis();
-            LOG.debug("Search query to", channel.getId(),
-                    "took", (timeEnd - timeStart), "ms",
-                    "- got", numResults, "results");
+            channels.add(channel);
+        }
+
+        // failed channels are returned as failed results so results from other channels are still returned
+        final List<ChannelSearchResult> results = searchConcurrently(channels,
+                channel -> getChannelSearchResult(searchCriteria, channel),
+                timedOut -> {
+                    ChannelSearchResult failed = new ChannelSearchResult();
+                    failed.setQueryFailed(true);
+                    failed.setTimedOut(timedOut);
+                    return failed;
+                });
+        for (int i = 0; i < channels.size(); i++) {
+            final SearchableChannel channel = channels.get(i);
+            final ChannelSearchResult result = results.get(i);
+            LOG.debug("Result", result);
+            result.setChannelId(channel.getId());
+            query.addChannelSearchResult(result);
         }
 
         long fullQueryEndTime = System.currentTimeMillis();
@@ -209,39 +245,34 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
 
         long fullQueryStartTime = System.currentTimeMillis();
 
-        List<String> resultList = null;
+        final User user = searchCriteria.getUser();
+        final List<SearchableChannel> channels = new ArrayList<>();
         for (String channelId : searchCriteria.getChannels()) {
-            if (!availableChannels.containsKey(channelId)) {
-                continue;
-            }
-
-            long timeStart = System.currentTimeMillis();
-
             SearchableChannel channel = availableChannels.get(channelId);
-            if (!(channel instanceof SearchAutocomplete)) {
+            if (!isAutocompleteChannel(channel)) {
                 continue;
             }
-
-            User user = searchCriteria.getUser();
             if(!channel.hasPermission(user)) {
                 LOG.debug("Skipping ", channel.getId(), "- User doesn't have permission to access");
                 continue;
             }
+            channels.add(channel);
+        }
 
-
+        final List<List<String>> results = searchConcurrently(channels, channel -> {
             try {
-                 resultList = ((SearchAutocomplete) channel).doSearchAutocomplete(searchCriteria.getSearchString());
+                return ((SearchAutocomplete) channel).doSearchAutocomplete(searchCriteria.getSearchString());
             } catch (Exception e) {
                 LOG.error(e, "Search query to", channel.getId(), "failed! Searchstring was '", searchCriteria.getSearchString(), "'");
-                resultList = new ArrayList<String>();
+                return Collections.emptyList();
             }
-
-            LOG.debug("Result", resultList);
-
-            long timeEnd = System.currentTimeMillis();
-            LOG.debug("Search query to", channel.getId(),
-                    "took", (timeEnd - timeStart), "ms");
+        }, timedOut -> Collections.emptyList());
+        // suggestions from all channels in channel order without duplicates
+        final Set<String> resultList = new LinkedHashSet<>();
+        for (List<String> result : results) {
+            resultList.addAll(result);
         }
+        LOG.debug("Result", resultList);
 
         long fullQueryEndTime = System.currentTimeMillis();
         LOG.debug("Search full query took", (fullQueryEndTime - fullQueryStartTime), "ms");
@@ -252,6 +283,183 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
         return jsonObject;
     }
 
+    /**
+     * Runs the search for each channel concurrently and waits for each channel until its deadline
+     * (search.channel.[id].timeout or search.timeout in milliseconds) measured from the start of the search.
+     * Returns the results in the same order as the channels. For channels that failed or didn't respond in time
+     * the result is created with the failed function, its parameter is true if the channel timed out.
+     */
+    protected static <T> List<T> searchConcurrently(List<SearchableChannel> channels, Function<SearchableChannel, T> search,
+                                                    Function<Boolean, T> failed) {
+        final long start = System.currentTimeMillis();
+        final List<Future<T>> futures = new ArrayList<>(channels.size());
+        for (SearchableChannel channel : channels) {
+            futures.add(EXECUTOR.submit(() -> {
+                final Timer.Context timer = GATHER_METRICS ? METRICS.timer(METRICS_PREFIX + channel.getId()).time() : null;
+                try {
+                    return search.apply(channel);
+                } finally {
+                    if (timer != null) {
+                        timer.stop();
+                    }
+                }
+            }));
+        }
+        final List<T> results = new ArrayList<>(channels.size());
+        for (int i = 0; i < channels.size(); i++) {
+            final String channelId = channels.get(i).getId();
+            final Future<T> future = futures.get(i);
+            final long timeout = SearchChannel.getSearchTimeout(channelId);
+            T result;
+            try {
+                final long wait = Math.max(0, start + timeout - System.currentTimeMillis());
+                result = future.get(wait, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                LOG.warn("Search channel", channelId, "didn't respond in", timeout, "ms - Skipping it");
+                if (GATHER_METRICS) {
+                    METRICS.counter(METRICS_PREFIX + channelId + ".timeout").inc();
+                }
+                future.cancel(true);
+                result = failed.apply(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                result = failed.apply(false);
+            } catch (ExecutionException e) {
+                LOG.error(e.getCause(), "Search query to", channelId, "failed!");
+                if (GATHER_METRICS) {
+                    METRICS.counter(METRICS_PREFIX + channelId + ".error").inc();
+                }
+                result = failed.apply(false);
+            }
+            if (result == null) {
+                result = failed.apply(false);
+            }
+            results.add(result);
+        }
+        LOG.debug("Searching", channels.size(), "channels took", System.currentTimeMillis() - start, "ms");
+        return results;
+    }
+
+    /**
+     * Returns cached results for the channel or searches the channel. Identical concurrent searches
+     * share one request to the channel. If the channel allows it, results for a longer search string
+     * are filtered from cached results of a shorter one.
+     */
+    private ChannelSearchResult getChannelSearchResult(SearchCriteria sc, SearchableChannel channel) {
+        final String query = normalize(sc.getSearchString());
+        if (sc.isReverseGeocode() || query.isEmpty() || getCacheTTL(channel.getId()) <= 0) {
+            return handleChannelSearch(sc, channel);
+        }
+        final ComputeOnceCache<ChannelSearchResult> cache = getResultCache(channel.getId());
+        final String key = getCacheKey(sc, channel.getId(), query);
+        ChannelSearchResult result = cache.get(key);
+        if (result == null) {
+            result = getFilteredResult(cache, sc, channel, query);
+        }
+        if (result == null) {
+            result = cache.get(key, k -> handleChannelSearch(sc, channel));
+            if (result.isQueryFailed()) {
+                // try again on next search
+                cache.remove(key);
+            }
+        }
+        return copy(result);
+    }
+
+    /**
+     * Filters the results from a cached search with a shorter search string if the cached result wasn't truncated
+     * (all matches for the shorter string are included so all matches for the longer one are too).
+     */
+    private ChannelSearchResult getFilteredResult(Cache<ChannelSearchResult> cache, SearchCriteria sc,
+                                                  SearchableChannel channel, String query) {
+        if (!(channel instanceof SearchChannel) || !((SearchChannel) channel).isResultFilterableByPrefix()) {
+            return null;
+        }
+        final SearchChannel searchChannel = (SearchChannel) channel;
+        final int max = searchChannel.getMaxResults(sc.getMaxResults());
+        for (int length = query.length() - 1; length > 0; length--) {
+            final ChannelSearchResult cached = cache.get(getCacheKey(sc, channel.getId(), query.substring(0, length)));
+            if (cached == null) {
+                continue;
+            }
+            if (cached.isTruncated() || cached.isQueryFailed() || cached.getNumberOfResults() >= max) {
+                return null;
+            }
+            final ChannelSearchResult result = copy(cached);
+            final List<SearchResultItem> items = new ArrayList<>();
+            for (SearchResultItem item : cached.getSearchResultItems()) {
+                if (searchChannel.matchesSearchString(item, query)) {
+                    items.add(item);
+                }
+            }
+            result.setSearchResultItems(items);
+            LOG.debug("Filtered", items.size(), "results for", query, "from cached results of", query.substring(0, length));
+            return result;
+        }
+        return null;
+    }
+
+    private static ComputeOnceCache<ChannelSearchResult> getResultCache(String channelId) {
+        return CacheManager.getCache(CACHE_PREFIX + channelId,
+                () -> new ComputeOnceCache<>(CACHE_LIMIT, TimeUnit.SECONDS.toMillis(getCacheTTL(channelId))));
+    }
+
+    private static int getCacheTTL(String channelId) {
+        return PropertyUtil.getOptional("search.channel." + channelId + ".cache.ttl",
+                PropertyUtil.getOptional("search.cache.ttl", DEFAULT_CACHE_TTL));
+    }
+
+    /**
+     * Flushes cached results for all channels
+     */
+    public static void flushResultCache() {
+        for (String name : CacheManager.getCacheNames()) {
+            if (name.startsWith(CACHE_PREFIX)) {
+                CacheManager.getCache(name).flush(true);
+            }
+        }
+    }
+
+    protected static String normalize(String query) {
+        if (query == null) {
+            return "";
+        }
+        return query.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Everything affecting the results except the channel (each channel has its own cache).
+     * The query is last so keys for shorter search strings are easy to construct.
+     */
+    protected static String getCacheKey(SearchCriteria sc, String channelId, String normalizedQuery) {
+        final StringBuilder key = new StringBuilder(channelId)
+                .append('|').append(sc.getLocale())
+                .append('|').append(sc.getSRS())
+                .append('|').append(sc.getMaxResults());
+        if (!sc.getParams().isEmpty()) {
+            key.append('|').append(new TreeMap<>(sc.getParams()));
+        }
+        if (sc.getFromDate() != null || sc.getToDate() != null) {
+            key.append('|').append(sc.getFromDate()).append('|').append(sc.getToDate());
+        }
+        return key.append('|').append(normalizedQuery).toString();
+    }
+
+    /**
+     * Cached results are shared so the results returned are copies. The items are used as is.
+     */
+    private static ChannelSearchResult copy(ChannelSearchResult cached) {
+        final ChannelSearchResult result = new ChannelSearchResult();
+        result.setChannelId(cached.getChannelId());
+        result.setAvailable(cached.isAvailable());
+        result.setTruncated(cached.isTruncated());
+        result.setQueryFailed(cached.isQueryFailed());
+        result.setSearchMethod(cached.getSearchMethod());
+        result.setSearchResultItems(new ArrayList<>(cached.getSearchResultItems()));
+        return result;
+    }
+
     /**
      * Handles actual channel search and catches exceptions
      *
@@ -308,13 +516,17 @@ public class SearchServiceImpl extends SearchService implements SearchChannelCha
 
     public boolean isAvailableAutocompleteChannels() {
         for (Map.Entry<String, SearchableChannel> channel : getAvailableChannels().entrySet()) {
-            if ((channel.getValue() instanceof SearchAutocomplete)) {
+            if (isAutocompleteChannel(channel.getValue())) {
                 return true;
             }
         }
         return false;
     }
 
+    private static boolean isAutocompleteChannel(SearchableChannel channel) {
+        return channel instanceof SearchAutocomplete && ((SearchAutocomplete) channel).isAutocompleteAvailable();
+    }
+
     private void printsc(SearchCriteria searchCriteria) {
         LOG.debug("printing SearchCriteria");
 
@@ -20,6 +20,7 @@ public class SearchWorker {
     public static final String KEY_LOCATIONS = "locations";
     public static final String KEY_METHODS = "methods";
     public static final String KEY_HAS_MORE = "hasMore";
+    public static final String KEY_TIMED_OUT = "timedOut";
 
 
     public static final String ERR_EMPTY = "cannot_be_empty";
@@ -122,10 +123,19 @@ public class SearchWorker {
         JSONHelper.putValue(result, KEY_LOCATIONS, itemArray);
 
         JSONArray methodArray = new JSONArray();
+        // channels that didn't respond in time, results are from the other channels
+        JSONArray timedOut = new JSONArray();
         for (String channelId : sc.getChannels()) {
-            methodArray.put(JSONHelper.createJSONObject(channelId, !query.findResult(channelId).isQueryFailed()));
+            ChannelSearchResult channelResult = query.findResult(channelId);
+            methodArray.put(JSONHelper.createJSONObject(channelId, !channelResult.isQueryFailed()));
+            if (channelResult.isTimedOut()) {
+                timedOut.put(channelId);
+            }
         }
         JSONHelper.putValue(result, KEY_METHODS, methodArray);
+        if (timedOut.length() > 0) {
+            JSONHelper.putValue(result, KEY_TIMED_OUT, timedOut);
+        }
         return result;
     }
 }
@@ -4,4 +4,12 @@ import java.util.List;
 
 public interface SearchAutocomplete {
     List<String> doSearchAutocomplete(String searchString);
+
+    /**
+     * Channels that can provide suggestions only with some configurations can override this
+     * @return false if the channel doesn't provide suggestions
+     */
+    default boolean isAutocompleteAvailable() {
+        return true;
+    }
 }
\ No newline at end of file
@@ -24,10 +24,14 @@ public abstract class SearchChannel extends OskariComponent implements Searchabl
 
 
     private static Logger log = LogFactory.getLogger(SearchChannel.class);
+    // default time to wait for a channel in ms, configurable with search.timeout and per channel with search.channel.[id].timeout
+    private static final int DEFAULT_TIMEOUT = 10000;
     private Map<String, Double> mapScalesForType = new HashMap<String, Double>();
     private double defaultScale = -1;
     private Map<String, Double> ranksForType = new HashMap<>();
     private int defaultRank = -1;
+    private double rankBest = -1;
+    private double rankWorst = -1;
     // store encountered types here to only log about possible configs for new types
     private Set<String> types = new HashSet<String>();
     private int maxCount = 100;
@@ -41,6 +45,8 @@ public abstract class SearchChannel extends OskariComponent implements Searchabl
         defaultScale = PropertyUtil.getOptional("search.channel." + getName() + ".scale", -1);
         initTypeMap("scale", mapScalesForType);
         initTypeMap("rank", ranksForType);
+        rankBest = PropertyUtil.getOptional("search.channel." + getName() + ".rankBest", -1d);
+        rankWorst = PropertyUtil.getOptional("search.channel." + getName() + ".rankWorst", -1d);
         maxCount = PropertyUtil.getOptional("search.channel." + getName() + ".maxFeatures",
                 PropertyUtil.getOptional("search.max.results", maxCount));
     }
@@ -130,6 +136,28 @@ public abstract class SearchChannel extends OskariComponent implements Searchabl
      */
     public boolean hasPermission(User user) { return true; }
 
+    /**
+     * Defaults to false. Channels that match the search string to the result titles (like prefix/substring searches)
+     * can return true or it can be set with properties:
+     *  search.channel.CHANNEL_ID.cache.prefixFilter=true
+     * When true the results for "helsi" can be filtered from cached (non-truncated) results of "hel".
+     * @return
+     */
+    public boolean isResultFilterableByPrefix() {
+        return PropertyUtil.getOptional("search.channel." + getId() + ".cache.prefixFilter", false);
+    }
+
+    /**
+     * Used when filtering cached results of a shorter search string. Matches the title with the search string.
+     * @param item result item from a cached search
+     * @param normalizedQuery lower case search string
+     * @return true if the item would be a result for the search string
+     */
+    public boolean matchesSearchString(SearchResultItem item, String normalizedQuery) {
+        final String title = item.getTitle();
+        return title != null && title.toLowerCase(Locale.ROOT).contains(normalizedQuery);
+    }
+
     /**
      * Returns debug data for search channels that can then be shown in UI.
      * Not to be used by "production code", but for debugging only!
@@ -187,6 +215,7 @@ public abstract class SearchChannel extends OskariComponent implements Searchabl
         item.setChannelId(getName());
         final String type = item.getType();
         if(type == null) {
+            item.setRank(getNormalizedRank(item.getRank()));
             return;
         }
         if(!types.contains(type)) {
@@ -200,8 +229,24 @@ public abstract class SearchChannel extends OskariComponent implements Searchabl
         if(item.getRank() == -1) {
             item.setRank(getRank(type));
         }
-        // TODO: setup normalized ranking/channel here
-        // maybe add SearchChannel.getMaxRank/getMinRank and normalize through channels
+        item.setRank(getNormalizedRank(item.getRank()));
+    }
+
+    /**
+     * Ranks are compared between results from all channels when the results are merged (smaller rank first).
+     * Channels using a different scale for rank can be normalized to 0-100 with properties:
+     *  search.channel.CHANNEL_ID.rankBest=100
+     *  search.channel.CHANNEL_ID.rankWorst=0
+     * Values outside the range are clamped. Rank is returned as is if the range isn't configured.
+     * @param rank rank in channels own scale
+     * @return rank in common scale
+     */
+    public int getNormalizedRank(int rank) {
+        if (rankBest == -1 || rankWorst == -1 || rankBest == rankWorst || rank == -1) {
+            return rank;
+        }
+        double normalized = 100d * (rank - rankBest) / (rankWorst - rankBest);
+        return (int) Math.round(Math.max(0, Math.min(100, normalized)));
     }
 
 
@@ -220,11 +265,30 @@ public abstract class SearchChannel extends OskariComponent implements Searchabl
         return value;
     }
 
+    /**
+     * Time to wait for the channel in milliseconds: search.channel.[id].timeout or search.timeout
+     */
+    public static int getSearchTimeout(String channelId) {
+        return PropertyUtil.getOptional("search.channel." + channelId + ".timeout",
+                PropertyUtil.getOptional("search.timeout", DEFAULT_TIMEOUT));
+    }
+
+    /**
+     * Connections time out with the search so threads searching the channel are released soon after
+     * the search has stopped waiting for the channel.
+     */
+    private HttpURLConnection setupTimeouts(HttpURLConnection conn) {
+        final int timeout = getSearchTimeout(getId());
+        conn.setConnectTimeout(Math.min(conn.getConnectTimeout(), timeout));
+        conn.setReadTimeout(timeout);
+        return conn;
+    }
+
     public HttpURLConnection getConnection(final String url) {
         try {
             final String propertyPrefix = "search.channel." + getName() + ".service.";
             log.info("Creating search url with url:", url, "and properties prefixed with", propertyPrefix);
-            return IOHelper.getConnectionFromProps(url, propertyPrefix);
+            return setupTimeouts(IOHelper.getConnectionFromProps(url, propertyPrefix));
         }
         catch (Exception ex) {
             log.error("Couldn't open connection for search channel!");
@@ -236,7 +300,7 @@ public abstract class SearchChannel extends OskariComponent implements Searchabl
         try {
             final String propertyPrefix = "search.channel." + getName() + ".service.";
             log.info("Creating search url with properties prefixed", propertyPrefix);
-            return IOHelper.getConnectionFromProps(propertyPrefix);
+            return setupTimeouts(IOHelper.getConnectionFromProps(propertyPrefix));
         }
         catch (Exception ex) {
             log.error("Couldn't open connection for search channel!");
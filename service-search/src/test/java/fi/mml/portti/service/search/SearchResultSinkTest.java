@@ -0,0 +1,123 @@
+package fi.mml.portti.service.search;
+
+import fi.nls.oskari.search.channel.SearchChannel;
+import fi.nls.oskari.util.PropertyUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SearchResultSinkTest {
+
+    @After
+    public void tearDown() {
+        PropertyUtil.clearProperties();
+    }
+
+    @Test
+    public void testSameAsSortingAll() {
+        Random random = new Random(1);
+        List<SearchResultItem> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            // lots of equal ranks and titles to check ties are resolved in offered order
+            items.add(createItem("Title " + random.nextInt(50), random.nextInt(10)));
+        }
+        SearchResultSink sink = new SearchResultSink(20);
+        sink.offerAll(items);
+
+        List<SearchResultItem> sorted = new ArrayList<>(items);
+        Collections.sort(sorted);
+        assertEquals(sorted.subList(0, 20), sink.getResults());
+        assertEquals(1000, sink.getOfferedCount());
+    }
+
+    @Test
+    public void testOfferTellsIfResultIsKept() {
+        SearchResultSink sink = new SearchResultSink(2);
+        assertTrue(sink.offer(createItem("Espoo", 5)));
+        assertTrue(sink.offer(createItem("Helsinki", 5)));
+        assertFalse("Worse than the kept results", sink.offer(createItem("Vantaa", 10)));
+        SearchResultItem equal = createItem("Helsinki", 5);
+        assertFalse("Equal to worst kept result, first one is kept", sink.offer(equal));
+        assertTrue(sink.offer(createItem("Turku", 1)));
+        assertEquals("Turku", sink.getResults().get(0).getTitle());
+        assertEquals("Espoo", sink.getResults().get(1).getTitle());
+        assertFalse(sink.getResults().contains(equal));
+
+        assertFalse(new SearchResultSink(0).offer(createItem("Espoo", 0)));
+        assertTrue(new SearchResultSink(0).getResults().isEmpty());
+    }
+
+    @Test
+    public void testMergedResultsWithNormalizedRanks() throws Exception {
+        // channel ranks by importance where bigger is better
+        PropertyUtil.addProperty("search.channel.importance.rankBest", "1000");
+        PropertyUtil.addProperty("search.channel.importance.rankWorst", "0");
+        SearchChannel importance = new RankChannel("importance");
+        importance.init();
+        SearchChannel plain = new RankChannel("plain");
+        plain.init();
+
+        assertEquals(0, importance.getNormalizedRank(1000));
+        assertEquals(75, importance.getNormalizedRank(250));
+        assertEquals("Clamped to range", 100, importance.getNormalizedRank(-50));
+        assertEquals(-1, importance.getNormalizedRank(-1));
+        assertEquals("Not normalized without config", 250, plain.getNormalizedRank(250));
+
+        ChannelSearchResult first = new ChannelSearchResult();
+        first.setChannelId("importance");
+        first.addItem(createItem(importance, "Tampere", 900));
+        first.addItem(createItem(importance, "Pori", 100));
+        ChannelSearchResult second = new ChannelSearchResult();
+        second.setChannelId("plain");
+        second.addItem(createItem(plain, "Oulu", 50));
+        second.addItem(createItem(plain, "Kemi", 95));
+
+        SearchCriteria sc = new SearchCriteria();
+        sc.addChannel("importance");
+        sc.addChannel("plain");
+        Query query = new Query();
+        query.setSearchCriteria(sc);
+        query.addChannelSearchResult(first);
+        query.addChannelSearchResult(second);
+
+        List<SearchResultItem> results = query.getSortedResults(3);
+        assertEquals(3, results.size());
+        assertEquals("Tampere", results.get(0).getTitle());
+        assertEquals("Oulu", results.get(1).getTitle());
+        assertEquals("Pori", results.get(2).getTitle());
+    }
+
+    private static SearchResultItem createItem(String title, int rank) {
+        SearchResultItem item = new SearchResultItem();
+        item.setTitle(title);
+        item.setRank(rank);
+        item.setLat(60d);
+        item.setLon(25d);
+        return item;
+    }
+
+    private static SearchResultItem createItem(SearchChannel channel, String title, int rank) {
+        SearchResultItem item = createItem(title, rank);
+        channel.calculateCommonFields(item);
+        return item;
+    }
+
+    private static class RankChannel extends SearchChannel {
+        private final String id;
+
+        RankChannel(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getName() {
+            return id;
+        }
+    }
+}
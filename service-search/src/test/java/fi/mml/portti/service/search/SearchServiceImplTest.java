@@ -0,0 +1,184 @@
+package fi.mml.portti.service.search;
+
+import fi.nls.oskari.search.channel.SearchChannel;
+import fi.nls.oskari.search.channel.SearchableChannel;
+import fi.nls.oskari.util.PropertyUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SearchServiceImplTest {
+
+    @After
+    public void tearDown() {
+        PropertyUtil.clearProperties();
+        SearchServiceImpl.flushResultCache();
+    }
+
+    @Test
+    public void testChannelsAreSearchedConcurrently() {
+        SearchServiceImpl service = createService(new DelayedChannel("first", 300), new DelayedChannel("second", 300));
+        SearchCriteria sc = createCriteria("first", "second");
+
+        long start = System.currentTimeMillis();
+        Query query = service.doSearch(sc);
+        long took = System.currentTimeMillis() - start;
+
+        assertTrue("Channels should be searched concurrently, took " + took + "ms", took < 550);
+        assertEquals(1, query.findResult("first").getNumberOfResults());
+        assertEquals(1, query.findResult("second").getNumberOfResults());
+        assertFalse(query.findResult("second").isQueryFailed());
+    }
+
+    @Test
+    public void testSlowChannelTimesOut() throws Exception {
+        PropertyUtil.addProperty("search.channel.slow.timeout", "100");
+        SearchServiceImpl service = createService(new DelayedChannel("fast", 0), new DelayedChannel("slow", 2000));
+        SearchCriteria sc = createCriteria("slow", "fast");
+
+        long start = System.currentTimeMillis();
+        Query query = service.doSearch(sc);
+        long took = System.currentTimeMillis() - start;
+
+        assertTrue("Slow channel shouldn't block the response, took " + took + "ms", took < 1000);
+        ChannelSearchResult slow = query.findResult("slow");
+        assertTrue(slow.isTimedOut());
+        assertTrue(slow.isQueryFailed());
+        assertEquals(0, slow.getNumberOfResults());
+        assertEquals("Results from other channels are returned", 1, query.findResult("fast").getNumberOfResults());
+        assertFalse(query.findResult("fast").isTimedOut());
+    }
+
+    @Test
+    public void testFailedChannelIsNotReportedAsTimedOut() {
+        List<SearchableChannel> channels = Arrays.asList(new DelayedChannel("ok", 0), new DelayedChannel("broken", 0));
+        List<String> results = SearchServiceImpl.searchConcurrently(channels, channel -> {
+            if ("broken".equals(channel.getId())) {
+                throw new IllegalStateException("Channel failed");
+            }
+            return channel.getId();
+        }, timedOut -> timedOut ? "timeout" : "error");
+        assertEquals(Arrays.asList("ok", "error"), results);
+    }
+
+    @Test
+    public void testResultsAreCachedByNormalizedQuery() {
+        DelayedChannel channel = new DelayedChannel("cached", 0);
+        SearchServiceImpl service = createService(channel);
+
+        assertEquals(1, service.doSearch(createCriteriaWithQuery("Helsinki", "cached")).findResult("cached").getNumberOfResults());
+        assertEquals(1, service.doSearch(createCriteriaWithQuery("  helsinki ", "cached")).findResult("cached").getNumberOfResults());
+        assertEquals("Same query with different case is served from cache", 1, channel.searches.get());
+
+        SearchCriteria other = createCriteriaWithQuery("helsinki", "cached");
+        other.setSRS("EPSG:4326");
+        service.doSearch(other);
+        assertEquals("Different SRS is a different query", 2, channel.searches.get());
+    }
+
+    @Test
+    public void testConcurrentSearchesShareRequest() throws Exception {
+        DelayedChannel channel = new DelayedChannel("shared", 300);
+        SearchServiceImpl service = createService(channel);
+
+        CompletableFuture<Query> first = CompletableFuture.supplyAsync(() -> service.doSearch(createCriteriaWithQuery("Espoo", "shared")));
+        CompletableFuture<Query> second = CompletableFuture.supplyAsync(() -> service.doSearch(createCriteriaWithQuery("espoo", "shared")));
+        assertEquals(1, first.get().findResult("shared").getNumberOfResults());
+        assertEquals(1, second.get().findResult("shared").getNumberOfResults());
+        assertEquals(1, channel.searches.get());
+    }
+
+    @Test
+    public void testLongerQueryIsFilteredFromCachedResults() throws Exception {
+        PropertyUtil.addProperty("search.channel.prefix.cache.prefixFilter", "true");
+        DelayedChannel channel = new DelayedChannel("prefix", 0);
+        SearchServiceImpl service = createService(channel);
+
+        service.doSearch(createCriteriaWithQuery("Hel", "prefix"));
+        assertEquals(1, channel.searches.get());
+        // cached result has title "Hel city"
+        ChannelSearchResult result = service.doSearch(createCriteriaWithQuery("Hel Ci", "prefix")).findResult("prefix");
+        assertEquals(1, result.getNumberOfResults());
+        assertEquals("Hel city", result.getSearchResultItems().get(0).getTitle());
+        assertEquals(1, channel.searches.get());
+
+        assertEquals("Nothing matches the longer query", 0,
+                service.doSearch(createCriteriaWithQuery("Help", "prefix")).findResult("prefix").getNumberOfResults());
+        assertEquals(1, channel.searches.get());
+
+        // channel without prefix filtering is always searched
+        DelayedChannel noPrefix = new DelayedChannel("noprefix", 0);
+        service = createService(noPrefix);
+        service.doSearch(createCriteriaWithQuery("Hel", "noprefix"));
+        service.doSearch(createCriteriaWithQuery("Help", "noprefix"));
+        assertEquals(2, noPrefix.searches.get());
+    }
+
+    @Test
+    public void testCacheCanBeDisabled() throws Exception {
+        PropertyUtil.addProperty("search.channel.nocache.cache.ttl", "0");
+        DelayedChannel channel = new DelayedChannel("nocache", 0);
+        SearchServiceImpl service = createService(channel);
+        service.doSearch(createCriteriaWithQuery("Helsinki", "nocache"));
+        service.doSearch(createCriteriaWithQuery("Helsinki", "nocache"));
+        assertEquals(2, channel.searches.get());
+    }
+
+    private SearchServiceImpl createService(SearchChannel... channels) {
+        SearchServiceImpl service = new SearchServiceImpl();
+        for (SearchChannel channel : channels) {
+            service.addChannel(channel.getId(), channel);
+        }
+        return service;
+    }
+
+    private SearchCriteria createCriteria(String... channels) {
+        return createCriteriaWithQuery("Helsinki", channels);
+    }
+
+    private SearchCriteria createCriteriaWithQuery(String query, String... channels) {
+        SearchCriteria sc = new SearchCriteria();
+        sc.setSearchString(query);
+        for (String channel : channels) {
+            sc.addChannel(channel);
+        }
+        return sc;
+    }
+
+    private static class DelayedChannel extends SearchChannel {
+        private final String id;
+        private final long delay;
+        private final AtomicInteger searches = new AtomicInteger();
+
+        DelayedChannel(String id, long delay) {
+            this.id = id;
+            this.delay = delay;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public ChannelSearchResult doSearch(SearchCriteria searchCriteria) {
+            searches.incrementAndGet();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            ChannelSearchResult result = new ChannelSearchResult();
+            SearchResultItem item = new SearchResultItem();
+            item.setTitle(searchCriteria.getSearchString() + " city");
+            result.addItem(item);
+            return result;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package fi.nls.oskari.control.statistics;
 import fi.nls.oskari.domain.geo.Point;
 import fi.nls.oskari.util.JSONHelper;
 import org.json.JSONObject;
+import org.locationtech.jts.geom.Geometry;
 
 /**
  * Pairs of region codes and their respective names read from the geoserver layer region attributes.
@@ -18,6 +19,7 @@ public class Region {
     private String code;
     private String name;
     private JSONObject geojson;
+    private Geometry geometry;
     private Point pointOnSurface;
 
     public Region(String code, String name) {
@@ -33,6 +35,17 @@ public class Region {
         this.geojson = geojson;
     }
 
+    /**
+     * Original geometry of the region, used for creating simplified geometries
+     */
+    public Geometry getGeometry() {
+        return geometry;
+    }
+
+    public void setGeometry(Geometry geometry) {
+        this.geometry = geometry;
+    }
+
     public String getCode() {
         return code;
     }
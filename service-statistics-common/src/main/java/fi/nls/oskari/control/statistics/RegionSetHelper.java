@@ -27,6 +27,7 @@ import org.oskari.geojson.GeoJSON;
 import org.oskari.geojson.GeoJSONWriter;
 
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
 
 import fi.nls.oskari.control.statistics.db.RegionSet;
 import fi.nls.oskari.domain.geo.Point;
@@ -169,7 +170,8 @@ public class RegionSetHelper {
                 Region region = new Region(id, name);
                 try {
                     region.setPointOnSurface(getPointOnSurface(feature));
-                    region.setGeojson(toGeoJSON((Geometry) feature.getDefaultGeometry(), id, name));
+                    region.setGeometry((Geometry) feature.getDefaultGeometry());
+                    region.setGeojson(toGeoJSON(region.getGeometry(), id, name));
                     nameCodes.add(region);
                 } catch (Exception ex) {
                     LOG.warn("Region had invalid geometry:", region, "Error:", ex.getMessage());
@@ -185,6 +187,45 @@ public class RegionSetHelper {
         }
     }
 
+    /**
+     * Replaces the GeoJSON of the regions with geometries simplified with the tolerance.
+     * Neighbouring regions stay seamless, see RegionTopology.
+     */
+    public static void simplify(List<Region> regions, double tolerance) throws JSONException {
+        final RegionTopology topology = RegionTopology.build(getGeometries(regions), tolerance);
+        final GeometryFactory factory = new GeometryFactory();
+        for (int i = 0; i < regions.size(); i++) {
+            final Region region = regions.get(i);
+            final Geometry geometry = topology.getGeometry(i, factory);
+            if (geometry != null) {
+                region.setGeojson(toGeoJSON(geometry, region.getCode(), region.getName()));
+            }
+        }
+    }
+
+    /**
+     * TopoJSON for the regions with geometries simplified with the tolerance. The regions are
+     * in "objects.regions" with region id as id and id and name in properties like in the GeoJSON.
+     */
+    public static JSONObject toTopoJSON(List<Region> regions, double tolerance) throws JSONException {
+        final RegionTopology topology = RegionTopology.build(getGeometries(regions), tolerance);
+        final List<JSONObject> properties = new ArrayList<>(regions.size());
+        for (Region region : regions) {
+            JSONObject props = JSONHelper.createJSONObject(Region.KEY_CODE, region.getCode());
+            JSONHelper.putValue(props, Region.KEY_NAME, region.getName());
+            properties.add(props);
+        }
+        return topology.toTopoJSON(properties);
+    }
+
+    private static List<Geometry> getGeometries(List<Region> regions) {
+        final List<Geometry> geometries = new ArrayList<>(regions.size());
+        for (Region region : regions) {
+            geometries.add(region.getGeometry());
+        }
+        return geometries;
+    }
+
     protected static JSONObject toGeoJSON(Geometry geom, String id, String name) throws JSONException {
         JSONObject feature = new JSONObject();
         JSONHelper.putValue(feature, GeoJSON.TYPE, GeoJSON.FEATURE);
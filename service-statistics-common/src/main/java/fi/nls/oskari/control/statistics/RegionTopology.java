@@ -0,0 +1,577 @@
+package fi.nls.oskari.control.statistics;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.Polygon;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Simplified geometries for the regions of a regionset.
+ *
+ * Coordinates are first snapped to a grid (quantized) so boundaries shared by neighbouring regions have
+ * identical vertices. The boundaries are then split to arcs at points where the neighbouring regions change
+ * and each arc is simplified once (Douglas-Peucker) so the simplified regions stay seamless with their neighbours.
+ * Rings that collapse at the tolerance (like small islands) are dropped. If nothing is left of a region
+ * the unsimplified outer rings are used so regions don't disappear from the map.
+ *
+ * The result can be written as GeoJSON geometry per region or as TopoJSON where the shared arcs are written once.
+ */
+public class RegionTopology {
+
+    private static final String KEY_TYPE = "type";
+    private static final String KEY_ARCS = "arcs";
+
+    private final double step;
+    // arcs as quantized points, x in the high and y in the low 32 bits
+    private final List<long[]> arcs = new ArrayList<>();
+    private final List<long[]> simplified = new ArrayList<>();
+    // region -> polygon -> ring (shell first) -> arc references, ~index (negative) for reversed arcs
+    private final List<List<List<int[]>>> regions = new ArrayList<>();
+
+    private RegionTopology(double step) {
+        this.step = step;
+    }
+
+    /**
+     * Snaps a map resolution (units per pixel) to tolerance levels (powers of two) so a limited amount of
+     * simplified versions of a regionset is produced and cached.
+     */
+    public static double getTolerance(double resolution) {
+        if (!(resolution > 0) || Double.isInfinite(resolution)) {
+            return 0;
+        }
+        return Math.pow(2, Math.floor(Math.log(resolution) / Math.log(2)));
+    }
+
+    /**
+     * Grid size for coordinates: a power of ten small enough to not be visible at the tolerance.
+     * Powers of ten keep the written coordinates short.
+     */
+    protected static double getQuantizationStep(double tolerance) {
+        return Math.pow(10, Math.floor(Math.log10(tolerance / 4)));
+    }
+
+    /**
+     * @param geometries (Multi)Polygons of the regions, other geometries result in empty regions
+     * @param tolerance max distance of the simplified boundary from the original in map units
+     */
+    public static RegionTopology build(List<Geometry> geometries, double tolerance) {
+        if (!(tolerance > 0)) {
+            throw new IllegalArgumentException("Tolerance must be positive");
+        }
+        double step = getQuantizationStep(tolerance);
+        double max = 0;
+        for (Geometry geometry : geometries) {
+            if (geometry != null && !geometry.isEmpty()) {
+                final Envelope env = geometry.getEnvelopeInternal();
+                max = Math.max(max, Math.max(Math.max(Math.abs(env.getMinX()), Math.abs(env.getMaxX())),
+                        Math.max(Math.abs(env.getMinY()), Math.abs(env.getMaxY()))));
+            }
+        }
+        while (max / step >= Integer.MAX_VALUE) {
+            // grid coordinates need to fit in an int
+            step *= 10;
+        }
+        final RegionTopology topology = new RegionTopology(step);
+        // region -> polygon -> ring as quantized points (without closing point)
+        final List<List<List<long[]>>> rings = new ArrayList<>(geometries.size());
+        for (Geometry geometry : geometries) {
+            rings.add(topology.quantize(geometry));
+        }
+        final Set<Long> junctions = findJunctions(rings);
+        final Map<ArcKey, Integer> arcIndex = new HashMap<>();
+        for (List<List<long[]>> polygons : rings) {
+            final List<List<int[]>> region = new ArrayList<>(polygons.size());
+            for (List<long[]> polygon : polygons) {
+                final List<int[]> refs = new ArrayList<>(polygon.size());
+                for (long[] ring : polygon) {
+                    refs.add(topology.splitToArcs(ring, junctions, arcIndex));
+                }
+                region.add(refs);
+            }
+            topology.regions.add(region);
+        }
+        final double gridTolerance = tolerance / topology.step;
+        for (long[] arc : topology.arcs) {
+            topology.simplified.add(simplify(arc, gridTolerance));
+        }
+        return topology;
+    }
+
+    public int size() {
+        return regions.size();
+    }
+
+    public double getQuantizationStep() {
+        return step;
+    }
+
+    /**
+     * Simplified geometry for the region with given index (same order as the geometries given to build()).
+     * Returns null if the region didn't have polygons.
+     */
+    public Geometry getGeometry(int index, GeometryFactory factory) {
+        final List<List<long[]>> polygons = getRings(index);
+        if (polygons.isEmpty()) {
+            return null;
+        }
+        final Polygon[] list = new Polygon[polygons.size()];
+        for (int i = 0; i < list.length; i++) {
+            final List<long[]> rings = polygons.get(i);
+            final LinearRing shell = factory.createLinearRing(toCoordinates(rings.get(0)));
+            final LinearRing[] holes = new LinearRing[rings.size() - 1];
+            for (int h = 0; h < holes.length; h++) {
+                holes[h] = factory.createLinearRing(toCoordinates(rings.get(h + 1)));
+            }
+            list[i] = factory.createPolygon(shell, holes);
+        }
+        return list.length == 1 ? list[0] : factory.createMultiPolygon(list);
+    }
+
+    /**
+     * TopoJSON topology with the regions as a GeometryCollection named "regions".
+     * Arcs are delta-encoded quantized positions, the transform is used to get the map coordinates.
+     * @param properties properties for each region, in the same order as the geometries given to build()
+     */
+    public JSONObject toTopoJSON(List<JSONObject> properties) throws JSONException {
+        final JSONObject topology = new JSONObject();
+        topology.put(KEY_TYPE, "Topology");
+        final JSONObject transform = new JSONObject();
+        transform.put("scale", new JSONArray().put(step).put(step));
+        transform.put("translate", new JSONArray().put(0).put(0));
+        topology.put("transform", transform);
+
+        final List<long[]> written = new ArrayList<>(simplified);
+        final JSONArray geometries = new JSONArray();
+        for (int i = 0; i < regions.size(); i++) {
+            List<List<int[]>> polygons = getArcs(i);
+            if (polygons.isEmpty()) {
+                // everything collapsed, keep the region with unsimplified shells written as extra arcs
+                polygons = new ArrayList<>();
+                for (List<int[]> polygon : regions.get(i)) {
+                    final long[] shell = join(polygon.get(0), arcs);
+                    if (isValidRing(shell)) {
+                        written.add(shell);
+                        polygons.add(Collections.singletonList(new int[] { written.size() - 1 }));
+                    }
+                }
+            }
+            final JSONObject geometry = new JSONObject();
+            if (polygons.isEmpty()) {
+                geometry.put(KEY_TYPE, JSONObject.NULL);
+            } else {
+                final JSONArray polygonsJSON = new JSONArray();
+                for (List<int[]> polygon : polygons) {
+                    final JSONArray ringsJSON = new JSONArray();
+                    for (int[] ring : polygon) {
+                        final JSONArray refs = new JSONArray();
+                        for (int ref : ring) {
+                            refs.put(ref);
+                        }
+                        ringsJSON.put(refs);
+                    }
+                    polygonsJSON.put(ringsJSON);
+                }
+                final boolean single = polygons.size() == 1;
+                geometry.put(KEY_TYPE, single ? "Polygon" : "MultiPolygon");
+                geometry.put(KEY_ARCS, single ? polygonsJSON.get(0) : polygonsJSON);
+            }
+            if (properties != null && i < properties.size()) {
+                final JSONObject props = properties.get(i);
+                geometry.putOpt("id", props.opt(Region.KEY_CODE));
+                geometry.put("properties", props);
+            }
+            geometries.put(geometry);
+        }
+
+        final JSONArray arcsJSON = new JSONArray();
+        for (long[] arc : written) {
+            final JSONArray positions = new JSONArray();
+            long previous = 0;
+            for (long point : arc) {
+                positions.put(new JSONArray().put(x(point) - x(previous)).put(y(point) - y(previous)));
+                previous = point;
+            }
+            arcsJSON.put(positions);
+        }
+        topology.put(KEY_ARCS, arcsJSON);
+
+        final JSONObject collection = new JSONObject();
+        collection.put(KEY_TYPE, "GeometryCollection");
+        collection.put("geometries", geometries);
+        topology.put("objects", new JSONObject().put("regions", collection));
+        return topology;
+    }
+
+    /**
+     * Arc references of the rings that are kept after simplification. Collapsed rings are dropped
+     * unless the region would be left empty, in which case the unsimplified arcs are used.
+     */
+    private List<List<int[]>> getArcs(int index) {
+        final List<List<int[]>> polygons = new ArrayList<>();
+        for (List<int[]> polygon : regions.get(index)) {
+            if (!isValidRing(join(polygon.get(0), simplified))) {
+                continue;
+            }
+            final List<int[]> rings = new ArrayList<>();
+            rings.add(polygon.get(0));
+            for (int i = 1; i < polygon.size(); i++) {
+                if (isValidRing(join(polygon.get(i), simplified))) {
+                    rings.add(polygon.get(i));
+                }
+            }
+            polygons.add(rings);
+        }
+        return polygons;
+    }
+
+    private List<List<long[]>> getRings(int index) {
+        final List<List<long[]>> polygons = new ArrayList<>();
+        for (List<int[]> polygon : getArcs(index)) {
+            final List<long[]> rings = new ArrayList<>();
+            for (int[] ring : polygon) {
+                rings.add(join(ring, simplified));
+            }
+            polygons.add(rings);
+        }
+        if (polygons.isEmpty()) {
+            // everything collapsed, keep the region with unsimplified geometry
+            for (List<int[]> polygon : regions.get(index)) {
+                final long[] shell = join(polygon.get(0), arcs);
+                if (!isValidRing(shell)) {
+                    continue;
+                }
+                final List<long[]> rings = new ArrayList<>();
+                rings.add(shell);
+                polygons.add(rings);
+            }
+        }
+        return polygons;
+    }
+
+    private static boolean isValidRing(long[] ring) {
+        if (ring.length < 4) {
+            return false;
+        }
+        final Set<Long> distinct = new HashSet<>();
+        for (long point : ring) {
+            distinct.add(point);
+            if (distinct.size() >= 3) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Closed ring from arcs, the first point of each arc is the last point of the previous one
+     */
+    private static long[] join(int[] refs, List<long[]> arcs) {
+        int length = 1;
+        for (int ref : refs) {
+            length += arcs.get(ref < 0 ? ~ref : ref).length - 1;
+        }
+        final long[] ring = new long[length];
+        int pos = 0;
+        for (int ref : refs) {
+            final long[] arc = arcs.get(ref < 0 ? ~ref : ref);
+            final int start = pos == 0 ? 0 : 1;
+            for (int i = start; i < arc.length; i++) {
+                ring[pos++] = ref < 0 ? arc[arc.length - 1 - i] : arc[i];
+            }
+        }
+        return ring;
+    }
+
+    private Coordinate[] toCoordinates(long[] points) {
+        final Coordinate[] coordinates = new Coordinate[points.length];
+        for (int i = 0; i < points.length; i++) {
+            coordinates[i] = new Coordinate(toCoordinate(x(points[i])), toCoordinate(y(points[i])));
+        }
+        return coordinates;
+    }
+
+    private double toCoordinate(int value) {
+        if (step >= 1) {
+            return value * step;
+        }
+        // dividing by a power of ten keeps the decimals short when written
+        return value / Math.rint(1 / step);
+    }
+
+    private List<List<long[]>> quantize(Geometry geometry) {
+        final List<List<long[]>> polygons = new ArrayList<>();
+        if (geometry == null) {
+            return polygons;
+        }
+        for (int i = 0; i < geometry.getNumGeometries(); i++) {
+            final Geometry part = geometry.getGeometryN(i);
+            if (!(part instanceof Polygon)) {
+                continue;
+            }
+            final Polygon polygon = (Polygon) part;
+            final long[] shell = quantize(polygon.getExteriorRing().getCoordinates());
+            if (shell == null) {
+                continue;
+            }
+            final List<long[]> rings = new ArrayList<>();
+            rings.add(shell);
+            for (int h = 0; h < polygon.getNumInteriorRing(); h++) {
+                final long[] hole = quantize(polygon.getInteriorRingN(h).getCoordinates());
+                if (hole != null) {
+                    rings.add(hole);
+                }
+            }
+            polygons.add(rings);
+        }
+        return polygons;
+    }
+
+    /**
+     * Ring as quantized points without repeated points (or the closing point). Null if less than 3 points remain.
+     */
+    private long[] quantize(Coordinate[] coordinates) {
+        final long[] points = new long[coordinates.length];
+        int count = 0;
+        for (Coordinate c : coordinates) {
+            final long point = point(Math.toIntExact(Math.round(c.x / step)), Math.toIntExact(Math.round(c.y / step)));
+            if (count == 0 || points[count - 1] != point) {
+                points[count++] = point;
+            }
+        }
+        while (count > 1 && points[count - 1] == points[0]) {
+            count--;
+        }
+        return count < 3 ? null : Arrays.copyOf(points, count);
+    }
+
+    /**
+     * Points where the boundary is no longer shared with the same neighbours: the point appears
+     * in the rings with different points before/after it.
+     */
+    private static Set<Long> findJunctions(List<List<List<long[]>>> regions) {
+        final Map<Long, long[]> neighbours = new HashMap<>();
+        final Set<Long> junctions = new HashSet<>();
+        for (List<List<long[]>> polygons : regions) {
+            for (List<long[]> polygon : polygons) {
+                for (long[] ring : polygon) {
+                    final int n = ring.length;
+                    for (int i = 0; i < n; i++) {
+                        final long previous = ring[(i + n - 1) % n];
+                        final long next = ring[(i + 1) % n];
+                        final long[] pair = { Math.min(previous, next), Math.max(previous, next) };
+                        final long[] existing = neighbours.putIfAbsent(ring[i], pair);
+                        if (existing != null && !Arrays.equals(existing, pair)) {
+                            junctions.add(ring[i]);
+                        }
+                    }
+                }
+            }
+        }
+        return junctions;
+    }
+
+    /**
+     * Splits the ring to arcs at junctions and returns references to the (shared) arcs
+     */
+    private int[] splitToArcs(long[] ring, Set<Long> junctions, Map<ArcKey, Integer> arcIndex) {
+        final int n = ring.length;
+        int start = -1;
+        for (int i = 0; i < n; i++) {
+            if (junctions.contains(ring[i])) {
+                start = i;
+                break;
+            }
+        }
+        if (start == -1) {
+            // not connected to other rings at junctions: one closed arc starting from the smallest point
+            int min = 0;
+            for (int i = 1; i < n; i++) {
+                if (ring[i] < ring[min]) {
+                    min = i;
+                }
+            }
+            final long[] arc = new long[n + 1];
+            for (int i = 0; i <= n; i++) {
+                arc[i] = ring[(min + i) % n];
+            }
+            return new int[] { getArc(arc, arcIndex) };
+        }
+        final List<Integer> refs = new ArrayList<>();
+        final List<Long> current = new ArrayList<>();
+        current.add(ring[start]);
+        for (int i = 1; i <= n; i++) {
+            final long point = ring[(start + i) % n];
+            current.add(point);
+            if (i == n || junctions.contains(point)) {
+                final long[] arc = new long[current.size()];
+                for (int j = 0; j < arc.length; j++) {
+                    arc[j] = current.get(j);
+                }
+                refs.add(getArc(arc, arcIndex));
+                current.clear();
+                current.add(point);
+            }
+        }
+        final int[] result = new int[refs.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = refs.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Index of the arc, ~index if the arc is stored in reverse order. Stores the arc if it's a new one.
+     */
+    private int getArc(long[] arc, Map<ArcKey, Integer> arcIndex) {
+        final long[] reversed = new long[arc.length];
+        for (int i = 0; i < arc.length; i++) {
+            reversed[i] = arc[arc.length - 1 - i];
+        }
+        final boolean forward = compare(arc, reversed) <= 0;
+        final long[] canonical = forward ? arc : reversed;
+        Integer index = arcIndex.get(new ArcKey(canonical));
+        if (index == null) {
+            index = arcs.size();
+            arcs.add(canonical);
+            arcIndex.put(new ArcKey(canonical), index);
+        }
+        return forward ? index : ~index;
+    }
+
+    private static int compare(long[] a, long[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return Long.compare(a[i], b[i]);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Douglas-Peucker keeping the end points. Closed arcs are split at the point farthest from the start.
+     */
+    private static long[] simplify(long[] arc, double tolerance) {
+        final int n = arc.length;
+        if (n <= 2) {
+            return arc;
+        }
+        final boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        final Deque<int[]> ranges = new ArrayDeque<>();
+        if (arc[0] == arc[n - 1]) {
+            int farthest = 1;
+            double max = -1;
+            for (int i = 1; i < n - 1; i++) {
+                final double d = Math.hypot(x(arc[i]) - x(arc[0]), y(arc[i]) - y(arc[0]));
+                if (d > max) {
+                    max = d;
+                    farthest = i;
+                }
+            }
+            keep[farthest] = true;
+            ranges.push(new int[] { 0, farthest });
+            ranges.push(new int[] { farthest, n - 1 });
+        } else {
+            ranges.push(new int[] { 0, n - 1 });
+        }
+        while (!ranges.isEmpty()) {
+            final int[] range = ranges.pop();
+            final int first = range[0];
+            final int last = range[1];
+            int farthest = -1;
+            double max = tolerance;
+            for (int i = first + 1; i < last; i++) {
+                final double d = distance(arc[i], arc[first], arc[last]);
+                if (d > max) {
+                    max = d;
+                    farthest = i;
+                }
+            }
+            if (farthest != -1) {
+                keep[farthest] = true;
+                ranges.push(new int[] { first, farthest });
+                ranges.push(new int[] { farthest, last });
+            }
+        }
+        int count = 0;
+        for (boolean k : keep) {
+            if (k) {
+                count++;
+            }
+        }
+        final long[] result = new long[count];
+        int pos = 0;
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) {
+                result[pos++] = arc[i];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Distance of point p from the segment a-b
+     */
+    private static double distance(long p, long a, long b) {
+        final double px = x(p);
+        final double py = y(p);
+        final double ax = x(a);
+        final double ay = y(a);
+        final double dx = x(b) - ax;
+        final double dy = y(b) - ay;
+        final double lengthSq = dx * dx + dy * dy;
+        double t = lengthSq == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSq;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(px - (ax + t * dx), py - (ay + t * dy));
+    }
+
+    private static long point(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    private static int x(long point) {
+        return (int) (point >> 32);
+    }
+
+    private static int y(long point) {
+        return (int) point;
+    }
+
+    private static class ArcKey {
+        private final long[] points;
+        private final int hash;
+
+        ArcKey(long[] points) {
+            this.points = points;
+            this.hash = Arrays.hashCode(points);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ArcKey && Arrays.equals(points, ((ArcKey) o).points);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
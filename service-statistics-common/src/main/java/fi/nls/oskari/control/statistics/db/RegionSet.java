@@ -4,6 +4,8 @@ import fi.nls.oskari.util.JSONHelper;
 
 import org.json.JSONObject;
 
+import java.util.Date;
+
 /**
  * This is the value object for the layer url and other metadata in the database.
  * MyBatis Type for the SQL table oskari_maplayers
@@ -15,6 +17,7 @@ public class RegionSet {
     private String url;
     private String srs_name;
     private String attributes;
+    private Date updated;
 
     private JSONObject stats; // Lazily populated by getStatsJSON()
 
@@ -60,6 +63,17 @@ public class RegionSet {
         this.stats = null;
     }
 
+    /**
+     * Time the regionset was last modified, null if not known
+     */
+    public Date getUpdated() {
+        return updated;
+    }
+
+    public void setUpdated(Date updated) {
+        this.updated = updated;
+    }
+
     public JSONObject asJSON() {
         return JSONHelper.createJSONObject("regionIdTag", getIdProperty());
     }
@@ -10,12 +10,12 @@ import java.util.List;
  */
 public interface RegionSetMapper {
 
-    @Select("SELECT id, name, url, attributes, srs_name" +
+    @Select("SELECT id, name, url, attributes, srs_name, updated" +
             " FROM oskari_maplayer WHERE type = 'statslayer'")
     @ResultType(RegionSet.class)
     List<RegionSet> getRegionSets();
 
-    @Select("SELECT id, name, url, attributes, srs_name" +
+    @Select("SELECT id, name, url, attributes, srs_name, updated" +
             " FROM oskari_maplayer WHERE type = 'statslayer' and id = #{id}")
     @ResultType(RegionSet.class)
     RegionSet getRegionSet(long id);
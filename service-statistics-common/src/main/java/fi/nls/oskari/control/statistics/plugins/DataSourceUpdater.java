@@ -3,6 +3,7 @@ package fi.nls.oskari.control.statistics.plugins;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.control.statistics.util.StatisticsCache;
 import fi.nls.oskari.control.statistics.data.StatisticalIndicator;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
@@ -45,6 +46,7 @@ public abstract class DataSourceUpdater implements Runnable {
         DataStatus status = plugin.getStatus();
         status.finishUpdate();
         JedisManager.setex(plugin.getStatusKey(), JedisManager.EXPIRY_TIME_DAY * 7, status.toString());
+        StatisticsCache.flushNearCache();
     }
 
     /**
@@ -61,7 +63,7 @@ public abstract class DataSourceUpdater implements Runnable {
         // write new indicator list
         try {
             String result = listMapper.writeValueAsString(indicators);
-            JedisManager.setex(plugin.getIndicatorListKey(), JedisManager.EXPIRY_TIME_DAY * 7, result);
+            StatisticsCache.setex(plugin.getIndicatorListKey(), JedisManager.EXPIRY_TIME_DAY * 7, result);
         } catch (JsonProcessingException ex) {
             LOG.error(ex, "Error updating indicator list");
         }
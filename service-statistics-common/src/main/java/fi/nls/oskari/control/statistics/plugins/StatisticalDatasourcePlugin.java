@@ -4,6 +4,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.control.statistics.util.StatisticsCache;
 import fi.nls.oskari.control.statistics.data.*;
 import fi.nls.oskari.control.statistics.plugins.db.StatisticalDatasource;
 import fi.nls.oskari.control.statistics.util.CacheKeys;
@@ -177,7 +178,7 @@ public abstract class StatisticalDatasourcePlugin {
 
     public StatisticalIndicator getIndicator(User user, String indicatorId) {
         try {
-            String json = JedisManager.get(getIndicatorKey(indicatorId));
+            String json = StatisticsCache.get(getIndicatorKey(indicatorId));
             if (json == null) {
                 // someone requested an indicator we don't know about
                 // client might have a saved ref to id that is no longer available OR
@@ -247,7 +248,7 @@ public abstract class StatisticalDatasourcePlugin {
     private void writeToCache(StatisticalIndicator indicator) {
         try {
             String json = MAPPER.writeValueAsString(indicator);
-            JedisManager.setex(getIndicatorKey(indicator.getId()), JedisManager.EXPIRY_TIME_DAY * 7, json);
+            StatisticsCache.setex(getIndicatorKey(indicator.getId()), JedisManager.EXPIRY_TIME_DAY * 7, json);
         } catch (JsonProcessingException ex) {
             LOG.error(ex, "Error updating indicator metadata");
         }
@@ -257,7 +258,7 @@ public abstract class StatisticalDatasourcePlugin {
         final List<StatisticalIndicator> existingIndicators = new ArrayList<>();
         final String cacheKey = getIndicatorListKey();
         try {
-            String existingJSON = JedisManager.get(cacheKey);
+            String existingJSON = StatisticsCache.get(cacheKey);
             if(existingJSON != null) {
                 List<StatisticalIndicator> list = MAPPER.readValue(existingJSON, new TypeReference<List<StatisticalIndicator>>(){});
                 existingIndicators.addAll(list);
@@ -0,0 +1,242 @@
+package fi.nls.oskari.control.statistics.util;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import fi.nls.oskari.cache.Cache;
+import fi.nls.oskari.cache.CacheManager;
+import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.MetricsHelper;
+import fi.nls.oskari.util.PropertyUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Redis access for the statistics cache entries that can be large JSON documents
+ * (indicator lists, indicator metadata, indicator data and regionsets).
+ *
+ * Values are written to Redis gzipped. The gzip header works as the format marker: values that don't start with it
+ * are read as plain UTF-8 so values written by older versions are still used. While nodes running an older version
+ * use the same Redis compression can be disabled with:
+ *  statistics.cache.compress=false
+ *
+ * Values are also kept in an in-memory near-cache so repeated requests don't need a round trip to Redis.
+ * Writes and removals through this class notify other cluster nodes to drop their copy (see Cache).
+ * Near-cache size and lifetime can be configured with:
+ *  oskari.cache.limit.fi.nls.oskari.control.statistics.util.StatisticsCache=100
+ *  statistics.cache.near.maxSizeMB=64 (values larger than a quarter of this are only kept in Redis)
+ *  statistics.cache.near.expiration=600 (seconds, 0 disables the near-cache)
+ */
+public class StatisticsCache {
+
+    private static final Logger LOG = LogFactory.getLogger(StatisticsCache.class);
+    protected static final String CACHE_NAME = StatisticsCache.class.getName();
+    private static final int NEAR_CACHE_LIMIT = 100;
+    private static final long NEAR_CACHE_MAX_BYTES = PropertyUtil.getOptional("statistics.cache.near.maxSizeMB", 64) * 1024L * 1024L;
+    private static final long NEAR_CACHE_EXPIRATION_SECONDS = TimeUnit.MINUTES.toSeconds(10);
+    // small values like status don't benefit from compression
+    protected static final int MIN_COMPRESSED_LENGTH = 1024;
+
+    private static final String METRICS_PREFIX = "Oskari.statistics.cache";
+    private static final MetricRegistry METRICS = SharedMetricRegistries.getOrCreate(MetricsHelper.REGISTRY_NAME);
+
+    private static final boolean COMPRESS = PropertyUtil.getOptional("statistics.cache.compress", true);
+    private static final long NEAR_CACHE_EXPIRATION = TimeUnit.SECONDS.toMillis(
+            PropertyUtil.getOptional("statistics.cache.near.expiration", (int) NEAR_CACHE_EXPIRATION_SECONDS));
+
+    private StatisticsCache() {}
+
+    private static Cache<String> getNearCache() {
+        return CacheManager.getCache(CACHE_NAME, () -> {
+            Cache<String> cache = new NearCache(NEAR_CACHE_MAX_BYTES);
+            cache.setLimit(NEAR_CACHE_LIMIT);
+            cache.setExpiration(NEAR_CACHE_EXPIRATION);
+            return cache;
+        });
+    }
+
+    /**
+     * @return the value from near-cache or Redis, null if not cached
+     */
+    public static String get(String key) {
+        final boolean useNearCache = NEAR_CACHE_EXPIRATION > 0;
+        if (useNearCache) {
+            final String value = getNearCache().get(key);
+            if (value != null) {
+                METRICS.counter(METRICS_PREFIX + ".near.hit").inc();
+                return value;
+            }
+            METRICS.counter(METRICS_PREFIX + ".near.miss").inc();
+        }
+        final byte[] stored = JedisManager.get(key.getBytes(StandardCharsets.UTF_8));
+        if (stored == null) {
+            return null;
+        }
+        METRICS.counter(METRICS_PREFIX + ".redis.bytesRead").inc(stored.length);
+        final String value;
+        try {
+            value = decode(stored);
+        } catch (IOException e) {
+            LOG.warn("Couldn't read cached value:", key, e.getMessage());
+            return null;
+        }
+        if (useNearCache && !value.isEmpty()) {
+            getNearCache().put(key, value);
+        }
+        return value;
+    }
+
+    /**
+     * Writes the value to Redis and tells other nodes to drop their near-cached copy
+     */
+    public static void setex(String key, int seconds, String value) {
+        if (value == null) {
+            del(key);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        final byte[] encoded = encode(bytes, COMPRESS);
+        METRICS.counter(METRICS_PREFIX + ".redis.bytesWritten").inc(encoded.length);
+        METRICS.counter(METRICS_PREFIX + ".redis.bytesUncompressed").inc(bytes.length);
+        JedisManager.setex(key.getBytes(StandardCharsets.UTF_8), seconds, encoded);
+        final Cache<String> near = getNearCache();
+        near.remove(key);
+        if (NEAR_CACHE_EXPIRATION > 0) {
+            near.put(key, value);
+        }
+    }
+
+    /**
+     * Removes the value from Redis and the near-caches of all nodes
+     */
+    public static void del(String... keys) {
+        JedisManager.del(keys);
+        final Cache<String> near = getNearCache();
+        for (String key : keys) {
+            near.remove(key);
+        }
+    }
+
+    /**
+     * Drops near-cached values on all nodes. Called when a datasource update has completed so values
+     * that weren't rewritten by the update (like removed indicators) aren't served from memory.
+     */
+    public static void flushNearCache() {
+        getNearCache().flush(true);
+    }
+
+    /**
+     * Cache bounded by the approximate size of the cached values (2 bytes per char). The oldest values are
+     * dropped before the size or count limit is reached so Cache doesn't log overflow warnings for each put.
+     */
+    static class NearCache extends Cache<String> {
+        private final long maxBytes;
+        // sizes of cached values, oldest first
+        private final Map<String, Long> sizes = new LinkedHashMap<>();
+        private long bytes = 0;
+
+        NearCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public synchronized boolean put(final String name, final String item) {
+            if (item == null) {
+                return super.put(name, null);
+            }
+            final long size = 2L * item.length();
+            // drop any previous value so the size is tracked for the new one
+            removeSilent(name);
+            if (size > maxBytes / 4) {
+                METRICS.counter(METRICS_PREFIX + ".near.skipped").inc();
+                return false;
+            }
+            while (!sizes.isEmpty() && (bytes + size > maxBytes || getSize() >= getLimit())) {
+                removeSilent(sizes.keySet().iterator().next());
+            }
+            final boolean overflowing = super.put(name, item);
+            sizes.put(name, size);
+            bytes += size;
+            return overflowing;
+        }
+
+        @Override
+        protected synchronized String removeSilent(final String name) {
+            final String value = super.removeSilent(name);
+            final Long size = sizes.remove(name);
+            if (size != null) {
+                bytes -= size;
+            }
+            return value;
+        }
+
+        @Override
+        protected boolean flushSilent(final boolean force) {
+            final boolean flushed = super.flushSilent(force);
+            if (flushed) {
+                synchronized (this) {
+                    sizes.clear();
+                    bytes = 0;
+                }
+            }
+            return flushed;
+        }
+    }
+
+    protected static byte[] encode(String value, boolean compress) {
+        return encode(value.getBytes(StandardCharsets.UTF_8), compress);
+    }
+
+    private static byte[] encode(byte[] bytes, boolean compress) {
+        if (!compress || bytes.length < MIN_COMPRESSED_LENGTH) {
+            return bytes;
+        }
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length / 4);
+        try (OutputStream out = new GZIPOutputStream(baos)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            // writing to memory
+            return bytes;
+        }
+        return baos.toByteArray();
+    }
+
+    protected static String decode(byte[] value) throws IOException {
+        if (!isCompressed(value)) {
+            return new String(value, StandardCharsets.UTF_8);
+        }
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(value.length * 4);
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(value))) {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                baos.write(buffer, 0, read);
+            }
+        }
+        return new String(baos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gzip magic number. Can't be the start of a JSON document written by older versions.
+     */
+    protected static boolean isCompressed(byte[] value) {
+        return value.length > 2
+                && value[0] == (byte) (GZIPInputStream.GZIP_MAGIC & 0xFF)
+                && value[1] == (byte) (GZIPInputStream.GZIP_MAGIC >> 8);
+    }
+}
@@ -0,0 +1,222 @@
+package fi.nls.oskari.control.statistics;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RegionTopologyTest {
+
+    private static final GeometryFactory GF = new GeometryFactory();
+
+    @Test
+    public void testTolerance() {
+        assertEquals(256, RegionTopology.getTolerance(300), 0);
+        assertEquals(256, RegionTopology.getTolerance(256), 0);
+        assertEquals(0.25, RegionTopology.getTolerance(0.3), 0);
+        assertEquals(0, RegionTopology.getTolerance(-1), 0);
+        assertEquals(10, RegionTopology.getQuantizationStep(64), 0);
+        assertEquals(0.01, RegionTopology.getQuantizationStep(0.25), 0.0000001);
+    }
+
+    @Test
+    public void testNeighboursStaySeamless() {
+        List<Coordinate> border = createBorder(new Random(1), 2000);
+        List<Geometry> regions = Arrays.asList(createLeft(border), createRight(border));
+        RegionTopology topology = RegionTopology.build(regions, 1);
+
+        Geometry left = topology.getGeometry(0, GF);
+        Geometry right = topology.getGeometry(1, GF);
+        assertTrue("Simplified to a fraction of the points", left.getNumPoints() < border.size() / 10);
+        assertTrue(left.isValid());
+        assertTrue(right.isValid());
+        assertEquals("No overlap", 0, left.intersection(right).getArea(), 0.000001);
+        Geometry union = left.union(right);
+        assertTrue("No gaps", union instanceof Polygon);
+        assertEquals(0, ((Polygon) union).getNumInteriorRing());
+        assertEquals(200 * 100, union.getArea(), 0.000001);
+        assertEquals(regions.get(0).getArea(), left.getArea(), 100 * 1);
+    }
+
+    @Test
+    public void testTopoJSON() throws Exception {
+        List<Coordinate> border = createBorder(new Random(2), 500);
+        RegionTopology topology = RegionTopology.build(Arrays.asList(createLeft(border), createRight(border)), 1);
+        JSONObject props = new JSONObject().put(Region.KEY_CODE, "091").put(Region.KEY_NAME, "Helsinki");
+        JSONObject topojson = topology.toTopoJSON(Arrays.asList(props, new JSONObject()));
+
+        assertEquals("Topology", topojson.getString("type"));
+        assertEquals(0.1, topojson.getJSONObject("transform").getJSONArray("scale").getDouble(0), 0.0000001);
+        JSONArray geometries = topojson.getJSONObject("objects").getJSONObject("regions").getJSONArray("geometries");
+        JSONObject first = geometries.getJSONObject(0);
+        assertEquals("Polygon", first.getString("type"));
+        assertEquals("091", first.getString("id"));
+        assertEquals("Helsinki", first.getJSONObject("properties").getString(Region.KEY_NAME));
+
+        // the shared border is one arc used in reverse by the other region
+        JSONArray arcs = topojson.getJSONArray("arcs");
+        assertEquals(3, arcs.length());
+        List<Integer> leftArcs = toList(first.getJSONArray("arcs").getJSONArray(0));
+        List<Integer> rightArcs = toList(geometries.getJSONObject(1).getJSONArray("arcs").getJSONArray(0));
+        int shared = -1;
+        for (int ref : leftArcs) {
+            if (rightArcs.contains(~ref)) {
+                shared = ref;
+            }
+        }
+        assertTrue("Shared arc found", shared != -1);
+    }
+
+    @Test
+    public void testCollapsedRings() {
+        Polygon square = createSquare(0, 0, 100);
+        Polygon island = createSquare(200, 0, 0.5);
+        Geometry withIsland = GF.createMultiPolygon(new Polygon[] { square, island });
+        Polygon small = createSquare(400, 0, 2);
+        RegionTopology topology = RegionTopology.build(Arrays.asList(withIsland, small, null), 4);
+
+        assertEquals("Island is dropped", square.getArea(), topology.getGeometry(0, GF).getArea(), 0.000001);
+        Geometry kept = topology.getGeometry(1, GF);
+        assertNotNull("Region is kept even if it's smaller than tolerance", kept);
+        assertEquals(small.getArea(), kept.getArea(), 0.000001);
+        assertNull(topology.getGeometry(2, GF));
+        assertEquals(3, topology.size());
+    }
+
+    @Test
+    public void testCollapsedRegionInTopoJSON() throws Exception {
+        RegionTopology topology = RegionTopology.build(Arrays.asList(createSquare(0, 0, 2), null), 4);
+        JSONObject topojson = topology.toTopoJSON(null);
+        JSONArray geometries = topojson.getJSONObject("objects").getJSONObject("regions").getJSONArray("geometries");
+        assertEquals("Polygon", geometries.getJSONObject(0).getString("type"));
+        int arc = geometries.getJSONObject(0).getJSONArray("arcs").getJSONArray(0).getInt(0);
+        assertEquals("Unsimplified ring", 5, topojson.getJSONArray("arcs").getJSONArray(arc).length());
+        assertTrue(geometries.getJSONObject(1).isNull("type"));
+    }
+
+    /**
+     * Rough payload and parse time figures for a grid of 400 regions with detailed borders
+     */
+    @Ignore
+    @Test
+    public void benchmark() throws Exception {
+        final int size = 20;
+        final int points = 2000;
+        Random random = new Random(3);
+        List<Coordinate>[][] vertical = new List[size + 1][size];
+        List<Coordinate>[][] horizontal = new List[size][size + 1];
+        for (int i = 0; i <= size; i++) {
+            for (int j = 0; j < size; j++) {
+                vertical[i][j] = createLine(random, i * 10000, j * 10000, i * 10000, (j + 1) * 10000, points, i > 0 && i < size);
+                horizontal[j][i] = createLine(random, j * 10000, i * 10000, (j + 1) * 10000, i * 10000, points, i > 0 && i < size);
+            }
+        }
+        List<Geometry> regions = new ArrayList<>();
+        for (int x = 0; x < size; x++) {
+            for (int y = 0; y < size; y++) {
+                List<Coordinate> ring = new ArrayList<>(horizontal[x][y]);
+                ring.addAll(vertical[x + 1][y].subList(1, points));
+                List<Coordinate> top = new ArrayList<>(horizontal[x][y + 1]);
+                java.util.Collections.reverse(top);
+                ring.addAll(top.subList(1, points));
+                List<Coordinate> left = new ArrayList<>(vertical[x][y]);
+                java.util.Collections.reverse(left);
+                ring.addAll(left.subList(1, points));
+                regions.add(GF.createPolygon(ring.toArray(new Coordinate[0])));
+            }
+        }
+        JSONArray full = new JSONArray();
+        for (Geometry g : regions) {
+            full.put(new org.oskari.geojson.GeoJSONWriter().writeGeometry(g));
+        }
+        print("Full GeoJSON", full.toString());
+        for (double tolerance : new double[] { 16, 64, 256 }) {
+            long start = System.currentTimeMillis();
+            RegionTopology topology = RegionTopology.build(regions, tolerance);
+            long took = System.currentTimeMillis() - start;
+            JSONArray simplified = new JSONArray();
+            for (int i = 0; i < regions.size(); i++) {
+                simplified.put(new org.oskari.geojson.GeoJSONWriter().writeGeometry(topology.getGeometry(i, GF)));
+            }
+            System.out.println("Tolerance " + tolerance + " built in " + took + "ms");
+            print("  GeoJSON", simplified.toString());
+            print("  TopoJSON", topology.toTopoJSON(null).toString());
+        }
+    }
+
+    private static void print(String label, String json) throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            new JSONObject("{\"a\":" + json + "}");
+        }
+        System.out.println(label + ": " + json.length() / 1024 + "kB, parsed in " + (System.nanoTime() - start) / 5 / 1000000 + "ms");
+    }
+
+    private static List<Coordinate> createLine(Random random, double x1, double y1, double x2, double y2, int points, boolean jagged) {
+        List<Coordinate> line = new ArrayList<>(points);
+        for (int i = 0; i < points; i++) {
+            double t = i / (double) (points - 1);
+            double noise = jagged && i > 0 && i < points - 1 ? random.nextGaussian() * 20 : 0;
+            // noise perpendicular to the line
+            double x = x1 + t * (x2 - x1) + (x1 == x2 ? noise : 0);
+            double y = y1 + t * (y2 - y1) + (y1 == y2 ? noise : 0);
+            line.add(new Coordinate(Math.round(x * 100) / 100d, Math.round(y * 100) / 100d));
+        }
+        return line;
+    }
+
+    private static List<Coordinate> createBorder(Random random, int points) {
+        List<Coordinate> border = new ArrayList<>();
+        for (int i = 0; i < points; i++) {
+            double y = 100d * i / (points - 1);
+            double x = i == 0 || i == points - 1 ? 100 : 100 + random.nextDouble() * 0.8 - 0.4;
+            border.add(new Coordinate(x, y));
+        }
+        return border;
+    }
+
+    private static Polygon createLeft(List<Coordinate> border) {
+        List<Coordinate> ring = new ArrayList<>();
+        ring.add(new Coordinate(0, 0));
+        ring.addAll(border);
+        ring.add(new Coordinate(0, 100));
+        ring.add(new Coordinate(0, 0));
+        return GF.createPolygon(ring.toArray(new Coordinate[0]));
+    }
+
+    private static Polygon createRight(List<Coordinate> border) {
+        List<Coordinate> ring = new ArrayList<>();
+        ring.add(new Coordinate(200, 0));
+        ring.add(new Coordinate(200, 100));
+        List<Coordinate> reversed = new ArrayList<>(border);
+        java.util.Collections.reverse(reversed);
+        ring.addAll(reversed);
+        ring.add(new Coordinate(200, 0));
+        return GF.createPolygon(ring.toArray(new Coordinate[0]));
+    }
+
+    private static Polygon createSquare(double x, double y, double size) {
+        return GF.createPolygon(new Coordinate[] {
+                new Coordinate(x, y), new Coordinate(x + size, y), new Coordinate(x + size, y + size),
+                new Coordinate(x, y + size), new Coordinate(x, y) });
+    }
+
+    private static List<Integer> toList(JSONArray array) throws Exception {
+        List<Integer> list = new ArrayList<>();
+        for (int i = 0; i < array.length(); i++) {
+            list.add(array.getInt(i));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,114 @@
+package fi.nls.oskari.control.statistics.util;
+
+import org.json.JSONObject;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StatisticsCacheTest {
+
+    @Test
+    public void testCompressedRoundtrip() throws Exception {
+        String json = createIndicatorData(300, new Random(1));
+        byte[] encoded = StatisticsCache.encode(json, true);
+        assertTrue(StatisticsCache.isCompressed(encoded));
+        assertTrue("Compressed to less than half", encoded.length < json.length() / 2);
+        assertEquals(json, StatisticsCache.decode(encoded));
+    }
+
+    @Test
+    public void testPlainValues() throws Exception {
+        // small values and values written by older versions are plain UTF-8
+        String small = "{\"name\":\"Häme\"}";
+        byte[] encoded = StatisticsCache.encode(small, true);
+        assertFalse(StatisticsCache.isCompressed(encoded));
+        assertEquals(small, StatisticsCache.decode(encoded));
+
+        String json = createIndicatorData(300, new Random(2));
+        byte[] uncompressed = StatisticsCache.encode(json, false);
+        assertArrayEquals(json.getBytes(StandardCharsets.UTF_8), uncompressed);
+        assertEquals(json, StatisticsCache.decode(uncompressed));
+        assertEquals("", StatisticsCache.decode(new byte[0]));
+    }
+
+    @Test
+    public void testNearCache() {
+        // Redis isn't available in tests so values can only come from the near-cache
+        String key = "oskari:stats:test:" + System.nanoTime();
+        assertNull(StatisticsCache.get(key));
+        StatisticsCache.setex(key, 60, "{}");
+        assertEquals("{}", StatisticsCache.get(key));
+        StatisticsCache.del(key);
+        assertNull(StatisticsCache.get(key));
+        StatisticsCache.setex(key, 60, "{}");
+        StatisticsCache.flushNearCache();
+        assertNull(StatisticsCache.get(key));
+    }
+
+    @Test
+    public void testNearCacheIsBoundedBySize() {
+        StatisticsCache.NearCache cache = new StatisticsCache.NearCache(400);
+        String value = "0123456789";
+        for (int i = 0; i < 20; i++) {
+            assertFalse("Oldest values are dropped before the limit is reached", cache.put("key" + i, value));
+        }
+        assertEquals(400, cache.getBytes());
+        cache.put("key20", value);
+        assertNull(cache.get("key0"));
+        assertEquals(value, cache.get("key20"));
+        assertEquals(20, cache.getSize());
+        assertEquals(400, cache.getBytes());
+
+        cache.put("key20", "");
+        assertEquals("Replaced value is tracked with its new size", 380, cache.getBytes());
+        cache.remove("key1");
+        assertEquals(360, cache.getBytes());
+
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            large.append(value);
+        }
+        cache.put("large", large.toString());
+        assertNull("Values larger than a quarter of the limit aren't cached", cache.get("large"));
+
+        cache.setLimit(5);
+        cache.put("key21", value);
+        assertEquals(5, cache.getSize());
+        cache.flush(true);
+        assertEquals(0, cache.getBytes());
+    }
+
+    /**
+     * Rough size and read times for indicator data of ~3000 regions
+     */
+    @Ignore
+    @Test
+    public void benchmark() throws Exception {
+        String json = createIndicatorData(3000, new Random(3));
+        byte[] encoded = StatisticsCache.encode(json, true);
+        System.out.println("Plain: " + json.length() / 1024 + "kB, compressed: " + encoded.length / 1024 + "kB");
+        final int rounds = 200;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            StatisticsCache.decode(encoded);
+        }
+        System.out.println("Decompress: " + (System.nanoTime() - start) / rounds / 1000 + "µs");
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            new JSONObject(json);
+        }
+        System.out.println("Parse JSON: " + (System.nanoTime() - start) / rounds / 1000 + "µs");
+    }
+
+    private static String createIndicatorData(int regions, Random random) throws Exception {
+        JSONObject data = new JSONObject();
+        for (int i = 0; i < regions; i++) {
+            data.put(String.format("%05d", i * 10), Math.round(random.nextDouble() * 100000) / 10d);
+        }
+        return data.toString();
+    }
+}
@@ -1,6 +1,7 @@
 package fi.nls.oskari.statistics.eurostat;
 
 import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.control.statistics.util.StatisticsCache;
 import fi.nls.oskari.control.statistics.data.*;
 import fi.nls.oskari.control.statistics.plugins.StatisticalDatasourcePlugin;
 import fi.nls.oskari.control.statistics.plugins.db.DatasourceLayer;
@@ -188,10 +189,10 @@ public class EurostatIndicatorsParser {
         final String url = pUrl + dataStructureID;
         final String cacheKey = "stats:" + config.getId() + ":metadata:" + url;
         try {
-            String metadata = JedisManager.get(cacheKey);
+            String metadata = StatisticsCache.get(cacheKey);
             if(metadata == null) {
                 metadata = IOHelper.getURL(url);
-                JedisManager.setex(cacheKey, JedisManager.EXPIRY_TIME_DAY, metadata);
+                StatisticsCache.setex(cacheKey, JedisManager.EXPIRY_TIME_DAY, metadata);
             }
             return new ByteArrayInputStream(metadata.getBytes(StandardCharsets.UTF_8));
         } catch (IOException ex) {
@@ -255,10 +256,10 @@ public class EurostatIndicatorsParser {
 
         final String cacheKey = "stats:" + config.getId() + ":metadata_time:" + path;
         try {
-            String metadata = JedisManager.get(cacheKey);
+            String metadata = StatisticsCache.get(cacheKey);
             if(metadata == null) {
                 metadata = IOHelper.getURL(path);
-                JedisManager.setex(cacheKey, JedisManager.EXPIRY_TIME_DAY, metadata);
+                StatisticsCache.setex(cacheKey, JedisManager.EXPIRY_TIME_DAY, metadata);
             }
             return JSONHelper.createJSONObject(metadata);
         } catch (IOException ex) {
@@ -7,6 +7,7 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import fi.nls.oskari.cache.JedisManager;
+import fi.nls.oskari.control.statistics.util.StatisticsCache;
 import fi.nls.oskari.control.statistics.plugins.APIException;
 import fi.nls.oskari.control.statistics.plugins.sotka.SotkaConfig;
 import fi.nls.oskari.control.statistics.util.CacheKeys;
@@ -89,7 +90,7 @@ public class SotkaRegionParser {
      */
     public void getData() {
         final String cacheKey = CacheKeys.buildCacheKey(config.getId(), "regions", url);
-        String json = JedisManager.get(cacheKey);
+        String json = StatisticsCache.get(cacheKey);
 
         if (json == null) {
             try {
@@ -105,7 +106,7 @@ public class SotkaRegionParser {
             } catch (IOException e) {
                 throw new APIException("Couldn't read response from SotkaNET: " + url, e);
             }
-            JedisManager.setex(cacheKey, JedisManager.EXPIRY_TIME_DAY, json);
+            StatisticsCache.setex(cacheKey, JedisManager.EXPIRY_TIME_DAY, json);
         }
         try {
             JsonFactory factory = new JsonFactory();
@@ -1,10 +1,24 @@
 package org.oskari.service.wfs.client;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.filter.visitor.DuplicatingFilterVisitor;
 import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.expression.PropertyName;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import org.locationtech.jts.geom.Envelope;
@@ -12,29 +26,260 @@ import org.locationtech.jts.geom.Envelope;
 import fi.nls.oskari.cache.CacheManager;
 import fi.nls.oskari.cache.ComputeOnceCache;
 import fi.nls.oskari.domain.map.OskariLayer;
+import fi.nls.oskari.domain.map.wfs.WFSLayerCapabilities;
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.PropertyUtil;
+import org.oskari.geojson.GeoJSONFeatureCollection;
 
 public class CachingOskariWFSClient extends OskariWFSClient {
 
+    private static final Logger LOG = LogFactory.getLogger(CachingOskariWFSClient.class);
+
     private static final String CACHE_NAME = CachingOskariWFSClient.class.getName();
     private static final int CACHE_SIZE_LIMIT = 10000;
     private static final long CACHE_EXPIRATION = TimeUnit.MINUTES.toMillis(5L);
 
+    // Set to true to answer requests with a Filter from cached unfiltered responses when possible
+    protected static final String PROPERTY_FILTER_LOCALLY = "oskari.wfs.cache.filterLocally";
+    // Set to false to cache the parsed collections as is instead of converting them to ColumnarFeatureCollection
+    protected static final String PROPERTY_COLUMNAR = "oskari.wfs.cache.columnar";
+
+    private static final String COVERAGE_CACHE_NAME = CACHE_NAME + ".coverage";
+    private static final int COVERAGE_CACHE_SIZE_LIMIT = 1000;
+    // cached responses remembered per layer and crs, the oldest ones are forgotten first
+    private static final int COVERAGE_LIMIT = 64;
+
+    private static final FilterFactory2 FF = CommonFactoryFinder.getFilterFactory2();
+
     // Consider using Redis for caching (how much does serialization/deserialization to GeoJSON add?)
-    private final ComputeOnceCache<SimpleFeatureCollection> cache;
+    private final ComputeOnceCache<CachedFeatures> cache;
+    // endPoint,typeName,crs -> (cache key -> requested bbox) for finding cached responses covering a bbox
+    private final ComputeOnceCache<Map<String, Envelope>> coverageCache;
+    private final boolean filterLocally;
+    private final boolean columnar;
 
     public CachingOskariWFSClient() {
+        this(PropertyUtil.getOptional(PROPERTY_FILTER_LOCALLY, false));
+    }
+
+    public CachingOskariWFSClient(boolean filterLocally) {
+        this(filterLocally, PropertyUtil.getOptional(PROPERTY_COLUMNAR, true));
+    }
+
+    public CachingOskariWFSClient(boolean filterLocally, boolean columnar) {
         cache = CacheManager.getCache(CACHE_NAME, () -> new ComputeOnceCache<>(CACHE_SIZE_LIMIT, CACHE_EXPIRATION));
+        coverageCache = CacheManager.getCache(COVERAGE_CACHE_NAME,
+                () -> new ComputeOnceCache<>(COVERAGE_CACHE_SIZE_LIMIT, CACHE_EXPIRATION));
+        this.filterLocally = filterLocally;
+        this.columnar = columnar;
     }
 
     @Override
     public SimpleFeatureCollection getFeatures(OskariLayer layer,
             ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) {
         if (filter != null) {
+            if (filterLocally) {
+                SimpleFeatureCollection local = getFeaturesFromCache(layer, bbox, crs, filter);
+                if (local != null) {
+                    return local;
+                }
+            }
             // Don't cache requests with a Filter
-            return super.getFeatures(layer, bbox, crs, filter);
+            return loadFeatures(layer, bbox, crs, filter);
         }
         String key = getCacheKey(layer, bbox, crs);
-        return cache.get(key, __ -> super.getFeatures(layer, bbox, crs, filter));
+        CachedFeatures cached = cache.get(key, __ -> toCacheable(loadFeatures(layer, bbox, crs, filter), getMaxFeatures(layer)));
+        if (cached == null) {
+            return null;
+        }
+        if (filterLocally) {
+            Map<String, Envelope> coverage = coverageCache.get(getCoverageKey(layer, crs), __ -> createCoverage());
+            synchronized (coverage) {
+                coverage.put(key, bbox != null ? new Envelope(bbox) : new Envelope());
+            }
+        }
+        return cached.features;
+    }
+
+    private static Map<String, Envelope> createCoverage() {
+        return new LinkedHashMap<String, Envelope>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Envelope> eldest) {
+                return size() > COVERAGE_LIMIT;
+            }
+        };
+    }
+
+    /**
+     * @param maxFeatures limit used in the request, the response is (possibly) truncated if it has as many features
+     */
+    private CachedFeatures toCacheable(SimpleFeatureCollection sfc, int maxFeatures) {
+        if (sfc == null) {
+            return null;
+        }
+        boolean truncated = sfc.size() >= maxFeatures;
+        if (!columnar) {
+            return new CachedFeatures(sfc, truncated);
+        }
+        // Packs the features into primitive arrays, a fraction of the memory the SimpleFeature objects take
+        return new CachedFeatures(ColumnarFeatureCollection.from(sfc), truncated);
+    }
+
+    /**
+     * Cached response with the spatial index built for it on first use. Kept in the same cached value
+     * so the index can't be paired with another version of the collection.
+     * Responses are shared by layers with the same endpoint and type name so whether the response
+     * was truncated is recorded with the limit of the layer that requested it.
+     */
+    private static class CachedFeatures {
+        private final SimpleFeatureCollection features;
+        private final boolean truncated;
+        private volatile STRtree index;
+
+        private CachedFeatures(SimpleFeatureCollection features, boolean truncated) {
+            this.features = features;
+            this.truncated = truncated;
+        }
+
+        private STRtree getIndex() {
+            STRtree idx = index;
+            if (idx == null) {
+                synchronized (this) {
+                    idx = index;
+                    if (idx == null) {
+                        idx = createIndex(features);
+                        index = idx;
+                    }
+                }
+            }
+            return idx;
+        }
+    }
+
+    protected SimpleFeatureCollection loadFeatures(OskariLayer layer,
+            ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) {
+        return super.getFeatures(layer, bbox, crs, filter);
+    }
+
+    /**
+     * Evaluates the filter against a cached unfiltered response for the same
+     * or a containing bbox.
+     * @return null if there's no cached response that covers the requested area
+     */
+    private SimpleFeatureCollection getFeaturesFromCache(OskariLayer layer,
+            ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) {
+        Map<String, Envelope> coverage = coverageCache.get(getCoverageKey(layer, crs));
+        if (coverage == null) {
+            return null;
+        }
+        List<Map.Entry<String, Envelope>> entries;
+        synchronized (coverage) {
+            entries = new ArrayList<>(coverage.entrySet());
+        }
+        int maxFeatures = getMaxFeatures(layer);
+        for (Map.Entry<String, Envelope> entry : entries) {
+            Envelope cachedBbox = entry.getValue();
+            // empty envelope == request without a bbox == the whole layer
+            boolean covers = cachedBbox.isNull() || (bbox != null && cachedBbox.contains(bbox));
+            if (!covers) {
+                continue;
+            }
+            String key = entry.getKey();
+            CachedFeatures cached = cache.get(key);
+            if (cached == null) {
+                // expired
+                synchronized (coverage) {
+                    coverage.remove(key);
+                }
+                continue;
+            }
+            if (cached.truncated) {
+                // Response was (possibly) truncated by the service, can't know what's missing
+                continue;
+            }
+            LOG.debug("Filtering locally from cached response:", key);
+            SimpleFeatureCollection features = cached.features;
+            return filter(features, cached.getIndex(), bbox,
+                    toLocalFilter(layer, filter, features.getSchema()), maxFeatures);
+        }
+        return null;
+    }
+
+    /**
+     * For ColumnarFeatureCollection the index holds the positions of the features
+     * instead of the features so we don't hold on to the SimpleFeature views
+     */
+    private static STRtree createIndex(SimpleFeatureCollection sfc) {
+        STRtree index = new STRtree();
+        boolean positions = sfc instanceof ColumnarFeatureCollection;
+        int i = 0;
+        try (SimpleFeatureIterator it = sfc.features()) {
+            while (it.hasNext()) {
+                SimpleFeature f = it.next();
+                Geometry g = (Geometry) f.getDefaultGeometry();
+                if (g != null) {
+                    index.insert(g.getEnvelopeInternal(), positions ? Integer.valueOf(i) : f);
+                }
+                i++;
+            }
+        }
+        index.build();
+        return index;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SimpleFeatureCollection filter(SimpleFeatureCollection cached, STRtree index,
+            ReferencedEnvelope bbox, Filter filter, int maxFeatures) {
+        List<SimpleFeature> candidates;
+        if (bbox != null) {
+            candidates = new ArrayList<>();
+            for (Object o : (List<Object>) index.query(bbox)) {
+                candidates.add(o instanceof Integer
+                        ? ((ColumnarFeatureCollection) cached).get((Integer) o)
+                        : (SimpleFeature) o);
+            }
+        } else {
+            candidates = new ArrayList<>();
+            try (SimpleFeatureIterator it = cached.features()) {
+                while (it.hasNext()) {
+                    candidates.add(it.next());
+                }
+            }
+        }
+        List<SimpleFeature> matching = new ArrayList<>();
+        for (SimpleFeature f : candidates) {
+            if (filter.evaluate(f)) {
+                matching.add(f);
+                if (matching.size() >= maxFeatures) {
+                    break;
+                }
+            }
+        }
+        return new GeoJSONFeatureCollection(matching, cached.getSchema());
+    }
+
+    /**
+     * Filters targeting the service reference the geometry property by the name
+     * from capabilities which doesn't necessarily match the name of the geometry
+     * property of the parsed features (GeoJSON responses).
+     */
+    private static Filter toLocalFilter(OskariLayer layer, Filter filter, SimpleFeatureType schema) {
+        GeometryDescriptor gd = schema.getGeometryDescriptor();
+        String remoteGeomName = new WFSLayerCapabilities(layer.getCapabilities()).getGeometryAttribute();
+        if (gd == null || remoteGeomName == null || schema.getDescriptor(remoteGeomName) != null) {
+            return filter;
+        }
+        final String localGeomName = gd.getLocalName();
+        return (Filter) filter.accept(new DuplicatingFilterVisitor(FF) {
+            @Override
+            public Object visit(PropertyName expression, Object extraData) {
+                if (remoteGeomName.equals(expression.getPropertyName())) {
+                    return FF.property(localGeomName);
+                }
+                return super.visit(expression, extraData);
+            }
+        }, null);
     }
 
     private String getCacheKey(OskariLayer layer, Envelope bbox, CoordinateReferenceSystem crs) {
@@ -45,4 +290,9 @@ public class CachingOskariWFSClient extends OskariWFSClient {
         return String.join(",", endPoint, typeName, bboxStr, crsStr);
     }
 
+    private String getCoverageKey(OskariLayer layer, CoordinateReferenceSystem crs) {
+        String crsStr = crs.getIdentifiers().iterator().next().toString();
+        return String.join(",", layer.getUrl(), layer.getName(), crsStr);
+    }
+
 }
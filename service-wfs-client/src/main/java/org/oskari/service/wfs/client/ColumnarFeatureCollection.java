@@ -0,0 +1,626 @@
+package org.oskari.service.wfs.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.CoordinateSequenceFilter;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.PrecisionModel;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.MultiLineString;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
+import org.opengis.feature.FeatureFactory;
+import org.opengis.feature.FeatureVisitor;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.util.ProgressListener;
+import org.oskari.geojson.GeoJSONFeatureCollection;
+
+/**
+ * Read-only SimpleFeatureCollection that stores the features column by column
+ * instead of as individual SimpleFeature objects:
+ * - coordinates of all the geometries are packed into a single double[]
+ * - numeric and boolean attributes are stored in primitive arrays
+ * - string attributes are dictionary-encoded
+ * SimpleFeature objects are only created when the collection is iterated
+ * so they can be garbage collected as soon as the caller is done with them.
+ */
+public class ColumnarFeatureCollection implements SimpleFeatureCollection {
+
+    private static final FeatureFactory FEATURE_FACTORY = CommonFactoryFinder.getFeatureFactory(null);
+
+    private final SimpleFeatureType schema;
+    private final String[] ids;
+    private final Column[] columns;
+    private final ReferencedEnvelope bounds;
+
+    private ColumnarFeatureCollection(SimpleFeatureType schema, String[] ids, Column[] columns, ReferencedEnvelope bounds) {
+        this.schema = schema;
+        this.ids = ids;
+        this.columns = columns;
+        this.bounds = bounds;
+    }
+
+    public static ColumnarFeatureCollection from(SimpleFeatureCollection sfc) {
+        if (sfc instanceof ColumnarFeatureCollection) {
+            return (ColumnarFeatureCollection) sfc;
+        }
+        SimpleFeatureType schema = sfc.getSchema();
+        List<SimpleFeature> features = new ArrayList<>();
+        try (SimpleFeatureIterator it = sfc.features()) {
+            while (it.hasNext()) {
+                features.add(it.next());
+            }
+        }
+        int n = features.size();
+        String[] ids = new String[n];
+        ReferencedEnvelope bounds = new ReferencedEnvelope(schema.getCoordinateReferenceSystem());
+        for (int i = 0; i < n; i++) {
+            SimpleFeature f = features.get(i);
+            ids[i] = f.getID();
+            Object g = f.getDefaultGeometry();
+            if (g instanceof Geometry) {
+                bounds.expandToInclude(((Geometry) g).getEnvelopeInternal());
+            }
+        }
+        int attributeCount = schema.getAttributeCount();
+        Column[] columns = new Column[attributeCount];
+        Object[] values = new Object[n];
+        for (int a = 0; a < attributeCount; a++) {
+            String name = schema.getDescriptor(a).getLocalName();
+            for (int i = 0; i < n; i++) {
+                values[i] = features.get(i).getAttribute(name);
+            }
+            columns[a] = createColumn(values);
+        }
+        return new ColumnarFeatureCollection(schema, ids, columns, bounds);
+    }
+
+    /**
+     * Creates a new SimpleFeature for the feature at index i
+     */
+    public SimpleFeature get(int i) {
+        Object[] values = new Object[columns.length];
+        for (int a = 0; a < columns.length; a++) {
+            values[a] = columns[a].get(i);
+        }
+        return FEATURE_FACTORY.createSimpleFeature(values, schema, ids[i]);
+    }
+
+    @Override
+    public SimpleFeatureType getSchema() {
+        return schema;
+    }
+
+    @Override
+    public String getID() {
+        return "featureCollection";
+    }
+
+    @Override
+    public void accepts(FeatureVisitor visitor, ProgressListener progress) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ReferencedEnvelope getBounds() {
+        return new ReferencedEnvelope(bounds);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof SimpleFeature)) {
+            return false;
+        }
+        String id = ((SimpleFeature) o).getID();
+        if (id == null) {
+            return false;
+        }
+        for (String fid : ids) {
+            if (id.equals(fid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean containsAll(Collection<?> o) {
+        for (Object a : o) {
+            if (!contains(a)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    @Override
+    public int size() {
+        return ids.length;
+    }
+
+    @Override
+    public Object[] toArray() {
+        Object[] arr = new Object[ids.length];
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = get(i);
+        }
+        return arr;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <O> O[] toArray(O[] a) {
+        O[] arr = a.length >= ids.length ? a : Arrays.copyOf(a, ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            arr[i] = (O) get(i);
+        }
+        if (arr.length > ids.length) {
+            arr[ids.length] = null;
+        }
+        return arr;
+    }
+
+    @Override
+    public SimpleFeatureIterator features() {
+        return new SimpleFeatureIterator() {
+            private int i = 0;
+
+            @Override
+            public SimpleFeature next() throws NoSuchElementException {
+                if (i >= ids.length) {
+                    throw new NoSuchElementException();
+                }
+                return get(i++);
+            }
+
+            @Override
+            public boolean hasNext() {
+                return i < ids.length;
+            }
+
+            @Override
+            public void close() {
+                // NOP
+            }
+        };
+    }
+
+    @Override
+    public SimpleFeatureCollection subCollection(Filter filter) {
+        List<SimpleFeature> filtered = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            SimpleFeature f = get(i);
+            if (filter.evaluate(f)) {
+                filtered.add(f);
+            }
+        }
+        return new GeoJSONFeatureCollection(filtered, schema);
+    }
+
+    @Override
+    public SimpleFeatureCollection sort(SortBy order) {
+        throw new UnsupportedOperationException();
+    }
+
+    /* ************************************************
+     * Columns
+     * ************************************************
+     */
+
+    private static Column createColumn(Object[] values) {
+        Class<?> type = null;
+        for (Object value : values) {
+            if (value == null) {
+                continue;
+            }
+            Class<?> c = value instanceof Geometry ? Geometry.class : value.getClass();
+            if (type == null) {
+                type = c;
+            } else if (type != c) {
+                return new ObjectColumn(values);
+            }
+        }
+        if (type == null) {
+            return new NullColumn();
+        }
+        if (type == Geometry.class) {
+            return new GeometryColumn(values);
+        }
+        if (type == String.class) {
+            return new StringColumn(values);
+        }
+        if (type == Integer.class) {
+            return new IntColumn(values);
+        }
+        if (type == Long.class) {
+            return new LongColumn(values);
+        }
+        if (type == Double.class) {
+            return new DoubleColumn(values);
+        }
+        if (type == Boolean.class) {
+            return new BooleanColumn(values);
+        }
+        return new ObjectColumn(values);
+    }
+
+    private interface Column {
+        Object get(int i);
+    }
+
+    private static class NullColumn implements Column {
+        public Object get(int i) {
+            return null;
+        }
+    }
+
+    private static class ObjectColumn implements Column {
+        private final Object[] values;
+
+        private ObjectColumn(Object[] values) {
+            this.values = values.clone();
+        }
+
+        public Object get(int i) {
+            return values[i];
+        }
+    }
+
+    private static BitSet getNulls(Object[] values) {
+        BitSet nulls = new BitSet(values.length);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                nulls.set(i);
+            }
+        }
+        return nulls;
+    }
+
+    private static class IntColumn implements Column {
+        private final int[] values;
+        private final BitSet nulls;
+
+        private IntColumn(Object[] values) {
+            this.values = new int[values.length];
+            this.nulls = getNulls(values);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    this.values[i] = (Integer) values[i];
+                }
+            }
+        }
+
+        public Object get(int i) {
+            return nulls.get(i) ? null : values[i];
+        }
+    }
+
+    private static class LongColumn implements Column {
+        private final long[] values;
+        private final BitSet nulls;
+
+        private LongColumn(Object[] values) {
+            this.values = new long[values.length];
+            this.nulls = getNulls(values);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    this.values[i] = (Long) values[i];
+                }
+            }
+        }
+
+        public Object get(int i) {
+            return nulls.get(i) ? null : values[i];
+        }
+    }
+
+    private static class DoubleColumn implements Column {
+        private final double[] values;
+        private final BitSet nulls;
+
+        private DoubleColumn(Object[] values) {
+            this.values = new double[values.length];
+            this.nulls = getNulls(values);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    this.values[i] = (Double) values[i];
+                }
+            }
+        }
+
+        public Object get(int i) {
+            return nulls.get(i) ? null : values[i];
+        }
+    }
+
+    private static class BooleanColumn implements Column {
+        private final BitSet values;
+        private final BitSet nulls;
+
+        private BooleanColumn(Object[] values) {
+            this.values = new BitSet(values.length);
+            this.nulls = getNulls(values);
+            for (int i = 0; i < values.length; i++) {
+                if (Boolean.TRUE.equals(values[i])) {
+                    this.values.set(i);
+                }
+            }
+        }
+
+        public Object get(int i) {
+            return nulls.get(i) ? null : values.get(i);
+        }
+    }
+
+    private static class StringColumn implements Column {
+        private final int[] codes;
+        private final String[] dictionary;
+
+        private StringColumn(Object[] values) {
+            this.codes = new int[values.length];
+            Map<String, Integer> lookup = new HashMap<>();
+            List<String> dict = new ArrayList<>();
+            for (int i = 0; i < values.length; i++) {
+                String value = (String) values[i];
+                if (value == null) {
+                    codes[i] = -1;
+                    continue;
+                }
+                Integer code = lookup.get(value);
+                if (code == null) {
+                    code = dict.size();
+                    lookup.put(value, code);
+                    dict.add(value);
+                }
+                codes[i] = code;
+            }
+            this.dictionary = dict.toArray(new String[0]);
+        }
+
+        public Object get(int i) {
+            int code = codes[i];
+            return code < 0 ? null : dictionary[code];
+        }
+    }
+
+    /**
+     * Geometries are encoded into a structure stream (geometry type and part/coordinate counts)
+     * and a single packed coordinate array. Geometries are decoded to JTS objects on access.
+     */
+    private static class GeometryColumn implements Column {
+
+        private static final int POINT = 1;
+        private static final int LINESTRING = 2;
+        private static final int LINEARRING = 3;
+        private static final int POLYGON = 4;
+        private static final int MULTIPOINT = 5;
+        private static final int MULTILINESTRING = 6;
+        private static final int MULTIPOLYGON = 7;
+        private static final int COLLECTION = 8;
+
+        private final GeometryFactory gf;
+        private final int dimension;
+        // offset to structure per feature, -1 for null
+        private final int[] structureStarts;
+        private final int[] coordinateStarts;
+        private final int[] structure;
+        private final double[] coordinates;
+
+        private GeometryColumn(Object[] values) {
+            int srid = 0;
+            int structureSize = 0;
+            int coordinateCount = 0;
+            ZCheck zCheck = new ZCheck();
+            for (Object value : values) {
+                if (value == null) {
+                    continue;
+                }
+                Geometry g = (Geometry) value;
+                srid = g.getSRID();
+                g.apply(zCheck);
+                structureSize += getStructureSize(g);
+                coordinateCount += g.getNumPoints();
+            }
+
+            this.gf = new GeometryFactory(new PrecisionModel(), srid, PackedCoordinateSequenceFactory.DOUBLE_FACTORY);
+            this.dimension = zCheck.hasZ ? 3 : 2;
+            this.structureStarts = new int[values.length];
+            this.coordinateStarts = new int[values.length];
+            this.structure = new int[structureSize];
+            this.coordinates = new double[coordinateCount * dimension];
+
+            int[] cursor = new int[2]; // structure offset, coordinate offset
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null) {
+                    structureStarts[i] = -1;
+                    continue;
+                }
+                structureStarts[i] = cursor[0];
+                coordinateStarts[i] = cursor[1];
+                encode((Geometry) values[i], cursor);
+            }
+        }
+
+        public Object get(int i) {
+            int start = structureStarts[i];
+            if (start < 0) {
+                return null;
+            }
+            int[] cursor = { start, coordinateStarts[i] };
+            return decode(cursor);
+        }
+
+        private static int getStructureSize(Geometry g) {
+            if (g instanceof Point || g instanceof LineString) {
+                return 2;
+            }
+            if (g instanceof Polygon) {
+                // type, ring count, point count per ring
+                return g.isEmpty() ? 2 : 3 + ((Polygon) g).getNumInteriorRing();
+            }
+            // GeometryCollection and its subclasses
+            int size = 2;
+            for (int i = 0; i < g.getNumGeometries(); i++) {
+                size += getStructureSize(g.getGeometryN(i));
+            }
+            return size;
+        }
+
+        private void encode(Geometry g, int[] cursor) {
+            if (g instanceof Point) {
+                structure[cursor[0]++] = POINT;
+                encode(((Point) g).getCoordinateSequence(), cursor);
+            } else if (g instanceof LinearRing) {
+                structure[cursor[0]++] = LINEARRING;
+                encode(((LinearRing) g).getCoordinateSequence(), cursor);
+            } else if (g instanceof LineString) {
+                structure[cursor[0]++] = LINESTRING;
+                encode(((LineString) g).getCoordinateSequence(), cursor);
+            } else if (g instanceof Polygon) {
+                Polygon p = (Polygon) g;
+                structure[cursor[0]++] = POLYGON;
+                int holes = p.getNumInteriorRing();
+                // empty polygon -> no rings
+                structure[cursor[0]++] = p.isEmpty() ? 0 : 1 + holes;
+                if (!p.isEmpty()) {
+                    encode(p.getExteriorRing().getCoordinateSequence(), cursor);
+                    for (int h = 0; h < holes; h++) {
+                        encode(p.getInteriorRingN(h).getCoordinateSequence(), cursor);
+                    }
+                }
+            } else {
+                int type = g instanceof MultiPoint ? MULTIPOINT
+                        : g instanceof MultiLineString ? MULTILINESTRING
+                        : g instanceof MultiPolygon ? MULTIPOLYGON
+                        : COLLECTION;
+                structure[cursor[0]++] = type;
+                structure[cursor[0]++] = g.getNumGeometries();
+                for (int i = 0; i < g.getNumGeometries(); i++) {
+                    encode(g.getGeometryN(i), cursor);
+                }
+            }
+        }
+
+        private void encode(CoordinateSequence seq, int[] cursor) {
+            int n = seq.size();
+            structure[cursor[0]++] = n;
+            int offset = cursor[1];
+            for (int i = 0; i < n; i++) {
+                coordinates[offset++] = seq.getX(i);
+                coordinates[offset++] = seq.getY(i);
+                if (dimension == 3) {
+                    coordinates[offset++] = seq.getDimension() > 2 ? seq.getZ(i) : Double.NaN;
+                }
+            }
+            cursor[1] = offset;
+        }
+
+        private Geometry decode(int[] cursor) {
+            int type = structure[cursor[0]++];
+            switch (type) {
+            case POINT:
+                return gf.createPoint(decodeSequence(cursor));
+            case LINESTRING:
+                return gf.createLineString(decodeSequence(cursor));
+            case LINEARRING:
+                return gf.createLinearRing(decodeSequence(cursor));
+            case POLYGON:
+                int rings = structure[cursor[0]++];
+                if (rings == 0) {
+                    return gf.createPolygon();
+                }
+                LinearRing shell = gf.createLinearRing(decodeSequence(cursor));
+                LinearRing[] holes = new LinearRing[rings - 1];
+                for (int h = 0; h < holes.length; h++) {
+                    holes[h] = gf.createLinearRing(decodeSequence(cursor));
+                }
+                return gf.createPolygon(shell, holes);
+            default:
+                int n = structure[cursor[0]++];
+                switch (type) {
+                case MULTIPOINT:
+                    Point[] points = new Point[n];
+                    for (int i = 0; i < n; i++) {
+                        points[i] = (Point) decode(cursor);
+                    }
+                    return gf.createMultiPoint(points);
+                case MULTILINESTRING:
+                    LineString[] lines = new LineString[n];
+                    for (int i = 0; i < n; i++) {
+                        lines[i] = (LineString) decode(cursor);
+                    }
+                    return gf.createMultiLineString(lines);
+                case MULTIPOLYGON:
+                    Polygon[] polygons = new Polygon[n];
+                    for (int i = 0; i < n; i++) {
+                        polygons[i] = (Polygon) decode(cursor);
+                    }
+                    return gf.createMultiPolygon(polygons);
+                default:
+                    Geometry[] geoms = new Geometry[n];
+                    for (int i = 0; i < n; i++) {
+                        geoms[i] = decode(cursor);
+                    }
+                    return gf.createGeometryCollection(geoms);
+                }
+            }
+        }
+
+        private CoordinateSequence decodeSequence(int[] cursor) {
+            int n = structure[cursor[0]++];
+            int from = cursor[1];
+            int to = from + n * dimension;
+            cursor[1] = to;
+            return new PackedCoordinateSequence.Double(Arrays.copyOfRange(coordinates, from, to), dimension, 0);
+        }
+    }
+
+    private static class ZCheck implements CoordinateSequenceFilter {
+        private boolean hasZ = false;
+
+        @Override
+        public void filter(CoordinateSequence seq, int i) {
+            if (seq.getDimension() > 2 && !Double.isNaN(seq.getZ(i))) {
+                hasZ = true;
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            return hasZ;
+        }
+
+        @Override
+        public boolean isGeometryChanged() {
+            return false;
+        }
+    }
+
+}
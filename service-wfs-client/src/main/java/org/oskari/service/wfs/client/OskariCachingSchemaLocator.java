@@ -2,8 +2,16 @@ package org.oskari.service.wfs.client;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.net.HttpURLConnection;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 import org.eclipse.emf.common.util.URI;
 import org.eclipse.emf.ecore.resource.ResourceSet;
@@ -12,15 +20,28 @@ import org.eclipse.xsd.XSDSchema;
 import org.eclipse.xsd.util.XSDResourceImpl;
 import org.eclipse.xsd.util.XSDSchemaLocator;
 
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+
 import fi.nls.oskari.cache.ComputeOnceCache;
+import fi.nls.oskari.domain.map.OskariLayer;
 import fi.nls.oskari.log.LogFactory;
 import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.util.MetricsHelper;
+import fi.nls.oskari.util.PropertyUtil;
 
 public class OskariCachingSchemaLocator implements XSDSchemaLocator {
 
     private static final Logger LOG = LogFactory.getLogger(OskariCachingSchemaLocator.class);
     private static final ComputeOnceCache<XSDSchema> CACHE = new ComputeOnceCache<>(100, TimeUnit.DAYS.toMillis(1));
+    private static final OskariSchemaStore STORE = new OskariSchemaStore();
+    private static final AtomicBoolean PREWARM_STARTED = new AtomicBoolean(false);
+    // Time spent resolving schemas on the current thread, see resetResolutionTime()
+    private static final ThreadLocal<long[]> RESOLUTION_TIME_MS = ThreadLocal.withInitial(() -> new long[1]);
+    protected static final String PROPERTY_PREWARM = "oskari.wfs.schema.prewarm";
+    private static final String METRICS_PREFIX = "Oskari.wfs.schema.";
+    private static final MetricRegistry METRICS = SharedMetricRegistries.getOrCreate(MetricsHelper.REGISTRY_NAME);
 
     private final String username;
     private final String password;
@@ -35,7 +56,126 @@ public class OskariCachingSchemaLocator implements XSDSchemaLocator {
             String namespaceURI,
             String rawSchemaLocationURI,
             String resolvedSchemaLocationURI) {
-        return CACHE.get(rawSchemaLocationURI, uri -> parseSchema(uri, username, password));
+        long start = System.currentTimeMillis();
+        try {
+            return CACHE.get(getCacheKey(rawSchemaLocationURI), __ -> parseSchema(rawSchemaLocationURI, username, password));
+        } finally {
+            RESOLUTION_TIME_MS.get()[0] += System.currentTimeMillis() - start;
+        }
+    }
+
+    /**
+     * Returns the time spent resolving schemas on the current thread since
+     * the previous call and resets the counter
+     */
+    public static long resetResolutionTime() {
+        long[] time = RESOLUTION_TIME_MS.get();
+        long ms = time[0];
+        time[0] = 0L;
+        return ms;
+    }
+
+    /**
+     * Time spent resolving schemas for the layer is available from the shared metrics registry
+     * as Oskari.wfs.schema.[layer id]
+     */
+    public static void updateResolutionTime(int layerId, long ms) {
+        METRICS.timer(METRICS_PREFIX + layerId).update(ms, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Resolves the DescribeFeatureType schemas of the WFS layers in a background thread so the first
+     * GML request for each layer after a restart doesn't have to wait for them. Schemas stored on disk
+     * are compiled first. Only the first call starts the prewarming. Disable with oskari.wfs.schema.prewarm=false
+     * @param layers called on the background thread
+     */
+    public static void prewarm(Supplier<List<OskariLayer>> layers) {
+        if (!PropertyUtil.getOptional(PROPERTY_PREWARM, true) || !PREWARM_STARTED.compareAndSet(false, true)) {
+            return;
+        }
+        Thread t = new Thread(() -> {
+            long start = System.currentTimeMillis();
+            if (STORE.isEnabled()) {
+                List<String> uris = STORE.getStoredURIs();
+                // No credentials here, stale schemas of secured services fall back to the stored copy
+                uris.forEach(uri -> CACHE.get(getCacheKey(uri), __ -> parseSchema(uri, null, null)));
+                LOG.info("Prewarmed", uris.size(), "stored schemas in", System.currentTimeMillis() - start, "ms");
+            }
+            List<OskariLayer> wfsLayers;
+            try {
+                wfsLayers = layers.get();
+            } catch (Exception e) {
+                LOG.warn(e, "Couldn't list layers for prewarming schemas");
+                return;
+            }
+            int count = 0;
+            for (OskariLayer layer : wfsLayers) {
+                String uri = getDescribeFeatureTypeURI(layer);
+                if (uri == null) {
+                    continue;
+                }
+                long layerStart = System.currentTimeMillis();
+                try {
+                    CACHE.get(getCacheKey(uri), __ -> parseSchema(uri, layer.getUsername(), layer.getPassword()));
+                    updateResolutionTime(layer.getId(), System.currentTimeMillis() - layerStart);
+                    count++;
+                } catch (Exception e) {
+                    LOG.info("Couldn't prewarm schema for layer:", layer.getId(), e.getMessage());
+                }
+            }
+            LOG.info("Prewarmed schemas for", count, "layers in", System.currentTimeMillis() - start, "ms");
+        }, "oskari-schema-prewarm");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * @return null for layers that aren't parsed from GML with the schemas
+     */
+    protected static String getDescribeFeatureTypeURI(OskariLayer layer) {
+        if (!OskariLayer.TYPE_WFS.equals(layer.getType()) || layer.getUrl() == null || layer.getName() == null) {
+            return null;
+        }
+        String version = layer.getVersion();
+        if (!"1.1.0".equals(version) && !"2.0.0".equals(version)) {
+            return null;
+        }
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("SERVICE", "WFS");
+        params.put("VERSION", version);
+        params.put("REQUEST", "DescribeFeatureType");
+        params.put("TYPENAME", layer.getName());
+        return IOHelper.constructUrl(layer.getUrl(), params);
+    }
+
+    /**
+     * Services reference the DescribeFeatureType schema with their own parameter order and case
+     * so the cache key is normalized to match the URI built for prewarming
+     */
+    protected static String getCacheKey(String uri) {
+        int q = uri.indexOf('?');
+        if (q == -1) {
+            return uri;
+        }
+        Map<String, String> params = new TreeMap<>();
+        for (String param : uri.substring(q + 1).split("&")) {
+            if (param.isEmpty()) {
+                continue;
+            }
+            int eq = param.indexOf('=');
+            String name = eq == -1 ? param : param.substring(0, eq);
+            String value = eq == -1 ? "" : param.substring(eq + 1);
+            params.put(decode(name).toUpperCase(Locale.ROOT), decode(value));
+        }
+        return uri.substring(0, q) + "?" + params;
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            return s;
+        }
     }
 
     protected static XSDSchema parseSchema(String rawSchemaLocationURI, String username, String password) {
@@ -43,12 +183,10 @@ public class OskariCachingSchemaLocator implements XSDSchemaLocator {
             return null;
         }
         try {
-            HttpURLConnection conn = IOHelper.getConnection(rawSchemaLocationURI, username, password);
-            if (conn.getResponseCode() != 200) {
-                LOG.warn("Unable to load schema:", rawSchemaLocationURI);
+            byte[] response = STORE.get(rawSchemaLocationURI, username, password);
+            if (response == null) {
                 return null;
             }
-            byte[] response = IOHelper.readBytes(conn);
             ResourceSet resourceSet = new ResourceSetImpl();
             resourceSet.getResourceFactoryRegistry().getExtensionToFactoryMap().put("xsd", new org.eclipse.xsd.util.XSDResourceFactoryImpl());
             XSDResourceImpl xsdMainResource = (XSDResourceImpl) resourceSet.createResource(URI.createURI(".xsd"));
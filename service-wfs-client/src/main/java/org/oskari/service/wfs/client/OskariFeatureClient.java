@@ -12,6 +12,7 @@ import org.geotools.referencing.CRS;
 import org.opengis.filter.Filter;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.oskari.service.user.UserLayerService;
+import org.oskari.service.wfs3.CRSRegistry;
 import org.oskari.service.wfs3.CoordinateTransformer;
 
 import java.util.Objects;
@@ -35,7 +36,7 @@ public class OskariFeatureClient {
         if (nativeCRS == null) {
             try {
                 String nativeSrs = PropertyUtil.get(PROPERTY_NATIVE_SRS, "EPSG:4326");
-                nativeCRS = CRS.decode(nativeSrs, true);
+                nativeCRS = CRSRegistry.decode(nativeSrs, true);
             } catch (Exception e) {
                 throw new ServiceRuntimeException(ERR_NATIVE_SRS_DECODE_FAIL, e);
             }
@@ -0,0 +1,292 @@
+package org.oskari.service.wfs.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
+import fi.nls.oskari.util.IOHelper;
+import fi.nls.oskari.util.PropertyUtil;
+
+/**
+ * Disk-backed store for schema documents (DescribeFeatureType responses and the schemas they import).
+ * Stored schemas survive restarts and are revalidated with conditional requests
+ * (If-None-Match/If-Modified-Since) once they are older than the configured max age.
+ * If the service can't be reached the stored copy is used as is.
+ *
+ * Schemas of secured services are stored as well so the directory must only be accessible by the user
+ * running Oskari. It's created with owner-only permissions and the store is disabled if an existing directory
+ * is accessible by other users. Schemas that haven't been downloaded in a while are removed on startup.
+ *
+ * Configure with:
+ * - oskari.wfs.schema.dir (disabled if not configured)
+ * - oskari.wfs.schema.maxAgeMinutes (defaults to one day)
+ * - oskari.wfs.schema.expireDays (defaults to 30)
+ */
+public class OskariSchemaStore {
+
+    private static final Logger LOG = LogFactory.getLogger(OskariSchemaStore.class);
+
+    protected static final String PROPERTY_DIR = "oskari.wfs.schema.dir";
+    protected static final String PROPERTY_MAX_AGE = "oskari.wfs.schema.maxAgeMinutes";
+    protected static final String PROPERTY_EXPIRE = "oskari.wfs.schema.expireDays";
+
+    private static final String SUFFIX_SCHEMA = ".xsd";
+    private static final String SUFFIX_META = ".properties";
+    private static final String SUFFIX_TMP = ".tmp";
+    private static final String META_URI = "uri";
+    private static final String META_ETAG = "etag";
+    private static final String META_LAST_MODIFIED = "lastModified";
+    private static final String META_CHECKED = "checked";
+
+    private final Path dir;
+    private final long maxAgeMs;
+
+    public OskariSchemaStore() {
+        this(getDefaultDir(),
+                TimeUnit.MINUTES.toMillis(PropertyUtil.getOptional(PROPERTY_MAX_AGE, 24 * 60)),
+                TimeUnit.DAYS.toMillis(PropertyUtil.getOptional(PROPERTY_EXPIRE, 30)));
+    }
+
+    public OskariSchemaStore(Path dir, long maxAgeMs) {
+        this(dir, maxAgeMs, TimeUnit.DAYS.toMillis(30));
+    }
+
+    /**
+     * @param dir directory for the schemas, null to disable storing
+     * @param maxAgeMs stored schemas older than this are revalidated
+     * @param expireMs stored schemas not downloaded within this time are removed
+     */
+    public OskariSchemaStore(Path dir, long maxAgeMs, long expireMs) {
+        this.dir = dir != null && IOHelper.isPrivateDirectory(dir) ? dir : null;
+        if (dir != null && this.dir == null) {
+            LOG.warn("Not storing schemas, directory can't be used:", dir);
+        }
+        this.maxAgeMs = maxAgeMs;
+        if (this.dir != null) {
+            removeExpired(expireMs);
+        }
+    }
+
+    private static Path getDefaultDir() {
+        String dir = PropertyUtil.get(PROPERTY_DIR, "").trim();
+        return dir.isEmpty() ? null : Paths.get(dir);
+    }
+
+    /**
+     * Removes schemas that haven't been downloaded (with a 200 response) within the expiration time
+     * and leftovers from interrupted writes
+     */
+    private void removeExpired(long expireMs) {
+        long expired = System.currentTimeMillis() - expireMs;
+        int removed = 0;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(SUFFIX_TMP)) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                if (!name.endsWith(SUFFIX_META)) {
+                    continue;
+                }
+                Path schemaFile = dir.resolve(name.substring(0, name.length() - SUFFIX_META.length()) + SUFFIX_SCHEMA);
+                if (!Files.exists(schemaFile) || Files.getLastModifiedTime(schemaFile).toMillis() < expired) {
+                    Files.deleteIfExists(schemaFile);
+                    Files.deleteIfExists(file);
+                    removed++;
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn(e, "Unable to remove expired schemas from:", dir);
+        }
+        if (removed > 0) {
+            LOG.info("Removed", removed, "expired schemas from:", dir);
+        }
+    }
+
+    public boolean isEnabled() {
+        return dir != null;
+    }
+
+    /**
+     * Returns the schema document from disk or from the service
+     * @return null if the schema isn't available
+     */
+    public byte[] get(String uri, String username, String password) {
+        if (!isEnabled()) {
+            return download(uri, username, password, null);
+        }
+        String id = getId(uri);
+        Path schemaFile = dir.resolve(id + SUFFIX_SCHEMA);
+        Path metaFile = dir.resolve(id + SUFFIX_META);
+        Properties meta = readMeta(metaFile);
+        byte[] stored = meta != null ? readFile(schemaFile) : null;
+        if (stored == null) {
+            meta = new Properties();
+            meta.setProperty(META_URI, uri);
+            byte[] schema = download(uri, username, password, meta);
+            if (schema != null) {
+                write(schemaFile, metaFile, schema, meta);
+            }
+            return schema;
+        }
+
+        long checked = Long.parseLong(meta.getProperty(META_CHECKED, "0"));
+        if (System.currentTimeMillis() - checked < maxAgeMs) {
+            return stored;
+        }
+
+        byte[] schema = download(uri, username, password, meta);
+        if (schema == null) {
+            // Not modified (304) or the service is unavailable -> use what we have
+            write(schemaFile, metaFile, null, meta);
+            return stored;
+        }
+        write(schemaFile, metaFile, schema, meta);
+        return schema;
+    }
+
+    /**
+     * @return URIs of all the stored schemas
+     */
+    public List<String> getStoredURIs() {
+        List<String> uris = new ArrayList<>();
+        if (!isEnabled()) {
+            return uris;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(p -> p.getFileName().toString().endsWith(SUFFIX_META))
+                    .map(OskariSchemaStore::readMeta)
+                    .filter(meta -> meta != null && meta.getProperty(META_URI) != null)
+                    .forEach(meta -> uris.add(meta.getProperty(META_URI)));
+        } catch (IOException e) {
+            LOG.warn(e, "Unable to list stored schemas in:", dir);
+        }
+        return uris;
+    }
+
+    /**
+     * Downloads the schema, sends a conditional request if meta contains ETag/Last-Modified
+     * and updates the validators in meta from the response.
+     * @return null if the schema wasn't modified or couldn't be downloaded
+     */
+    private static byte[] download(String uri, String username, String password, Properties meta) {
+        try {
+            HttpURLConnection conn = IOHelper.getConnection(uri, username, password);
+            if (meta != null) {
+                String etag = meta.getProperty(META_ETAG);
+                String lastModified = meta.getProperty(META_LAST_MODIFIED);
+                if (etag != null) {
+                    conn.setRequestProperty("If-None-Match", etag);
+                }
+                if (lastModified != null) {
+                    conn.setRequestProperty("If-Modified-Since", lastModified);
+                }
+            }
+            int sc = conn.getResponseCode();
+            if (meta != null) {
+                meta.setProperty(META_CHECKED, Long.toString(System.currentTimeMillis()));
+            }
+            if (sc == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                LOG.debug("Schema not modified:", uri);
+                return null;
+            }
+            if (sc != HttpURLConnection.HTTP_OK) {
+                LOG.warn("Unable to load schema:", uri, "- status code:", sc);
+                return null;
+            }
+            byte[] response = IOHelper.readBytes(conn);
+            if (meta != null) {
+                setOrRemove(meta, META_ETAG, conn.getHeaderField("ETag"));
+                setOrRemove(meta, META_LAST_MODIFIED, conn.getHeaderField("Last-Modified"));
+            }
+            return response;
+        } catch (IOException e) {
+            LOG.warn(e, "Failed to load schema:", uri);
+            return null;
+        }
+    }
+
+    private static void setOrRemove(Properties meta, String key, String value) {
+        if (value == null) {
+            meta.remove(key);
+        } else {
+            meta.setProperty(key, value);
+        }
+    }
+
+    private static Properties readMeta(Path metaFile) {
+        if (!Files.exists(metaFile)) {
+            return null;
+        }
+        try (InputStream in = Files.newInputStream(metaFile)) {
+            Properties meta = new Properties();
+            meta.load(in);
+            return meta;
+        } catch (IOException e) {
+            LOG.warn(e, "Unable to read schema metadata:", metaFile);
+            return null;
+        }
+    }
+
+    private static byte[] readFile(Path file) {
+        try {
+            return Files.readAllBytes(file);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes to temp files first and moves them in place so concurrent
+     * readers never see partially written files
+     */
+    private void write(Path schemaFile, Path metaFile, byte[] schema, Properties meta) {
+        try {
+            if (schema != null) {
+                // temp files are created with owner-only permissions
+                Path tmp = Files.createTempFile(dir, "schema", SUFFIX_TMP);
+                Files.write(tmp, schema);
+                Files.move(tmp, schemaFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            Path tmp = Files.createTempFile(dir, "meta", SUFFIX_TMP);
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                meta.store(out, null);
+            }
+            Files.move(tmp, metaFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn(e, "Unable to store schema:", schemaFile);
+        }
+    }
+
+    private static String getId(String uri) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(uri.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-1 is always available
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
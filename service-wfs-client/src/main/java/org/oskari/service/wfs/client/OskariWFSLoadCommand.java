@@ -13,6 +13,8 @@ import com.netflix.hystrix.HystrixCommandKey;
 import com.netflix.hystrix.HystrixCommandProperties;
 import com.netflix.hystrix.HystrixThreadPoolProperties;
 
+import fi.nls.oskari.log.LogFactory;
+import fi.nls.oskari.log.Logger;
 import fi.nls.oskari.util.PropertyUtil;
 
 public class OskariWFSLoadCommand extends HystrixCommand<SimpleFeatureCollection> {
@@ -20,6 +22,7 @@ public class OskariWFSLoadCommand extends HystrixCommand<SimpleFeatureCollection
     private static final String WFS_3_VERSION = "3.0.0";
     private static final String WFS_2_VERSION = "2.0.0";
     private static final String GROUP_KEY = "wfs";
+    private static final Logger LOG = LogFactory.getLogger(OskariWFSLoadCommand.class);
 
     private final OskariLayer layer;
     private final ReferencedEnvelope bbox;
@@ -55,13 +58,22 @@ public class OskariWFSLoadCommand extends HystrixCommand<SimpleFeatureCollection
 
     @Override
     protected SimpleFeatureCollection run() throws Exception {
-        switch (layer.getVersion()) {
-        case WFS_3_VERSION:
-            return OskariWFS3Client.getFeatures(layer, bbox, crs, filter);
-        case WFS_2_VERSION:
-            return OskariWFS2Client.getFeatures(layer, bbox, crs, filter);
-        default:
-            return OskariWFS110Client.getFeatures(layer, bbox, crs, filter);
+        OskariCachingSchemaLocator.resetResolutionTime();
+        try {
+            switch (layer.getVersion()) {
+            case WFS_3_VERSION:
+                return OskariWFS3Client.getFeatures(layer, bbox, crs, filter);
+            case WFS_2_VERSION:
+                return OskariWFS2Client.getFeatures(layer, bbox, crs, filter);
+            default:
+                return OskariWFS110Client.getFeatures(layer, bbox, crs, filter);
+            }
+        } finally {
+            long ms = OskariCachingSchemaLocator.resetResolutionTime();
+            if (ms > 0) {
+                OskariCachingSchemaLocator.updateResolutionTime(layer.getId(), ms);
+                LOG.debug("Resolving schemas for layer", layer.getId(), "took", ms, "ms");
+            }
         }
     }
 
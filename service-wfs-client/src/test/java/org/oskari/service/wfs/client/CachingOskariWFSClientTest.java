@@ -0,0 +1,122 @@
+package org.oskari.service.wfs.client;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Point;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.oskari.geojson.GeoJSONFeatureCollection;
+
+import fi.nls.oskari.domain.map.OskariLayer;
+
+public class CachingOskariWFSClientTest {
+
+    private static final String FILTER = "{\"filter\":{\"property\":{\"key\": \"name\", \"value\": \"even\"}}}";
+    private static final String CAPABILITIES = "{\"geomName\":\"geom\"}";
+
+    private static class CountingClient extends CachingOskariWFSClient {
+        private int remoteRequests = 0;
+
+        CountingClient() {
+            super(true);
+        }
+
+        @Override
+        protected SimpleFeatureCollection loadFeatures(OskariLayer layer,
+                ReferencedEnvelope bbox, CoordinateReferenceSystem crs, Filter filter) {
+            remoteRequests++;
+            return createFeatures(crs);
+        }
+    }
+
+    @Test
+    public void testFilteredRequestServedFromCoveringBbox() throws Exception {
+        CoordinateReferenceSystem crs = CRS.decode("EPSG:3067");
+        OskariLayer layer = createLayer("http://localhost/covering");
+        CountingClient client = new CountingClient();
+
+        ReferencedEnvelope full = new ReferencedEnvelope(0, 100, 0, 100, crs);
+        assertEquals(100, client.getFeatures(layer, full, crs, null).size());
+        assertEquals(1, client.remoteRequests);
+
+        ReferencedEnvelope half = new ReferencedEnvelope(0, 100, 0, 49.5, crs);
+        Filter filter = client.getWFSFilter(null, layer, half, java.util.Optional.empty());
+        SimpleFeatureCollection filtered = client.getFeatures(layer, half, crs, filter);
+        assertEquals("Expected no remote request for filtered request", 1, client.remoteRequests);
+        assertEquals(25, filtered.size());
+    }
+
+    @Test
+    public void testFilteredRequestWithoutCoveringBboxGoesRemote() throws Exception {
+        CoordinateReferenceSystem crs = CRS.decode("EPSG:3067");
+        OskariLayer layer = createLayer("http://localhost/notcovering");
+        CountingClient client = new CountingClient();
+
+        client.getFeatures(layer, new ReferencedEnvelope(0, 50, 0, 50, crs), crs, null);
+        ReferencedEnvelope bbox = new ReferencedEnvelope(0, 100, 0, 100, crs);
+        Filter filter = client.getWFSFilter(null, layer, bbox, java.util.Optional.empty());
+        client.getFeatures(layer, bbox, crs, filter);
+        assertEquals(2, client.remoteRequests);
+    }
+
+    @Test
+    public void testTruncatedResponseOfAnotherLayerGoesRemote() throws Exception {
+        CoordinateReferenceSystem crs = CRS.decode("EPSG:3067");
+        OskariLayer limited = createLayer("http://localhost/truncated");
+        limited.getAttributes().put("maxFeatures", 100);
+        OskariLayer layer = createLayer("http://localhost/truncated");
+        layer.getAttributes().put("maxFeatures", 1000);
+        CountingClient client = new CountingClient();
+
+        ReferencedEnvelope bbox = new ReferencedEnvelope(0, 100, 0, 100, crs);
+        client.getFeatures(limited, bbox, crs, null);
+        Filter filter = client.getWFSFilter(null, layer, bbox, java.util.Optional.empty());
+        client.getFeatures(layer, bbox, crs, filter);
+        assertEquals("Response truncated by the lower limit of another layer isn't filtered locally",
+                2, client.remoteRequests);
+    }
+
+    private static OskariLayer createLayer(String url) throws Exception {
+        OskariLayer layer = new OskariLayer();
+        layer.setType(OskariLayer.TYPE_WFS);
+        layer.setUrl(url);
+        layer.setName("test");
+        layer.setCapabilities(new JSONObject(CAPABILITIES));
+        layer.setAttributes(new JSONObject(FILTER));
+        return layer;
+    }
+
+    private static SimpleFeatureCollection createFeatures(CoordinateReferenceSystem crs) {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("test");
+        tb.setCRS(crs);
+        tb.add("geometry", Point.class);
+        tb.add("name", String.class);
+        SimpleFeatureType type = tb.buildFeatureType();
+        SimpleFeatureBuilder b = new SimpleFeatureBuilder(type);
+        GeometryFactory gf = new GeometryFactory();
+        List<SimpleFeature> features = new ArrayList<>();
+        // 10x10 grid of points with every other one named "even"
+        for (int i = 0; i < 100; i++) {
+            b.set("geometry", gf.createPoint(new Coordinate(i % 10 * 10 + 0.5, i / 10 * 10 + 0.5)));
+            b.set("name", i % 2 == 0 ? "even" : "odd");
+            features.add(b.buildFeature("f." + i));
+        }
+        return new GeoJSONFeatureCollection(features, type);
+    }
+
+}
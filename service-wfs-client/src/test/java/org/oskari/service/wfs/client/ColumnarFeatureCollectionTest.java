@@ -0,0 +1,97 @@
+package org.oskari.service.wfs.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.io.WKTReader;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.oskari.geojson.GeoJSONFeatureCollection;
+
+public class ColumnarFeatureCollectionTest {
+
+    private static final String[] WKT = {
+            "POINT (1 2)",
+            "LINESTRING (0 0, 1 1, 2 3)",
+            "POLYGON ((0 0, 10 0, 10 10, 0 0), (1 1, 2 1, 2 2, 1 1))",
+            "MULTIPOLYGON (((0 0, 1 0, 1 1, 0 0)), ((5 5, 6 5, 6 6, 5 5)))",
+            "MULTILINESTRING ((0 0, 1 1), (2 2, 3 3))",
+            "GEOMETRYCOLLECTION (POINT (1 1), LINESTRING (0 0, 1 1))",
+            null
+    };
+
+    @Test
+    public void testValuesAreKept() throws Exception {
+        SimpleFeatureCollection original = createFeatures();
+        ColumnarFeatureCollection columnar = ColumnarFeatureCollection.from(original);
+        assertEquals(original.size(), columnar.size());
+        assertEquals(new Envelope(original.getBounds()), new Envelope(columnar.getBounds()));
+
+        List<SimpleFeature> expected = toList(original);
+        List<SimpleFeature> actual = toList(columnar);
+        for (int i = 0; i < expected.size(); i++) {
+            SimpleFeature e = expected.get(i);
+            SimpleFeature a = actual.get(i);
+            assertEquals(e.getID(), a.getID());
+            assertEquals(e.getAttribute("name"), a.getAttribute("name"));
+            assertEquals(e.getAttribute("count"), a.getAttribute("count"));
+            assertEquals(e.getAttribute("value"), a.getAttribute("value"));
+            assertEquals(e.getAttribute("visible"), a.getAttribute("visible"));
+            Geometry eg = (Geometry) e.getDefaultGeometry();
+            Geometry ag = (Geometry) a.getDefaultGeometry();
+            if (eg == null) {
+                assertNull(ag);
+            } else {
+                assertTrue(eg.equalsExact(ag));
+            }
+        }
+    }
+
+    private SimpleFeatureCollection createFeatures() throws Exception {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("test");
+        tb.setCRS(DefaultGeographicCRS.WGS84);
+        tb.add("geometry", Geometry.class);
+        tb.add("name", String.class);
+        tb.add("count", Integer.class);
+        tb.add("value", Double.class);
+        tb.add("visible", Boolean.class);
+        SimpleFeatureType type = tb.buildFeatureType();
+        SimpleFeatureBuilder b = new SimpleFeatureBuilder(type);
+        WKTReader reader = new WKTReader();
+        List<SimpleFeature> features = new ArrayList<>();
+        for (int i = 0; i < WKT.length; i++) {
+            b.set("geometry", WKT[i] == null ? null : reader.read(WKT[i]));
+            // repeating values for the dictionary, null every third
+            b.set("name", i % 3 == 0 ? null : "name" + (i % 2));
+            b.set("count", i % 3 == 1 ? null : i);
+            b.set("value", i * 0.5);
+            b.set("visible", i % 2 == 0);
+            features.add(b.buildFeature("f." + i));
+        }
+        return new GeoJSONFeatureCollection(features, type);
+    }
+
+    private List<SimpleFeature> toList(SimpleFeatureCollection sfc) {
+        List<SimpleFeature> list = new ArrayList<>();
+        try (SimpleFeatureIterator it = sfc.features()) {
+            while (it.hasNext()) {
+                list.add(it.next());
+            }
+        }
+        return list;
+    }
+
+}
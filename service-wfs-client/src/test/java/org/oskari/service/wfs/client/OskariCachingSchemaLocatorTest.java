@@ -0,0 +1,27 @@
+package org.oskari.service.wfs.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import fi.nls.oskari.domain.map.OskariLayer;
+
+public class OskariCachingSchemaLocatorTest {
+
+    @Test
+    public void testPrewarmedURIMatchesServiceReference() {
+        OskariLayer layer = new OskariLayer();
+        layer.setType(OskariLayer.TYPE_WFS);
+        layer.setVersion("1.1.0");
+        layer.setUrl("https://localhost/geoserver/wfs");
+        layer.setName("ns:roads");
+        String prewarmed = OskariCachingSchemaLocator.getDescribeFeatureTypeURI(layer);
+        // as referenced in the schemaLocation of a GetFeature response
+        String referenced = "https://localhost/geoserver/wfs?service=WFS&version=1.1.0&request=DescribeFeatureType&typeName=ns%3Aroads";
+        assertEquals(OskariCachingSchemaLocator.getCacheKey(referenced), OskariCachingSchemaLocator.getCacheKey(prewarmed));
+
+        layer.setVersion("3.0.0");
+        assertNull("Not parsed from GML", OskariCachingSchemaLocator.getDescribeFeatureTypeURI(layer));
+    }
+}
@@ -0,0 +1,121 @@
+package org.oskari.service.wfs.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class OskariSchemaStoreTest {
+
+    private static final byte[] SCHEMA = "<xsd:schema xmlns:xsd=\"http://www.w3.org/2001/XMLSchema\"/>"
+            .getBytes(StandardCharsets.UTF_8);
+    private static final String ETAG = "\"v1\"";
+
+    private HttpServer server;
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private final AtomicInteger notModifiedResponses = new AtomicInteger();
+    private String uri;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/schema.xsd", exchange -> {
+            if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModifiedResponses.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            fullResponses.incrementAndGet();
+            exchange.getResponseHeaders().add("ETag", ETAG);
+            exchange.sendResponseHeaders(200, SCHEMA.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(SCHEMA);
+            }
+        });
+        server.start();
+        uri = "http://localhost:" + server.getAddress().getPort() + "/schema.xsd";
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testStoredSchemaIsUsedWhileFresh() throws Exception {
+        Path dir = Files.createTempDirectory("schemas");
+        OskariSchemaStore store = new OskariSchemaStore(dir, 60_000L);
+        assertArrayEquals(SCHEMA, store.get(uri, null, null));
+        // new instance == restart
+        store = new OskariSchemaStore(dir, 60_000L);
+        assertArrayEquals(SCHEMA, store.get(uri, null, null));
+        assertEquals(1, fullResponses.get());
+        assertEquals(1, store.getStoredURIs().size());
+        assertEquals(uri, store.getStoredURIs().get(0));
+    }
+
+    @Test
+    public void testStaleSchemaIsRevalidated() throws Exception {
+        Path dir = Files.createTempDirectory("schemas");
+        OskariSchemaStore store = new OskariSchemaStore(dir, -1L);
+        assertArrayEquals(SCHEMA, store.get(uri, null, null));
+        assertArrayEquals(SCHEMA, store.get(uri, null, null));
+        assertEquals(1, fullResponses.get());
+        assertEquals(1, notModifiedResponses.get());
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        assertFalse(new OskariSchemaStore().isEnabled());
+    }
+
+    @Test
+    public void testDirectoryIsPrivate() throws Exception {
+        Path parent = Files.createTempDirectory("schemas");
+        Path dir = parent.resolve("store");
+        assertTrue(new OskariSchemaStore(dir, 60_000L).isEnabled());
+        assumeTrue(dir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(dir));
+
+        Path shared = parent.resolve("shared");
+        Files.createDirectory(shared);
+        Files.setPosixFilePermissions(shared, PosixFilePermissions.fromString("rwxrwxrwx"));
+        assertFalse("Directory accessible by others is not used", new OskariSchemaStore(shared, 60_000L).isEnabled());
+    }
+
+    @Test
+    public void testExpiredSchemasAreRemoved() throws Exception {
+        Path dir = Files.createTempDirectory("schemas");
+        OskariSchemaStore store = new OskariSchemaStore(dir, 60_000L);
+        store.get(uri, null, null);
+        assertEquals(1, new OskariSchemaStore(dir, 60_000L, 60_000L).getStoredURIs().size());
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 120_000L));
+            }
+        }
+        assertEquals(0, new OskariSchemaStore(dir, 60_000L, 60_000L).getStoredURIs().size());
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+}
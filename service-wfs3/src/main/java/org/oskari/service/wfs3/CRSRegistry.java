@@ -0,0 +1,122 @@
+package org.oskari.service.wfs3;
+
+import org.geotools.referencing.CRS;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide registry for decoded CoordinateReferenceSystems and MathTransforms.
+ * Decoding a CRS and looking up a MathTransform goes through the EPSG database and
+ * is relatively expensive compared to the actual transformation. Both are immutable
+ * and thread-safe so they can be shared between requests.
+ */
+public class CRSRegistry {
+
+    private static final ConcurrentMap<CRSKey, CoordinateReferenceSystem> CRS_CACHE = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<TransformKey, MathTransform> TRANSFORM_CACHE = new ConcurrentHashMap<>();
+
+    private CRSRegistry() {}
+
+    /**
+     * @see CRS#decode(String, boolean)
+     */
+    public static CoordinateReferenceSystem decode(String code, boolean longitudeFirst) throws FactoryException {
+        CRSKey key = new CRSKey(code, longitudeFirst);
+        CoordinateReferenceSystem crs = CRS_CACHE.get(key);
+        if (crs == null) {
+            crs = CRS.decode(code, longitudeFirst);
+            CoordinateReferenceSystem existing = CRS_CACHE.putIfAbsent(key, crs);
+            if (existing != null) {
+                crs = existing;
+            }
+        }
+        return crs;
+    }
+
+    /**
+     * @see CRS#findMathTransform(CoordinateReferenceSystem, CoordinateReferenceSystem, boolean)
+     */
+    public static MathTransform findMathTransform(CoordinateReferenceSystem from, CoordinateReferenceSystem to,
+            boolean lenient) throws FactoryException {
+        TransformKey key = new TransformKey(from, to, lenient);
+        MathTransform transform = TRANSFORM_CACHE.get(key);
+        if (transform == null) {
+            transform = CRS.findMathTransform(from, to, lenient);
+            MathTransform existing = TRANSFORM_CACHE.putIfAbsent(key, transform);
+            if (existing != null) {
+                transform = existing;
+            }
+        }
+        return transform;
+    }
+
+    /**
+     * Removes all cached values, mostly useful for tests
+     */
+    public static void clear() {
+        CRS_CACHE.clear();
+        TRANSFORM_CACHE.clear();
+    }
+
+    private static final class CRSKey {
+        private final String code;
+        private final boolean longitudeFirst;
+
+        private CRSKey(String code, boolean longitudeFirst) {
+            this.code = Objects.requireNonNull(code).toUpperCase();
+            this.longitudeFirst = longitudeFirst;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CRSKey)) {
+                return false;
+            }
+            CRSKey other = (CRSKey) o;
+            return longitudeFirst == other.longitudeFirst && code.equals(other.code);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * code.hashCode() + (longitudeFirst ? 1 : 0);
+        }
+    }
+
+    private static final class TransformKey {
+        private final CoordinateReferenceSystem from;
+        private final CoordinateReferenceSystem to;
+        private final boolean lenient;
+
+        private TransformKey(CoordinateReferenceSystem from, CoordinateReferenceSystem to, boolean lenient) {
+            this.from = Objects.requireNonNull(from);
+            this.to = Objects.requireNonNull(to);
+            this.lenient = lenient;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof TransformKey)) {
+                return false;
+            }
+            TransformKey other = (TransformKey) o;
+            return lenient == other.lenient && from.equals(other.from) && to.equals(other.to);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(from, to, lenient);
+        }
+    }
+
+}
@@ -2,41 +2,52 @@ package org.oskari.service.wfs3;
 
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
-import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
-import org.geotools.geometry.jts.JTS;
 import org.geotools.referencing.CRS;
+import org.locationtech.jts.geom.CoordinateSequence;
+import org.locationtech.jts.geom.CoordinateSequenceFilter;
 import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
+import org.opengis.feature.FeatureFactory;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
-import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.geometry.MismatchedDimensionException;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.NoSuchAuthorityCodeException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
-import org.oskari.geojson.GeoJSON;
 import org.oskari.geojson.GeoJSONFeatureCollection;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class CoordinateTransformer {
 
+    // Collections larger than this are transformed in parallel chunks
+    private static final int PARALLEL_THRESHOLD = 10_000;
+    private static final int CHUNK_SIZE = 2_048;
+
+    private static final FeatureFactory FEATURE_FACTORY = CommonFactoryFinder.getFeatureFactory(null);
+
     private final CoordinateReferenceSystem from;
     private final CoordinateReferenceSystem to;
     private final MathTransform transform;
 
     public CoordinateTransformer(String from, String to) throws NoSuchAuthorityCodeException, FactoryException {
-        this(CRS.decode(from, true), CRS.decode(to, true));
+        this(CRSRegistry.decode(from, true), CRSRegistry.decode(to, true));
     }
 
     public CoordinateTransformer(CoordinateReferenceSystem from, CoordinateReferenceSystem to) throws FactoryException {
         this.from = from;
         this.to = to;
         boolean needsTransform = !CRS.equalsIgnoreMetadata(from, to);
-        this.transform = needsTransform ? CRS.findMathTransform(from, to) : null;
+        this.transform = needsTransform ? CRSRegistry.findMathTransform(from, to, false) : null;
     }
 
     public CoordinateReferenceSystem getA() {
@@ -58,30 +69,121 @@ public class CoordinateTransformer {
         }
 
         SimpleFeatureType newSchema = SimpleFeatureTypeBuilder.retype(sfc.getSchema(), to);
-        List<SimpleFeature> fc = new ArrayList<>();
+        List<SimpleFeature> features = new ArrayList<>();
         try (SimpleFeatureIterator it = sfc.features()) {
             while (it.hasNext()) {
-                SimpleFeature f = it.next();
-                // need to create a new builder for each feature because of (possibly) varying geometry types.
-                SimpleFeatureBuilder b = new SimpleFeatureBuilder(f.getFeatureType());
-                for (int i = 0; i < newSchema.getAttributeCount(); i++) {
-                    AttributeDescriptor ad = newSchema.getDescriptor(i);
-                    if (ad.getLocalName().equals(GeoJSON.GEOMETRY)) {
-                        b.set(i, f.getFeatureType().getDescriptor(GeoJSON.GEOMETRY));
-                    } else {
-                        b.set(i, f.getAttribute(ad.getLocalName()));
-                    }
-                }
-                SimpleFeature copy = b.buildFeature(f.getID());
-                Object g = f.getDefaultGeometry();
-                if (g != null) {
-                    Geometry transformed = JTS.transform((Geometry) g, transform);
-                    copy.setDefaultGeometry(transformed);
-                }
-                fc.add(copy);
+                features.add(it.next());
+            }
+        }
+
+        List<SimpleFeature> fc;
+        if (features.size() < PARALLEL_THRESHOLD) {
+            fc = transformChunk(features);
+        } else {
+            int chunks = (features.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            try {
+                fc = IntStream.range(0, chunks)
+                        .parallel()
+                        .mapToObj(i -> features.subList(i * CHUNK_SIZE, Math.min(features.size(), (i + 1) * CHUNK_SIZE)))
+                        .map(this::transformChunkUnchecked)
+                        .flatMap(List::stream)
+                        .collect(Collectors.toList());
+            } catch (TransformRuntimeException e) {
+                throw e.getCause();
             }
         }
         return new GeoJSONFeatureCollection(fc, newSchema);
     }
 
+    private List<SimpleFeature> transformChunkUnchecked(List<SimpleFeature> features) {
+        try {
+            return transformChunk(features);
+        } catch (TransformException e) {
+            throw new TransformRuntimeException(e);
+        }
+    }
+
+    private List<SimpleFeature> transformChunk(List<SimpleFeature> features) throws TransformException {
+        // Packed sequences keep the coordinates in a single double[] per sequence
+        // instead of a Coordinate object per vertex
+        GeometryFactory gf = new GeometryFactory(PackedCoordinateSequenceFactory.DOUBLE_FACTORY);
+        List<SimpleFeature> transformed = new ArrayList<>(features.size());
+        for (SimpleFeature f : features) {
+            transformed.add(transform(f, gf));
+        }
+        return transformed;
+    }
+
+    private SimpleFeature transform(SimpleFeature f, GeometryFactory gf) throws TransformException {
+        // Features might have (possibly) varying geometry types so keep the type of the feature
+        SimpleFeatureType type = f.getFeatureType();
+        Object[] values = f.getAttributes().toArray();
+        GeometryDescriptor gd = type.getGeometryDescriptor();
+        if (gd != null) {
+            int i = type.indexOf(gd.getLocalName());
+            Object g = values[i];
+            if (g != null) {
+                // The source geometry might be shared (cached) so transform a copy of it
+                Geometry copy = gf.createGeometry((Geometry) g);
+                TransformFilter filter = new TransformFilter(transform);
+                copy.apply(filter);
+                if (filter.error != null) {
+                    throw filter.error;
+                }
+                copy.geometryChanged();
+                values[i] = copy;
+            }
+        }
+        return FEATURE_FACTORY.createSimpleFeature(values, type, f.getID());
+    }
+
+    /**
+     * Transforms the coordinates in place
+     */
+    private static class TransformFilter implements CoordinateSequenceFilter {
+
+        private final MathTransform transform;
+        private final double[] buf = new double[2];
+        private TransformException error;
+
+        private TransformFilter(MathTransform transform) {
+            this.transform = transform;
+        }
+
+        @Override
+        public void filter(CoordinateSequence seq, int i) {
+            buf[0] = seq.getX(i);
+            buf[1] = seq.getY(i);
+            try {
+                transform.transform(buf, 0, buf, 0, 1);
+            } catch (TransformException e) {
+                error = e;
+                return;
+            }
+            seq.setOrdinate(i, CoordinateSequence.X, buf[0]);
+            seq.setOrdinate(i, CoordinateSequence.Y, buf[1]);
+        }
+
+        @Override
+        public boolean isDone() {
+            return error != null;
+        }
+
+        @Override
+        public boolean isGeometryChanged() {
+            return true;
+        }
+    }
+
+    private static class TransformRuntimeException extends RuntimeException {
+        private TransformRuntimeException(TransformException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized TransformException getCause() {
+            return (TransformException) super.getCause();
+        }
+    }
+
 }
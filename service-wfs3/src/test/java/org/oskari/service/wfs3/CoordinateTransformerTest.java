@@ -0,0 +1,110 @@
+package org.oskari.service.wfs3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.geometry.jts.JTS;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.Polygon;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.oskari.geojson.GeoJSONFeatureCollection;
+
+public class CoordinateTransformerTest {
+
+    private static final GeometryFactory GF = new GeometryFactory();
+
+    @Test
+    public void testRegistryReturnsSameInstances() throws Exception {
+        CoordinateReferenceSystem a = CRSRegistry.decode("EPSG:4326", true);
+        CoordinateReferenceSystem b = CRSRegistry.decode("epsg:4326", true);
+        assertSame(a, b);
+        CoordinateReferenceSystem to = CRSRegistry.decode("EPSG:3067", true);
+        assertSame(CRSRegistry.findMathTransform(a, to, false), CRSRegistry.findMathTransform(b, to, false));
+    }
+
+    @Test
+    public void testTransformSmallCollection() throws Exception {
+        assertTransform(10);
+    }
+
+    @Test
+    public void testTransformLargeCollectionInParallel() throws Exception {
+        assertTransform(25_000);
+    }
+
+    private void assertTransform(int n) throws Exception {
+        CoordinateReferenceSystem from = CRSRegistry.decode("EPSG:4326", true);
+        CoordinateReferenceSystem to = CRSRegistry.decode("EPSG:3067", true);
+        SimpleFeatureCollection sfc = createPolygons(from, n);
+
+        CoordinateTransformer transformer = new CoordinateTransformer(from, to);
+        SimpleFeatureCollection transformed = transformer.transform(sfc);
+        assertEquals(n, transformed.size());
+
+        MathTransform mt = CRSRegistry.findMathTransform(from, to, false);
+        List<SimpleFeature> originals = toList(sfc);
+        List<SimpleFeature> results = toList(transformed);
+        for (int i = 0; i < n; i++) {
+            SimpleFeature original = originals.get(i);
+            SimpleFeature result = results.get(i);
+            assertEquals(original.getID(), result.getID());
+            assertEquals(original.getAttribute("name"), result.getAttribute("name"));
+            Geometry expected = JTS.transform((Geometry) original.getDefaultGeometry(), mt);
+            Geometry actual = (Geometry) result.getDefaultGeometry();
+            assertTrue(expected.equalsExact(actual, 1e-6));
+        }
+        // Source geometries must not be modified
+        Polygon first = (Polygon) originals.get(0).getDefaultGeometry();
+        assertEquals(20.0, first.getCoordinates()[0].x, 0.0);
+    }
+
+    private SimpleFeatureCollection createPolygons(CoordinateReferenceSystem crs, int n) {
+        SimpleFeatureTypeBuilder tb = new SimpleFeatureTypeBuilder();
+        tb.setName("test");
+        tb.setCRS(crs);
+        tb.add("geometry", Polygon.class);
+        tb.add("name", String.class);
+        SimpleFeatureType type = tb.buildFeatureType();
+        SimpleFeatureBuilder b = new SimpleFeatureBuilder(type);
+        List<SimpleFeature> features = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            double x = 20.0 + (i % 100) * 0.01;
+            double y = 60.0 + (i / 100) * 0.01;
+            Polygon p = GF.createPolygon(new Coordinate[] {
+                    new Coordinate(x, y),
+                    new Coordinate(x + 0.005, y),
+                    new Coordinate(x + 0.005, y + 0.005),
+                    new Coordinate(x, y)
+            });
+            b.set("geometry", p);
+            b.set("name", "feature" + i);
+            features.add(b.buildFeature("f." + i));
+        }
+        return new GeoJSONFeatureCollection(features, type);
+    }
+
+    private List<SimpleFeature> toList(SimpleFeatureCollection sfc) {
+        List<SimpleFeature> list = new ArrayList<>();
+        try (SimpleFeatureIterator it = sfc.features()) {
+            while (it.hasNext()) {
+                list.add(it.next());
+            }
+        }
+        return list;
+    }
+
+}